@@ -0,0 +1,56 @@
+package org.jgroups.benchmarks;
+
+import org.jgroups.JChannel;
+import org.jgroups.Message;
+import org.jgroups.protocols.Bundler;
+import org.jgroups.protocols.TP;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link Bundler#send(Message)} for all bundler types known to {@link TP}. The channel is the only member
+ * of its cluster and messages are multicasts, so {@link org.jgroups.protocols.SHARED_LOOPBACK} discards them after
+ * the bundler has serialized them: the numbers reflect the cost of queuing, bundling and marshalling only.<p/>
+ * Queue-based bundlers are bounded (bundler_capacity), so senders are throttled to the rate at which the bundler
+ * thread drains the queue. Run with -t to add sender threads.
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=10, time=1)
+@Fork(2)
+public class BundlerBenchmark {
+    @Param({"transfer-queue", "simplified-transfer-queue", "sender-sends", "ring-buffer", "ring-buffer-lockless",
+      "ring-buffer-lockless2", "no-bundler", "async-no-bundler", "alternating-bundler", "remove-queue-bundler", "adaptive",
+      "per-destination"})
+    protected String   type;
+
+    @Param({"100", "1000"})
+    protected int      msg_size;
+
+    protected JChannel ch;
+    protected Bundler  bundler;
+    protected Message  msg;
+
+    @Setup
+    public void setup() throws Exception {
+        ch=Stacks.create("A", type).connect("bundler-bench");
+        TP transport=ch.getProtocolStack().getTransport();
+        bundler=transport.getBundler();
+        msg=Messages.multicast(ch.getAddress(), msg_size, 1);
+    }
+
+    @TearDown
+    public void destroy() {
+        ch.close();
+    }
+
+    @Benchmark
+    public void send() throws Exception {
+        bundler.send(msg);
+    }
+}
@@ -0,0 +1,86 @@
+package org.jgroups.benchmarks;
+
+import org.jgroups.Header;
+import org.jgroups.protocols.TpHeader;
+import org.jgroups.protocols.UnicastHeader3;
+import org.jgroups.protocols.pbcast.NakAckHeader2;
+import org.jgroups.util.Headers;
+import org.jgroups.util.Util;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link Headers#putHeader(Header[], short, Header, boolean)} and {@link Headers#getHeader(Header[], short)}.
+ * The put benchmarks start with the default header array size of a message, so they include resizing when
+ * more headers are added than fit
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=10, time=1)
+@Fork(2)
+public class HeadersBenchmark {
+    protected static final short  ID_BASE=1000;
+
+    @Param({"2", "4", "6"})
+    protected int                 num_headers;
+
+    protected Header[]            hdrs;
+    protected Header[]            full;
+    protected short               last_id;
+
+    @Setup
+    public void setup() {
+        hdrs=new Header[num_headers];
+        for(int i=0; i < num_headers; i++) {
+            Header h=createHeader(i).setProtId((short)(ID_BASE + i));
+            hdrs[i]=h;
+        }
+        full=Headers.copy(hdrs);
+        last_id=(short)(ID_BASE + num_headers - 1);
+    }
+
+    @Benchmark
+    public Header[] putHeaders() {
+        Header[] tmp=new Header[Util.DEFAULT_HEADERS];
+        for(int i=0; i < hdrs.length; i++) {
+            Header[] resized=Headers.putHeader(tmp, (short)(ID_BASE + i), hdrs[i], true);
+            if(resized != null)
+                tmp=resized;
+        }
+        return tmp;
+    }
+
+    @Benchmark
+    public Header[] replaceHeader() {
+        Headers.putHeader(full, last_id, hdrs[hdrs.length-1], true);
+        return full;
+    }
+
+    @Benchmark
+    public Header getFirstHeader() {
+        return Headers.getHeader(full, ID_BASE);
+    }
+
+    @Benchmark
+    public Header getLastHeader() {
+        return Headers.getHeader(full, last_id);
+    }
+
+    @Benchmark
+    public Header getMissingHeader() {
+        return Headers.getHeader(full, (short)(ID_BASE-1));
+    }
+
+    protected static Header createHeader(int index) {
+        switch(index % 3) {
+            case 0:  return new TpHeader(Messages.CLUSTER);
+            case 1:  return NakAckHeader2.createMessageHeader(index);
+            default: return UnicastHeader3.createDataHeader(index, (short)1, false);
+        }
+    }
+}
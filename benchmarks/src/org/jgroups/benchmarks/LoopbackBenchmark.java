@@ -0,0 +1,78 @@
+package org.jgroups.benchmarks;
+
+import org.jgroups.*;
+import org.jgroups.util.Util;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * End-to-end benchmark: {@link JChannel#send(Message)} on A to {@link Receiver#receive(Message)} on B, over a full
+ * stack on top of {@link org.jgroups.protocols.SHARED_LOOPBACK}. Every invocation sends batch_size messages and waits
+ * until all of them have been received, so that the score reflects delivery and not just the time to enqueue.
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=5, time=2)
+@Measurement(iterations=10, time=2)
+@Fork(2)
+public class LoopbackBenchmark {
+    @Param({"transfer-queue", "no-bundler"})
+    protected String          bundler_type;
+
+    @Param({"1", "100"})
+    protected int             batch_size;
+
+    @Param({"1000"})
+    protected int             msg_size;
+
+    @Param({"false", "true"})
+    protected boolean         oob;
+
+    @Param({"false", "true"})
+    protected boolean         multicast;
+
+    protected JChannel        a, b;
+    protected Address         dest;
+    protected byte[]          payload;
+    protected final LongAdder received=new LongAdder();
+    protected long            sent;
+
+    @Setup
+    public void setup() throws Exception {
+        a=Stacks.create("A", bundler_type);
+        b=Stacks.create("B", bundler_type);
+        b.setReceiver(new ReceiverAdapter() {
+            public void receive(Message msg) {received.increment();}
+        });
+        a.connect("loopback-bench");
+        b.connect("loopback-bench");
+        Util.waitUntilAllChannelsHaveSameView(10000, 100, a, b);
+        dest=multicast? null : b.getAddress();
+        payload=new byte[msg_size];
+    }
+
+    @TearDown
+    public void destroy() {
+        Util.close(b, a);
+    }
+
+    @Benchmark
+    public long sendAndReceive() throws Exception {
+        for(int i=0; i < batch_size; i++) {
+            Message msg=new Message(dest, payload);
+            if(oob)
+                msg.setFlag(Message.Flag.OOB);
+            a.send(msg);
+        }
+        sent+=batch_size;
+        while(received.sum() < sent)
+            LockSupport.parkNanos(1000);
+        return sent;
+    }
+}
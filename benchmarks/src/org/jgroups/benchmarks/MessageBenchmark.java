@@ -0,0 +1,70 @@
+package org.jgroups.benchmarks;
+
+import org.jgroups.Address;
+import org.jgroups.Message;
+import org.jgroups.util.ByteArrayDataInputStream;
+import org.jgroups.util.ByteArrayDataOutputStream;
+import org.jgroups.util.Util;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link Message#writeTo(java.io.DataOutput)} and {@link Message#readFrom(java.io.DataInput)}, plus
+ * {@link Util#writeMessage(Message, java.io.DataOutput, boolean)} which is what a bundler calls for single messages
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=10, time=1)
+@Fork(2)
+public class MessageBenchmark {
+    @Param({"0", "100", "1000", "10000"})
+    protected int                       msg_size;
+
+    protected Message                   msg;
+    protected ByteArrayDataOutputStream out;
+    protected byte[]                    serialized;
+
+    @Setup
+    public void setup() throws Exception {
+        Address src=Messages.address("A"), dest=Messages.address("B");
+        msg=Messages.unicast(dest, src, msg_size, 322649);
+        out=new ByteArrayDataOutputStream(msg_size + 200);
+        msg.writeTo(out);
+        serialized=out.buffer().clone();
+    }
+
+    @Benchmark
+    public int writeTo() throws Exception {
+        out.position(0);
+        msg.writeTo(out);
+        return out.position();
+    }
+
+    @Benchmark
+    public int writeMessage() throws Exception {
+        out.position(0);
+        Util.writeMessage(msg, out, false);
+        return out.position();
+    }
+
+    @Benchmark
+    public Message readFrom() throws Exception {
+        Message m=new Message(false);
+        m.readFrom(new ByteArrayDataInputStream(serialized));
+        return m;
+    }
+
+    @Benchmark
+    public Message roundTrip() throws Exception {
+        out.position(0);
+        msg.writeTo(out);
+        Message m=new Message(false);
+        m.readFrom(new ByteArrayDataInputStream(out.buffer(), 0, out.position()));
+        return m;
+    }
+}
@@ -0,0 +1,71 @@
+package org.jgroups.benchmarks;
+
+import org.jgroups.Address;
+import org.jgroups.Message;
+import org.jgroups.util.ByteArrayDataInputStream;
+import org.jgroups.util.ByteArrayDataOutputStream;
+import org.jgroups.util.MessageBatch;
+import org.jgroups.util.Util;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures marshalling of message lists ({@link Util#writeMessageList(Address, Address, byte[], List, java.io.DataOutput, boolean, short)})
+ * as done by the bundlers, and unmarshalling into batches ({@link Util#readMessageBatch(java.io.DataInput, boolean)})
+ * as done by the transport on reception
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=10, time=1)
+@Fork(2)
+public class MessageListBenchmark {
+    @Param({"10", "100"})
+    protected int                       num_msgs;
+
+    @Param({"100", "1000"})
+    protected int                       msg_size;
+
+    protected static final byte[]       CLUSTER=Messages.CLUSTER.getBytes();
+    protected Address                   src;
+    protected final List<Message>       list=new ArrayList<>();
+    protected ByteArrayDataOutputStream out;
+    protected byte[]                    serialized;
+    protected int                       serialized_length;
+
+    @Setup
+    public void setup() throws Exception {
+        src=Messages.address("A");
+        for(int i=1; i <= num_msgs; i++)
+            list.add(Messages.multicast(src, msg_size, i));
+        out=new ByteArrayDataOutputStream(num_msgs * (msg_size + 100));
+        writeList();
+        serialized=out.buffer().clone();
+        serialized_length=out.position();
+    }
+
+    @Benchmark
+    public int writeMessageList() throws Exception {
+        return writeList();
+    }
+
+    @Benchmark
+    public MessageBatch[] readMessageBatch() throws Exception {
+        ByteArrayDataInputStream in=new ByteArrayDataInputStream(serialized, 0, serialized_length);
+        in.readShort(); // version
+        in.readByte();  // flags
+        return Util.readMessageBatch(in, true);
+    }
+
+    protected int writeList() throws Exception {
+        out.position(0);
+        Util.writeMessageList(null, src, CLUSTER, list, out, true, Messages.TP_ID);
+        return out.position();
+    }
+}
@@ -0,0 +1,45 @@
+package org.jgroups.benchmarks;
+
+import org.jgroups.Address;
+import org.jgroups.Message;
+import org.jgroups.conf.ClassConfigurator;
+import org.jgroups.protocols.TP;
+import org.jgroups.protocols.TpHeader;
+import org.jgroups.protocols.UNICAST3;
+import org.jgroups.protocols.UnicastHeader3;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.NakAckHeader2;
+import org.jgroups.util.Util;
+
+/**
+ * Creates messages resembling the ones seen on the wire in a default stack, so that benchmarks marshal realistic
+ * headers (TP, NAKACK2 or UNICAST3) rather than empty messages
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+final class Messages {
+    static final String CLUSTER="bench";
+    static final short  TP_ID=ClassConfigurator.getProtocolId(TP.class);
+    static final short  NAKACK2_ID=ClassConfigurator.getProtocolId(NAKACK2.class);
+    static final short  UNICAST3_ID=ClassConfigurator.getProtocolId(UNICAST3.class);
+
+    private Messages() {}
+
+    /** Creates a multicast message with a TP and NAKACK2 header */
+    static Message multicast(Address src, int size, long seqno) {
+        return new Message(null, new byte[size]).src(src)
+          .putHeader(TP_ID, new TpHeader(CLUSTER))
+          .putHeader(NAKACK2_ID, NakAckHeader2.createMessageHeader(seqno));
+    }
+
+    /** Creates a unicast message with a TP and UNICAST3 header */
+    static Message unicast(Address dest, Address src, int size, long seqno) {
+        return new Message(dest, new byte[size]).src(src)
+          .putHeader(TP_ID, new TpHeader(CLUSTER))
+          .putHeader(UNICAST3_ID, UnicastHeader3.createDataHeader(seqno, (short)1, seqno == 1));
+    }
+
+    static Address address(String name) {
+        return Util.createRandomAddress(name);
+    }
+}
@@ -0,0 +1,61 @@
+package org.jgroups.benchmarks;
+
+import org.jgroups.util.RequestTable;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link RequestTable#add(Object)}, {@link RequestTable#get(long)} and {@link RequestTable#remove(long)},
+ * the operations performed for every synchronous RPC. {@link #addRemoveConcurrent(Shared)} has all benchmark threads
+ * share the same table (run with -t to vary the number of threads)
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=10, time=1)
+@Fork(2)
+public class RequestTableBenchmark {
+    protected static final Object REQ=new Object();
+
+    @State(Scope.Thread)
+    public static class Single {
+        @Param({"1", "100", "1000"})
+        protected int                  outstanding; // number of requests in flight
+        protected RequestTable<Object> table;
+        protected long[]               seqnos;
+        protected int                  index;
+
+        @Setup
+        public void setup() {
+            table=new RequestTable<>(128);
+            seqnos=new long[outstanding];
+            for(int i=0; i < outstanding; i++)
+                seqnos[i]=table.add(REQ);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Shared {
+        protected final RequestTable<Object> table=new RequestTable<>(128);
+    }
+
+    /** Removes the oldest outstanding request and adds a new one, keeping the number of requests in flight constant */
+    @Benchmark
+    public Object addGetRemove(Single s) {
+        int idx=s.index;
+        Object req=s.table.get(s.seqnos[idx]);
+        s.table.remove(s.seqnos[idx]);
+        s.seqnos[idx]=s.table.add(REQ);
+        s.index=(idx+1) % s.outstanding;
+        return req;
+    }
+
+    @Benchmark
+    public Object addRemoveConcurrent(Shared s) {
+        long seqno=s.table.add(REQ);
+        return s.table.remove(seqno);
+    }
+}
@@ -0,0 +1,30 @@
+package org.jgroups.benchmarks;
+
+import org.jgroups.JChannel;
+import org.jgroups.protocols.*;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
+
+/**
+ * Creates channels over {@link SHARED_LOOPBACK}, so that benchmarks exercise the full stack without the noise
+ * introduced by real sockets
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+final class Stacks {
+    private Stacks() {}
+
+    static JChannel create(String name, String bundler_type) throws Exception {
+        return new JChannel(new SHARED_LOOPBACK().setValue("bundler_type", bundler_type),
+                            new SHARED_LOOPBACK_PING(),
+                            new NAKACK2().setValue("use_mcast_xmit", false),
+                            new UNICAST3(),
+                            new STABLE().setValue("max_bytes", 2_000_000),
+                            new GMS().setValue("print_local_addr", false).setValue("join_timeout", 1000),
+                            new UFC(),
+                            new MFC(),
+                            new FRAG2())
+          .name(name);
+    }
+}
@@ -0,0 +1,92 @@
+package org.jgroups.benchmarks;
+
+import org.jgroups.Message;
+import org.jgroups.util.MessageBatch;
+import org.jgroups.util.Table;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Measures {@link Table#add(long, Object)} and {@link Table#removeMany(boolean, int)}, the two operations performed
+ * by NAKACK2 and UNICAST3 on every received message.<p/>
+ * {@link #addAndRemoveMany(Single)} is the uncontended case; {@link #addAndDeliver(Shared)} mimics
+ * NAKACK2.removeAndDeliver(): multiple threads add to the same table and (at most) one of them drains it. Run the
+ * latter with -t to vary the number of threads. Both purge delivered elements, which STABLE would do in a real stack.
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=10, time=1)
+@Fork(2)
+public class TableBenchmark {
+    protected static final BiConsumer<MessageBatch,Message> BATCH_ACCUMULATOR=MessageBatch::add;
+
+    @State(Scope.Thread)
+    public static class Single {
+        @Param({"1", "10", "100"})
+        protected int            batch_size;
+        protected Table<Message> table;
+        protected Message        msg;
+        protected long           seqno;
+
+        @Setup
+        public void setup() {
+            table=new Table<>(100, 1000, 0);
+            msg=Messages.multicast(Messages.address("A"), 100, 1);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Shared {
+        protected Table<Message>   table;
+        protected Message          msg;
+        protected final AtomicLong seqno=new AtomicLong();
+
+        @Setup
+        public void setup() {
+            table=new Table<>(100, 1000, 0);
+            msg=Messages.multicast(Messages.address("A"), 100, 1);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Batch {
+        protected final MessageBatch           batch=new MessageBatch(128);
+        protected final Supplier<MessageBatch> creator=() -> batch;
+    }
+
+    @Benchmark
+    public int addAndRemoveMany(Single s) {
+        for(int i=0; i < s.batch_size; i++)
+            s.table.add(++s.seqno, s.msg);
+        List<Message> list=s.table.removeMany(true, 0);
+        s.table.purge(s.table.getHighestDelivered()); // done by STABLE in a real stack, keeps the matrix from growing
+        return list != null? list.size() : 0;
+    }
+
+    @Benchmark
+    public int addAndDeliver(Shared s, Batch b) {
+        Table<Message> table=s.table;
+        table.add(s.seqno.incrementAndGet(), s.msg);
+        AtomicInteger adders=table.getAdders();
+        if(adders.getAndIncrement() != 0)
+            return 0;
+        int removed=0;
+        do {
+            b.batch.reset();
+            table.removeMany(true, 0, null, b.creator, BATCH_ACCUMULATOR);
+            removed+=b.batch.size();
+            table.purge(table.getHighestDelivered());
+        }
+        while(adders.decrementAndGet() != 0);
+        return removed;
+    }
+}
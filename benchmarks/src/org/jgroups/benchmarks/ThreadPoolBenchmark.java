@@ -0,0 +1,86 @@
+package org.jgroups.benchmarks;
+
+import org.jgroups.util.Util;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Compares the thread pools which can be used by TP to process incoming messages: a ThreadPoolExecutor configured like
+ * TP's default pool (max 100 threads, no queue, a new thread is spawned on rejection), a ForkJoinPool and a
+ * virtual-thread-per-task executor (thread_pool.use_virtual_threads, requires JDK 21). Every invocation submits
+ * batch_size tasks, each blocking for block_time us (e.g. an RPC handler waiting for a lock or I/O), and waits until
+ * all of them have completed. End-to-end numbers should be taken with UPerf, e.g. by running it with
+ * -Djgroups.thread_pool.use_virtual_threads=true.
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=5, time=2)
+@Measurement(iterations=10, time=2)
+@Fork(2)
+public class ThreadPoolBenchmark {
+    @Param({"thread-pool", "fork-join", "virtual"})
+    protected String          pool_type;
+
+    @Param({"10", "500"})
+    protected int             batch_size;
+
+    @Param({"0", "100"})
+    protected int             block_time; // us
+
+    protected ExecutorService pool;
+    protected final LongAdder threads_spawned=new LongAdder();
+
+    @Setup
+    public void setup() {
+        switch(pool_type) {
+            case "thread-pool":
+                pool=new ThreadPoolExecutor(0, 100, 30000, TimeUnit.MILLISECONDS, new SynchronousQueue<>(),
+                                            new ThreadPoolExecutor.AbortPolicy());
+                break;
+            case "fork-join":
+                pool=new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+                                      ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+                break;
+            case "virtual":
+                if((pool=Util.createVirtualThreadExecutor("bench")) == null)
+                    throw new IllegalStateException("virtual threads are not supported by JDK " + System.getProperty("java.version"));
+                break;
+            default:
+                throw new IllegalArgumentException("pool type " + pool_type + " not known");
+        }
+    }
+
+    @TearDown
+    public void destroy() throws InterruptedException {
+        pool.shutdownNow();
+        pool.awaitTermination(5, TimeUnit.SECONDS);
+        if(threads_spawned.sum() > 0)
+            System.out.printf("\n-- %d threads spawned because of rejections\n", threads_spawned.sum());
+    }
+
+    @Benchmark
+    public void submit() throws InterruptedException {
+        CountDownLatch latch=new CountDownLatch(batch_size);
+        Runnable task=() -> {
+            if(block_time > 0)
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(block_time));
+            latch.countDown();
+        };
+        for(int i=0; i < batch_size; i++) {
+            try {
+                pool.execute(task);
+            }
+            catch(RejectedExecutionException rejected) { // same as TP.submitToThreadPool()
+                threads_spawned.increment();
+                new Thread(task).start();
+            }
+        }
+        latch.await();
+    }
+}
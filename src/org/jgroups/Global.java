@@ -30,6 +30,7 @@ public final class Global {
     public static final String EXTERNAL_ADDR="jgroups.external_addr";
     public static final String EXTERNAL_PORT="jgroups.external_port";
     public static final String TCP_CLIENT_BIND_ADDR="jgroups.tcp.client_bind_addr";
+    public static final String USE_VIRTUAL_THREADS="jgroups.thread_pool.use_virtual_threads";
 
     public static final String TCPPING_INITIAL_HOSTS="jgroups.tcpping.initial_hosts";
 
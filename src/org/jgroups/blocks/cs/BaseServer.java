@@ -33,6 +33,10 @@ public abstract class BaseServer implements Closeable, ConnectionListener {
     protected Address                         local_addr; // typically the address of the server socket or channel
     protected final List<ConnectionListener>  conn_listeners=new CopyOnWriteArrayList<>();
     protected final Map<Address,Connection>   conns=new HashMap<>();
+    // additional connections to peers (conns_per_peer > 1): index 0 is unused, as lane 0 is the connection in conns
+    protected final Map<Address,Connection[]> lanes=new HashMap<>();
+    // additional connections accepted from peers; only used to receive data
+    protected final Set<Connection>           accepted_lanes=new HashSet<>();
     protected final Lock                      sock_creation_lock=new ReentrantLock(true); // syncs socket establishment
     protected final ThreadFactory             factory;
     protected SocketFactory                   socket_factory=new DefaultSocketFactory();
@@ -57,6 +61,9 @@ public abstract class BaseServer implements Closeable, ConnectionListener {
     protected boolean                         tcp_nodelay=false;
     protected int                             linger=-1;
     protected TimeService                     time_service;
+    @ManagedAttribute(description="Number of connections to each peer. Data is spread over them by the caller of " +
+      "send(Address,int,byte[],int,int). 1 uses a single connection")
+    protected int                             conns_per_peer=1;
 
 
     protected BaseServer(ThreadFactory f, SocketFactory sf) {
@@ -98,6 +105,8 @@ public abstract class BaseServer implements Closeable, ConnectionListener {
     public BaseServer       linger(int linger)                      {this.linger=linger; return this;}
     public boolean          tcpNodelay()                            {return tcp_nodelay;}
     public BaseServer       tcpNodelay(boolean tcp_nodelay)         {this.tcp_nodelay = tcp_nodelay; return this;}
+    public int              connsPerPeer()                          {return conns_per_peer;}
+    public BaseServer       connsPerPeer(int num)                   {this.conns_per_peer=Math.max(1, num); return this;}
     @ManagedAttribute(description="True if the server is running, else false")
     public boolean          running()                               {return running.get();}
 
@@ -107,6 +116,16 @@ public abstract class BaseServer implements Closeable, ConnectionListener {
         return conns.size();
     }
 
+    @ManagedAttribute(description="Number of additional connections to peers (conns_per_peer > 1), created or accepted")
+    public synchronized int getNumLanes() {
+        int retval=accepted_lanes.size();
+        for(Connection[] arr: lanes.values())
+            for(Connection conn: arr)
+                if(conn != null)
+                    retval++;
+        return retval;
+    }
+
     @ManagedAttribute(description="Number of currently open connections")
     public synchronized int getNumOpenConnections() {
         int retval=0;
@@ -139,6 +158,7 @@ public abstract class BaseServer implements Closeable, ConnectionListener {
             for(Map.Entry<Address,Connection> entry: conns.entrySet())
                 Util.close(entry.getValue());
             conns.clear();
+            closeLanes(null);
         }
         conn_listeners.clear();
     }
@@ -168,7 +188,7 @@ public abstract class BaseServer implements Closeable, ConnectionListener {
 
     public void receive(Address sender, DataInput in, int len) throws Exception {
         if(this.receiver != null)
-            this.receiver.receive(sender, in);
+            this.receiver.receive(sender, in, len);
         else {
             // discard len bytes (in.skip() is not guaranteed to discard *all* len bytes)
             byte[] buf=new byte[len];
@@ -204,6 +224,52 @@ public abstract class BaseServer implements Closeable, ConnectionListener {
     }
 
 
+    /**
+     * Sends data to dest over one of the conns_per_peer connections to dest. Callers pick the lane, e.g. by sending
+     * thread, so that data sent by the same thread is received in order. Lane 0 (or conns_per_peer == 1) uses the
+     * same connection as {@link #send(Address,byte[],int,int)}
+     */
+    public void send(Address dest, int lane, byte[] data, int offset, int length) throws Exception {
+        if((lane=lane % conns_per_peer) == 0 || dest == null || dest.equals(local_addr)) {
+            send(dest, data, offset, length);
+            return;
+        }
+        if(!validateArgs(dest, data))
+            return;
+        Connection conn=null;
+        try {
+            conn=getConnection(dest, lane);
+            conn.send(data, offset, length);
+        }
+        catch(Exception ex) {
+            removeLaneIfPresent(dest, conn);
+            throw ex;
+        }
+    }
+
+    /**
+     * Sends the first num buffers to dest over a single connection, which may write them in one go (e.g. with a single
+     * flush or gathering write). The buffers must not be modified after this call
+     */
+    public void send(Address dest, byte[][] bufs, int num) throws Exception {
+        if(dest == null || bufs == null || num <= 0)
+            return;
+        if(dest.equals(local_addr)) {
+            for(int i=0; i < num; i++)
+                receive(dest, bufs[i], 0, bufs[i].length);
+            return;
+        }
+        Connection conn=null;
+        try {
+            conn=getConnection(dest);
+            conn.send(bufs, num);
+        }
+        catch(Exception ex) {
+            removeConnectionIfPresent(dest, conn);
+            throw ex;
+        }
+    }
+
     public void send(Address dest, ByteBuffer data) throws Exception {
         if(!validateArgs(dest, data))
             return;
@@ -231,9 +297,31 @@ public abstract class BaseServer implements Closeable, ConnectionListener {
     }
 
 
+    public void send(Address dest, int lane, ByteBuffer data) throws Exception {
+        if((lane=lane % conns_per_peer) == 0 || dest == null || dest.equals(local_addr)) {
+            send(dest, data);
+            return;
+        }
+        if(!validateArgs(dest, data))
+            return;
+        Connection conn=null;
+        try {
+            conn=getConnection(dest, lane);
+            conn.send(data);
+        }
+        catch(Exception ex) {
+            removeLaneIfPresent(dest, conn);
+            throw ex;
+        }
+    }
+
+
     @Override
     public void connectionClosed(Connection conn, String reason) {
-        removeConnectionIfPresent(conn.peerAddress(), conn);
+        if(conn.isLane())
+            removeLaneIfPresent(conn.peerAddress(), conn);
+        else
+            removeConnectionIfPresent(conn.peerAddress(), conn);
     }
 
     @Override
@@ -312,6 +400,100 @@ public abstract class BaseServer implements Closeable, ConnectionListener {
         }
     }
 
+    /**
+     * Returns the connection to dest for the given lane (creating it if needed). Lane 0 is the connection returned by
+     * {@link #getConnection(Address)}; the others are only used to send data and are never shared with the peer
+     */
+    public Connection getConnection(Address dest, int lane) throws Exception {
+        if(lane <= 0 || lane >= conns_per_peer)
+            return getConnection(dest);
+        Connection conn;
+        synchronized(this) {
+            Connection[] arr=lanes.get(dest);
+            if(arr != null && (conn=arr[lane]) != null && (conn.isConnected() || conn.isConnectionPending()))
+                return conn;
+        }
+
+        sock_creation_lock.lockInterruptibly();
+        try {
+            synchronized(this) {
+                Connection[] arr=lanes.get(dest);
+                if(arr == null || arr.length != conns_per_peer)
+                    lanes.put(dest, arr=arr == null? new Connection[conns_per_peer] : Arrays.copyOf(arr, conns_per_peer));
+                if((conn=arr[lane]) != null && (conn.isConnected() || conn.isConnectionPending()))
+                    return conn;
+                Util.close(conn);
+                arr[lane]=conn=createConnection(dest).lane(true);
+            }
+            try {
+                log.trace("%s: connecting to %s (lane %d)", local_addr, dest, lane);
+                conn.connect(dest);
+                conn.start();
+                return conn;
+            }
+            catch(Exception connect_ex) {
+                log.trace("%s: failed connecting to %s (lane %d): %s", local_addr, dest, lane, connect_ex);
+                removeLaneIfPresent(dest, conn);
+                throw connect_ex;
+            }
+        }
+        finally {
+            sock_creation_lock.unlock();
+        }
+    }
+
+    /** Adds a connection accepted from a peer which uses it to send data on an additional lane */
+    public void addLane(Connection conn) throws Exception {
+        synchronized(this) {
+            accepted_lanes.add(conn);
+        }
+        conn.start();
+        log.trace("%s: accepted additional connection from %s", local_addr, conn.peerAddress());
+    }
+
+    /** Removes and closes an additional connection (created or accepted) */
+    public void removeLaneIfPresent(Address address, Connection conn) {
+        if(conn == null)
+            return;
+        boolean removed;
+        synchronized(this) {
+            removed=accepted_lanes.remove(conn);
+            Connection[] arr=address != null? lanes.get(address) : null;
+            if(arr != null) {
+                for(int i=0; i < arr.length; i++) {
+                    if(arr[i] == conn) {
+                        arr[i]=null;
+                        removed=true;
+                    }
+                }
+            }
+        }
+        if(removed) {
+            log.trace("%s: removed additional connection to %s", local_addr, address);
+            Util.close(conn);
+        }
+    }
+
+    /** Closes and removes the additional connections to/from all peers which are not in mbrs (all if mbrs is null) */
+    @GuardedBy("this")
+    protected void closeLanes(Collection<Address> mbrs) {
+        for(Iterator<Entry<Address,Connection[]>> it=lanes.entrySet().iterator(); it.hasNext();) {
+            Entry<Address,Connection[]> entry=it.next();
+            if(mbrs == null || !mbrs.contains(entry.getKey())) {
+                for(Connection conn: entry.getValue())
+                    Util.close(conn);
+                it.remove();
+            }
+        }
+        for(Iterator<Connection> it=accepted_lanes.iterator(); it.hasNext();) {
+            Connection conn=it.next();
+            if(mbrs == null || !mbrs.contains(conn.peerAddress())) {
+                Util.close(conn);
+                it.remove();
+            }
+        }
+    }
+
     @GuardedBy("this")
     public void replaceConnection(Address address, Connection conn) {
         Connection previous=conns.put(address, conn);
@@ -321,7 +503,10 @@ public abstract class BaseServer implements Closeable, ConnectionListener {
     public void closeConnection(Connection conn, Throwable ex) {
         Util.close(conn);
         notifyConnectionClosed(conn, ex.toString());
-        removeConnectionIfPresent(conn != null? conn.peerAddress() : null, conn);
+        if(conn != null && conn.isLane())
+            removeLaneIfPresent(conn.peerAddress(), conn);
+        else
+            removeConnectionIfPresent(conn != null? conn.peerAddress() : null, conn);
     }
 
 
@@ -357,6 +542,14 @@ public abstract class BaseServer implements Closeable, ConnectionListener {
         synchronized(this) {
             for(Map.Entry<Address,Connection> entry: conns.entrySet())
                 sb.append(entry.getKey()).append(": ").append(entry.getValue()).append("\n");
+            for(Map.Entry<Address,Connection[]> entry: lanes.entrySet()) {
+                Connection[] arr=entry.getValue();
+                for(int i=1; i < arr.length; i++)
+                    if(arr[i] != null)
+                        sb.append(entry.getKey()).append(" (lane ").append(i).append("): ").append(arr[i]).append("\n");
+            }
+            for(Connection conn: accepted_lanes)
+                sb.append(conn.peerAddress()).append(" (accepted lane): ").append(conn).append("\n");
         }
         return sb.toString();
     }
@@ -383,6 +576,7 @@ public abstract class BaseServer implements Closeable, ConnectionListener {
     public synchronized void clearConnections() {
         conns.values().forEach(Util::close);
         conns.clear();
+        closeLanes(null);
     }
 
     /** Removes all connections which are not in current_mbrs */
@@ -394,6 +588,7 @@ public abstract class BaseServer implements Closeable, ConnectionListener {
         synchronized(this) {
             copy=new HashMap<>(conns);
             conns.keySet().retainAll(current_mbrs);
+            closeLanes(current_mbrs);
         }
         copy.keySet().removeAll(current_mbrs);
         for(Map.Entry<Address,Connection> entry: copy.entrySet())
@@ -533,6 +728,20 @@ public abstract class BaseServer implements Closeable, ConnectionListener {
                             it.remove();                           
                         }
                     }
+                    for(Connection[] arr: lanes.values()) {
+                        for(int i=0; i < arr.length; i++) {
+                            if(arr[i] != null && arr[i].isExpired(System.nanoTime())) {
+                                Util.close(arr[i]);
+                                arr[i]=null;
+                            }
+                        }
+                    }
+                    accepted_lanes.removeIf(c -> {
+                        boolean expired=c.isExpired(System.nanoTime());
+                        if(expired)
+                            Util.close(c);
+                        return expired;
+                    });
                 }
                 Util.sleep(reaperInterval);
             }           
@@ -11,8 +11,14 @@ import java.nio.ByteBuffer;
  */
 public abstract class Connection implements Closeable {
     public static final byte[]    cookie= { 'b', 'e', 'l', 'a' };
+    /** Sent instead of {@link #cookie} by additional connections to a peer (see {@link BaseServer#connsPerPeer()}) */
+    public static final byte[]    lane_cookie= { 'b', 'e', 'l', 'l' };
     protected Address             peer_addr;    // address of the 'other end' of the connection
     protected long                last_access;  // timestamp of the last access to this connection (read or write)
+    protected boolean             lane;         // an additional connection to a peer, only used by its creator to send
+
+    public boolean    isLane()          {return lane;}
+    public Connection lane(boolean l)   {this.lane=l; return this;}
 
     abstract public boolean isOpen();
     abstract public boolean isConnected();
@@ -25,4 +31,13 @@ public abstract class Connection implements Closeable {
     abstract public void    send(byte[] buf, int offset, int length) throws Exception;
     abstract public void    send(ByteBuffer buf) throws Exception;
     abstract public String  status();
+
+    /**
+     * Sends the first num buffers. Implementations may write all of them with a single flush or gathering write.
+     * The buffers must not be modified by the caller after this call
+     */
+    public void send(byte[][] bufs, int num) throws Exception {
+        for(int i=0; i < num; i++)
+            send(bufs[i], 0, bufs[i].length);
+    }
 }
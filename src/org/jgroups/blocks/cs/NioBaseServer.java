@@ -3,12 +3,19 @@ package org.jgroups.blocks.cs;
 import org.jgroups.Address;
 import org.jgroups.annotations.ManagedAttribute;
 import org.jgroups.annotations.ManagedOperation;
+import org.jgroups.util.ByteBufferPool;
 import org.jgroups.util.SocketFactory;
 import org.jgroups.util.ThreadFactory;
+import org.jgroups.util.Util;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.nio.channels.*;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -32,6 +39,20 @@ public abstract class NioBaseServer extends BaseServer {
 
     protected long              reader_idle_time=20000;
 
+    @ManagedAttribute(description="Number of selector threads handling reads and writes of connections. 0: the " +
+      "acceptor thread handles all connections. Changing this value takes effect on the next start()",writable=true)
+    protected int               num_selectors;
+
+    @ManagedAttribute(description="Reads messages and passes them to the receiver on the selector thread, rather than " +
+      "on a reader thread per connection. Only use this if the receiver doesn't block",writable=true)
+    protected boolean           read_in_selector;
+
+    // if non-null, connections read frames into and keep unwritten data in buffers from this pool
+    protected ByteBufferPool        buffer_pool;
+
+    protected volatile Reactor[] reactors; // created by startReactors() if num_selectors > 0
+    protected final AtomicInteger next_reactor=new AtomicInteger();
+
 
 
     protected NioBaseServer(ThreadFactory f, SocketFactory sf) {
@@ -48,6 +69,13 @@ public abstract class NioBaseServer extends BaseServer {
     public boolean        copyOnPartialWrite()          {return copy_on_partial_write;}
     public long           readerIdleTime()              {return reader_idle_time;}
     public NioBaseServer  readerIdleTime(long t)        {reader_idle_time=t; return this;}
+    public int            numSelectors()                {return num_selectors;}
+    public NioBaseServer  numSelectors(int num)         {this.num_selectors=Math.max(0, num); return this;}
+    public boolean        readInSelector()              {return read_in_selector;}
+    public NioBaseServer  readInSelector(boolean b)     {this.read_in_selector=b; return this;}
+    public Reactor[]      reactors()                    {return reactors;}
+    public ByteBufferPool     bufferPool()                  {return buffer_pool;}
+    public NioBaseServer  bufferPool(ByteBufferPool p)      {this.buffer_pool=p; return this;}
 
     public NioBaseServer  copyOnPartialWrite(boolean b) {
         this.copy_on_partial_write=b;
@@ -76,18 +104,41 @@ public abstract class NioBaseServer extends BaseServer {
     @ManagedOperation(description="Prints the send and receive buffers")
     public String printBuffers() {
         StringBuilder sb=new StringBuilder("\n");
+        if(buffer_pool != null)
+            sb.append("buffer pool: ").append(buffer_pool).append("\n");
         synchronized(this) {
             for(Map.Entry<Address,Connection> entry: conns.entrySet()) {
                 NioConnection val=(NioConnection)entry.getValue();
-                sb.append(entry.getKey()).append(":\n  ").append("recv_buf: ").append(val.recv_buf)
-                  .append("\n  send_buf: ").append(val.send_buf).append("\n");
+                if(val.pool != null)
+                    sb.append(entry.getKey()).append(":\n  ").append(val.printFrameBuffers()).append("\n");
+                else
+                    sb.append(entry.getKey()).append(":\n  ").append("recv_buf: ").append(val.recv_buf)
+                      .append("\n  send_buf: ").append(val.send_buf).append("\n");
             }
         }
         return sb.toString();
     }
 
 
+    @ManagedOperation(description="Prints the load of the selector threads")
+    public String printSelectors() {
+        Reactor[] tmp=reactors;
+        if(tmp == null)
+            return String.format("1 selector (acceptor): %d selects", num_selects);
+        StringBuilder sb=new StringBuilder();
+        for(Reactor r: tmp)
+            sb.append(r).append("\n");
+        return sb.toString();
+    }
+
+    /**
+     * Registers a channel for the given operations. If selector threads have been started, connections are assigned to
+     * them in round-robin fashion, otherwise they're registered with the acceptor's selector
+     */
     protected SelectionKey register(SelectableChannel ch, int interest_ops, NioConnection conn) throws Exception {
+        Reactor[] tmp=reactors;
+        if(tmp != null && conn != null)
+            return tmp[(next_reactor.getAndIncrement() & Integer.MAX_VALUE) % tmp.length].register(ch, interest_ops, conn);
         reg_lock.lock();
         try {
             registration=true;
@@ -108,6 +159,54 @@ public abstract class NioBaseServer extends BaseServer {
         ;
     }
 
+    /** Creates and starts num_selectors selector threads (no-op if num_selectors is 0) */
+    protected void startReactors() throws IOException {
+        if(num_selectors <= 0 || reactors != null)
+            return;
+        Reactor[] tmp=new Reactor[num_selectors];
+        try {
+            for(int i=0; i < tmp.length; i++)
+                tmp[i]=new Reactor(i);
+        }
+        catch(IOException ex) {
+            Util.close(tmp);
+            throw ex;
+        }
+        for(Reactor r: tmp)
+            r.start();
+        reactors=tmp;
+    }
+
+    protected void stopReactors() {
+        Reactor[] tmp=reactors;
+        reactors=null;
+        if(tmp != null)
+            Util.close(tmp);
+    }
+
+    /** Handles the ready operations of a selected key. Exceptions close the connection */
+    protected void handleKey(SelectionKey key) {
+        NioConnection conn=(NioConnection)key.attachment();
+        try {
+            if(!key.isValid())
+                return;
+            if(key.isReadable())
+                conn.receive();
+            if(key.isWritable())
+                conn.send();
+            if(key.isAcceptable())
+                handleAccept(key);
+            else if(key.isConnectable()) {
+                SocketChannel ch=(SocketChannel)key.channel();
+                if(ch.finishConnect() || ch.isConnected())
+                    conn.connectionEstablished(key);
+            }
+        }
+        catch(Throwable ex) {
+            closeConnection(conn, ex);
+        }
+    }
+
     protected void acceptorDone() {
 
     }
@@ -128,28 +227,8 @@ public abstract class NioBaseServer extends BaseServer {
 
                 while(it.hasNext()) {
                     SelectionKey key=it.next();
-                    NioConnection conn=(NioConnection)key.attachment();
                     it.remove();
-                    try {
-                        if(!key.isValid())
-                            continue;
-                        if(key.isReadable())
-                            conn.receive();
-                        if(key.isWritable())
-                            conn.send();
-                        if(key.isAcceptable())
-                            handleAccept(key);
-                        else if(key.isConnectable()) {
-                            SocketChannel ch=(SocketChannel)key.channel();
-                            if(ch.finishConnect() || ch.isConnected()) {
-                                conn.clearSelectionKey(SelectionKey.OP_CONNECT);
-                                conn.connected(true);
-                            }
-                        }
-                    }
-                    catch(Throwable ex) {
-                        closeConnection(conn, ex);
-                    }
+                    handleKey(key);
                 }
             }
             acceptorDone();
@@ -188,4 +267,117 @@ public abstract class NioBaseServer extends BaseServer {
         }
     }
 
+
+    /**
+     * A selector with its own thread, handling reads and writes for a subset of the connections. Accepts are
+     * always handled by the acceptor
+     */
+    public class Reactor implements Runnable, Closeable {
+        protected final int        index;
+        protected final Selector   sel;
+        protected final Lock       lock=new ReentrantLock(); // for registrations
+        protected volatile boolean registration;
+        protected Thread           thread;
+        protected final LongAdder  selects=new LongAdder(), reads=new LongAdder(), writes=new LongAdder();
+        protected final LongAdder  busy_time=new LongAdder(); // ns spent handling selected keys
+        protected long             start_time;
+
+        protected Reactor(int index) throws IOException {
+            this.index=index;
+            this.sel=Selector.open();
+        }
+
+        public long numSelects()     {return selects.sum();}
+        public long numReads()       {return reads.sum();}
+        public long numWrites()      {return writes.sum();}
+
+        public int numConnections() {
+            try {
+                return sel.keys().size();
+            }
+            catch(Throwable t) { // the selector was closed
+                return 0;
+            }
+        }
+
+        /** The percentage of time spent handling selected keys (rather than waiting in select()) since start */
+        public double load() {
+            long elapsed=System.nanoTime() - start_time;
+            return elapsed > 0? busy_time.sum() * 100.0 / elapsed : 0;
+        }
+
+        protected void start() {
+            start_time=System.nanoTime();
+            thread=factory.newThread(this, String.format("NioServer.Selector-%d [%s]", index, local_addr));
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        protected SelectionKey register(SelectableChannel ch, int interest_ops, NioConnection conn) throws Exception {
+            lock.lock();
+            try {
+                registration=true;
+                sel.wakeup(); // registration would block until select() returns
+                return ch.register(sel, interest_ops, conn);
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        public void close() throws IOException {
+            Util.close(sel); // makes select() throw a ClosedSelectorException
+            Util.interruptAndWaitToDie(thread);
+        }
+
+        public void run() {
+            while(running.get() && sel.isOpen()) {
+                try {
+                    sel.select();
+                }
+                catch(ClosedSelectorException closed) {
+                    break;
+                }
+                catch(Throwable t) {
+                    log.warn("%s: selector %d failed: %s", local_addr, index, t);
+                    continue;
+                }
+                selects.increment();
+                if(registration) { // wait until the pending registration completes
+                    lock.lock();
+                    try {
+                        registration=false;
+                    }
+                    finally {
+                        lock.unlock();
+                    }
+                }
+                long start=System.nanoTime();
+                Iterator<SelectionKey> it;
+                try {
+                    it=sel.selectedKeys().iterator();
+                }
+                catch(ClosedSelectorException closed) {
+                    break;
+                }
+                while(it.hasNext()) {
+                    SelectionKey key=it.next();
+                    it.remove();
+                    int ready=key.isValid()? key.readyOps() : 0;
+                    if((ready & SelectionKey.OP_READ) != 0)
+                        reads.increment();
+                    if((ready & SelectionKey.OP_WRITE) != 0)
+                        writes.increment();
+                    handleKey(key);
+                }
+                busy_time.add(System.nanoTime() - start);
+            }
+        }
+
+        public String toString() {
+            return String.format("selector-%d: %d connections, %d selects, %d reads, %d writes, load: %.2f%% (%d ms busy)",
+                                 index, numConnections(), numSelects(), numReads(), numWrites(), load(),
+                                 TimeUnit.MILLISECONDS.convert(busy_time.sum(), TimeUnit.NANOSECONDS));
+        }
+    }
 }
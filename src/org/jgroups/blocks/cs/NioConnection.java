@@ -3,20 +3,26 @@ package org.jgroups.blocks.cs;
 import org.jgroups.Address;
 import org.jgroups.Global;
 import org.jgroups.Version;
+import org.jgroups.annotations.GuardedBy;
 import org.jgroups.nio.Buffers;
 import org.jgroups.stack.IpAddress;
 import org.jgroups.util.*;
 
 import java.io.Closeable;
+import java.io.EOFException;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketAddress;
 import java.net.SocketException;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NotYetConnectedException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -44,6 +50,16 @@ public class NioConnection extends Connection {
     protected long                reader_idle_time=20000; // number of ms a reader can be idle (no msgs) until it terminates
     protected boolean             connected;
 
+    // Framing with pooled buffers (used when the server has a buffer pool): frames are read into a pooled buffer and
+    // passed to the receiver in place; on a partial write, the unwritten data is kept in pooled buffers
+    protected final ByteBufferPool    pool;
+    protected ByteBuffer          in_buf;       // pooled buffer with data that has been read but not yet delivered
+    protected ByteBuffer          large_frame;  // a frame which doesn't fit into a pooled buffer
+    protected final Deque<ByteBuffer> pending;  // pooled buffers with unwritten data, flipped for writing
+    protected final ByteBuffer    length_buf;   // reused to write the length of a frame
+    protected ByteBuffer[]        write_bufs;   // for gathering writes
+    protected int                 dropped;      // number of frames dropped because max_send_buffers was exceeded
+
 
 
      /** Creates a connection stub and binds it, use {@link #connect(Address)} to connect */
@@ -53,6 +69,9 @@ public class NioConnection extends Connection {
             throw new IllegalArgumentException("Invalid parameter peer_addr="+ peer_addr);
         this.peer_addr=peer_addr;
         send_buf=new Buffers(server.maxSendBuffers() *2); // space for actual bufs and length bufs!
+        pool=server.bufferPool();
+        pending=pool != null? new ArrayDeque<>() : null;
+        length_buf=pool != null? ByteBuffer.allocate(Global.INT_SIZE) : null;
         channel=server.socketFactory().createSocketChannel("jgroups.nio.client");
         channel.configureBlocking(false);
         setSocketParameters(channel.socket());
@@ -66,6 +85,9 @@ public class NioConnection extends Connection {
         channel.configureBlocking(false);
         this.connected=channel.isConnected();
         send_buf=new Buffers(server.maxSendBuffers() *2); // space for actual bufs and length bufs!
+        pool=server.bufferPool();
+        pending=pool != null? new ArrayDeque<>() : null;
+        length_buf=pool != null? ByteBuffer.allocate(Global.INT_SIZE) : null;
         this.peer_addr=server.usePeerConnections()? null /* read by first receive() */
           : new IpAddress((InetSocketAddress)channel.getRemoteAddress());
         last_access=getTimestamp(); // last time a message was sent or received (ns)
@@ -112,11 +134,25 @@ public class NioConnection extends Connection {
     public NioConnection copyOnPartialWrite(boolean b) {this.copy_on_partial_write=b; return this;}
     public boolean       copyOnPartialWrite()          {return copy_on_partial_write;}
     public int           numPartialWrites()            {return partial_writes;}
+    public int           numDroppedFrames()            {return dropped;}
     public long          readerIdleTime()              {return reader_idle_time;}
     public NioConnection readerIdleTime(long t)        {this.reader_idle_time=t; return this;}
     public boolean       readerRunning()               {return this.reader.isRunning();}
     public NioConnection connected(boolean c)          {connected=c; return this;}
 
+    /**
+     * Called by the selector when the connection has been established: replaces interest in OP_CONNECT with OP_READ.
+     * The key is passed in as the selector may see it before register() has returned it to connect()
+     */
+    public void connectionEstablished(SelectionKey k) {
+        synchronized(this) {
+            if(key == null)
+                key=k;
+            k.interestOps((k.interestOps() & ~SelectionKey.OP_CONNECT) | SelectionKey.OP_READ);
+        }
+        connected=channel.isConnected();
+    }
+
     public synchronized void registerSelectionKey(int interest_ops) {
         if(key == null)
             return;
@@ -140,11 +176,12 @@ public class NioConnection extends Connection {
         try {
             if(!server.deferClientBinding())
                 this.channel.bind(new InetSocketAddress(server.clientBindAddress(), server.clientBindPort()));
-            this.key=server.register(channel, SelectionKey.OP_CONNECT | SelectionKey.OP_READ, this);
-            if(Util.connect(channel, destAddr) && channel.finishConnect()) {
-                clearSelectionKey(SelectionKey.OP_CONNECT);
+            // register only after the connect has been initiated: a channel without a pending connection would be
+            // selected right away (and finishConnect() would fail). OP_READ is registered when connected
+            boolean connected_now=Util.connect(channel, destAddr) && channel.finishConnect();
+            this.key=server.register(channel, connected_now? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, this);
+            if(connected_now)
                 this.connected=channel.isConnected();
-            }
             if(this.channel.getLocalAddress() != null && this.channel.getLocalAddress().equals(destAddr))
                 throw new IllegalStateException("socket's bind and connect address are the same: " + destAddr);
             if(send_local_addr)
@@ -178,9 +215,46 @@ public class NioConnection extends Connection {
     }
 
 
+    /** Writes all buffers with a single gathering write */
+    @Override
+    public void send(byte[][] bufs, int num) throws Exception {
+        send_lock.lock();
+        try {
+            boolean success=true;
+            if(pool != null) {
+                for(int i=0; i < num; i++)
+                    success=sendFrame(ByteBuffer.wrap(bufs[i]), true);
+            }
+            else {
+                for(int i=0; i < num; i++) {
+                    ByteBuffer buf=ByteBuffer.wrap(bufs[i]);
+                    send_buf.add(makeLengthBuffer(buf), buf);
+                }
+                if(!(success=send_buf.write(channel))) {
+                    if(copy_on_partial_write)
+                        send_buf.copy();
+                    partial_writes++;
+                }
+            }
+            writeInterest(!success);
+            if(success)
+                updateLastAccessed();
+        }
+        finally {
+            send_lock.unlock();
+        }
+    }
+
     public void send() throws Exception {
         send_lock.lock();
         try {
+            if(pool != null) {
+                boolean success=flush();
+                writeInterest(!success);
+                if(success)
+                    updateLastAccessed();
+                return;
+            }
             boolean success=send_buf.write(channel);
             writeInterest(!success);
             if(success)
@@ -200,12 +274,26 @@ public class NioConnection extends Connection {
 
     /** Read the length first, then the actual data. This method is not reentrant and access must be synchronized */
     public void receive() throws Exception {
-        reader.receive();
+        if(!server.readInSelector()) {
+            reader.receive();
+            return;
+        }
+        // called by the selector thread: read all messages which are available without blocking
+        while(_receive(false))
+            ;
+        updateLastAccessed();
     }
 
     protected void send(ByteBuffer buf, boolean send_length) throws Exception {
         send_lock.lock();
         try {
+            if(pool != null) {
+                boolean success=sendFrame(buf, send_length);
+                writeInterest(!success);
+                if(success)
+                    updateLastAccessed();
+                return;
+            }
             // makeLengthBuffer() reuses the same pre-allocated buffer and copies it only if the write didn't complete
             if(send_length)
                 send_buf.add(makeLengthBuffer(buf), buf);
@@ -232,10 +320,16 @@ public class NioConnection extends Connection {
 
         if(peer_addr == null && server.usePeerConnections() && (peer_addr=readPeerAddress()) != null) {
             recv_buf=new Buffers(2).add(ByteBuffer.allocate(Global.INT_SIZE), null);
-            server.addConnection(peer_addr, this);
+            if(lane)
+                server.addLane(this);
+            else
+                server.addConnection(peer_addr, this);
             return true;
         }
 
+        if(pool != null)
+            return readFrames(receiver, update);
+
         if((msg=recv_buf.readLengthAndData(channel)) == null)
             return false;
         if(receiver != null)
@@ -255,6 +349,10 @@ public class NioConnection extends Connection {
             }
             Util.close(reader);
             server.socketFactory().close(channel);
+            if(pending != null) {
+                pending.forEach(pool::release);
+                pending.clear();
+            }
         }
         finally {
             connected=false;
@@ -292,6 +390,9 @@ public class NioConnection extends Connection {
             if(!write_interest_set) {
                 write_interest_set=true;
                 registerSelectionKey(SelectionKey.OP_WRITE);
+                // a selector blocked in select() doesn't see the new interest set until it wakes up
+                if(key != null)
+                    key.selector().wakeup();
             }
         }
         else {
@@ -302,6 +403,177 @@ public class NioConnection extends Connection {
         }
     }
 
+    /**
+     * Reads as much data as is available into a pooled buffer and passes all complete frames to the receiver, without
+     * copying them. An incomplete frame is moved to the start of the buffer; the buffer is returned to the pool when
+     * it holds no data. A frame larger than a pooled buffer is read into a separately allocated buffer.
+     * @return True if data was read, false if no data was available
+     */
+    protected boolean readFrames(Receiver receiver, boolean update) throws Exception {
+        if(large_frame != null)
+            return readLargeFrame(receiver, update);
+        if(in_buf == null)
+            in_buf=pool.acquire();
+        int num=channel.read(in_buf);
+        if(num < 0)
+            throw new EOFException();
+        in_buf.flip();
+        while(in_buf.remaining() >= Global.INT_SIZE) {
+            int start=in_buf.position(), len=in_buf.getInt(start);
+            if(len < 0)
+                throw new IllegalStateException(String.format("%s: invalid frame length %d", server.localAddress(), len));
+            if(len > in_buf.capacity() - Global.INT_SIZE) { // copy the data read so far and read the rest of the frame
+                in_buf.position(start + Global.INT_SIZE);
+                large_frame=ByteBuffer.allocate(len).put(in_buf);
+                releaseInputBuffer();
+                return readLargeFrame(receiver, update) || num > 0;
+            }
+            int end=start + Global.INT_SIZE + len;
+            if(end > in_buf.limit())
+                break; // incomplete frame
+            int limit=in_buf.limit();
+            in_buf.limit(end).position(start + Global.INT_SIZE);
+            try {
+                if(receiver != null)
+                    receiver.receive(peer_addr, in_buf); // the receiver must not hold on to in_buf
+            }
+            finally {
+                in_buf.limit(limit).position(end);
+            }
+        }
+        if(in_buf.hasRemaining())
+            in_buf.compact();
+        else
+            releaseInputBuffer();
+        if(num > 0 && update)
+            updateLastAccessed();
+        return num > 0;
+    }
+
+    protected boolean readLargeFrame(Receiver receiver, boolean update) throws Exception {
+        if(large_frame.hasRemaining() && channel.read(large_frame) < 0)
+            throw new EOFException();
+        if(large_frame.hasRemaining())
+            return false;
+        ByteBuffer frame=(ByteBuffer)large_frame.flip();
+        large_frame=null;
+        if(receiver != null)
+            receiver.receive(peer_addr, frame);
+        if(update)
+            updateLastAccessed();
+        return true;
+    }
+
+    protected void releaseInputBuffer() {
+        pool.release(in_buf);
+        in_buf=null;
+    }
+
+    /**
+     * Sends a frame. If no data is pending, the length and the caller's buffer are written directly (gathering write);
+     * only if the write is partial are the unwritten bytes copied into pooled buffers, as the caller may reuse its
+     * buffer. Otherwise, the frame is appended to the pending data, filling the last pooled buffer first.
+     * If appending the frame would exceed max_send_buffers pooled buffers, it is dropped (to be retransmitted).
+     * @return True if all data was written, false if data is pending
+     */
+    @GuardedBy("send_lock")
+    protected boolean sendFrame(ByteBuffer buf, boolean send_length) throws Exception {
+        length_buf.clear();
+        if(send_length)
+            length_buf.putInt(buf.remaining());
+        length_buf.flip();
+        if(pending.isEmpty()) {
+            ByteBuffer[] bufs=writeBuffers(2);
+            bufs[0]=length_buf; bufs[1]=buf;
+            write(bufs, 2);
+            bufs[0]=bufs[1]=null;
+            if(!length_buf.hasRemaining() && !buf.hasRemaining())
+                return true;
+            partial_writes++;
+            append(length_buf);
+            append(buf);
+            return false;
+        }
+        if(!spaceAvailable(length_buf.remaining() + buf.remaining())) {
+            dropped++;
+            return flush();
+        }
+        append(length_buf);
+        append(buf);
+        return flush();
+    }
+
+    /** Writes as many pending buffers as possible and returns the ones which have been written to the pool */
+    @GuardedBy("send_lock")
+    protected boolean flush() throws Exception {
+        if(pending.isEmpty())
+            return true;
+        ByteBuffer[] bufs=writeBuffers(pending.size());
+        int num=0;
+        for(ByteBuffer b: pending)
+            bufs[num++]=b;
+        write(bufs, num);
+        Arrays.fill(bufs, 0, num, null);
+        while(!pending.isEmpty() && !pending.peekFirst().hasRemaining())
+            pool.release(pending.poll());
+        if(pending.isEmpty())
+            return true;
+        partial_writes++;
+        return false;
+    }
+
+    protected void write(ByteBuffer[] bufs, int num) throws Exception {
+        try {
+            channel.write(bufs, 0, num);
+        }
+        catch(ClosedChannelException closed_ex) {
+            throw closed_ex;
+        }
+        catch(NotYetConnectedException | IOException others) {
+            ; // ignore, the data is kept and written when the channel is writable
+        }
+    }
+
+    /** Copies the remaining bytes of buf to the end of the pending data, acquiring pooled buffers as needed */
+    @GuardedBy("send_lock")
+    protected void append(ByteBuffer buf) {
+        while(buf.hasRemaining()) {
+            ByteBuffer last=pending.peekLast();
+            if(last == null || last.limit() == last.capacity()) {
+                pending.add(last=pool.acquire());
+                last.limit(0);
+            }
+            int pos=last.position(), limit=last.limit(), num=Math.min(last.capacity() - limit, buf.remaining());
+            int buf_limit=buf.limit();
+            buf.limit(buf.position() + num);
+            last.limit(limit + num).position(limit);
+            last.put(buf);
+            last.position(pos);
+            buf.limit(buf_limit);
+        }
+    }
+
+    @GuardedBy("send_lock")
+    protected boolean spaceAvailable(int len) {
+        ByteBuffer last=pending.peekLast();
+        long space=last != null? last.capacity() - last.limit() : 0;
+        space+=(long)(server.maxSendBuffers() - pending.size()) * pool.bufferSize();
+        return space >= len;
+    }
+
+    protected ByteBuffer[] writeBuffers(int num) {
+        if(write_bufs == null || write_bufs.length < num)
+            write_bufs=new ByteBuffer[Math.max(num, server.maxSendBuffers())];
+        return write_bufs;
+    }
+
+    protected String printFrameBuffers() {
+        ByteBuffer in=in_buf;
+        return String.format("in_buf: %d bytes%s, pending: %d buffers, partial writes: %d, dropped frames: %d",
+                             in != null? in.position() : 0, large_frame != null? " (reading large frame)" : "",
+                             pending.size(), partial_writes, dropped);
+    }
+
     protected void setSocketParameters(Socket client_sock) throws SocketException {
         try {
             client_sock.setSendBufferSize(server.sendBufferSize());
@@ -334,7 +606,8 @@ public class NioConnection extends Connection {
             int addr_size=local_addr.serializedSize();
             int expected_size=cookie.length + Global.SHORT_SIZE*2 + addr_size;
             ByteArrayDataOutputStream out=new ByteArrayDataOutputStream(expected_size +2);
-            out.write(cookie, 0, cookie.length);
+            byte[] c=lane? lane_cookie : cookie;
+            out.write(c, 0, c.length);
             out.writeShort(Version.version);
             out.writeShort(addr_size); // address size
             local_addr.writeTo(out);
@@ -358,7 +631,8 @@ public class NioConnection extends Connection {
             switch(current_position) {
                 case 0:      // cookie
                     byte[] cookie_buf=getBuffer(buf);
-                    if(!Arrays.equals(cookie, cookie_buf))
+                    lane=Arrays.equals(lane_cookie, cookie_buf);
+                    if(!lane && !Arrays.equals(cookie, cookie_buf))
                         throw new IllegalStateException("BaseServer.NioConnection.readPeerAddress(): cookie read by "
                                                           + server.localAddress() + " does not match own cookie; terminating connection");
                     recv_buf.add(ByteBuffer.allocate(Global.SHORT_SIZE));
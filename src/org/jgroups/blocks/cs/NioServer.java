@@ -90,7 +90,8 @@ public class NioServer extends NioBaseServer {
         if(client_channel == null) return; // can happen if no connection is available to accept
         try {
             conn=new NioConnection(client_channel, NioServer.this);
-            SelectionKey client_key=client_channel.register(selector, SelectionKey.OP_READ, conn);
+            SelectionKey client_key=reactors != null? register(client_channel, SelectionKey.OP_READ, conn)
+              : client_channel.register(selector, SelectionKey.OP_READ, conn);
             conn.key(client_key); // we need to set the selection key of the client channel *not* the server channel
             Address peer_addr=conn.peerAddress();
             if(use_peer_connections)
@@ -114,6 +115,7 @@ public class NioServer extends NioBaseServer {
     @ManagedOperation(description="Starts the server")
     public synchronized void start() throws Exception {
         if(running.compareAndSet(false, true)) {
+            startReactors();
             acceptor.start();
             super.start();
         }
@@ -127,6 +129,7 @@ public class NioServer extends NioBaseServer {
             // Util.close(selector); // closing the selector also stops the acceptor thread
             // socket_factory.close(channel);
             selector.wakeup();
+            stopReactors();
         }
     }
 
@@ -34,4 +34,9 @@ public interface Receiver {
     void receive(Address sender, ByteBuffer buf); // should be a default method in Java 8
 
     void receive(Address sender, DataInput in) throws Exception;
+
+    /** Same as {@link #receive(Address,DataInput)}, but with the length of the data (in bytes) to be read from in */
+    default void receive(Address sender, DataInput in, int length) throws Exception {
+        receive(sender, in);
+    }
 }
@@ -141,6 +141,28 @@ public class TcpConnection extends Connection {
         }
     }
 
+    /** Writes all buffers and flushes only once */
+    @Override
+    public void send(byte[][] bufs, int num) throws Exception {
+        if(out == null)
+            return;
+        writers.incrementAndGet();
+        send_lock.lock();
+        try {
+            for(int i=0; i < num; i++)
+                doSend(bufs[i], 0, bufs[i].length);
+            updateLastAccessed();
+        }
+        catch(InterruptedException iex) {
+            Thread.currentThread().interrupt(); // set interrupt flag again
+        }
+        finally {
+            if(writers.decrementAndGet() == 0)
+                flush();
+            send_lock.unlock();
+        }
+    }
+
     public void send(ByteBuffer buf) throws Exception {
         if(buf == null)
             return;
@@ -215,7 +237,8 @@ public class TcpConnection extends Connection {
     protected void sendLocalAddress(Address local_addr) throws Exception {
         try {
             // write the cookie
-            out.write(cookie, 0, cookie.length);
+            byte[] c=lane? lane_cookie : cookie;
+            out.write(c, 0, c.length);
 
             // write the version
             out.writeShort(Version.version);
@@ -243,7 +266,8 @@ public class TcpConnection extends Connection {
             // read the cookie first
             byte[] input_cookie=new byte[cookie.length];
             in.readFully(input_cookie, 0, input_cookie.length);
-            if(!Arrays.equals(cookie, input_cookie))
+            lane=Arrays.equals(lane_cookie, input_cookie);
+            if(!lane && !Arrays.equals(cookie, input_cookie))
                 throw new SocketException(String.format("%s: BaseServer.TcpConnection.readPeerAddress(): cookie sent by " +
                                                           "%s:%d does not match own cookie; terminating connection",
                                                         server.localAddress(), client_sock.getInetAddress(), client_sock.getPort()));
@@ -0,0 +1,218 @@
+package org.jgroups.protocols;
+
+import org.jgroups.Message;
+import org.jgroups.annotations.GuardedBy;
+import org.jgroups.annotations.ManagedAttribute;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bundler which switches between sending messages immediately (on the caller's thread) and bundling them (like
+ * {@link TransferQueueBundler}), based on the observed load. Every interval ms, the arrival rate (msgs/sec), the
+ * average message size and the average number of messages per bundle (fill_count / average size) are computed:
+ * <ul>
+ *     <li>If the rate is below low_rate, or messages are large (avg size >= max_bundle_size/2), or bundles mostly
+ *         contain a single message anyway, messages are sent directly (saving the handoff to the bundler thread)</li>
+ *     <li>If the rate is above high_rate, messages are bundled</li>
+ *     <li>Otherwise the current mode is kept (hysteresis)</li>
+ * </ul>
+ * Messages are never reordered: in direct mode, a message is only sent on the caller's thread if no queued message is
+ * waiting to be sent by the bundler thread; otherwise it is queued, too.
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+public class AdaptiveBundler extends TransferQueueBundler {
+    @ManagedAttribute(description="Interval (ms) at which the arrival rate is measured and the mode is (re-)evaluated",
+      writable=true)
+    protected long              interval=100;
+
+    @ManagedAttribute(description="Send messages directly if the arrival rate (msgs/sec) is below this",writable=true)
+    protected int               low_rate=2000;
+
+    @ManagedAttribute(description="Bundle messages if the arrival rate (msgs/sec) is above this",writable=true)
+    protected int               high_rate=10000;
+
+    @ManagedAttribute(description="Send messages directly if bundles contain fewer messages than this on average",
+      writable=true)
+    protected double            min_msgs_per_bundle=1.2;
+
+    protected volatile boolean  direct=true;
+
+    // number of messages which have been queued, but not yet sent by the bundler thread
+    protected final AtomicInteger pending=new AtomicInteger();
+
+    // measurements during the current interval
+    protected final LongAdder   num_arrivals=new LongAdder();
+    protected final LongAdder   arrival_bytes=new LongAdder();
+    protected long              last_measurement=System.nanoTime();
+    protected Future<?>         task;
+
+    // results of the last measurement and switching decisions
+    protected volatile double   rate;            // msgs/sec
+    protected volatile double   avg_size;        // bytes
+    protected volatile double   msgs_per_bundle;
+    protected volatile String   last_reason="n/a";
+    protected int               num_switches_to_direct, num_switches_to_bundling;
+    protected final LongAdder   num_direct_sends=new LongAdder();
+    protected final LongAdder   num_bundled_msgs=new LongAdder();
+    protected static final String THREAD_NAME="Adaptive-Bundler";
+
+    public AdaptiveBundler() {
+        super();
+    }
+
+    public AdaptiveBundler(int capacity) {
+        super(capacity);
+    }
+
+    public long            interval()                      {return interval;}
+    public AdaptiveBundler interval(long i)                {this.interval=i; return this;}
+    public int             lowRate()                       {return low_rate;}
+    public AdaptiveBundler lowRate(int r)                  {this.low_rate=r; return this;}
+    public int             highRate()                      {return high_rate;}
+    public AdaptiveBundler highRate(int r)                 {this.high_rate=r; return this;}
+    public double          minMsgsPerBundle()              {return min_msgs_per_bundle;}
+    public AdaptiveBundler minMsgsPerBundle(double m)      {this.min_msgs_per_bundle=m; return this;}
+    public boolean         direct()                        {return direct;}
+    public int             numSwitchesToDirect()           {return num_switches_to_direct;}
+    public int             numSwitchesToBundling()         {return num_switches_to_bundling;}
+    public long            numDirectSends()                {return num_direct_sends.sum();}
+    public long            numBundledMsgs()                {return num_bundled_msgs.sum();}
+
+    @Override
+    public Map<String,Object> getStats() {
+        Map<String,Object> retval=super.getStats();
+        retval.put("mode", direct? "direct" : "bundling");
+        retval.put("rate", String.format("%.2f msgs/sec", rate));
+        retval.put("avg_size", String.format("%.2f", avg_size));
+        retval.put("msgs_per_bundle", String.format("%.2f", msgs_per_bundle));
+        retval.put("switches_to_direct", num_switches_to_direct);
+        retval.put("switches_to_bundling", num_switches_to_bundling);
+        retval.put("last_switch_reason", last_reason);
+        retval.put("direct_sends", num_direct_sends.sum());
+        retval.put("bundled_msgs", num_bundled_msgs.sum());
+        return retval;
+    }
+
+    @Override
+    public void resetStats() {
+        super.resetStats();
+        num_switches_to_direct=num_switches_to_bundling=0;
+        num_direct_sends.reset();
+        num_bundled_msgs.reset();
+    }
+
+    public synchronized void start() {
+        super.start();
+        if(interval > 0 && transport.getTimer() != null && (task == null || task.isDone()))
+            task=transport.getTimer().scheduleWithFixedDelay(this::adapt, interval, interval, TimeUnit.MILLISECONDS, false);
+    }
+
+    public synchronized void stop() {
+        if(task != null) {
+            task.cancel(false);
+            task=null;
+        }
+        super.stop();
+    }
+
+    public void send(Message msg) throws Exception {
+        if(!running)
+            return;
+        long size=msg.size();
+        num_arrivals.increment();
+        arrival_bytes.add(size);
+        if(direct && pending.get() == 0 && sendDirect(msg))
+            return;
+        pending.incrementAndGet();
+        queue.put(msg);
+    }
+
+    /**
+     * Computes arrival rate, average message size and number of messages per bundle since the last call and
+     * switches between direct sending and bundling. Called periodically by the timer.
+     */
+    public void adapt() {
+        long now=System.nanoTime(), time=now - last_measurement;
+        last_measurement=now;
+        long msgs=num_arrivals.sumThenReset(), bytes=arrival_bytes.sumThenReset();
+        if(time <= 0)
+            return;
+        rate=msgs * TimeUnit.SECONDS.toNanos(1) / (double)time;
+        if(msgs > 0)
+            avg_size=bytes / (double)msgs;
+        if(avg_size > 0 && fill_count.count() > 0)
+            msgs_per_bundle=fill_count.average() / avg_size;
+
+        if(direct) {
+            if(rate > high_rate && avg_size < transport.getMaxBundleSize() / 2.0)
+                switchMode(false, String.format("rate (%.2f) > high_rate (%d)", rate, high_rate));
+            return;
+        }
+        if(rate < low_rate)
+            switchMode(true, String.format("rate (%.2f) < low_rate (%d)", rate, low_rate));
+        else if(avg_size >= transport.getMaxBundleSize() / 2.0)
+            switchMode(true, String.format("avg_size (%.2f) >= max_bundle_size/2", avg_size));
+        else if(rate <= high_rate && msgs_per_bundle > 0 && msgs_per_bundle < min_msgs_per_bundle)
+            switchMode(true, String.format("msgs_per_bundle (%.2f) < min_msgs_per_bundle (%.2f)",
+                                           msgs_per_bundle, min_msgs_per_bundle));
+    }
+
+    protected void switchMode(boolean to_direct, String reason) {
+        if(direct == to_direct)
+            return;
+        direct=to_direct;
+        last_reason=reason;
+        if(to_direct)
+            num_switches_to_direct++;
+        else
+            num_switches_to_bundling++;
+        fill_count.clear(); // start a new measurement for the new mode
+        msgs_per_bundle=0;
+        if(transport.getLog().isTraceEnabled())
+            transport.getLog().trace("%s: switched to %s: %s", transport.localAddress(), to_direct? "direct" : "bundling", reason);
+    }
+
+    /**
+     * Sends a message on the caller's thread. The lock excludes the bundler thread (which sends under the same lock),
+     * and the pending check makes sure that no message queued earlier is sent after this one.
+     * @return true if the message was sent, false if it needs to be queued
+     */
+    protected boolean sendDirect(Message msg) {
+        lock.lock();
+        try {
+            if(pending.get() > 0 || count > 0)
+                return false;
+            output.position(0);
+            sendSingleMessage(msg);
+            num_direct_sends.increment();
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @GuardedBy("lock") protected void sendBundledMessages() {
+        int num=0;
+        for(List<Message> list: msgs.values())
+            num+=list.size();
+        super.sendBundledMessages();
+        if(num > 0) {
+            num_bundled_msgs.add(num);
+            pending.addAndGet(-num);
+        }
+    }
+
+    protected String threadName() {return THREAD_NAME;}
+
+    public String toString() {
+        return String.format("%s [%s, rate=%.2f msgs/sec avg_size=%.2f]", getClass().getSimpleName(),
+                             direct? "direct" : "bundling", rate, avg_size);
+    }
+}
@@ -6,8 +6,12 @@ import org.jgroups.View;
 import org.jgroups.annotations.GuardedBy;
 import org.jgroups.logging.Log;
 import org.jgroups.util.ByteArrayDataOutputStream;
+import org.jgroups.util.ByteBufferOutputStream;
+import org.jgroups.util.ByteBufferPool;
 import org.jgroups.util.Util;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -25,6 +29,7 @@ public abstract class BaseBundler implements Bundler {
     protected TP                                transport;
     protected final ReentrantLock               lock=new ReentrantLock();
     protected @GuardedBy("lock") long           count;    // current number of bytes accumulated
+    protected @GuardedBy("lock") long           first_added; // time (ns) the first message was added; 0 if stats are disabled
     protected ByteArrayDataOutputStream         output;
     protected Log                               log;
 
@@ -75,6 +80,10 @@ public abstract class BaseBundler implements Bundler {
         }
         clearMessages();
         count=0;
+        if(first_added > 0) {
+            transport.addBundlerDelay(System.nanoTime() - first_added);
+            first_added=0;
+        }
     }
 
     @GuardedBy("lock") protected void clearMessages() {
@@ -85,8 +94,11 @@ public abstract class BaseBundler implements Bundler {
     protected void sendSingleMessage(final Message msg) {
         Address dest=msg.getDest();
         try {
-            Util.writeMessage(msg, output, dest == null);
-            transport.doSend(output.buffer(), 0, output.position(), dest);
+            ByteBufferPool pool=transport.getSendBufferPool();
+            if(pool == null || msg.size() + MSG_OVERHEAD > pool.bufferSize() || !sendSingleMessage(msg, pool)) {
+                Util.writeMessage(msg, output, dest == null);
+                transport.doSend(output.buffer(), 0, output.position(), dest);
+            }
             if(transport.statsEnabled())
                 transport.incrNumSingleMsgsSent(1);
         }
@@ -100,18 +112,64 @@ public abstract class BaseBundler implements Bundler {
 
     protected void sendMessageList(final Address dest, final Address src, final List<Message> list) {
         try {
-            Util.writeMessageList(dest, src, transport.cluster_name.chars(), list, output, dest == null, transport.getId());
-            transport.doSend(output.buffer(), 0, output.position(), dest);
+            ByteBufferPool pool=transport.getSendBufferPool();
+            if(pool == null || !sendMessageList(dest, src, list, pool)) {
+                Util.writeMessageList(dest, src, transport.cluster_name.chars(), list, output, dest == null, transport.getId());
+                transport.doSend(output.buffer(), 0, output.position(), dest);
+            }
         }
         catch(Throwable e) {
             log.error(Util.getMessage("FailureSendingMsgBundle"), transport.localAddress(), e);
         }
     }
 
+    /**
+     * Serializes a message into a pooled direct buffer and passes the buffer to the transport (zero-copy send path).
+     * Returns false if the message didn't fit into the buffer; the caller then needs to use the byte[] array path
+     */
+    protected boolean sendSingleMessage(final Message msg, ByteBufferPool pool) throws Exception {
+        ByteBuffer buf=pool.acquire();
+        try {
+            Util.writeMessage(msg, new ByteBufferOutputStream(buf), msg.getDest() == null);
+            buf.flip();
+            transport.doSend(buf, msg.getDest());
+            return true;
+        }
+        catch(BufferOverflowException overflow) {
+            transport.incrNumDirectSendFallbacks();
+            return false;
+        }
+        finally {
+            pool.release(buf);
+        }
+    }
+
+    /** Same as {@link #sendSingleMessage(Message,ByteBufferPool)}, but for a list of messages */
+    protected boolean sendMessageList(final Address dest, final Address src, final List<Message> list,
+                                      ByteBufferPool pool) throws Exception {
+        ByteBuffer buf=pool.acquire();
+        try {
+            Util.writeMessageList(dest, src, transport.cluster_name.chars(), list, new ByteBufferOutputStream(buf),
+                                  dest == null, transport.getId());
+            buf.flip();
+            transport.doSend(buf, dest);
+            return true;
+        }
+        catch(BufferOverflowException overflow) {
+            transport.incrNumDirectSendFallbacks();
+            return false;
+        }
+        finally {
+            pool.release(buf);
+        }
+    }
+
     @GuardedBy("lock") protected void addMessage(Message msg, long size) {
         Address dest=msg.getDest();
         List<Message> tmp=msgs.computeIfAbsent(dest, k -> new ArrayList<>(5));
         tmp.add(msg);
+        if(count == 0 && transport.statsEnabled())
+            first_added=System.nanoTime();
         count+=size;
     }
 }
\ No newline at end of file
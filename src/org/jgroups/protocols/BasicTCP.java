@@ -3,17 +3,21 @@ package org.jgroups.protocols;
 import org.jgroups.Address;
 import org.jgroups.Event;
 import org.jgroups.Global;
+import org.jgroups.Message;
 import org.jgroups.PhysicalAddress;
 import org.jgroups.annotations.LocalAddress;
 import org.jgroups.annotations.Property;
 import org.jgroups.blocks.cs.Receiver;
+import org.jgroups.util.ByteBufferInputStream;
 import org.jgroups.util.Util;
 
+import java.io.DataInput;
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Shared base class for TCP protocols
@@ -64,9 +68,31 @@ public abstract class BasicTCP extends TP implements Receiver {
     @Property(description="If true, client sockets will not explicitly bind to bind_addr but will defer to the native socket")
     protected boolean     defer_client_bind_addr;
 
+    @Property(description="Number of TCP connections to each member. Messages are spread over them according to " +
+      "lane_policy, so that a large message doesn't block all other traffic to the same member. 1 uses a single connection")
+    protected int         conns_per_peer=1;
+
+    @Property(description="How messages are assigned to connections when conns_per_peer > 1. flag: OOB and " +
+      "internal messages use the first connection (OOB messages of lane_msg_size or more the second one, if " +
+      "conns_per_peer > 2), regular messages are assigned by sending thread to the remaining connections. thread: " +
+      "by sending thread. With flag and thread, the regular messages sent by the same thread are received in order. " +
+      "round_robin: every message (or message list) uses the next connection; regular messages from the same " +
+      "sender may then be received out of order (and are reordered by UNICAST3 and NAKACK2)")
+    protected String      lane_policy="flag";
+
+    @Property(description="Size (bytes) from which an OOB message is sent over its own connection (lane_policy=flag " +
+      "and conns_per_peer > 2), so that a large OOB message doesn't delay smaller OOB and internal messages")
+    protected int         lane_msg_size=8192;
+
 
     /* --------------------------------------------- Fields ------------------------------------------------------ */
-    
+
+    /** How messages are assigned to one of the conns_per_peer connections to a member */
+    public enum LanePolicy {flag, thread, round_robin}
+
+    protected LanePolicy          policy=LanePolicy.flag;
+    protected final AtomicInteger lane_counter=new AtomicInteger();
+    protected static final short  OOB_OR_INTERNAL=(short)(Message.Flag.OOB.value() | Message.Flag.INTERNAL.value());
 
     protected BasicTCP() {
         super();        
@@ -79,10 +105,21 @@ public abstract class BasicTCP extends TP implements Receiver {
     public long     getConnExpireTime()              {return conn_expire_time;}
     public BasicTCP setConnExpireTime(long time)     {this.conn_expire_time=time; return this;}
     public BasicTCP connExpireTime(long time)        {this.conn_expire_time=time; return this;}
+    public int      getConnsPerPeer()                {return conns_per_peer;}
+    public BasicTCP setConnsPerPeer(int num)         {this.conns_per_peer=num; return this;}
+    public String   getLanePolicy()                  {return lane_policy;}
+    public BasicTCP setLanePolicy(String p)          {this.policy=LanePolicy.valueOf(p); this.lane_policy=p; return this;}
+    public int      getLaneMsgSize()                 {return lane_msg_size;}
+    public BasicTCP setLaneMsgSize(int size)         {this.lane_msg_size=size; return this;}
 
 
     public void init() throws Exception {
         super.init();
+        if(conns_per_peer < 1)
+            throw new IllegalArgumentException("conns_per_peer (" + conns_per_peer + ") must be >= 1");
+        if(lane_msg_size <= 0)
+            throw new IllegalArgumentException("lane_msg_size (" + lane_msg_size + ") must be > 0");
+        policy=LanePolicy.valueOf(lane_policy);
         if(bind_port <= 0) {
             Discovery discovery_prot=stack.findProtocol(Discovery.class);
             if(discovery_prot != null && !discovery_prot.isDynamic())
@@ -108,6 +145,63 @@ public abstract class BasicTCP extends TP implements Receiver {
 
     public void sendUnicast(PhysicalAddress dest, byte[] data, int offset, int length) throws Exception {
         send(dest, data, offset, length);
+        if(stats)
+            socketStats(dest).sent(length);
+    }
+
+    /** Returns the counters of the connection(s) to the given peer */
+    protected SocketStats socketStats(Address peer) {
+        return socketStats(String.valueOf(peer), 0);
+    }
+
+    /**
+     * Picks one of the conns_per_peer connections for a serialized message or message list (written by
+     * {@link Util#writeMessage(Message,java.io.DataOutput,boolean)} or {@link Util#writeMessageList})
+     */
+    protected int lane(byte[] data, int offset, int length) {
+        if(conns_per_peer <= 1)
+            return 0;
+        switch(policy) {
+            case round_robin:
+                return (lane_counter.getAndIncrement() & Integer.MAX_VALUE) % conns_per_peer;
+            case thread:
+                return threadLane(conns_per_peer);
+            default:
+                return flagLane(flags(data, offset, length), length);
+        }
+    }
+
+    protected int lane(ByteBuffer buf) {
+        if(conns_per_peer <= 1 || policy != LanePolicy.flag)
+            return lane(null, 0, 0);
+        int pos=buf.position();
+        short flags=buf.remaining() >= 6 && (buf.get(pos+2) & LIST) == 0? buf.getShort(pos+4) : 0;
+        return flagLane(flags, buf.remaining());
+    }
+
+    /**
+     * Lane 0 carries OOB and internal messages. If there are more than 2 lanes, OOB messages of lane_msg_size or more
+     * use lane 1, so that a large OOB message doesn't delay smaller ones. Regular messages are assigned by sending
+     * thread to the remaining lanes: they are never assigned by size, as this would reorder them.
+     */
+    protected int flagLane(short flags, int length) {
+        int first_regular=conns_per_peer > 2? 2 : 1;
+        if((flags & OOB_OR_INTERNAL) == 0)
+            return first_regular + threadLane(conns_per_peer - first_regular);
+        boolean large_oob=first_regular > 1 && (flags & Message.Flag.OOB.value()) != 0 && length >= lane_msg_size;
+        return large_oob? 1 : 0;
+    }
+
+    protected static int threadLane(int num_lanes) {
+        return (int)(Thread.currentThread().getId() % num_lanes);
+    }
+
+    /** Returns the flags of a single serialized message, or 0 if data is a message list */
+    protected static short flags(byte[] data, int offset, int length) {
+        // version (short) | flags (byte) | leading (byte) | message flags (short)
+        if(data == null || length < 6 || (data[offset+2] & LIST) == LIST)
+            return 0;
+        return (short)((data[offset+4] << 8) | (data[offset+5] & 0xff));
     }
 
     public String getInfo() {
@@ -121,8 +215,31 @@ public abstract class BasicTCP extends TP implements Receiver {
 
     public abstract void retainAll(Collection<Address> members);
 
+    public void receive(Address sender, byte[] data, int offset, int length) {
+        if(stats && data != null)
+            socketStats(sender).received(length);
+        super.receive(sender, data, offset, length);
+    }
+
+    public void receive(Address sender, DataInput in, int length) throws Exception {
+        if(stats)
+            socketStats(sender).received(length);
+        receive(sender, in);
+    }
+
     public void receive(Address sender, ByteBuffer buf) {
-        Util.bufferToArray(sender, buf, this);
+        if(buf == null || !buf.isDirect()) {
+            Util.bufferToArray(sender, buf, this);
+            return;
+        }
+        if(stats)
+            socketStats(sender).received(buf.remaining());
+        try { // read the message(s) directly from the (pooled) direct buffer rather than copying it to a byte[] first
+            receive(sender, new ByteBufferInputStream(buf));
+        }
+        catch(Throwable t) {
+            log.error(String.format(Util.getMessage("IncomingMsgFailure"), local_addr), t);
+        }
     }
 
     protected Object handleDownEvent(Event evt) {
@@ -135,6 +252,9 @@ public abstract class BasicTCP extends TP implements Receiver {
                     physical_mbrs.add(physical_addr);
             }
             retainAll(physical_mbrs); // remove all connections which are not members
+            Set<String> names=new HashSet<>();
+            physical_mbrs.forEach(a -> names.add(String.valueOf(a)));
+            socket_stats.keySet().retainAll(names);
         }
         return ret;
     }
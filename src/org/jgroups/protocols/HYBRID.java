@@ -0,0 +1,182 @@
+package org.jgroups.protocols;
+
+import org.jgroups.Address;
+import org.jgroups.Event;
+import org.jgroups.PhysicalAddress;
+import org.jgroups.annotations.Experimental;
+import org.jgroups.annotations.ManagedAttribute;
+import org.jgroups.annotations.ManagedOperation;
+import org.jgroups.annotations.Property;
+import org.jgroups.blocks.cs.NioServer;
+import org.jgroups.blocks.cs.Receiver;
+import org.jgroups.stack.IpAddress;
+import org.jgroups.util.ByteBufferInputStream;
+import org.jgroups.util.Util;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Transport which sends multicasts and small unicasts via {@link UDP}, and unicasts of tcp_threshold bytes or more
+ * via TCP (non-blocking, as in {@link TCP_NIO2}). Large unicasts (e.g. RPC responses) are thus not fragmented by IP
+ * and retransmitted as a whole when a fragment is lost, while group traffic is still sent as a single IP multicast.<p/>
+ * The TCP server listens on the same port as the UDP unicast socket, so a member has a single physical address
+ * (and the logical address cache and discovery are shared by both); a connection to a member is established when
+ * the first large unicast is sent to it, and closed when the member leaves the view.
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+@Experimental
+public class HYBRID extends UDP implements Receiver {
+
+    /* ----------------------------------------- Properties -------------------------------------------------- */
+
+    @Property(description="Unicasts of this size (in bytes) or larger are sent via TCP, smaller ones via UDP. " +
+      "Multicasts are always sent via UDP")
+    protected int     tcp_threshold=8192;
+
+    @Property(description="Should TCP no delay flag be turned on")
+    protected boolean tcp_nodelay=true;
+
+    @Property(description="Max time (ms) allowed for a TCP connection to be established",writable=false)
+    protected int     tcp_sock_conn_timeout=2000;
+
+    @Property(description="The max number of outgoing messages that can get queued for a given peer connection " +
+      "(before dropping them). Most messages will get retransmitted; this is mainly used at startup, e.g. to prevent " +
+      "dropped discovery requests or responses (sent unreliably, without retransmission)")
+    protected int     tcp_max_send_buffers=10;
+
+    @Property(description="Max time (ms) a TCP connection can be idle before it is closed. 0 disables this",
+      writable=false)
+    protected long    tcp_conn_expire_time;
+
+
+    /* --------------------------------------------- Fields ------------------------------------------------------ */
+
+    protected NioServer       server;
+    protected final LongAdder num_tcp_sent=new LongAdder(), num_tcp_bytes_sent=new LongAdder();
+
+
+    public int    getTcpThreshold()             {return tcp_threshold;}
+    public HYBRID setTcpThreshold(int t)        {tcp_threshold=t; return this;}
+
+    @ManagedAttribute(description="Number of unicasts sent via TCP")
+    public long   getNumTcpSent()               {return num_tcp_sent.sum();}
+
+    @ManagedAttribute(description="Number of bytes sent via TCP")
+    public long   getNumTcpBytesSent()          {return num_tcp_bytes_sent.sum();}
+
+    @ManagedAttribute(description="Number of TCP connections")
+    public int    getNumTcpConnections()        {return server != null? server.getNumConnections() : 0;}
+
+    @ManagedOperation(description="Prints the TCP connections")
+    public String printConnections()            {return server != null? server.printConnections() : "n/a";}
+
+    @Override
+    public void resetStats() {
+        super.resetStats();
+        num_tcp_sent.reset();
+        num_tcp_bytes_sent.reset();
+    }
+
+    public String getInfo() {
+        return String.format("%sconnections: %s\n", super.getInfo(), printConnections());
+    }
+
+    public String toString() {
+        return "HYBRID(local address: " + local_addr + ')';
+    }
+
+
+    /** Creates the UDP sockets, then the TCP server on the same port as the UDP unicast socket */
+    public void start() throws Exception {
+        super.start();
+        int port=((IpAddress)getPhysicalAddress()).getPort();
+        try {
+            server=new NioServer(getThreadFactory(), getSocketFactory(), bind_addr, port, port, external_addr, external_port);
+        }
+        catch(Exception ex) {
+            super.stop();
+            throw new IllegalStateException(String.format("failed creating TCP server on port %d of %s (same port " +
+                                                            "as the UDP unicast socket)", port, bind_addr), ex);
+        }
+        server.receiver(this)
+          .timeService(time_service)
+          .socketConnectionTimeout(tcp_sock_conn_timeout)
+          .tcpNodelay(tcp_nodelay)
+          .log(this.log);
+        server.maxSendBuffers(tcp_max_send_buffers).usePeerConnections(true);
+        server.copyOnPartialWrite(true); // buffers passed to sendUnicast(PhysicalAddress,ByteBuffer) are reused
+        if(tcp_conn_expire_time > 0)
+            server.connExpireTimeout(tcp_conn_expire_time).reaperInterval(Math.max(tcp_conn_expire_time / 2, 1000));
+    }
+
+    public void stop() {
+        Util.close(server);
+        super.stop();
+    }
+
+    protected void handleConnect() throws Exception {
+        super.handleConnect();
+        server.start();
+    }
+
+    protected void handleDisconnect() {
+        server.stop();
+        super.handleDisconnect();
+    }
+
+    protected Object handleDownEvent(Event evt) {
+        Object ret=super.handleDownEvent(evt);
+        if(evt.getType() == Event.VIEW_CHANGE && server != null) {
+            Set<Address> physical_mbrs=new HashSet<>();
+            for(Address addr: members) {
+                PhysicalAddress physical_addr=getPhysicalAddressFromCache(addr);
+                if(physical_addr != null)
+                    physical_mbrs.add(physical_addr);
+            }
+            server.retainAll(physical_mbrs); // close the connections to members which left
+        }
+        return ret;
+    }
+
+
+    public void sendUnicast(PhysicalAddress dest, byte[] data, int offset, int length) throws Exception {
+        if(length < tcp_threshold) {
+            super.sendUnicast(dest, data, offset, length);
+            return;
+        }
+        server.send(dest, data, offset, length);
+        num_tcp_sent.increment();
+        num_tcp_bytes_sent.add(length);
+    }
+
+    @Override public void sendUnicast(PhysicalAddress dest, ByteBuffer buf) throws Exception {
+        int length=buf.remaining();
+        if(length < tcp_threshold) {
+            super.sendUnicast(dest, buf);
+            return;
+        }
+        server.send(dest, buf.duplicate());
+        num_tcp_sent.increment();
+        num_tcp_bytes_sent.add(length);
+    }
+
+
+    /* ------------------------------- Receiver (messages received via TCP) ----------------------------------- */
+
+    public void receive(Address sender, ByteBuffer buf) {
+        if(buf == null || !buf.isDirect()) {
+            Util.bufferToArray(sender, buf, this);
+            return;
+        }
+        try {
+            receive(sender, new ByteBufferInputStream(buf));
+        }
+        catch(Throwable t) {
+            log.error(String.format(Util.getMessage("IncomingMsgFailure"), local_addr), t);
+        }
+    }
+}
@@ -4,8 +4,13 @@ import org.jgroups.Address;
 import org.jgroups.Message;
 import org.jgroups.logging.Log;
 import org.jgroups.util.ByteArrayDataOutputStream;
+import org.jgroups.util.ByteBufferOutputStream;
+import org.jgroups.util.ByteBufferPool;
 import org.jgroups.util.Util;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
 /**
  * Bundler which doesn't bundle :-) Can be used to measure the diff between bundling and non-bundling (e.g. at runtime)
  * This bundler doesn't use a pool of buffers, but creates a new buffer every time a message is sent.
@@ -26,11 +31,40 @@ public class NoBundler implements Bundler {
     public void stop()  {}
 
     public void send(Message msg) throws Exception {
+        ByteBufferPool pool=transport.getSendBufferPool();
+        if(pool != null && msg.size() + TP.MSG_OVERHEAD <= pool.bufferSize() && sendSingleMessage(msg, pool))
+            return;
         ByteArrayDataOutputStream out=new ByteArrayDataOutputStream((int)(msg.size() + 10));
         sendSingleMessage(msg, out);
     }
 
 
+    /** Serializes the message into a pooled direct buffer; returns false if it didn't fit */
+    protected boolean sendSingleMessage(final Message msg, ByteBufferPool pool) {
+        Address dest=msg.getDest();
+        ByteBuffer buf=pool.acquire();
+        try {
+            Util.writeMessage(msg, new ByteBufferOutputStream(buf), dest == null);
+            buf.flip();
+            transport.doSend(buf, dest);
+            if(transport.statsEnabled())
+                transport.incrNumSingleMsgsSent(1);
+            return true;
+        }
+        catch(BufferOverflowException overflow) {
+            transport.incrNumDirectSendFallbacks();
+            return false;
+        }
+        catch(Throwable e) {
+            log.error(Util.getMessage("SendFailure"),
+                      transport.localAddress(), (dest == null? "cluster" : dest), msg.size(), e.toString(), msg.printHeaders());
+            return true;
+        }
+        finally {
+            pool.release(buf);
+        }
+    }
+
     protected void sendSingleMessage(final Message msg, final ByteArrayDataOutputStream output) {
         Address dest=msg.getDest();
         try {
@@ -0,0 +1,186 @@
+package org.jgroups.protocols;
+
+import org.jgroups.Address;
+import org.jgroups.Message;
+import org.jgroups.PhysicalAddress;
+import org.jgroups.View;
+import org.jgroups.annotations.ManagedAttribute;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Bundler which shards messages by destination: instead of a single queue and bundler thread for all destinations (as
+ * in {@link TransferQueueBundler}), every destination has its own queue, drain loop and max_bundle_size accounting,
+ * so a slow or large destination doesn't delay bundles to other destinations, and bundles to different members are
+ * serialized and sent in parallel.<p/>
+ * If num_stripes is > 0, a fixed number of queues is created and destinations are hashed onto them (multicasts always
+ * use the first stripe). Otherwise, a queue is created on demand for each member of the current view (the multicast
+ * queue is created up front) and queues for destinations which left the view are removed on a view change. Messages to
+ * non-members (e.g. a JOIN_REQ, a late ack to a member which already left) and to physical addresses (discovery) are
+ * sent via the multicast queue, so no queue is ever created for them.<p/>
+ * Since all messages to the same destination go to the same queue (as long as it stays a member), messages from a
+ * given sender to a given destination are not reordered.<p/>
+ * Queue length and fill ratio (average bundle size / max_bundle_size) are reported per queue by {@link #getStats()}.
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+public class PerDestinationBundler implements Bundler {
+    protected TP                               transport;
+    protected final int                        capacity;   // capacity of each queue
+    protected final int                        num_stripes;
+    protected Stripe[]                         stripes;    // used when num_stripes > 0
+    protected final ConcurrentMap<Address,Stripe> dests=new ConcurrentHashMap<>(); // used when num_stripes <= 0
+    protected Stripe                           mcasts;     // used when num_stripes <= 0
+    protected volatile Set<Address>            members=Collections.emptySet(); // only members get their own queue
+    protected volatile boolean                 running;
+
+    public PerDestinationBundler(int capacity, int num_stripes) {
+        this.capacity=TransferQueueBundler.assertPositive(capacity, "bundler capacity cannot be " + capacity);
+        this.num_stripes=num_stripes;
+    }
+
+    @ManagedAttribute(description="Number of bundler queues (fixed number of stripes, or one per destination)")
+    public int numQueues() {return num_stripes > 0? stripes.length : dests.size() + 1;}
+
+    public void init(TP tp) {
+        this.transport=tp;
+        if(num_stripes > 0) {
+            stripes=new Stripe[num_stripes];
+            for(int i=0; i < stripes.length; i++)
+                stripes[i]=createStripe("stripe-" + i);
+        }
+        else
+            mcasts=createStripe("mcast");
+    }
+
+    public synchronized void start() {
+        running=true;
+        if(num_stripes > 0) {
+            for(Stripe s: stripes)
+                s.start();
+        }
+        else {
+            mcasts.start();
+            dests.values().forEach(Stripe::start);
+        }
+    }
+
+    public synchronized void stop() {
+        running=false;
+        if(num_stripes > 0) {
+            for(Stripe s: stripes)
+                s.stop();
+        }
+        else {
+            mcasts.stop();
+            dests.values().forEach(Stripe::stop);
+            dests.clear();
+        }
+    }
+
+    public void send(Message msg) throws Exception {
+        if(running)
+            getStripe(msg.getDest()).send(msg);
+    }
+
+    /** Removes the queues of destinations which are not members anymore. Queued messages are sent first */
+    public synchronized void viewChange(View view) {
+        if(num_stripes > 0 || view == null)
+            return;
+        Set<Address> mbrs=new HashSet<>(view.getMembers());
+        members=mbrs;
+        dests.entrySet().removeIf(e -> {
+            if(mbrs.contains(e.getKey()))
+                return false;
+            e.getValue().stop();
+            return true;
+        });
+    }
+
+    public int size() {
+        if(num_stripes > 0) {
+            int size=0;
+            for(Stripe s: stripes)
+                size+=s.size();
+            return size;
+        }
+        return mcasts.size() + dests.values().stream().mapToInt(Stripe::size).sum();
+    }
+
+    /** Returns queue length, fill ratio and number of bundles sent for each queue */
+    public Map<String,Object> getStats() {
+        Map<String,Object> retval=new LinkedHashMap<>();
+        if(num_stripes > 0) {
+            for(Stripe s: stripes)
+                retval.put(s.name, s.stats());
+        }
+        else {
+            retval.put(mcasts.name, mcasts.stats());
+            dests.values().forEach(s -> retval.put(s.name, s.stats()));
+        }
+        return retval;
+    }
+
+    public void resetStats() {
+        if(num_stripes > 0) {
+            for(Stripe s: stripes)
+                s.resetStats();
+        }
+        else {
+            mcasts.resetStats();
+            dests.values().forEach(Stripe::resetStats);
+        }
+    }
+
+    protected Stripe getStripe(Address dest) {
+        if(num_stripes > 0)
+            return stripes[dest == null? 0 : (dest.hashCode() & Integer.MAX_VALUE) % stripes.length];
+        if(dest == null || dest instanceof PhysicalAddress)
+            return mcasts;
+        Stripe s=dests.get(dest);
+        if(s != null)
+            return s;
+        if(!members.contains(dest))
+            return mcasts;
+        synchronized(this) { // don't start a new stripe while stop() or viewChange() is running
+            if(!members.contains(dest))
+                return mcasts;
+            return dests.computeIfAbsent(dest, d -> {
+                Stripe tmp=createStripe(d.toString());
+                if(running)
+                    tmp.start();
+                return tmp;
+            });
+        }
+    }
+
+    protected Stripe createStripe(String name) {
+        Stripe s=new Stripe(capacity, name);
+        s.init(transport);
+        return s;
+    }
+
+
+    /** A queue with its own bundler thread; messages in different stripes are bundled and sent independently */
+    protected static class Stripe extends TransferQueueBundler {
+        protected final String name;
+
+        protected Stripe(int capacity, String name) {
+            super(capacity);
+            this.name=name;
+        }
+
+        protected String threadName() {return THREAD_NAME + "-" + name;}
+
+        protected String stats() {
+            double fill=fill_count.count() > 0? fill_count.average() / transport.getMaxBundleSize() * 100.0 : 0;
+            return String.format("queue=%d/%d fill=%.2f%% bundles=%d (full=%d no_msgs=%d)",
+                                 queue.size(), capacity(), fill, fill_count.count(),
+                                 num_sends_because_full_queue, num_sends_because_no_msgs);
+        }
+
+        protected int capacity() {return queue.size() + queue.remainingCapacity();}
+    }
+}
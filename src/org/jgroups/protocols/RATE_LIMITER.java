@@ -1,20 +1,38 @@
 package org.jgroups.protocols;
 
+import org.jgroups.Address;
 import org.jgroups.Event;
 import org.jgroups.Message;
+import org.jgroups.View;
 import org.jgroups.annotations.*;
 import org.jgroups.stack.Protocol;
+import org.jgroups.util.DefaultThreadFactory;
+import org.jgroups.util.ThreadFactory;
 import org.jgroups.util.Util;
 
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Protocol which sends at most max_bytes in time_period milliseconds. Can be used instead of a flow control protocol,
- * e.g. UFC or MFC (same position in the stack)
+ * e.g. UFC or MFC (same position in the stack).<p/>
+ * The rate is enforced by token buckets, which are refilled continuously (at max_bytes per time_period) and hold at
+ * most the number of bytes sendable in one time period. A message takes its size from all buckets it is charged to
+ * (going into debt if needed) and is sent when the debt of all of them has been paid back, so messages are paced
+ * smoothly rather than in bursts at the start of every time period.<p/>
+ * A message is charged to the bucket of its destination (if max_bytes_per_dest is set; all multicasts share a
+ * bucket), and to the bucket of the first of its flags listed in flag_limits, or to the global bucket. Messages
+ * flagged as OOB, INTERNAL or NO_FC are not limited.<p/>
+ * The sender is blocked until the message can be sent; if non_blocking is true, the message is queued instead and
+ * sent by a separate thread. There is a FIFO queue per destination, so messages to the same destination are sent in
+ * the order in which they were queued, even if they're charged to different buckets.
  * @author Bela Ban
  */
 @Experimental
@@ -28,23 +46,47 @@ public class RATE_LIMITER extends Protocol {
     @Property(description="Number of milliseconds during which max_bytes bytes can be sent")
     protected long time_period=10L;
 
-    protected long time_period_ns;
+    @Property(description="Max number of bytes to be sent to a single destination in time_period ms (all multicasts " +
+      "count as a single destination). 0 disables per-destination limits")
+    protected long max_bytes_per_dest;
 
+    @Property(description="Limits for messages with a given flag, e.g. \"DONT_BUNDLE:100000,NO_RELIABILITY:50000\" " +
+      "(max bytes in time_period ms). A message is charged to the limit of its first listed flag instead of max_bytes")
+    protected String flag_limits;
 
-    /** Keeps track of the number of bytes sent in the current time period */
-    @GuardedBy("lock")
-    @ManagedAttribute(description="Number of bytes sent in the current time period. Reset after every time period.")
-    protected long num_bytes_sent_in_period=0L;
+    @Property(description="Whether OOB messages are exempt from rate limiting (INTERNAL and NO_FC messages always are)")
+    protected boolean exempt_oob=true;
 
-    @GuardedBy("lock")
-    protected long current_period_start; // time (ns) at which the current period was started
+    @Property(description="If true, messages which cannot be sent yet are queued and sent by a separate thread, " +
+      "instead of blocking the sender",writable=false)
+    protected boolean non_blocking;
+
+    @Property(description="Max number of bytes queued (non_blocking only); senders are blocked when exceeded")
+    protected long max_queue_size=10_000_000;
+
+    protected long time_period_ns;
 
-    protected final Lock lock=new ReentrantLock();
+    // the bucket for messages not charged to a flag bucket
+    protected Bucket                             global;
+    protected final Map<Message.Flag,Bucket>     flag_buckets=new EnumMap<>(Message.Flag.class);
+    protected final ConcurrentMap<Address,Bucket> dest_buckets=new ConcurrentHashMap<>();
+    protected volatile Bucket                    mcast_bucket;
 
-    @ManagedAttribute
-    protected int num_blockings=0;
+    // queued messages (non_blocking only), per destination (null: multicasts). The head of a queue is removed after
+    // it has been sent, so that a message to the same destination is not sent directly while the head is being sent
+    @GuardedBy("lock")
+    protected final Map<Address,Deque<Queued>>   queues=new HashMap<>();
+    // the heads of all queues, sorted by the time at which they can be sent
+    @GuardedBy("lock")
+    protected final PriorityQueue<Queued>        heads=new PriorityQueue<>();
+    @GuardedBy("lock")
+    protected long                               queued_bytes, seqno;
+    protected final Lock                         lock=new ReentrantLock();
+    protected final Condition                    not_empty=lock.newCondition(), not_full=lock.newCondition();
+    protected volatile Thread                    sender;
 
-    protected long total_block_time=0L; // ns
+    protected final LongAdder num_blockings=new LongAdder(), total_block_time=new LongAdder(); // ns
+    protected final LongAdder num_queued=new LongAdder(), num_exempt=new LongAdder(), num_dropped=new LongAdder();
 
     protected int frag_size=0;
 
@@ -56,6 +98,8 @@ public class RATE_LIMITER extends Protocol {
 
     public void setMaxBytes(long max_bytes) {
         this.max_bytes=max_bytes;
+        if(global != null)
+            global.limit(max_bytes, time_period_ns);
     }
 
     public long getTimePeriod() {
@@ -65,22 +109,76 @@ public class RATE_LIMITER extends Protocol {
     public void setTimePeriod(long time_period) {
         this.time_period=time_period;
         this.time_period_ns=TimeUnit.NANOSECONDS.convert(time_period, TimeUnit.MILLISECONDS);
+        if(global != null)
+            global.limit(max_bytes, time_period_ns);
     }
 
+    public long         getMaxBytesPerDest()                 {return max_bytes_per_dest;}
+    public RATE_LIMITER setMaxBytesPerDest(long max)         {max_bytes_per_dest=max; return this;}
+    public String       getFlagLimits()                      {return flag_limits;}
+    public RATE_LIMITER setFlagLimits(String limits)         {flag_limits=limits; return this;}
+    public boolean      isNonBlocking()                      {return non_blocking;}
+    public RATE_LIMITER setNonBlocking(boolean b)            {non_blocking=b; return this;}
+    public RATE_LIMITER setMaxQueueSize(long size)           {max_queue_size=size; return this;}
+
+    @ManagedAttribute(description="Number of times a sender was blocked")
+    public long getNumBlockings() {return num_blockings.sum();}
+
     @ManagedAttribute(description="Total block time in milliseconds")
     public long getTotalBlockTime() {
-        return TimeUnit.MILLISECONDS.convert(total_block_time,TimeUnit.NANOSECONDS);
+        return TimeUnit.MILLISECONDS.convert(total_block_time.sum(),TimeUnit.NANOSECONDS);
     }
 
     @ManagedAttribute(description="Average block time in ms (total block time / number of blockings)")
     public double getAverageBlockTime() {
-        long block_time_ms=getTotalBlockTime();
-        return num_blockings == 0? 0.0 : block_time_ms / (double)num_blockings;
+        long block_time_ms=getTotalBlockTime(), blockings=getNumBlockings();
+        return blockings == 0? 0.0 : block_time_ms / (double)blockings;
+    }
+
+    @ManagedAttribute(description="Number of messages which were queued (non_blocking only)")
+    public long getNumQueued() {return num_queued.sum();}
+
+    @ManagedAttribute(description="Number of queued messages which were dropped because the protocol was stopped " +
+      "(non_blocking only)")
+    public long getNumDropped() {return num_dropped.sum();}
+
+    @ManagedAttribute(description="Number of messages which were not limited (OOB, INTERNAL or NO_FC)")
+    public long getNumExempt() {return num_exempt.sum();}
+
+    @ManagedAttribute(description="Number of bytes currently queued (non_blocking only)")
+    public long getQueuedBytes() {
+        lock.lock();
+        try {
+            return queued_bytes;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @ManagedAttribute(description="The current rate (bytes/sec) of messages charged to max_bytes")
+    public long getRate() {return global != null? global.rate() : 0;}
+
+    @ManagedOperation(description="Prints the limits, current rates (bytes/sec) and available bytes of all buckets")
+    public String printBuckets() {
+        StringBuilder sb=new StringBuilder();
+        if(global != null)
+            sb.append("global: ").append(global).append("\n");
+        flag_buckets.forEach((flag,b) -> sb.append(flag).append(": ").append(b).append("\n"));
+        Bucket mcast=mcast_bucket;
+        if(mcast != null)
+            sb.append("<all>: ").append(mcast).append("\n");
+        dest_buckets.forEach((dest,b) -> sb.append(dest).append(": ").append(b).append("\n"));
+        return sb.toString();
     }
 
     public void resetStats() {
         super.resetStats();
-        num_blockings=0; total_block_time=0;
+        num_blockings.reset();
+        total_block_time.reset();
+        num_queued.reset();
+        num_exempt.reset();
+        num_dropped.reset();
     }
 
     public void init() throws Exception {
@@ -88,62 +186,300 @@ public class RATE_LIMITER extends Protocol {
         if(time_period <= 0)
             throw new IllegalArgumentException("time_period needs to be positive");
         time_period_ns=TimeUnit.NANOSECONDS.convert(time_period, TimeUnit.MILLISECONDS);
+        global=new Bucket(max_bytes, time_period_ns);
+        flag_buckets.clear();
+        if(flag_limits != null) {
+            for(String limit: Util.parseCommaDelimitedStrings(flag_limits)) {
+                int index=limit.indexOf(':');
+                if(index < 0)
+                    throw new IllegalArgumentException(String.format("flag limit \"%s\" must be <flag>:<max bytes>", limit));
+                Message.Flag flag=Message.Flag.valueOf(limit.substring(0, index).trim());
+                flag_buckets.put(flag, new Bucket(Long.parseLong(limit.substring(index+1).trim()), time_period_ns));
+            }
+        }
     }
-    
+
     public void start() throws Exception {
         super.start();
         if(max_bytes < frag_size)
             throw new IllegalStateException("max_bytes (" + max_bytes + ") need to be bigger than frag_size (" + frag_size + ")");
         running=true;
+        if(non_blocking) {
+            ThreadFactory factory=getThreadFactory();
+            if(factory == null)
+                factory=new DefaultThreadFactory("rate-limiter", true);
+            sender=factory.newThread(this::sendQueuedMessages, "rate-limiter");
+            sender.start();
+        }
     }
 
+    /** Unblocks blocked senders and drops queued messages (reliable messages will be retransmitted) */
     public void stop() {
         running=false;
+        Thread tmp=sender;
+        sender=null;
+        if(tmp != null)
+            tmp.interrupt();
+        int dropped=0;
+        lock.lock();
+        try {
+            for(Deque<Queued> q: queues.values())
+                dropped+=q.size();
+            queues.clear();
+            heads.clear();
+            queued_bytes=0;
+            not_full.signalAll();
+            not_empty.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+        if(dropped > 0) {
+            num_dropped.add(dropped);
+            log.debug("dropped %d queued messages on stop", dropped);
+        }
         super.stop();
     }
 
     public Object down(Event evt) {
-        if(evt.getType() == Event.CONFIG) {
-            Map<String,Object> map=evt.getArg();
-            Integer tmp=map != null? (Integer)map.get("frag_size") : null;
-            if(tmp != null)
-                frag_size=tmp;
-            if(frag_size > 0 && max_bytes % frag_size != 0)
-                log.warn("For optimal performance, max_bytes (%d) should be a multiple of frag_size (%d)", max_bytes, frag_size);
+        switch(evt.getType()) {
+            case Event.CONFIG:
+                Map<String,Object> map=evt.getArg();
+                Integer tmp=map != null? (Integer)map.get("frag_size") : null;
+                if(tmp != null)
+                    frag_size=tmp;
+                if(frag_size > 0 && max_bytes % frag_size != 0)
+                    log.warn("For optimal performance, max_bytes (%d) should be a multiple of frag_size (%d)", max_bytes, frag_size);
+                break;
+            case Event.VIEW_CHANGE:
+                View view=evt.getArg();
+                dest_buckets.keySet().retainAll(view.getMembers());
+                break;
         }
         return down_prot.down(evt);
     }
 
     public Object down(Message msg) {
         int len=msg.getLength();
-        if(len == 0 || msg.isFlagSet(Message.Flag.NO_FC))
+        if(len == 0 || isExempt(msg)) {
+            if(len > 0)
+                num_exempt.increment();
             return down_prot.down(msg);
+        }
 
-        lock.lock();
-        try {
-            if(len > max_bytes) {
-                log.error(Util.getMessage("MessageLength") + len + " bytes) exceeded max_bytes (" + max_bytes + "); " +
-                            "adjusting max_bytes to " + len);
-                max_bytes=len;
+        long now=System.nanoTime(), send_time=reserve(msg, len, now);
+        if(non_blocking)
+            return queue(msg, len, send_time);
+
+        long block_time=send_time - now;
+        if(block_time > 0) {
+            num_blockings.increment();
+            total_block_time.add(block_time);
+            while(running && (block_time=send_time - System.nanoTime()) > 0)
+                LockSupport.parkNanos(block_time);
+        }
+        return down_prot.down(msg);
+    }
+
+
+    protected boolean isExempt(Message msg) {
+        return msg.isFlagSet(Message.Flag.NO_FC) || msg.isFlagSet(Message.Flag.INTERNAL)
+          || (exempt_oob && msg.isFlagSet(Message.Flag.OOB));
+    }
+
+    /** Charges a message to its buckets and returns the time (ns) at which it can be sent */
+    protected long reserve(Message msg, int len, long now) {
+        Bucket bucket=global;
+        if(!flag_buckets.isEmpty()) {
+            for(Map.Entry<Message.Flag,Bucket> entry: flag_buckets.entrySet()) {
+                if(msg.isFlagSet(entry.getKey())) {
+                    bucket=entry.getValue();
+                    break;
+                }
+            }
+        }
+        long send_time=bucket.take(len, now);
+        if(max_bytes_per_dest > 0) {
+            Bucket dest_bucket=destBucket(msg.getDest());
+            send_time=Math.max(send_time, dest_bucket.take(len, now));
+        }
+        return send_time;
+    }
+
+    protected Bucket destBucket(Address dest) {
+        if(dest != null)
+            return dest_buckets.computeIfAbsent(dest, d -> new Bucket(max_bytes_per_dest, time_period_ns));
+        Bucket b=mcast_bucket;
+        if(b == null) {
+            synchronized(this) {
+                if((b=mcast_bucket) == null)
+                    mcast_bucket=b=new Bucket(max_bytes_per_dest, time_period_ns);
             }
+        }
+        return b;
+    }
 
-            if(num_bytes_sent_in_period + len > max_bytes) { // size exceeded
-                long current_time=System.nanoTime();
-                long block_time=time_period_ns - (current_time - current_period_start);
-                if(block_time > 0) {
-                    LockSupport.parkNanos(block_time);
-                    num_blockings++;
-                    total_block_time+=block_time;
+    /**
+     * Sends the message if nothing is queued for its destination and it can be sent now, else adds it to the queue
+     * of its destination. The message is sent after all messages queued before it to the same destination.
+     */
+    protected Object queue(Message msg, int len, long send_time) {
+        Address dest=msg.getDest();
+        boolean queue;
+        lock.lock();
+        try {
+            if(queue=queues.containsKey(dest) || send_time - System.nanoTime() > 0) {
+                while(running && queued_bytes > 0 && queued_bytes + len > max_queue_size) {
+                    num_blockings.increment();
+                    long start=System.nanoTime();
+                    not_full.await();
+                    total_block_time.add(System.nanoTime() - start);
+                }
+                if(!running) {
+                    num_dropped.increment();
+                    return null;
                 }
-                current_period_start=block_time > 0? current_time + block_time : System.nanoTime();
-                num_bytes_sent_in_period=0;
+                Queued queued=new Queued(msg, len, send_time, seqno++);
+                Deque<Queued> q=queues.computeIfAbsent(dest, d -> new ArrayDeque<>());
+                q.add(queued);
+                if(q.size() == 1) {
+                    heads.add(queued);
+                    not_empty.signal();
+                }
+                queued_bytes+=len;
+                num_queued.increment();
             }
         }
+        catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
         finally {
-            num_bytes_sent_in_period+=len;
             lock.unlock();
         }
+        return queue? null : down_prot.down(msg); // sent outside of the lock
+    }
 
-        return down_prot.down(msg);
+    /**
+     * Run by the sender thread (non_blocking only): sends the head of a destination queue when its time has come. The
+     * next message in that queue becomes its head after the message has been sent (even if it could be sent earlier
+     * than its predecessor), so messages to the same destination are sent in order.
+     */
+    protected void sendQueuedMessages() {
+        while(sender != null) {
+            Queued q;
+            lock.lock();
+            try {
+                while((q=heads.peek()) == null || q.send_time - System.nanoTime() > 0) {
+                    if(sender == null)
+                        return;
+                    if(q == null)
+                        not_empty.await();
+                    else
+                        not_empty.awaitNanos(q.send_time - System.nanoTime());
+                }
+                heads.poll();
+            }
+            catch(InterruptedException ie) {
+                break;
+            }
+            finally {
+                lock.unlock();
+            }
+            try {
+                down_prot.down(q.msg);
+            }
+            catch(Throwable t) {
+                log.error("failed sending queued message: %s", t);
+            }
+            lock.lock();
+            try {
+                Deque<Queued> tmp=queues.get(q.msg.getDest());
+                if(tmp == null || tmp.peek() != q) // cleared by stop()
+                    continue;
+                tmp.poll();
+                queued_bytes-=q.len;
+                not_full.signalAll();
+                Queued next=tmp.peek();
+                if(next != null)
+                    heads.add(next);
+                else
+                    queues.remove(q.msg.getDest());
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+
+
+    /**
+     * A token bucket holding at most max_bytes, which is refilled at max_bytes per period. A take is always granted,
+     * but may leave the bucket in debt; the returned time is when the debt will have been paid back.
+     */
+    protected static class Bucket {
+        protected double tokens;        // bytes available; negative: debt
+        protected double rate;          // bytes per ns
+        protected long   capacity;      // max bytes
+        protected long   last_refill;   // ns
+        protected long   window_start, window_bytes, last_rate; // to compute the rate (bytes/sec)
+
+        protected Bucket(long max_bytes, long period_ns) {
+            limit(max_bytes, period_ns);
+            tokens=capacity;
+            last_refill=window_start=System.nanoTime();
+        }
+
+        protected synchronized Bucket limit(long max_bytes, long period_ns) {
+            capacity=max_bytes;
+            rate=max_bytes / (double)period_ns;
+            tokens=Math.min(tokens, capacity);
+            return this;
+        }
+
+        /** Takes len bytes and returns the time (ns) at which the bucket won't be in debt anymore */
+        protected synchronized long take(int len, long now) {
+            tokens=Math.min(capacity, tokens + (now - last_refill) * rate);
+            last_refill=now;
+            tokens-=len;
+            if(now - window_start >= 1_000_000_000L) {
+                last_rate=(long)(window_bytes * 1_000_000_000.0 / (now - window_start));
+                window_start=now;
+                window_bytes=0;
+            }
+            window_bytes+=len;
+            return tokens >= 0? now : now + (long)(-tokens / rate);
+        }
+
+        /** The rate (bytes/sec) during the last second in which messages were sent */
+        protected synchronized long rate() {
+            long elapsed=System.nanoTime() - window_start;
+            if(elapsed >= 2_000_000_000L)
+                return 0;
+            return elapsed >= 1_000_000_000L? (long)(window_bytes * 1_000_000_000.0 / elapsed) : last_rate;
+        }
+
+        public synchronized String toString() {
+            return String.format("limit=%s/sec, rate=%s/sec, available=%s", Util.printBytes(rate * 1_000_000_000L),
+                                 Util.printBytes(rate()), Util.printBytes((long)tokens));
+        }
+    }
+
+    protected static class Queued implements Comparable<Queued> {
+        protected final Message msg;
+        protected final int     len;
+        protected final long    send_time, seqno;
+
+        protected Queued(Message msg, int len, long send_time, long seqno) {
+            this.msg=msg;
+            this.len=len;
+            this.send_time=send_time;
+            this.seqno=seqno;
+        }
+
+        public int compareTo(Queued o) {
+            long diff=send_time - o.send_time;
+            return diff != 0? (diff < 0? -1 : 1) : Long.compare(seqno, o.seqno);
+        }
     }
 }
@@ -0,0 +1,386 @@
+package org.jgroups.protocols;
+
+import org.jgroups.PhysicalAddress;
+import org.jgroups.annotations.Experimental;
+import org.jgroups.annotations.ManagedAttribute;
+import org.jgroups.annotations.ManagedOperation;
+import org.jgroups.annotations.Property;
+import org.jgroups.stack.IpAddress;
+import org.jgroups.util.ShmRing;
+import org.jgroups.util.Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Transport which sends unicasts to members on the same host through shared memory, and uses {@link UDP} for
+ * everything else (multicasts, unicasts to members on other hosts or members not running SHM).<p/>
+ * Every member creates an inbox directory (named after its physical address) under shm_dir. To send a unicast to a
+ * physical address on the same host whose inbox exists, a member creates a {@link ShmRing} (a memory-mapped file)
+ * in the inbox and writes messages to it. The inbox is scanned periodically for new rings, which are then read by a
+ * single reader thread; when no messages are available, the reader thread busy-spins for spin_count iterations, then
+ * parks for increasing times (up to max_park_time). Whether a destination is reached via shared memory is decided
+ * per physical address; when a ring is full, the message is sent via UDP.
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+@Experimental
+public class SHM extends UDP {
+
+    /* ----------------------------------------- Properties -------------------------------------------------- */
+
+    @Property(description="The directory under which the inboxes are created. Should be a memory-backed file system " +
+      "such as /dev/shm. If it doesn't exist, java.io.tmpdir is used",writable=false)
+    protected String shm_dir="/dev/shm";
+
+    @Property(description="The size (in bytes) of a ring to another member. Messages larger than this are sent via UDP",
+      writable=false)
+    protected int    ring_size=1 << 20;
+
+    @Property(description="Number of iterations the reader thread busy-spins when no messages are available, " +
+      "before it starts parking")
+    protected int    spin_count=10_000;
+
+    @Property(description="Max time (in microseconds) the reader thread parks when no messages are available. " +
+      "The park time starts at 1 us and is doubled until max_park_time is reached")
+    protected long   max_park_time=100;
+
+    @Property(description="Interval (ms) at which the inbox is scanned for new rings and the heartbeats are updated")
+    protected long   scan_interval=200;
+
+    @Property(description="A ring whose reader hasn't updated its heartbeat for this number of ms is considered " +
+      "dead when full: the ring is removed and the destination will be re-resolved")
+    protected long   reader_timeout=5000;
+
+
+    /* --------------------------------------------- Fields ------------------------------------------------------ */
+
+    protected File                                        inbox;
+    protected volatile Inbound[]                          inbound={};
+    protected final ConcurrentMap<PhysicalAddress,ShmRing> outbound=new ConcurrentHashMap<>();
+    // destinations which cannot be reached via shared memory, cleared on every scan
+    protected final Set<PhysicalAddress>                  no_shm=ConcurrentHashMap.newKeySet();
+    protected final ConcurrentMap<InetAddress,Boolean>    local_addrs=new ConcurrentHashMap<>();
+    protected volatile Thread                             reader;
+    protected Future<?>                                   scan_task;
+
+    protected final LongAdder num_shm_sent=new LongAdder(), num_shm_received=new LongAdder(), num_fallbacks=new LongAdder();
+
+
+    public String getShmDir()             {return shm_dir;}
+    public SHM    setShmDir(String d)     {shm_dir=d; return this;}
+    public int    getRingSize()           {return ring_size;}
+    public SHM    setRingSize(int s)      {ring_size=s; return this;}
+    public File   getInbox()              {return inbox;}
+
+    @ManagedAttribute(description="Number of messages sent via shared memory")
+    public long getNumShmSent()           {return num_shm_sent.sum();}
+
+    @ManagedAttribute(description="Number of messages received via shared memory")
+    public long getNumShmReceived()       {return num_shm_received.sum();}
+
+    @ManagedAttribute(description="Number of messages to members on the same host sent via UDP because the " +
+      "ring was full or the message too large")
+    public long getNumFallbacks()         {return num_fallbacks.sum();}
+
+    @ManagedAttribute(description="Number of rings to other members")
+    public int  getNumOutboundRings()     {return outbound.size();}
+
+    @ManagedAttribute(description="Number of rings from other members")
+    public int  getNumInboundRings()      {return inbound.length;}
+
+    @Override
+    public void resetStats() {
+        super.resetStats();
+        num_shm_sent.reset();
+        num_shm_received.reset();
+        num_fallbacks.reset();
+    }
+
+    @ManagedOperation(description="Prints the rings to and from other members")
+    public String printRings() {
+        StringBuilder sb=new StringBuilder("inbox: ").append(inbox).append("\nout:\n");
+        outbound.forEach((dest,ring) -> sb.append("  ").append(dest).append(": ").append(ring).append("\n"));
+        sb.append("in:\n");
+        for(Inbound in: inbound)
+            sb.append("  ").append(in.sender).append(": ").append(in.ring).append("\n");
+        return sb.toString();
+    }
+
+    public String toString() {
+        return "SHM(local address: " + local_addr + ')';
+    }
+
+
+    public void init() throws Exception {
+        super.init();
+        if(ring_size <= 0)
+            throw new IllegalArgumentException("ring_size (" + ring_size + ") must be > 0");
+        File dir=new File(shm_dir);
+        if(!dir.isDirectory()) {
+            log.warn("%s: %s doesn't exist; using %s", local_addr, shm_dir, System.getProperty("java.io.tmpdir"));
+            shm_dir=System.getProperty("java.io.tmpdir");
+        }
+    }
+
+    /** Creates the UDP sockets and the inbox, and starts the reader thread */
+    public void start() throws Exception {
+        super.start();
+        inbox=inbox((IpAddress)getPhysicalAddress());
+        delete(inbox); // left over from a previous member with the same address
+        if(!inbox.mkdirs())
+            throw new IOException("failed creating inbox " + inbox);
+        scan_task=timer.scheduleWithFixedDelay(this::scan, scan_interval, scan_interval, TimeUnit.MILLISECONDS, false);
+        reader=getThreadFactory().newThread(this::readLoop, "shm-reader");
+        reader.start();
+    }
+
+    public void stop() {
+        Thread tmp=reader;
+        reader=null;
+        if(tmp != null) {
+            tmp.interrupt();
+            try {
+                tmp.join(500);
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if(scan_task != null)
+            scan_task.cancel(false);
+        for(Inbound in: inbound)
+            in.ring.close();
+        inbound=new Inbound[0];
+        outbound.values().forEach(ShmRing::destroy);
+        outbound.clear();
+        delete(inbox);
+        super.stop();
+    }
+
+
+    public void sendUnicast(PhysicalAddress dest, byte[] data, int offset, int length) throws Exception {
+        ShmRing ring=ring(dest);
+        if(ring != null) {
+            if(ring.write(data, offset, length)) {
+                num_shm_sent.increment();
+                return;
+            }
+            handleFull(dest, ring);
+        }
+        super.sendUnicast(dest, data, offset, length);
+    }
+
+    @Override public void sendUnicast(PhysicalAddress dest, ByteBuffer buf) throws Exception {
+        ShmRing ring=ring(dest);
+        if(ring != null) {
+            if(ring.write(buf)) {
+                num_shm_sent.increment();
+                return;
+            }
+            handleFull(dest, ring);
+        }
+        super.sendUnicast(dest, buf);
+    }
+
+
+    /** Returns the ring to dest, creating it if dest is on the same host and runs SHM, or null */
+    protected ShmRing ring(PhysicalAddress dest) {
+        ShmRing ring=outbound.get(dest);
+        if(ring != null || no_shm.contains(dest) || !(dest instanceof IpAddress))
+            return ring;
+        synchronized(outbound) {
+            if((ring=outbound.get(dest)) != null)
+                return ring;
+            IpAddress addr=(IpAddress)dest;
+            File dir=isLocal(addr.getIpAddress())? inbox(addr) : null;
+            if(dir == null || !dir.isDirectory()) {
+                no_shm.add(dest);
+                return null;
+            }
+            try {
+                ring=ShmRing.create(new File(dir, name((IpAddress)getPhysicalAddress())), ring_size);
+                outbound.put(dest, ring);
+                log.debug("%s: created ring to %s: %s", local_addr, dest, ring.file());
+                return ring;
+            }
+            catch(IOException ex) {
+                log.warn("%s: failed creating ring to %s; using UDP: %s", local_addr, dest, ex);
+                no_shm.add(dest);
+                return null;
+            }
+        }
+    }
+
+    /** Removes the ring to dest if its reader is closed or dead */
+    protected void handleFull(PhysicalAddress dest, ShmRing ring) {
+        num_fallbacks.increment();
+        if(ring.isClosed() || System.currentTimeMillis() - ring.heartbeat() > reader_timeout) {
+            if(outbound.remove(dest, ring)) {
+                log.debug("%s: reader of ring to %s is gone; removing ring", local_addr, dest);
+                ring.destroy();
+            }
+        }
+    }
+
+    protected boolean isLocal(InetAddress addr) {
+        return local_addrs.computeIfAbsent(addr, a -> {
+            try {
+                return a.isLoopbackAddress() || a.isAnyLocalAddress() || NetworkInterface.getByInetAddress(a) != null;
+            }
+            catch(Exception ex) {
+                return false;
+            }
+        });
+    }
+
+    /** Reads messages from all rings, spinning and then parking when none are available */
+    protected void readLoop() {
+        byte[] buf=new byte[ring_size];
+        long park_time=1000, max_park=TimeUnit.NANOSECONDS.convert(max_park_time, TimeUnit.MICROSECONDS);
+        int idle=0;
+        while(reader != null) {
+            int num=0;
+            for(Inbound in: inbound) {
+                if(in.ring.isClosed())
+                    continue;
+                if(buf.length < in.ring.maxMessageSize()) // the ring was created with the sender's ring_size
+                    buf=new byte[in.ring.maxMessageSize()];
+                for(int i=0; i < 64; i++, num++) {
+                    int len;
+                    try {
+                        if((len=in.ring.read(buf)) < 0)
+                            break;
+                    }
+                    catch(Throwable t) { // the ring is corrupt: close it, so that the sender stops using it
+                        log.error("%s: failed reading from ring %s; closing it: %s", local_addr, in.ring.file(), t);
+                        in.ring.close();
+                        break;
+                    }
+                    try {
+                        receive(in.sender, buf, 0, len);
+                    }
+                    catch(Throwable t) {
+                        log.error("%s: failed handling message from %s: %s", local_addr, in.sender, t);
+                    }
+                }
+            }
+            if(num > 0) {
+                num_shm_received.add(num);
+                idle=0;
+                park_time=1000;
+                continue;
+            }
+            if(++idle <= spin_count)
+                continue;
+            LockSupport.parkNanos(park_time);
+            park_time=Math.min(park_time * 2, max_park);
+        }
+    }
+
+    /** Adds new rings in the inbox and removes deleted ones, updates the heartbeats and removes closed rings */
+    protected void scan() {
+        File[] files=inbox != null? inbox.listFiles((dir, name) -> !name.endsWith(".tmp")) : null;
+        if(files != null) {
+            Map<String,Inbound> existing=new HashMap<>();
+            for(Inbound in: inbound)
+                existing.put(in.ring.file().getName(), in);
+            List<Inbound> list=new ArrayList<>(files.length);
+            boolean changed=false;
+            for(File f: files) {
+                Inbound in=existing.remove(f.getName());
+                Object key=fileKey(f);
+                if(in != null && Objects.equals(in.key, key)) {
+                    list.add(in);
+                    continue;
+                }
+                // replaced by a new incarnation of the sender: drain the old ring (unless it was closed as corrupt)
+                if(in != null && !in.ring.isEmpty() && !in.ring.isClosed()) {
+                    list.add(in);
+                    continue;
+                }
+                try {
+                    list.add(new Inbound(ShmRing.open(f), key, sender(f.getName())));
+                    changed=true;
+                }
+                catch(Exception ex) {
+                    log.warn("%s: failed opening ring %s: %s", local_addr, f, ex);
+                }
+            }
+            for(Inbound in: existing.values()) { // deleted rings are removed when all messages have been read
+                if(in.ring.isEmpty() || in.ring.isClosed())
+                    changed=true;
+                else
+                    list.add(in);
+            }
+            if(changed || list.size() != inbound.length)
+                inbound=list.toArray(new Inbound[0]);
+        }
+        long now=System.currentTimeMillis();
+        for(Inbound in: inbound)
+            in.ring.heartbeat(now);
+        outbound.forEach((dest,ring) -> {
+            if(ring.isClosed() && outbound.remove(dest, ring))
+                ring.destroy();
+        });
+        no_shm.clear();
+    }
+
+    protected File inbox(IpAddress addr) {
+        return new File(new File(shm_dir, "jgroups"), name(addr));
+    }
+
+    protected static String name(IpAddress addr) {
+        return addr.getIpAddress().getHostAddress() + "_" + addr.getPort();
+    }
+
+    protected static IpAddress sender(String name) throws Exception {
+        int index=name.lastIndexOf('_');
+        return new IpAddress(name.substring(0, index), Integer.parseInt(name.substring(index+1)));
+    }
+
+    protected static Object fileKey(File f) {
+        try {
+            return Files.readAttributes(f.toPath(), BasicFileAttributes.class).fileKey();
+        }
+        catch(IOException ex) {
+            return null;
+        }
+    }
+
+    protected static void delete(File dir) {
+        if(dir == null)
+            return;
+        File[] files=dir.listFiles();
+        if(files != null)
+            for(File f: files)
+                f.delete();
+        dir.delete();
+    }
+
+
+    /** A ring from another member */
+    protected static class Inbound {
+        protected final ShmRing   ring;
+        protected final Object    key;    // the file key, to detect a file replaced by a new incarnation of the sender
+        protected final IpAddress sender;
+
+        protected Inbound(ShmRing ring, Object key, IpAddress sender) {
+            this.ring=ring;
+            this.key=key;
+            this.sender=sender;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package org.jgroups.protocols;
+
+import org.jgroups.util.Util;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for a socket of a transport (e.g. the unicast and multicast sockets of {@link UDP}, or the connection to
+ * a peer in {@link BasicTCP}): bytes and packets sent and received. For UDP sockets, the number of datagrams dropped
+ * by the kernel because the receive buffer was full, and the current size of the receive queue, are read from
+ * /proc/net/udp (and /proc/net/udp6) on Linux by {@link #readUdpDrops(Collection)}; they are -1 where not available.
+ * Sockets are identified in /proc by their local port, so the drops of a multicast socket include those of all
+ * sockets on the same host which are bound to the same multicast port.
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+public class SocketStats {
+    protected static final String[] PROC_FILES={"/proc/net/udp", "/proc/net/udp6"};
+
+    protected final String    name;
+    protected final int       port; // local port of a UDP socket, 0 if n/a
+    protected final LongAdder bytes_sent=new LongAdder(), packets_sent=new LongAdder();
+    protected final LongAdder bytes_received=new LongAdder(), packets_received=new LongAdder();
+    protected volatile long   drops=-1, rx_queue=-1, drops_base;
+
+    public SocketStats(String name, int port) {
+        this.name=name;
+        this.port=port;
+    }
+
+    public String name()            {return name;}
+    public int    port()            {return port;}
+    public long   bytesSent()       {return bytes_sent.sum();}
+    public long   packetsSent()     {return packets_sent.sum();}
+    public long   bytesReceived()   {return bytes_received.sum();}
+    public long   packetsReceived() {return packets_received.sum();}
+    /** Datagrams dropped by the kernel since creation or the last reset (as of the last {@link #readUdpDrops}) */
+    public long   drops()           {return drops < 0? -1 : drops - drops_base;}
+    public long   rxQueue()         {return rx_queue;}
+
+    public SocketStats sent(int bytes) {
+        bytes_sent.add(bytes);
+        packets_sent.increment();
+        return this;
+    }
+
+    public SocketStats received(int bytes) {
+        bytes_received.add(bytes);
+        packets_received.increment();
+        return this;
+    }
+
+    public SocketStats reset() {
+        bytes_sent.reset();
+        packets_sent.reset();
+        bytes_received.reset();
+        packets_received.reset();
+        if(drops >= 0)
+            drops_base=drops;
+        return this;
+    }
+
+    public String toString() {
+        StringBuilder sb=new StringBuilder(name).append(": sent=").append(Util.printBytes(bytesSent()))
+          .append(" (").append(packetsSent()).append(" packets), received=").append(Util.printBytes(bytesReceived()))
+          .append(" (").append(packetsReceived()).append(" packets)");
+        if(drops >= 0)
+            sb.append(", drops=").append(drops()).append(", rx_queue=").append(Util.printBytes(rx_queue));
+        return sb.toString();
+    }
+
+    /**
+     * Updates drops and rx_queue of the given stats (with a port) from /proc/net/udp and /proc/net/udp6. Does nothing
+     * if the files don't exist (e.g. not on Linux)
+     */
+    public static void readUdpDrops(Collection<SocketStats> stats) {
+        long[] drops=new long[stats.size()], rx_queue=new long[stats.size()];
+        boolean[] found=new boolean[stats.size()];
+        for(String file: PROC_FILES) {
+            try(BufferedReader in=new BufferedReader(new FileReader(file))) {
+                in.readLine(); // header
+                String line;
+                while((line=in.readLine()) != null) {
+                    // sl local_address rem_address st tx_queue:rx_queue tr:tm->when retrnsmt uid timeout inode ref pointer drops
+                    String[] cols=line.trim().split("\\s+");
+                    if(cols.length < 13)
+                        continue;
+                    int port=Integer.parseInt(cols[1].substring(cols[1].indexOf(':') + 1), 16);
+                    int index=0;
+                    for(SocketStats s: stats) {
+                        if(s.port > 0 && s.port == port) {
+                            String queues=cols[4];
+                            rx_queue[index]+=Long.parseLong(queues.substring(queues.indexOf(':') + 1), 16);
+                            drops[index]+=Long.parseLong(cols[cols.length-1]);
+                            found[index]=true;
+                        }
+                        index++;
+                    }
+                }
+            }
+            catch(IOException | RuntimeException ignored) {
+            }
+        }
+        int index=0;
+        for(SocketStats s: stats) {
+            if(found[index]) {
+                s.drops=drops[index];
+                s.rx_queue=rx_queue[index];
+            }
+            index++;
+        }
+    }
+}
@@ -80,7 +80,7 @@ public class TCP extends BasicTCP {
 
     public void send(Address dest, byte[] data, int offset, int length) throws Exception {
         if(server != null)
-            server.send(dest, data, offset, length);
+            server.send(dest, lane(data, offset, length), data, offset, length);
     }
 
     public void retainAll(Collection<Address> members) {
@@ -100,6 +100,7 @@ public class TCP extends BasicTCP {
         server.setBufferedInputStreamSize(buffered_input_stream_size).setBufferedOutputStreamSize(buffered_output_stream_size)
           .peerAddressReadTimeout(peer_addr_read_timeout)
           .usePeerConnections(true)
+          .connsPerPeer(conns_per_peer)
           .socketFactory(getSocketFactory());
 
         if(reaper_interval > 0 || conn_expire_time > 0) {
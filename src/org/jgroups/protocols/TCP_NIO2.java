@@ -7,7 +7,9 @@ import org.jgroups.annotations.ManagedAttribute;
 import org.jgroups.annotations.ManagedOperation;
 import org.jgroups.annotations.Property;
 import org.jgroups.blocks.cs.NioServer;
+import org.jgroups.util.ByteBufferPool;
 
+import java.nio.ByteBuffer;
 import java.nio.channels.CancelledKeyException;
 import java.nio.channels.ClosedChannelException;
 import java.util.Collection;
@@ -38,6 +40,25 @@ public class TCP_NIO2 extends BasicTCP {
       "until it terminates. New messages will start a new reader")
     protected long    reader_idle_time=5000;
 
+    @Property(description="Number of selector threads handling reads and writes of connections. 0 means that the " +
+      "acceptor thread handles all connections")
+    protected int     num_selectors;
+
+    @Property(description="If true, messages are read and passed up by the selector thread rather than a reader thread " +
+      "per connection. This avoids a thread handoff per read, but a slow receiver blocks all connections of the selector")
+    protected boolean read_in_selector;
+
+    @Property(description="Max number of buffers kept in the buffer pool. If > 0, messages are read into pooled " +
+      "buffers and passed up without copying (multiple messages per read), and data not written by a partial write is " +
+      "kept in pooled buffers (copy_on_partial_write is ignored). 0 disables the buffer pool")
+    protected int     buffer_pool_size;
+
+    @Property(description="Size (bytes) of a pooled buffer. Messages larger than this are read into a separate buffer")
+    protected int     pooled_buffer_size=64 * 1024;
+
+    @Property(description="Whether pooled buffers are direct (off-heap) or heap buffers")
+    protected boolean pooled_buffers_direct=true;
+
 
     public TCP_NIO2() {}
 
@@ -66,6 +87,9 @@ public class TCP_NIO2 extends BasicTCP {
     @ManagedAttribute(description="Number of times select() was called")
     public int     numSelects() {return server != null? server.numSelects() : -1;}
 
+    @ManagedOperation(description="Prints the load of the selector threads")
+    public String printSelectors() {return server != null? server.printSelectors() : null;}
+
     @ManagedAttribute(description="Number of partial writes for all connections (not all bytes were written)")
     public int     numPartialWrites() {return server.numPartialWrites();}
 
@@ -80,7 +104,31 @@ public class TCP_NIO2 extends BasicTCP {
     public void send(Address dest, byte[] data, int offset, int length) throws Exception {
         if(server != null) {
             try {
-                server.send(dest, data, offset, length);
+                server.send(dest, lane(data, offset, length), data, offset, length);
+            }
+            catch(ClosedChannelException | CancelledKeyException ignored_exceptions) {}
+            catch(Throwable ex) {
+                log.warn("%s: failed sending message to %s: %s", local_addr, dest, ex);
+            }
+        }
+    }
+
+    /** Pooled send buffers can only be reused if a partial write copies the remaining data */
+    @Override protected boolean supportsDirectSend() {
+        return copy_on_partial_write || buffer_pool_size > 0;
+    }
+
+    @Override public void sendMulticast(ByteBuffer buf) throws Exception {
+        sendToMembers(members, buf);
+    }
+
+    @Override public void sendUnicast(PhysicalAddress dest, ByteBuffer buf) throws Exception {
+        if(server != null) {
+            try {
+                int length=buf.remaining();
+                server.send(dest, lane(buf), buf.duplicate()); // gathering write of length and data buffers
+                if(stats)
+                    socketStats(dest).sent(length);
             }
             catch(ClosedChannelException | CancelledKeyException ignored_exceptions) {}
             catch(Throwable ex) {
@@ -103,8 +151,11 @@ public class TCP_NIO2 extends BasicTCP {
           .tcpNodelay(tcp_nodelay).linger(linger)
           .clientBindAddress(client_bind_addr).clientBindPort(client_bind_port).deferClientBinding(defer_client_bind_addr)
           .log(this.log);
-        server.maxSendBuffers(max_send_buffers).usePeerConnections(true);
+        server.maxSendBuffers(max_send_buffers).usePeerConnections(true).connsPerPeer(conns_per_peer);
         server.copyOnPartialWrite(this.copy_on_partial_write).readerIdleTime(this.reader_idle_time);
+        server.numSelectors(num_selectors).readInSelector(read_in_selector);
+        if(buffer_pool_size > 0)
+            server.bufferPool(new ByteBufferPool(buffer_pool_size, pooled_buffer_size, pooled_buffers_direct));
 
         if(reaper_interval > 0 || conn_expire_time > 0) {
             if(reaper_interval == 0) {
@@ -20,8 +20,10 @@ import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
 
 
@@ -55,6 +57,8 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
     public static final    byte    LIST=1; // we have a list of messages rather than a single message when set
     public static final    byte    MULTICAST=2; // message is a multicast (versus a unicast) message when set
     public static final    int     MSG_OVERHEAD=Global.SHORT_SIZE + Global.BYTE_SIZE; // version + flags
+    /** Additional space in pooled send buffers for the header of a message list (dest, src, cluster name etc) */
+    protected static final int     SEND_BUFFER_SLACK=512;
     protected static final long    MIN_WAIT_BETWEEN_DISCOVERIES=TimeUnit.NANOSECONDS.convert(10, TimeUnit.SECONDS);  // ns
     protected static final boolean can_bind_to_mcast_addr;
 
@@ -134,14 +138,38 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
       "might get removed without warning")
     protected boolean loopback_separate_thread=true;
 
-    @Property(description="The fully qualified name of a class implementing MessageProcessingPolicy")
+    @Property(description="The fully qualified name of a class implementing MessageProcessingPolicy, or \"submit\", " +
+      "\"max\", \"sender-affine\" or \"coalesce\"")
     protected String message_processing_policy;
 
 
     @Property(name="message_processing_policy.max_buffer_size",
-      description="Max number of messages buffered for consumption of the delivery thread in MaxOneThreadPerSender. 0 creates an unbounded buffer")
+      description="Max number of messages buffered for consumption of the delivery thread in MaxOneThreadPerSender, or " +
+        "per worker in SenderAffinePolicy. 0 creates an unbounded buffer")
     protected int msg_processing_max_buffer_size=5000;
 
+    @Property(name="message_processing_policy.queue_full_policy",
+      description="What to do with a regular message when the queue of its worker in SenderAffinePolicy has " +
+        "max_buffer_size messages: drop (the message, it will be retransmitted) or block (the receiver thread " +
+        "until there is space)")
+    protected String msg_processing_queue_full_policy="drop";
+
+    @Property(name="message_processing_policy.num_workers",
+      description="Number of worker threads processing regular messages in SenderAffinePolicy. 0 creates one " +
+        "worker per core")
+    protected int msg_processing_num_workers;
+
+    @Property(name="message_processing_policy.max_coalesce_time",
+      description="Max time (in microseconds) CoalescingPolicy delays the delivery of a single message to merge it " +
+        "with subsequent messages from the same sender into a batch. 0 only coalesces messages received while a " +
+        "delivery for the same sender is in progress")
+    protected long msg_processing_max_coalesce_time=100;
+
+    @Property(name="message_processing_policy.coalesce_batch_size",
+      description="Number of messages CoalescingPolicy tries to merge into a batch. Delivery is only delayed if " +
+        "that many messages are expected to arrive within max_coalesce_time")
+    protected int msg_processing_coalesce_batch_size=8;
+
     @Property(description="Thread naming pattern for threads in this channel. Valid values are \"pcl\": " +
       "\"p\": includes the thread name, e.g. \"Incoming thread-1\", \"UDP ucast receiver\", " +
       "\"c\": includes the cluster name, e.g. \"MyCluster\", " +
@@ -155,6 +183,11 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
       description="If true, the common fork-join pool will be used; otherwise a custom ForkJoinPool will be created")
     protected boolean use_common_fork_join_pool;
 
+    @Property(name="thread_pool.use_virtual_threads",description="If true, the thread pool, the internal thread pool " +
+      "and the timer use virtual threads (one per task). Requires a JDK with virtual threads (21+), otherwise the " +
+      "regular thread pools are used",systemProperty=Global.USE_VIRTUAL_THREADS,writable=false)
+    protected boolean use_virtual_threads;
+
     @Property(name="thread_pool.enabled",description="Enable or disable the thread pool")
     protected boolean thread_pool_enabled=true;
 
@@ -234,8 +267,8 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
     @Property(name="max_bundle_size", description="Maximum number of bytes for messages to be queued until they are sent")
     protected int max_bundle_size=64000;
 
-    @Property(description="The type of bundler used (\"ring-buffer\", \"transfer-queue\" (default), \"sender-sends\" or " +
-      "\"no-bundler\") or the fully qualified classname of a Bundler implementation")
+    @Property(description="The type of bundler used (\"ring-buffer\", \"transfer-queue\" (default), \"sender-sends\", " +
+      "\"per-destination\", \"adaptive\" or \"no-bundler\") or the fully qualified classname of a Bundler implementation")
     protected String bundler_type="transfer-queue";
 
     @Property(description="The max number of elements in a bundler if the bundler supports size limitations")
@@ -244,9 +277,22 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
     @Property(description="Number of spins before a real lock is acquired")
     protected int bundler_num_spins=5;
 
+    @Property(description="Number of queues (each with its own bundler thread) of the per-destination bundler. " +
+      "Destinations are hashed onto the queues. If <= 0, one queue is created for each destination")
+    protected int bundler_num_stripes;
+
     @Property(description="The wait strategy for a RingBuffer")
     protected String bundler_wait_strategy="park";
 
+    @Property(description="If true, the bundler serializes messages into pooled direct ByteBuffers which are passed " +
+      "to the socket without copying (zero-copy send path). Only used if the transport supports it (e.g. UDP with " +
+      "batch_receive=true or TCP_NIO2 with copy_on_partial_write=true)",writable=false)
+    protected boolean direct_send_buffers;
+
+    @Property(description="Max number of direct buffers kept in the send buffer pool. Ignored if " +
+      "direct_send_buffers is false",writable=false)
+    protected int send_buffer_pool_size=16;
+
     @ManagedAttribute(description="Fully qualified classname of bundler")
     public String getBundlerClass() {
         return bundler != null? bundler.getClass().getName() : "null";
@@ -260,7 +306,12 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
     }
     public final int getMaxBundleSize()            {return max_bundle_size;}
     public int getBundlerCapacity()                {return bundler_capacity;}
+    public int getBundlerNumStripes()              {return bundler_num_stripes;}
     public int getMessageProcessingMaxBufferSize() {return msg_processing_max_buffer_size;}
+    public int getMessageProcessingNumWorkers()    {return msg_processing_num_workers;}
+    public String getMessageProcessingQueueFullPolicy() {return msg_processing_queue_full_policy;}
+    public long getMessageProcessingMaxCoalesceTime() {return msg_processing_max_coalesce_time;}
+    public int getMessageProcessingCoalesceBatchSize() {return msg_processing_coalesce_batch_size;}
 
     @ManagedAttribute public int getBundlerBufferSize() {
         if(bundler instanceof TransferQueueBundler)
@@ -340,6 +391,9 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
 
     public long getThreadPoolKeepAliveTime() {return thread_pool_keep_alive_time;}
 
+    @ManagedAttribute(description="True if the thread pools and the timer use virtual threads")
+    public boolean useVirtualThreads() {return use_virtual_threads;}
+
     public Object[] getJmxObjects() {
         return new Object[]{msg_stats, msg_processing_policy, bundler};
     }
@@ -366,6 +420,18 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
             msg_processing_policy.init(this);
             return;
         }
+        else if(policy.startsWith("sender-affine")) {
+            msg_processing_policy.destroy();
+            msg_processing_policy=new SenderAffinePolicy();
+            msg_processing_policy.init(this);
+            return;
+        }
+        else if(policy.startsWith("coalesce")) {
+            msg_processing_policy.destroy();
+            msg_processing_policy=new CoalescingPolicy();
+            msg_processing_policy.init(this);
+            return;
+        }
         try {
             Class<MessageProcessingPolicy> clazz=Util.loadClass(policy, getClass());
             msg_processing_policy=clazz.getDeclaredConstructor().newInstance();
@@ -484,6 +550,18 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
 
     protected Bundler                 bundler;
 
+    /** Pool of direct buffers used by the bundler for the zero-copy send path; null if not used */
+    protected ByteBufferPool          send_buffer_pool;
+
+    protected final LongAdder         num_direct_send_fallbacks=new LongAdder();
+
+    /** Counters per socket (or connection), keyed by name. Populated by the subclasses if stats are enabled */
+    protected final Map<String,SocketStats> socket_stats=new ConcurrentHashMap<>();
+
+    /** Time (us) between a message or batch being received and being passed up, and between a message being
+     *  added to a bundle and the bundle being sent. Only recorded if stats are enabled */
+    protected final Histogram         pass_up_delay=new Histogram(), bundler_delay=new Histogram();
+
     protected MessageProcessingPolicy msg_processing_policy=new MaxOneThreadPerSender();
 
     protected DiagnosticsHandler      diag_handler;
@@ -546,6 +624,8 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
 
     public MsgStats getMessageStats() {return msg_stats;}
 
+    public MessageProcessingPolicy getMessageProcessingPolicy() {return msg_processing_policy;}
+
     /** Whether or not hardware multicasting is supported */
     public abstract boolean supportsMulticasting();
 
@@ -560,6 +640,66 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
     public Address localAddress()    {return local_addr;}
     public View    view()            {return view;}
 
+    public boolean         directSendBuffers()                 {return direct_send_buffers;}
+    public <T extends TP> T directSendBuffers(boolean b)       {direct_send_buffers=b; return (T)this;}
+    public int             sendBufferPoolSize()                {return send_buffer_pool_size;}
+    public <T extends TP> T sendBufferPoolSize(int s)          {send_buffer_pool_size=s; return (T)this;}
+    /** Returns the pool of direct send buffers, or null if the zero-copy send path is not used */
+    public ByteBufferPool  getSendBufferPool()                 {return send_buffer_pool;}
+
+    @ManagedAttribute(description="Number of send buffers taken from the pool")
+    public long getSendBufferPoolHits()      {return send_buffer_pool != null? send_buffer_pool.hits() : 0;}
+    @ManagedAttribute(description="Number of send buffers which had to be allocated because the pool was empty")
+    public long getSendBufferPoolMisses()    {return send_buffer_pool != null? send_buffer_pool.misses() : 0;}
+    @ManagedAttribute(description="Number of send buffers which were discarded because the pool was full")
+    public long getSendBufferPoolDrops()     {return send_buffer_pool != null? send_buffer_pool.drops() : 0;}
+    @ManagedAttribute(description="Number of send buffers currently available in the pool")
+    public int  getSendBufferPoolAvailable() {return send_buffer_pool != null? send_buffer_pool.available() : 0;}
+    @ManagedAttribute(description="Number of messages which were sent by copying them to a byte[] array, because " +
+      "they didn't fit into a pooled send buffer or the transport doesn't support sending of ByteBuffers")
+    public long getNumDirectSendFallbacks()  {return num_direct_send_fallbacks.sum();}
+    public <T extends TP> T incrNumDirectSendFallbacks() {num_direct_send_fallbacks.increment(); return (T)this;}
+
+    public Histogram   passUpDelay()             {return pass_up_delay;}
+    public Histogram   bundlerDelay()            {return bundler_delay;}
+
+    /** Returns the stats of the given socket, creating them if needed */
+    public SocketStats socketStats(String name, int port) {
+        return socket_stats.computeIfAbsent(name, n -> new SocketStats(n, port));
+    }
+
+    /** Records the time (ns) between a message or batch being handed to the message processing policy and passed up */
+    public <T extends TP> T addPassUpDelay(long ns) {
+        pass_up_delay.add(TimeUnit.NANOSECONDS.toMicros(ns));
+        return (T)this;
+    }
+
+    /** Records the time (ns) between the first message being added to a bundle and the bundle being sent */
+    public <T extends TP> T addBundlerDelay(long ns) {
+        bundler_delay.add(TimeUnit.NANOSECONDS.toMicros(ns));
+        return (T)this;
+    }
+
+    @ManagedAttribute(description="Average time (us) between reception of a message or batch and passing it up")
+    public double getAvgPassUpDelay() {return pass_up_delay.average();}
+
+    @ManagedAttribute(description="Average time (us) between adding a message to a bundle and sending the bundle")
+    public double getAvgBundlerDelay() {return bundler_delay.average();}
+
+    @ManagedOperation(description="Prints the counters of all sockets and the pass-up and bundler delay histograms " +
+      "(in us). Stats need to be enabled")
+    public String printSocketStats() {
+        updateSocketStats();
+        StringBuilder sb=new StringBuilder();
+        socket_stats.values().forEach(s -> sb.append(s).append("\n"));
+        sb.append("pass up delay (us): ").append(pass_up_delay).append("\n").append(pass_up_delay.printBuckets())
+          .append("bundler delay (us): ").append(bundler_delay).append("\n").append(bundler_delay.printBuckets());
+        return sb.toString();
+    }
+
+    /** Called before the socket stats are printed, e.g. to read the number of drops from the OS */
+    protected void updateSocketStats() {}
+
     @ManagedAttribute(description="The physical address of the channel")
     public String getLocalPhysicalAddress() {return local_physical_addr != null? local_physical_addr.printIpAddress() : null;}
 
@@ -569,6 +709,13 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
         msg_stats.reset();
         avg_batch_size.clear();
         msg_processing_policy.reset();
+        num_direct_send_fallbacks.reset();
+        if(send_buffer_pool != null)
+            send_buffer_pool.resetStats();
+        updateSocketStats();
+        socket_stats.values().forEach(SocketStats::reset);
+        pass_up_delay.clear();
+        bundler_delay.clear();
     }
 
     public <T extends TP> T registerProbeHandler(DiagnosticsHandler.ProbeHandler handler) {
@@ -826,6 +973,34 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
      */
     public abstract void sendUnicast(PhysicalAddress dest, byte[] data, int offset, int length) throws Exception;
 
+    /**
+     * Returns true if the transport can send {@link ByteBuffer}s without copying them, and doesn't keep a reference to
+     * the buffer after {@link #sendUnicast(PhysicalAddress,ByteBuffer)} or {@link #sendMulticast(ByteBuffer)}
+     * return, so that the buffer can be reused. Subclasses overriding the 2 methods should also override this method.
+     */
+    protected boolean supportsDirectSend() {return false;}
+
+    /**
+     * Sends a multicast from a ByteBuffer (between position and limit). The default implementation copies the
+     * contents into a byte[] array and calls {@link #sendMulticast(byte[],int,int)}. Must not change the buffer's
+     * position or limit.
+     */
+    public void sendMulticast(ByteBuffer buf) throws Exception {
+        num_direct_send_fallbacks.increment();
+        byte[] tmp=copy(buf);
+        sendMulticast(tmp, 0, tmp.length);
+    }
+
+    /**
+     * Sends a unicast from a ByteBuffer (between position and limit) to a physical address. The default implementation
+     * copies the contents into a byte[] array. Must not change the buffer's position or limit.
+     */
+    public void sendUnicast(PhysicalAddress dest, ByteBuffer buf) throws Exception {
+        num_direct_send_fallbacks.increment();
+        byte[] tmp=copy(buf);
+        sendUnicast(dest, tmp, 0, tmp.length);
+    }
+
     public abstract String getInfo();
 
     /* ------------------------------------------------------------------------------- */
@@ -866,10 +1041,23 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
         // ====================================== Thread pool ===========================
         if(use_common_fork_join_pool)
             use_fork_join_pool=true;
+        if(use_virtual_threads && thread_pool_enabled && !Util.virtualThreadsAvailable()) {
+            log.warn("%s: virtual threads are not supported by this JDK (%s); using regular thread pools",
+                     local_addr, System.getProperty("java.version"));
+            use_virtual_threads=false;
+        }
+        if(use_virtual_threads)
+            use_fork_join_pool=use_common_fork_join_pool=false;
         if(use_fork_join_pool)
             thread_pool_max_threads=Runtime.getRuntime().availableProcessors();
         if(thread_pool == null || (thread_pool instanceof ExecutorService && ((ExecutorService)thread_pool).isShutdown())) {
-            if(thread_pool_enabled) {
+            if(thread_pool_enabled && use_virtual_threads) {
+                // internal and regular/OOB messages are still processed by different executors
+                log.debug("thread pool and internal pool use virtual threads");
+                thread_pool=Util.createVirtualThreadExecutor("jgroups-vt");
+                internal_pool=Util.createVirtualThreadExecutor("jgroups-int-vt");
+            }
+            else if(thread_pool_enabled) {
                 int num_cores=Runtime.getRuntime().availableProcessors();
                 int max_internal_size=Math.max(4, num_cores);
                 log.debug("thread pool min/max/keep-alive: %d/%d/%d use_fork_join=%b, internal pool: %d/%d/%d (%d cores available)",
@@ -940,6 +1128,13 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
         }
         fetchLocalAddresses();
         startDiagnostics();
+        if(direct_send_buffers && send_buffer_pool == null) {
+            if(supportsDirectSend())
+                send_buffer_pool=new ByteBufferPool(send_buffer_pool_size, max_bundle_size + MSG_OVERHEAD + SEND_BUFFER_SLACK);
+            else
+                log.warn("%s: %s doesn't support direct send buffers; falling back to byte[] arrays",
+                         local_addr, getClass().getSimpleName());
+        }
         if(bundler == null) {
             bundler=createBundler(bundler_type);
             bundler.init(this);
@@ -961,6 +1156,10 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
         if(time_service != null)
             time_service.stop();
         timer.stop();
+        if(send_buffer_pool != null) {
+            send_buffer_pool.clear();
+            send_buffer_pool=null;
+        }
     }
 
     public void destroy() {
@@ -1076,6 +1275,9 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
                     }
                     retval.put(key, sb.toString());
                     break;
+                case "socket-stats":
+                    retval.put(key, printSocketStats());
+                    break;
                 case "member-addrs":
                     Set<PhysicalAddress> physical_addrs=logical_addr_cache.nonRemovedValues();
                     String list=Util.print(physical_addrs);
@@ -1087,7 +1289,7 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
     }
 
     public String[] supportedKeys() {
-        return new String[]{"dump", "keys", "uuids", "member-addrs"};
+        return new String[]{"dump", "keys", "uuids", "member-addrs", "socket-stats"};
     }
 
 
@@ -1177,6 +1379,12 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
             case "ab":
             case "alternating-bundler":
                 return new AlternatingBundler();
+            case "adaptive":
+            case "adb":
+                return new AdaptiveBundler(bundler_capacity);
+            case "per-destination":
+            case "pd":
+                return new PerDestinationBundler(bundler_capacity, bundler_num_stripes);
             case "rqb": case "rq":
             case "remove-queue-bundler": case "remove-queue":
                 return new RemoveQueueBundler();
@@ -1373,6 +1581,47 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
         }
     }
 
+    /**
+     * Reads a single message or a message list from in, but adds the message(s) to collector rather than passing them
+     * up. Used by transports which read many datagrams per wakeup: they call this method for every datagram and then
+     * {@link #receive(BatchCollector)} to pass all messages up as one batch per sender and mode.
+     */
+    public void receive(Address sender, DataInput in, BatchCollector collector) {
+        if(in == null) return;
+
+        // drop message from self; it has already been looped back up (https://issues.jboss.org/browse/JGRP-1765)
+        if(Objects.equals(local_physical_addr, sender))
+            return;
+        try {
+            short version=in.readShort();
+            if(!versionMatch(version, sender))
+                return;
+            byte flags=in.readByte();
+            boolean is_message_list=(flags & LIST) == LIST, multicast=(flags & MULTICAST) == MULTICAST;
+            if(is_message_list) {
+                collector.add(Util.readMessageBatch(in, multicast), this::processBatch);
+                return;
+            }
+            Message msg=new Message(false); // don't create headers, readFrom() will do this
+            msg.readFrom(in);
+            if(!multicast && unicastDestMismatch(msg.getDest()))
+                return;
+            TpHeader hdr=msg.getHeader(id);
+            AsciiString cname=hdr != null && hdr.getClusterName() != null? new AsciiString(hdr.getClusterName()) : null;
+            collector.add(msg, multicast, cname, this::processBatch);
+        }
+        catch(Throwable t) {
+            log.error(String.format(Util.getMessage("IncomingMsgFailure"), local_addr), t);
+        }
+    }
+
+    /** Passes all batches of collector up and clears it */
+    public void receive(BatchCollector collector) {
+        if(collector.isEmpty())
+            return;
+        collector.forEach(this::processBatch).clear();
+    }
+
     protected void processBatch(MessageBatch batch, boolean oob, boolean internal) {
         try {
             if(batch != null && !batch.isEmpty())
@@ -1469,6 +1718,66 @@ public abstract class TP extends Protocol implements DiagnosticsHandler.ProbeHan
     }
 
 
+    /**
+     * Sends the contents of a ByteBuffer (between position and limit) to dest, or to all members if dest is null. The
+     * buffer may be reused by the caller when this method returns.
+     */
+    public void doSend(ByteBuffer buf, Address dest) throws Exception {
+        if(stats) {
+            msg_stats.incrNumMsgsSent(1);
+            msg_stats.incrNumBytesSent(buf.remaining());
+        }
+        if(dest == null) {
+            sendMulticast(buf);
+            return;
+        }
+        PhysicalAddress physical_dest=dest instanceof PhysicalAddress? (PhysicalAddress)dest : getPhysicalAddressFromCache(dest);
+        if(physical_dest != null) {
+            sendUnicast(physical_dest, buf);
+            return;
+        }
+        // physical address is not known: the discovery protocol has to be asked, copy the buffer (rare)
+        num_direct_send_fallbacks.increment();
+        byte[] tmp=copy(buf);
+        sendToSingleMember(dest, tmp, 0, tmp.length);
+    }
+
+    /** Fetches the physical addrs for mbrs and sends the buffer to each physical address */
+    protected void sendToMembers(Collection<Address> mbrs, ByteBuffer buf) throws Exception {
+        List<Address> missing=null;
+        if(mbrs == null || mbrs.isEmpty())
+            mbrs=logical_addr_cache.keySet();
+
+        for(Address mbr: mbrs) {
+            PhysicalAddress target=mbr instanceof PhysicalAddress? (PhysicalAddress)mbr : logical_addr_cache.get(mbr);
+            if(target == null) {
+                if(missing == null)
+                    missing=new ArrayList<>(mbrs.size());
+                missing.add(mbr);
+                continue;
+            }
+            try {
+                if(!Objects.equals(local_physical_addr, target))
+                    sendUnicast(target, buf);
+            }
+            catch(SocketException sock_ex) {
+                log.debug(Util.getMessage("FailureSendingToPhysAddr"), local_addr, mbr, sock_ex);
+            }
+            catch(Throwable t) {
+                log.error(Util.getMessage("FailureSendingToPhysAddr"), local_addr, mbr, t);
+            }
+        }
+        if(missing != null)
+            fetchPhysicalAddrs(missing);
+    }
+
+    /** Copies the bytes between position and limit into a new array, without changing the buffer */
+    protected static byte[] copy(ByteBuffer buf) {
+        byte[] tmp=new byte[buf.remaining()];
+        buf.duplicate().get(tmp);
+        return tmp;
+    }
+
     protected void sendToSingleMember(final Address dest, byte[] buf, int offset, int length) throws Exception {
         if(dest instanceof PhysicalAddress) {
             sendUnicast((PhysicalAddress)dest, buf, offset, length);
@@ -56,6 +56,23 @@ public class TUNNEL extends TP implements RouterStub.StubReceiver {
       "this needs to be false; if GossipRouterNio is used, it needs to be true")
     protected boolean use_nio;
 
+    @Property(description="Sends messages to the GossipRouter in batches (if supported by the GossipRouter). Messages " +
+      "added while a batch is being sent are sent in the next batch; the GossipRouter forwards a multicast batch " +
+      "unchanged to all members")
+    protected boolean batch_messages;
+
+    @Property(description="Max number of bytes of messages waiting to be sent in batches. Senders block when exceeded")
+    protected int     max_batch_size=64000;
+
+    @Property(description="Compresses batches (if supported by the GossipRouter). Only used if batch_messages is true")
+    protected boolean compress;
+
+    @Property(description="The compression level (0-9) used when compress is true")
+    protected int     compression_level=1;
+
+    @Property(description="Batches smaller than this number of bytes are not compressed")
+    protected int     min_compress_size=1024;
+
     /* ------------------------------------------ Fields ----------------------------------------------------- */
 
     protected final List<InetSocketAddress> gossip_router_hosts = new ArrayList<>();
@@ -160,11 +177,11 @@ public class TUNNEL extends TP implements RouterStub.StubReceiver {
                     stubManager.destroyStubs();
                 PhysicalAddress physical_addr=getPhysicalAddressFromCache(local);
                 String logical_name=org.jgroups.util.NameCache.get(local);
-                stubManager = new RouterStubManager(this,group,local, logical_name, physical_addr, getReconnectInterval()).useNio(this.use_nio);
-                for (InetSocketAddress gr : gossip_router_hosts) {
+                stubManager = new RouterStubManager(this,group,local, logical_name, physical_addr, getReconnectInterval())
+                  .useNio(this.use_nio).stubConfig(this::configure);
+                for (InetSocketAddress gr : gossip_router_hosts)
                     stubManager.createAndRegisterStub(new IpAddress(bind_addr, bind_port), new IpAddress(gr.getAddress(), gr.getPort()))
-                      .receiver(this).set("tcp_nodelay", tcp_nodelay);
-                }
+                      .receiver(this);
                 stubManager.connectStubs();
                 break;
 
@@ -181,8 +198,7 @@ public class TUNNEL extends TP implements RouterStub.StubReceiver {
             case MESSAGE:
                 if(Objects.equals(local_addr, data.getSender()))
                     return;
-                byte[] msg=data.getBuffer();
-                receive(data.getSender(), msg, 0, msg.length);
+                receive(data.getSender(), data.getBuffer(), data.getOffset(), data.getLength());
                 break;
             case SUSPECT:
                 Address suspect=data.getAddress();
@@ -221,6 +237,12 @@ public class TUNNEL extends TP implements RouterStub.StubReceiver {
         return stubManager.printStubs();
     }
 
+    protected void configure(RouterStub stub) {
+        stub.set("tcp_nodelay", tcp_nodelay);
+        stub.batchMessages(batch_messages).maxBatchSize(max_batch_size).compress(compress)
+          .compressionLevel(compression_level).minCompressSize(min_compress_size);
+    }
+
     protected PhysicalAddress getPhysicalAddress() {
         return sock != null ? new IpAddress(bind_addr, sock.getLocalPort()) : null;
     }
@@ -69,7 +69,7 @@ public class TransferQueueBundler extends BaseBundler implements Runnable {
     public synchronized void start() {
         if(running)
             stop();
-        bundler_thread=transport.getThreadFactory().newThread(this, THREAD_NAME);
+        bundler_thread=transport.getThreadFactory().newThread(this, threadName());
         running=true;
         bundler_thread.start();
     }
@@ -92,6 +92,8 @@ public class TransferQueueBundler extends BaseBundler implements Runnable {
         return super.size() + removeQueueSize() + getBufferSize();
     }
 
+    protected String threadName() {return THREAD_NAME;}
+
     public void send(Message msg) throws Exception {
         if(running)
             queue.put(msg);
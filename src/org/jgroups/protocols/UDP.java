@@ -8,6 +8,8 @@ import org.jgroups.annotations.ManagedAttribute;
 import org.jgroups.annotations.ManagedOperation;
 import org.jgroups.annotations.Property;
 import org.jgroups.stack.IpAddress;
+import org.jgroups.util.BatchCollector;
+import org.jgroups.util.ByteBufferInputStream;
 import org.jgroups.util.SuppressLog;
 import org.jgroups.util.Util;
 
@@ -15,9 +17,16 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
 import java.util.Formatter;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
 
 
 /**
@@ -42,6 +51,9 @@ import java.util.Map;
  * message unmarshalling; this time can now be spent receiving packets. If you
  * have lots of retransmissions because of network input buffer overflow,
  * consider setting this property to true.
+ * <li> param batch_receive - boolean, defaults to false. If set, {@link DatagramChannel}s in non-blocking mode are
+ * used instead of sockets. Every wakeup of a receiver thread drains up to receive_batch_size datagrams into a direct
+ * buffer, and the messages of all datagrams are passed up as one batch per sender.
  * </ul>
  * 
  * @author Bela Ban
@@ -102,9 +114,27 @@ public class UDP extends TP {
       "a datagram packet")
     protected long suppress_time_out_of_buffer_space=60000;
 
+    @Property(description="If true, non-blocking DatagramChannels are used instead of sockets: every wakeup of a " +
+      "receiver thread drains up to receive_batch_size datagrams into a reusable direct buffer and passes the messages " +
+      "of all datagrams up as one batch per sender. If false, datagrams are received one at a time",writable=false)
+    protected boolean batch_receive;
+
+    @Property(description="Max number of datagrams read per wakeup of a receiver thread (only used if batch_receive is true)")
+    protected int receive_batch_size=64;
+
+    @Property(description="Size (in bytes) of the direct buffer into which a receiver thread reads datagrams when " +
+      "batch_receive is true. Must be able to hold at least one max-sized datagram (64KB)",writable=false)
+    protected int batch_receive_buffer_size=1 << 20;
+
     protected int unicast_receiver_threads=1;
     protected int multicast_receiver_threads=1;
 
+    /** Max size of a datagram (IPv6 == 65575 bytes, IPv4 = 65535) */
+    protected static final int MAX_DATAGRAM_SIZE=66000;
+
+    /** Number of attempts to send a datagram on a non-blocking channel whose send buffer is full */
+    protected static final int MAX_SEND_ATTEMPTS=10;
+
 
     /* --------------------------------------------- Fields ------------------------------------------------ */
 
@@ -132,8 +162,20 @@ public class UDP extends TP {
     /** Runnable to receive unicast packets */
     protected PacketReceiver[]  ucast_receivers;
 
+    /** Replaces sock when batch_receive is true: sends unicast and multicast datagrams, receives unicast datagrams */
+    protected DatagramChannel   ucast_ch;
+
+    /** Replaces mcast_sock when batch_receive is true */
+    protected DatagramChannel   mcast_ch;
+
+    /** Runnables to receive multicast and unicast datagrams when batch_receive is true */
+    protected ChannelReceiver[] mcast_ch_receivers, ucast_ch_receivers;
+
     protected SuppressLog<InetAddress> suppress_log_out_of_buffer_space;
 
+    /** Counters of the unicast socket (which also sends multicasts) and the multicast socket */
+    protected SocketStats       ucast_stats, mcast_stats;
+
     protected static final boolean is_android, is_mac;
 
 
@@ -159,6 +201,7 @@ public class UDP extends TP {
     public <T extends UDP> T setMulticastTTL(int ttl) {
         this.ip_ttl=ttl;
         setTimeToLive(ttl, sock);
+        setOption(ucast_ch, StandardSocketOptions.IP_MULTICAST_TTL, ttl);
         return (T)this;
     }
 
@@ -190,9 +233,9 @@ public class UDP extends TP {
     public <T extends UDP> T setUcastReceiverThreads(int num) {
         if(unicast_receiver_threads != num) {
             unicast_receiver_threads=num;
-            if(ucast_receivers != null) {
+            if(ucast_receivers != null || ucast_ch_receivers != null) {
                 stopUcastReceiverThreads();
-                ucast_receivers=createReceivers(unicast_receiver_threads, sock, UCAST_NAME);
+                createUcastReceivers();
                 startUcastReceiverThreads();
             }
         }
@@ -210,9 +253,9 @@ public class UDP extends TP {
     public <T extends UDP> T setMcastReceiverThreads(int num) {
         if(multicast_receiver_threads != num) {
             multicast_receiver_threads=num;
-            if(mcast_receivers != null) {
+            if(mcast_receivers != null || mcast_ch_receivers != null) {
                 stopMcastReceiverThreads();
-                mcast_receivers=createReceivers(multicast_receiver_threads, mcast_sock, MCAST_NAME);
+                createMcastReceivers();
                 startMcastReceiverThreads();
             }
         }
@@ -241,12 +284,43 @@ public class UDP extends TP {
     }
 
 
+    /** Only the non-blocking channels (batch_receive=true) can send ByteBuffers without copying */
+    @Override protected boolean supportsDirectSend() {
+        return batch_receive;
+    }
+
+    @Override public void sendMulticast(ByteBuffer buf) throws Exception {
+        if(ucast_ch == null) {
+            super.sendMulticast(buf);
+            return;
+        }
+        if(ip_mcast && mcast_addr != null)
+            _send(new InetSocketAddress(mcast_addr.getIpAddress(), mcast_addr.getPort()), buf.duplicate());
+        else
+            sendToMembers(members, buf);
+    }
+
+    @Override public void sendUnicast(PhysicalAddress dest, ByteBuffer buf) throws Exception {
+        if(ucast_ch == null) {
+            super.sendUnicast(dest, buf);
+            return;
+        }
+        _send(new InetSocketAddress(((IpAddress)dest).getIpAddress(), ((IpAddress)dest).getPort()), buf.duplicate());
+    }
+
+
     protected void _send(InetAddress dest, int port, byte[] data, int offset, int length) throws Exception {
+        if(ucast_ch != null) {
+            _send(new InetSocketAddress(dest, port), ByteBuffer.wrap(data, offset, length));
+            return;
+        }
         DatagramPacket packet=new DatagramPacket(data, offset, length, dest, port);
         // using the datagram socket to send multicasts or unicasts (https://issues.jboss.org/browse/JGRP-1765)
         if(sock != null) {
             try {
                 sock.send(packet);
+                if(stats && ucast_stats != null)
+                    ucast_stats.sent(length);
             }
             catch(IOException ex) {
                 if(suppress_log_out_of_buffer_space != null)
@@ -259,6 +333,33 @@ public class UDP extends TP {
     }
 
 
+    /**
+     * Sends a datagram on the non-blocking unicast channel. If the send buffer is full, the send is retried a few times
+     * before the datagram is dropped (it will get retransmitted), same as with a full buffer on a blocking socket
+     */
+    protected void _send(InetSocketAddress dest, ByteBuffer buf) throws Exception {
+        try {
+            int length=buf.remaining();
+            for(int i=1; ucast_ch.send(buf, dest) == 0; i++) {
+                if(i >= MAX_SEND_ATTEMPTS)
+                    throw new IOException(String.format("send buffer full: dropped datagram of %d bytes", buf.remaining()));
+                LockSupport.parkNanos(i * 1000);
+            }
+            if(stats && ucast_stats != null)
+                ucast_stats.sent(length);
+        }
+        catch(ClosedChannelException closed) {
+        }
+        catch(IOException ex) {
+            if(suppress_log_out_of_buffer_space != null)
+                suppress_log_out_of_buffer_space.log(SuppressLog.Level.warn, dest.getAddress(), suppress_time_out_of_buffer_space,
+                                                     local_addr, dest, ex);
+            else
+                throw ex;
+        }
+    }
+
+
     /* ------------------------------------------------------------------------------- */
 
 
@@ -284,6 +385,13 @@ public class UDP extends TP {
                                                  "packet size of " + Global.MAX_DATAGRAM_PACKET_SIZE);
         if(is_mac && suppress_time_out_of_buffer_space > 0)
             suppress_log_out_of_buffer_space=new SuppressLog<>(log, "FailureSendingToPhysAddr", "SuppressMsg");
+        if(batch_receive) {
+            if(receive_batch_size <= 0)
+                throw new IllegalArgumentException("receive_batch_size (" + receive_batch_size + ") has to be > 0");
+            if(batch_receive_buffer_size < MAX_DATAGRAM_SIZE)
+                throw new IllegalArgumentException("batch_receive_buffer_size (" + batch_receive_buffer_size +
+                                                     ") has to be >= " + MAX_DATAGRAM_SIZE);
+        }
     }
 
     /**
@@ -291,16 +399,18 @@ public class UDP extends TP {
      */
     public void start() throws Exception {
         try {
-            createSockets();
+            if(batch_receive)
+                createChannels();
+            else
+                createSockets();
             super.start();
         }
         catch(Exception ex) {
             destroySockets();
             throw ex;
         }
-        ucast_receivers=createReceivers(unicast_receiver_threads, sock, UCAST_NAME);
-        if(ip_mcast)
-            mcast_receivers=createReceivers(multicast_receiver_threads, mcast_sock, MCAST_NAME);
+        createUcastReceivers();
+        createMcastReceivers();
     }
 
 
@@ -414,11 +524,130 @@ public class UDP extends TP {
     }
 
 
+    /** Creates the channels used instead of the UDP sockets when batch_receive is true */
+    protected void createChannels() throws Exception {
+        if(bind_addr == null)
+            throw new IllegalArgumentException("bind_addr cannot be null") ;
+
+        Util.checkIfValidAddress(bind_addr, getName());
+        if(log.isDebugEnabled()) log.debug("channels will use interface " + bind_addr.getHostAddress());
+        NetworkInterface intf=NetworkInterface.getByInetAddress(bind_addr);
+
+        // 1. unicast channel: receives unicasts, sends unicasts and multicasts; bound to bind_addr:bind_port
+        ucast_ch=createUnicastChannel();
+        if(intf != null)
+            setOption(ucast_ch, StandardSocketOptions.IP_MULTICAST_IF, intf);
+        setOption(ucast_ch, StandardSocketOptions.IP_MULTICAST_TTL, ip_ttl);
+        if(disable_loopback)
+            setOption(ucast_ch, StandardSocketOptions.IP_MULTICAST_LOOP, false);
+        if(tos > 0)
+            setOption(ucast_ch, StandardSocketOptions.IP_TOS, tos);
+
+        // 2. multicast channel: receives multicasts
+        if(ip_mcast) {
+            mcast_ch=getSocketFactory().createDatagramChannel("jgroups.udp.mcast_ch", family(mcast_group_addr));
+            mcast_ch.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            // binding to mcast_addr:mcast_port drops multicasts to different multicast addresses (Linux only, JGRP-777)
+            mcast_ch.bind(can_bind_to_mcast_addr? new InetSocketAddress(mcast_group_addr, mcast_port)
+                            : new InetSocketAddress(mcast_port));
+            if(disable_loopback)
+                setOption(mcast_ch, StandardSocketOptions.IP_MULTICAST_LOOP, false);
+            mcast_addr=new IpAddress(mcast_group_addr, mcast_port);
+
+            if(enable_diagnostics && diagnostics_addr.equals(mcast_group_addr) && diagnostics_port == mcast_port)
+                throw new IllegalArgumentException("diagnostics_addr:diagnostics_port and mcast_addr:mcast_port " +
+                                                     "have to be different");
+            if(receive_on_all_interfaces || (receive_interfaces != null && !receive_interfaces.isEmpty())) {
+                List<NetworkInterface> interfaces=receive_interfaces != null? receive_interfaces
+                  : Util.getAllAvailableInterfaces();
+                for(NetworkInterface i: interfaces) {
+                    try {
+                        mcast_ch.join(mcast_group_addr, i);
+                        log.trace("joined %s on %s", mcast_addr, i.getName());
+                    }
+                    catch(Exception e) {
+                        log.warn(Util.getMessage("InterfaceJoinFailed"), mcast_addr, i.getName());
+                    }
+                }
+            }
+            else {
+                if(intf == null)
+                    throw new IllegalArgumentException("no network interface found for bind_addr " + bind_addr);
+                mcast_ch.join(mcast_group_addr, intf);
+            }
+        }
+
+        setBufferSizes();
+        log.debug("channel information:\n%s", dumpSocketInfo());
+    }
+
+    /** Binds the unicast channel to bind_addr:bind_port, incrementing the port until port_range has been exceeded */
+    protected DatagramChannel createUnicastChannel() throws Exception {
+        int rcv_port=bind_port, max_port=bind_port > 0? bind_port + port_range : 0;
+        Exception saved_exception=null;
+        while(rcv_port <= max_port) {
+            DatagramChannel ch=getSocketFactory().createDatagramChannel("jgroups.udp.ucast_ch", family(bind_addr));
+            try {
+                ch.setOption(StandardSocketOptions.SO_REUSEADDR, false);
+                return ch.bind(new InetSocketAddress(bind_addr, rcv_port));
+            }
+            catch(IOException | SecurityException bind_ex) {
+                getSocketFactory().close(ch);
+                rcv_port++;
+                saved_exception=bind_ex;
+            }
+        }
+        throw new Exception(String.format("failed to open a port in range %d-%d (last exception: %s)",
+                                          bind_port, max_port, saved_exception));
+    }
+
+    protected static ProtocolFamily family(InetAddress addr) {
+        return addr instanceof Inet6Address? StandardProtocolFamily.INET6 : StandardProtocolFamily.INET;
+    }
+
+    protected <T> void setOption(DatagramChannel ch, SocketOption<T> option, T value) {
+        try {
+            if(ch != null)
+                ch.setOption(option, value);
+        }
+        catch(Throwable ex) {
+            log.error("failed setting %s to %s: %s", option, value, ex);
+        }
+    }
+
+
     protected void destroySockets() {
         closeMulticastSocket();
         closeUnicastSocket();
     }
 
+    /** Reads the number of dropped datagrams and the size of the receive queues from the OS */
+    @Override protected void updateSocketStats() {
+        List<SocketStats> list=new ArrayList<>(2);
+        for(SocketStats s: new SocketStats[]{ucast_stats, mcast_stats})
+            if(s != null)
+                list.add(s);
+        SocketStats.readUdpDrops(list);
+    }
+
+    protected void createUcastReceivers() {
+        ucast_stats=socketStats("ucast", ucast_ch != null? ucast_ch.socket().getLocalPort() : sock.getLocalPort());
+        if(ucast_ch != null)
+            ucast_ch_receivers=createReceivers(unicast_receiver_threads, ucast_ch, UCAST_NAME);
+        else
+            ucast_receivers=createReceivers(unicast_receiver_threads, sock, UCAST_NAME);
+    }
+
+    protected void createMcastReceivers() {
+        if(!ip_mcast)
+            return;
+        mcast_stats=socketStats("mcast", mcast_port);
+        if(mcast_ch != null)
+            mcast_ch_receivers=createReceivers(multicast_receiver_threads, mcast_ch, MCAST_NAME);
+        else
+            mcast_receivers=createReceivers(multicast_receiver_threads, mcast_sock, MCAST_NAME);
+    }
+
     protected PacketReceiver[] createReceivers(int num, DatagramSocket sock, String name) {
         PacketReceiver[] receivers=new PacketReceiver[num];
         for(int i=0; i < num; i++)
@@ -426,8 +655,17 @@ public class UDP extends TP {
         return receivers;
     }
 
+    protected ChannelReceiver[] createReceivers(int num, DatagramChannel ch, String name) {
+        ChannelReceiver[] receivers=new ChannelReceiver[num];
+        for(int i=0; i < num; i++)
+            receivers[i]=new ChannelReceiver(ch, name);
+        return receivers;
+    }
+
 
     protected IpAddress createLocalAddress() {
+        if(ucast_ch != null)
+            return createLocalAddress(ucast_ch);
         if(sock == null || sock.isClosed())
             return null;
         if(external_addr != null) {
@@ -438,6 +676,15 @@ public class UDP extends TP {
         return new IpAddress(sock.getLocalAddress(), sock.getLocalPort());
     }
 
+    protected IpAddress createLocalAddress(DatagramChannel ch) {
+        if(!ch.isOpen())
+            return null;
+        InetSocketAddress local=(InetSocketAddress)ch.socket().getLocalSocketAddress();
+        if(external_addr != null)
+            return new IpAddress(external_addr, external_port > 0? external_port : local.getPort());
+        return new IpAddress(local.getAddress(), local.getPort());
+    }
+
     protected <T extends UDP> T setTimeToLive(int ttl, MulticastSocket s) {
         try {
             if(s != null)
@@ -543,6 +790,17 @@ public class UDP extends TP {
             formatter.format("\nmcast_sock: bound to %s:%d, send buffer size=%d, receive buffer size=%d",
                              mcast_sock.getInterface().getHostAddress(), mcast_sock.getLocalPort(),
                              mcast_sock.getSendBufferSize(), mcast_sock.getReceiveBufferSize());
+
+        if(ucast_ch != null)
+            formatter.format("\nucast_ch: bound to %s, receive buffer size=%d, send buffer size=%d",
+                             ucast_ch.getLocalAddress(), ucast_ch.getOption(StandardSocketOptions.SO_RCVBUF),
+                             ucast_ch.getOption(StandardSocketOptions.SO_SNDBUF));
+
+        if(mcast_ch != null)
+            formatter.format("\nmcast_ch: bound to %s, receive buffer size=%d, batch_receive_buffer_size=%d, " +
+                               "receive_batch_size=%d",
+                             mcast_ch.getLocalAddress(), mcast_ch.getOption(StandardSocketOptions.SO_RCVBUF),
+                             batch_receive_buffer_size, receive_batch_size);
         return sb.toString();
     }
 
@@ -553,6 +811,12 @@ public class UDP extends TP {
 
         if(mcast_sock != null)
             setBufferSize(mcast_sock, mcast_send_buf_size, mcast_recv_buf_size);
+
+        if(ucast_ch != null)
+            setBufferSize(ucast_ch.socket(), ucast_send_buf_size, ucast_recv_buf_size);
+
+        if(mcast_ch != null)
+            setBufferSize(mcast_ch.socket(), mcast_send_buf_size, mcast_recv_buf_size);
     }
 
     protected void setBufferSize(DatagramSocket sock, int send_buf_size, int recv_buf_size) {
@@ -584,6 +848,11 @@ public class UDP extends TP {
 
 
     void closeMulticastSocket() {
+        if(mcast_ch != null) {
+            getSocketFactory().close(mcast_ch); // leaves the group and wakes up the selectors of the receivers
+            mcast_ch=null;
+            mcast_addr=null;
+        }
         if(mcast_sock != null) {
             try {
                 if(mcast_addr != null) {
@@ -602,6 +871,10 @@ public class UDP extends TP {
 
     protected void closeUnicastSocket() {
         getSocketFactory().close(sock);
+        if(ucast_ch != null) {
+            getSocketFactory().close(ucast_ch);
+            ucast_ch=null;
+        }
     }
 
 
@@ -614,12 +887,18 @@ public class UDP extends TP {
         if(ucast_receivers != null)
             for(PacketReceiver r: ucast_receivers)
                 r.start();
+        if(ucast_ch_receivers != null)
+            for(ChannelReceiver r: ucast_ch_receivers)
+                r.start();
     }
 
     protected void startMcastReceiverThreads() {
         if(mcast_receivers != null)
             for(PacketReceiver r: mcast_receivers)
                 r.start();
+        if(mcast_ch_receivers != null)
+            for(ChannelReceiver r: mcast_ch_receivers)
+                r.start();
     }
 
     protected void stopThreads() {
@@ -627,8 +906,8 @@ public class UDP extends TP {
         stopUcastReceiverThreads();
     }
 
-    protected void stopUcastReceiverThreads() {Util.close(ucast_receivers);}
-    protected void stopMcastReceiverThreads() {Util.close(mcast_receivers);}
+    protected void stopUcastReceiverThreads() {Util.close(ucast_receivers); Util.close(ucast_ch_receivers);}
+    protected void stopMcastReceiverThreads() {Util.close(mcast_receivers); Util.close(mcast_ch_receivers);}
 
     protected void handleConfigEvent(Map<String,Object> map) {
         boolean set_buffers=false;
@@ -659,10 +938,12 @@ public class UDP extends TP {
         private       Thread         thread;
         private final DatagramSocket receiver_socket;
         private final String         name;
+        private final SocketStats    sock_stats;
 
         public PacketReceiver(DatagramSocket socket, String name) {
             this.receiver_socket=socket;
             this.name=name;
+            this.sock_stats=MCAST_NAME.equals(name)? mcast_stats : ucast_stats;
         }
 
         public synchronized void start() {
@@ -704,6 +985,8 @@ public class UDP extends TP {
                     int len=packet.getLength();
                     if(len > receive_buf.length && log.isErrorEnabled())
                         log.error(Util.getMessage("SizeOfTheReceivedPacket"), len, receive_buf.length, receive_buf.length);
+                    if(stats)
+                        sock_stats.received(len);
 
                     receive(new IpAddress(packet.getAddress(), packet.getPort()),
                             receive_buf, packet.getOffset(), len);
@@ -726,4 +1009,119 @@ public class UDP extends TP {
             return receiver_socket != null? receiver_socket.getLocalSocketAddress().toString() : "null";
         }
     }
+
+
+    /**
+     * Reads datagrams from a non-blocking {@link DatagramChannel}. Every wakeup reads up to receive_batch_size datagrams
+     * back to back into a reusable direct buffer, then unmarshals them and passes all messages up as one batch per
+     * sender and mode. There are no per-datagram allocations of receive buffers and no copying except into the
+     * payloads of the messages.
+     */
+    public class ChannelReceiver implements Runnable, Closeable {
+        private       Thread          thread;
+        private final DatagramChannel channel;
+        private final String          name;
+        private final SocketStats     sock_stats;
+        private       Selector        selector;
+
+        public ChannelReceiver(DatagramChannel channel, String name) {
+            this.channel=channel;
+            this.name=name;
+            this.sock_stats=MCAST_NAME.equals(name)? mcast_stats : ucast_stats;
+        }
+
+        public synchronized void start() {
+            if(thread == null || !thread.isAlive()) {
+                try {
+                    channel.configureBlocking(false);
+                    selector=Selector.open();
+                    channel.register(selector, SelectionKey.OP_READ);
+                }
+                catch(IOException ex) {
+                    log.error("%s: failed registering channel %s: %s", local_addr, this, ex);
+                    Util.close(selector);
+                    return;
+                }
+                thread=getThreadFactory().newThread(this, name);
+                thread.start();
+            }
+        }
+
+        public void close() throws IOException {stop();}
+
+        public synchronized void stop() {
+            Thread tmp=thread;
+            thread=null;
+
+            if(tmp != null && tmp.isAlive()) {
+                selector.wakeup(); // don't interrupt: this would close the channel (InterruptibleChannel)
+                try {
+                    tmp.join(Global.THREAD_SHUTDOWN_WAIT_TIME);
+                }
+                catch(InterruptedException e) {
+                    Thread.currentThread().interrupt(); // set interrupt flag again
+                }
+            }
+            Util.close(selector);
+        }
+
+        public void run() {
+            final ByteBuffer       buf=ByteBuffer.allocateDirect(batch_receive_buffer_size);
+            final int              max=receive_batch_size;
+            final int[]            offsets=new int[max+1];
+            final SocketAddress[]  senders=new SocketAddress[max];
+            final BatchCollector   collector=new BatchCollector();
+
+            while(Thread.currentThread().equals(thread)) {
+                try {
+                    selector.select();
+                    selector.selectedKeys().clear();
+
+                    // 1. drain as many datagrams as possible into buf (without blocking)
+                    int num=0;
+                    buf.clear();
+                    while(num < max && buf.remaining() >= MAX_DATAGRAM_SIZE) {
+                        offsets[num]=buf.position();
+                        SocketAddress sender=channel.receive(buf);
+                        if(sender == null)
+                            break;
+                        senders[num++]=sender;
+                    }
+                    offsets[num]=buf.position();
+
+                    // 2. unmarshal all datagrams and pass the messages up as batches
+                    for(int i=0; i < num; i++) {
+                        ByteBuffer datagram=buf.duplicate();
+                        datagram.limit(offsets[i+1]).position(offsets[i]);
+                        if(stats)
+                            sock_stats.received(datagram.remaining());
+                        receive(new IpAddress((InetSocketAddress)senders[i]), new ByteBufferInputStream(datagram), collector);
+                        senders[i]=null;
+                    }
+                    receive(collector);
+                }
+                catch(ClosedChannelException closed) {
+                    log.debug("%s: receiver channel is closed", local_addr);
+                    break;
+                }
+                catch(Throwable ex) {
+                    if(!channel.isOpen()) {
+                        log.debug("%s: receiver channel is closed, exception=%s", local_addr, ex.getMessage());
+                        break;
+                    }
+                    log.error(Util.getMessage("FailedReceivingPacket"), ex);
+                }
+            }
+            if(log.isDebugEnabled()) log.debug(name + " thread terminated");
+        }
+
+        public String toString() {
+            try {
+                return channel != null? String.valueOf(channel.getLocalAddress()) : "null";
+            }
+            catch(IOException e) {
+                return "n/a";
+            }
+        }
+    }
 }
@@ -25,6 +25,13 @@ import java.util.stream.Stream;
 
 /**
  * Reliable unicast protocol using a combination of positive and negative acks. See docs/design/UNICAST3.txt for details.
+ * <p>
+ * With sack=true, a receiver which has a gap in its receive window acks every message (or batch) immediately, and
+ * adds the ranges of messages received above the gap (SACK blocks) to the ack. The sender retransmits the messages
+ * missing in those ranges after dup_ack_threshold such (duplicate) acks, and retransmits missing messages when no
+ * ack has made progress for the retransmission timeout (RTO) of the connection, which is computed from the
+ * measured round-trip times (as in TCP), instead of resending the highest sent message every xmit_interval ms.
+ * The message used as RTT sample is acked immediately by the receiver, so the sample doesn't include a delayed ack.
  * @author Bela Ban
  * @since  3.3
  */
@@ -57,6 +64,28 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
       "is compacted (only for experts)",writable=false)
     protected long    xmit_table_max_compaction_time= (long) 10 * 60 * 1000;
 
+    @Property(description="If true, a ConcurrentTable (adding messages doesn't acquire a lock) is used as receive " +
+      "window for each sender, else a Table",writable=false)
+    protected boolean xmit_table_concurrent;
+
+    @Property(description="Max number of bytes of off-heap memory used to store sent messages until they are ACKed. " +
+      "Messages are rebuilt from their serialized form only when retransmitted. 0 disables this and keeps sent " +
+      "messages on the heap",writable=false)
+    protected long    xmit_arena_size;
+
+    @Property(description="Size of a chunk of the off-heap memory (xmit_arena_size); messages larger than this are " +
+      "kept on the heap",writable=false)
+    protected int     xmit_arena_chunk_size=1 << 20;
+
+    @Property(description="If set, a memory-mapped file (e.g. under /dev/shm) is used as off-heap memory instead of " +
+      "direct memory",writable=false)
+    protected String  xmit_arena_file;
+
+    @Property(description="What to do with sent messages when the off-heap memory is full: keep them on the heap " +
+      "(\"heap\") or drop the oldest stored messages of the same connection (\"discard\"), which can then not be " +
+      "retransmitted anymore",writable=false)
+    protected String  xmit_arena_full_policy="heap";
+
     // @Property(description="Max time (in ms) after which a connection to a non-member is closed")
     protected long    max_retransmit_time=60 * 1000L;
 
@@ -77,6 +106,24 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
       "the max bundle size in the transport")
     protected int     max_xmit_req_size;
 
+    @Property(description="If true, acks contain the ranges of messages received above a gap (selective acks), " +
+      "senders retransmit missing messages after dup_ack_threshold duplicate acks, and use a retransmission timeout " +
+      "computed from the round-trip time of each connection")
+    protected boolean sack;
+
+    @Property(description="Number of duplicate selective acks after which the missing messages are retransmitted (sack=true)")
+    protected int     dup_ack_threshold=3;
+
+    @Property(description="Max number of ranges of received messages in a selective ack (sack=true)")
+    protected int     max_sack_blocks=4;
+
+    @Property(description="Min retransmission timeout (ms) of a connection (sack=true). Also the interval at which " +
+      "the retransmission timeouts are checked")
+    protected long    min_rto=100;
+
+    @Property(description="Max retransmission timeout (ms) of a connection (sack=true)")
+    protected long    max_rto=10_000;
+
     /* --------------------------------------------- JMX  ---------------------------------------------- */
 
 
@@ -92,8 +139,32 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
     @ManagedAttribute(description="Number of retransmit responses sent")
     protected final LongAdder  xmit_rsps_sent=new LongAdder();
 
+    @ManagedAttribute(description="Number of selective acks sent (sack=true)")
+    protected final LongAdder  sacks_sent=new LongAdder();
+
+    @ManagedAttribute(description="Number of selective acks received (sack=true)")
+    protected final LongAdder  sacks_received=new LongAdder();
+
+    @ManagedAttribute(description="Number of messages retransmitted after dup_ack_threshold duplicate acks (sack=true)")
+    protected final LongAdder  fast_xmits=new LongAdder();
+
+    @ManagedAttribute(description="Number of messages retransmitted after the retransmission timeout expired (sack=true)")
+    protected final LongAdder  rto_xmits=new LongAdder();
+
     protected final AverageMinMax avg_delivery_batch_size=new AverageMinMax();
 
+    protected OffHeapArena        xmit_arena; // stores sent messages off-heap if xmit_arena_size > 0
+
+    @ManagedAttribute(description="Number of bytes of off-heap memory used to store sent messages")
+    public long getXmitArenaBytesInUse() {return xmit_arena != null? xmit_arena.bytesInUse() : 0;}
+
+    @ManagedAttribute(description="Number of sent messages kept on the heap because the off-heap memory was full")
+    public long getXmitArenaOverflows() {return xmit_arena != null? xmit_arena.overflows() : 0;}
+
+    @ManagedAttribute(description="Number of sent messages stored off-heap which were dropped because " +
+      "the off-heap memory was full")
+    public long getXmitArenaDiscards() {return xmit_arena != null? xmit_arena.discards() : 0;}
+
     @ManagedAttribute(description="True if sending a message can block at the transport level")
     protected boolean sends_can_block=true;
 
@@ -111,9 +182,12 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
     /** Used by the retransmit task to keep the last retransmitted seqno per sender (https://issues.jboss.org/browse/JGRP-1539) */
     protected final Map<Address,Long>      xmit_task_map=new HashMap<>();
 
-    /** RetransmitTask running every xmit_interval ms */
+    /** RetransmitTask running every xmit_interval ms (or min_rto ms if sack=true) */
     protected Future<?>                    xmit_task;
 
+    /** Time (ns) of the last run of {@link #triggerXmit()} by the retransmit task (sack=true) */
+    protected long                         last_xmit;
+
     protected volatile List<Address>       members=new ArrayList<>(11);
 
     protected Address                      local_addr;
@@ -192,6 +266,31 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
         return (T)this;
     }
 
+    public boolean  sack()                   {return sack;}
+    public UNICAST3 sack(boolean flag)       {this.sack=flag; return this;}
+    public int      getDupAckThreshold()     {return dup_ack_threshold;}
+    public UNICAST3 setDupAckThreshold(int t){this.dup_ack_threshold=t; return this;}
+    public long     getXmitRequestsSent()    {return xmit_reqs_sent.sum();}
+    public long     getSacksSent()           {return sacks_sent.sum();}
+    public long     getSacksReceived()       {return sacks_received.sum();}
+    public long     getFastXmits()           {return fast_xmits.sum();}
+    public long     getRtoXmits()            {return rto_xmits.sum();}
+
+    /** Returns the retransmission timeout (ms) of the connection to dest, or -1 if there's no connection */
+    public long getRto(Address dest) {
+        SenderEntry entry=send_table.get(dest);
+        return entry != null? entry.rto() : -1;
+    }
+
+    @ManagedOperation(description="Prints the smoothed round-trip time, its variation and the retransmission " +
+      "timeout of all send connections (sack=true)")
+    public String printRtt() {
+        StringBuilder sb=new StringBuilder();
+        for(Map.Entry<Address,SenderEntry> entry: send_table.entrySet())
+            sb.append(entry.getKey()).append(": ").append(entry.getValue().printRtt()).append("\n");
+        return sb.toString();
+    }
+
     public int getXmitTableNumRows() {
         return xmit_table_num_rows;
     }
@@ -334,7 +433,10 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
     public void resetStats() {
         num_msgs_sent=num_msgs_received=num_acks_sent=num_acks_received=num_xmits=0;
         avg_delivery_batch_size.clear();
-        Stream.of(xmit_reqs_received, xmit_reqs_sent, xmit_rsps_sent).forEach(LongAdder::reset);
+        Stream.of(xmit_reqs_received, xmit_reqs_sent, xmit_rsps_sent, sacks_sent, sacks_received, fast_xmits, rto_xmits)
+          .forEach(LongAdder::reset);
+        if(xmit_arena != null)
+            xmit_arena.resetStats();
     }
 
 
@@ -361,12 +463,28 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
             max_xmit_req_size=Math.min(max_xmit_req_size, estimated_max_msgs_in_xmit_req);
         if(old_max_xmit_size != max_xmit_req_size)
             log.trace("%s: set max_xmit_req_size from %d to %d", local_addr, old_max_xmit_size, max_xmit_req_size);
+        if(dup_ack_threshold < 1)
+            throw new IllegalArgumentException("dup_ack_threshold needs to be >= 1");
+        if(min_rto <= 0 || max_rto < min_rto)
+            throw new IllegalArgumentException(String.format("invalid min_rto (%d) / max_rto (%d)", min_rto, max_rto));
+    }
+
+    public void destroy() {
+        super.destroy();
+        if(xmit_arena != null) {
+            xmit_arena.destroy();
+            xmit_arena=null;
+        }
     }
 
     public void start() throws Exception {
         timer=getTransport().getTimer();
         if(timer == null)
             throw new Exception("timer is null");
+        if(xmit_arena_size > 0 && xmit_arena == null) {
+            OffHeapArena.FullPolicy.valueOf(xmit_arena_full_policy); // fails if the policy is invalid
+            xmit_arena=new OffHeapArena(xmit_arena_chunk_size, xmit_arena_size, xmit_arena_file);
+        }
         if(max_retransmit_time > 0)
             cache=new AgeOutCache<>(timer, max_retransmit_time, this);
         running=true;
@@ -393,11 +511,12 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
         switch(hdr.type) {
             case UnicastHeader3.DATA:      // received regular message
                 if(is_trace)
-                    log.trace("%s <-- %s: DATA(#%d, conn_id=%d%s)", local_addr, sender, hdr.seqno, hdr.conn_id, hdr.first? ", first" : "");
+                    log.trace("%s <-- %s: DATA(#%d, conn_id=%d%s%s)", local_addr, sender, hdr.seqno, hdr.conn_id,
+                              hdr.first? ", first" : "", hdr.ack? ", ack" : "");
                 if(Objects.equals(local_addr, sender))
                     handleDataReceivedFromSelf(sender, hdr.seqno, msg);
                 else
-                    handleDataReceived(sender, hdr.seqno, hdr.conn_id, hdr.first, msg);
+                    handleDataReceived(sender, hdr.seqno, hdr.conn_id, hdr.first, hdr.ack, msg);
                 break; // we pass the deliverable message up in handleDataReceived()
             default:
                 handleUpEvent(sender, msg, hdr);
@@ -415,6 +534,10 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
                 case UnicastHeader3.ACK:   // received ACK for previously sent message
                     handleAckReceived(sender, hdr.seqno, hdr.conn_id, hdr.timestamp());
                     break;
+                case UnicastHeader3.SACK:  // ACK plus the ranges of messages received above hdr.seqno
+                    sacks_received.increment();
+                    handleAckReceived(sender, hdr.seqno, hdr.conn_id, hdr.timestamp(), hdr.ranges());
+                    break;
                 case UnicastHeader3.SEND_FIRST_SEQNO:
                     handleResendingOfFirstMessage(sender, hdr.timestamp());
                     break;
@@ -456,6 +579,7 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
         int size=batch.size();
         Map<Short,List<LongTuple<Message>>> msgs=new LinkedHashMap<>();
         ReceiverEntry entry=recv_table.get(batch.sender());
+        boolean ack=false; // true if a message of the batch is an RTT sample
 
         for(Iterator<Message> it=batch.iterator(); it.hasNext();) {
             Message msg=it.next();
@@ -471,6 +595,7 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
 
             List<LongTuple<Message>> list=msgs.computeIfAbsent(hdr.conn_id, k -> new ArrayList<>(size));
             list.add(new LongTuple<>(hdr.seqno(), msg));
+            ack|=hdr.ack;
 
             if(hdr.first)
                 entry=getReceiverEntry(batch.sender(), hdr.seqno(), hdr.first, hdr.connId());
@@ -484,7 +609,7 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
                     sendRequestForFirstSeqno(batch.sender());
                 List<LongTuple<Message>> list=msgs.get(entry.connId());
                 if(list != null && !list.isEmpty())
-                    handleBatchReceived(entry, batch.sender(), list, batch.mode() == MessageBatch.Mode.OOB);
+                    handleBatchReceived(entry, batch.sender(), list, batch.mode() == MessageBatch.Mode.OOB, ack);
             }
         }
 
@@ -602,10 +727,13 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
           && dst.equals(local_addr);
         short send_conn_id=entry.connId();
         long seqno=entry.sent_msgs_seqno.getAndIncrement();
+        // the receiver acks the message immediately if it is an RTT sample
+        boolean rtt_sample=sack && !dst.equals(local_addr) && entry.sent(seqno, System.nanoTime());
         long sleep=10;
         do {
             try {
-                msg.putHeader(this.id,UnicastHeader3.createDataHeader(seqno,send_conn_id,seqno == DEFAULT_FIRST_SEQNO));
+                msg.putHeader(this.id,UnicastHeader3.createDataHeader(seqno,send_conn_id,seqno == DEFAULT_FIRST_SEQNO)
+                  .ack(rtt_sample));
                 // add *including* UnicastHeader, adds to retransmitter
                 entry.msgs.add(seqno, msg, dont_loopback_set? dont_loopback_filter : null);
                 if(conn_expiry_timeout > 0)
@@ -628,6 +756,7 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
             sb.append(local_addr).append(" --> ").append(dst).append(": DATA(").append("#").append(seqno).
               append(", conn_id=").append(send_conn_id);
             if(seqno == DEFAULT_FIRST_SEQNO) sb.append(", first");
+            if(rtt_sample) sb.append(", ack");
             sb.append(')');
             log.trace(sb);
         }
@@ -662,6 +791,7 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
         SenderEntry entry=send_table.remove(mbr);
         if(entry != null) {
             entry.state(State.CLOSED);
+            OffHeapTable.release(entry.msgs);
             if(members.contains(mbr))
                 sendClose(mbr, entry.connId());
         }
@@ -680,6 +810,7 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
      */
     @ManagedOperation(description="Trashes all connections to other nodes. This is only used for testing")
     public void removeAllConnections() {
+        send_table.values().forEach(e -> OffHeapTable.release(e.msgs));
         send_table.clear();
         recv_table.clear();
     }
@@ -724,17 +855,20 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
      * e.received_msgs is null and {@code first} is true: create a new AckReceiverWindow(seqno) and
      * add message. Set e.received_msgs to the new window. Else just add the message.
      */
-    protected void handleDataReceived(final Address sender, long seqno, short conn_id,  boolean first, final Message msg) {
+    protected void handleDataReceived(final Address sender, long seqno, short conn_id, boolean first, boolean ack,
+                                      final Message msg) {
         ReceiverEntry entry=getReceiverEntry(sender, seqno, first, conn_id);
         if(entry == null)
             return;
         update(entry, 1);
         boolean oob=msg.isFlagSet(Message.Flag.OOB);
         final Table<Message> win=entry.msgs;
+        boolean gap=sack && win.getNumMissing() > 0;
         boolean added=win.add(seqno, oob? DUMMY_OOB_MSG : msg); // adding the same dummy OOB msg saves space (we won't remove it)
 
-        if(ack_threshold <= 1)
-            sendAck(sender, win.getHighestDeliverable(), entry.connId());
+        // with sack, messages received while there's a gap (or closing it), and RTT samples are acked immediately
+        if(ack_threshold <= 1 || gap || ack || (sack && win.getNumMissing() > 0))
+            sendAck(sender, win, entry.connId());
         else
             entry.sendAck(true); // will be sent delayed (on the next xmit_interval)
 
@@ -789,19 +923,21 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
 
 
 
-    protected void handleBatchReceived(final ReceiverEntry entry, Address sender, List<LongTuple<Message>> msgs, boolean oob) {
+    protected void handleBatchReceived(final ReceiverEntry entry, Address sender, List<LongTuple<Message>> msgs,
+                                       boolean oob, boolean ack) {
         if(is_trace)
             log.trace("%s <-- %s: DATA(%s)", local_addr, sender, printMessageList(msgs));
 
         int batch_size=msgs.size();
         Table<Message> win=entry.msgs;
+        boolean gap=sack && win.getNumMissing() > 0;
 
         // adds all messages to the table, removing messages from 'msgs' which could not be added (already present)
         boolean added=win.add(msgs, oob, oob? DUMMY_OOB_MSG : null);
 
         update(entry, batch_size);
-        if(batch_size >= ack_threshold)
-            sendAck(sender, win.getHighestDeliverable(), entry.connId());
+        if(batch_size >= ack_threshold || gap || ack || (sack && win.getNumMissing() > 0))
+            sendAck(sender, win, entry.connId());
         else
             entry.sendAck(true);
 
@@ -910,9 +1046,9 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
     protected SenderEntry getSenderEntry(Address dst) {
         SenderEntry entry=send_table.get(dst);
         if(entry == null || entry.state() == State.CLOSED) {
-            if(entry != null)
-                send_table.remove(dst, entry);
-            entry=new SenderEntry(getNewConnectionId());
+            if(entry != null && send_table.remove(dst, entry))
+                OffHeapTable.release(entry.msgs);
+            entry=new SenderEntry(getNewConnectionId(), dst);
             SenderEntry existing=send_table.putIfAbsent(dst, entry);
             if(existing != null)
                 entry=existing;
@@ -929,9 +1065,25 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
     }
 
 
+    /**
+     * Creates the send window of a connection; messages are stored off-heap if enabled. Not done for messages to self,
+     * as these are delivered from the send window (and never retransmitted)
+     */
+    protected Table<Message> createSendWindow(Address dest) {
+        if(xmit_arena != null && !Objects.equals(dest, local_addr))
+            return new OffHeapTable(xmit_table_num_rows, xmit_table_msgs_per_row, 0, xmit_table_resize_factor,
+                                    xmit_table_max_compaction_time, xmit_arena,
+                                    OffHeapArena.FullPolicy.valueOf(xmit_arena_full_policy), true);
+        return new Table<>(xmit_table_num_rows, xmit_table_msgs_per_row, 0,
+                           xmit_table_resize_factor, xmit_table_max_compaction_time);
+    }
+
     protected ReceiverEntry createReceiverEntry(Address sender, long seqno, short conn_id) {
-        Table<Message> table=new Table<>(xmit_table_num_rows, xmit_table_msgs_per_row, seqno-1,
-                                                xmit_table_resize_factor, xmit_table_max_compaction_time);
+        Table<Message> table=xmit_table_concurrent?
+          new ConcurrentTable<>(xmit_table_num_rows, xmit_table_msgs_per_row, seqno-1,
+                                xmit_table_resize_factor, xmit_table_max_compaction_time)
+          : new Table<>(xmit_table_num_rows, xmit_table_msgs_per_row, seqno-1,
+                        xmit_table_resize_factor, xmit_table_max_compaction_time);
         ReceiverEntry entry=new ReceiverEntry(table, conn_id);
         ReceiverEntry entry2=recv_table.putIfAbsent(sender, entry);
         if(entry2 != null)
@@ -942,8 +1094,14 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
 
     /** Add the ACK to hashtable.sender.sent_msgs */
     protected void handleAckReceived(Address sender, long seqno, short conn_id, int timestamp) {
+        handleAckReceived(sender, seqno, conn_id, timestamp, null);
+    }
+
+    /** Handles an ACK or SACK (ranges != null): purges acked messages and retransmits after duplicate SACKs */
+    protected void handleAckReceived(Address sender, long seqno, short conn_id, int timestamp, long[] ranges) {
         if(is_trace)
-            log.trace("%s <-- %s: ACK(#%d, conn-id=%d, ts=%d)", local_addr, sender, seqno, conn_id, timestamp);
+            log.trace("%s <-- %s: %s(#%d, conn-id=%d, ts=%d%s)", local_addr, sender, ranges != null? "SACK" : "ACK",
+                      seqno, conn_id, timestamp, ranges != null? ", ranges=" + Arrays.toString(ranges) : "");
         SenderEntry entry=send_table.get(sender);
         if(entry != null && entry.connId() != conn_id) {
             log.trace("%s: my conn_id (%d) != received conn_id (%d); discarding ACK", local_addr, entry.connId(), conn_id);
@@ -954,6 +1112,11 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
         if(win != null && entry.updateLastTimestamp(timestamp)) {
             win.purge(seqno, true); // removes all messages <= seqno (forced purge)
             num_acks_received++;
+            if(sack) {
+                SeqnoList missing=entry.acked(seqno, ranges, System.nanoTime());
+                if(missing != null)
+                    retransmit(win, missing, fast_xmits);
+            }
         }
     }
 
@@ -1052,7 +1215,8 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
 
     protected void startRetransmitTask() {
         if(xmit_task == null || xmit_task.isDone())
-            xmit_task=timer.scheduleWithFixedDelay(new RetransmitTask(), 0, xmit_interval, TimeUnit.MILLISECONDS, sends_can_block);
+            xmit_task=timer.scheduleWithFixedDelay(new RetransmitTask(), 0, sack? Math.min(xmit_interval, min_rto) : xmit_interval,
+                                                   TimeUnit.MILLISECONDS, sends_can_block);
     }
 
     protected void stopRetransmitTask() {
@@ -1080,6 +1244,41 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
     }
 
 
+    /** Sends an ACK for the highest deliverable seqno of win, or a SACK if sack is true and messages are missing */
+    protected void sendAck(Address dst, Table<Message> win, short conn_id) {
+        long seqno=win.getHighestDeliverable();
+        long[] ranges=sack && win.getNumMissing() > 0? win.getReceivedRanges(max_sack_blocks) : null;
+        if(ranges == null) {
+            sendAck(dst, seqno, conn_id);
+            return;
+        }
+        if(!running)
+            return;
+        Message ack=new Message(dst).setFlag(Message.Flag.INTERNAL)
+          .putHeader(this.id, UnicastHeader3.createSackHeader(seqno, conn_id, timestamper.incrementAndGet(), ranges));
+        if(is_trace)
+            log.trace("%s --> %s: SACK(#%d, ranges=%s)", local_addr, dst, seqno, Arrays.toString(ranges));
+        try {
+            down_prot.down(ack);
+            num_acks_sent++;
+            sacks_sent.increment();
+        }
+        catch(Throwable t) {
+            log.error(Util.getMessage("FailedSendingAck"), local_addr, seqno, dst, t);
+        }
+    }
+
+    /** Resends the given messages of a send window (sack=true) */
+    protected void retransmit(Table<Message> win, SeqnoList seqnos, LongAdder counter) {
+        for(long seqno: seqnos) {
+            Message msg=win.get(seqno);
+            if(msg != null) {
+                retransmit(msg);
+                counter.increment();
+            }
+        }
+    }
+
     protected synchronized short getNewConnectionId() {
         short retval=last_conn_id;
         if(last_conn_id >= Short.MAX_VALUE || last_conn_id < 0)
@@ -1210,6 +1409,15 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
         num_msgs_received+=num_received;
     }
 
+    /** Returns true if seqno is in one of the [from,to] ranges */
+    protected static boolean contains(long[] ranges, long seqno) {
+        if(ranges != null)
+            for(int i=0; i < ranges.length; i+=2)
+                if(seqno >= ranges[i] && seqno <= ranges[i+1])
+                    return true;
+        return false;
+    }
+
     /** Compares 2 timestamps, handles numeric overflow */
     protected static int compare(int ts1, int ts2) {
         int diff=ts1 - ts2;
@@ -1254,9 +1462,19 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
         protected final long[] watermark={0,0}; // the highest acked and highest sent seqno
         protected int          last_timestamp;  // to prevent out-of-order ACKs from a receiver
 
-        public SenderEntry(short send_conn_id) {
-            super(send_conn_id, new Table<>(xmit_table_num_rows, xmit_table_msgs_per_row, 0,
-                                            xmit_table_resize_factor, xmit_table_max_compaction_time));
+        // sack=true, guarded by this
+        protected long         last_ack=-1;     // seqno of the last ACK / SACK
+        protected long[]       sacked;          // ranges of the last SACK
+        protected int          dup_acks;        // number of SACKs with the same seqno
+        protected long         recovered;       // highest seqno retransmitted after duplicate SACKs
+        protected long         rtt_seqno;       // seqno whose ack is awaited for an RTT sample (0: none)
+        protected long         rtt_start;       // time (ns) at which rtt_seqno was sent
+        protected double       srtt, rttvar;    // smoothed RTT and its variation (ms)
+        protected long         rto=Math.max(min_rto, Math.min(max_rto, xmit_interval)); // ms
+        protected long         last_progress;   // time (ns) of the last ack making progress, or timeout
+
+        public SenderEntry(short send_conn_id, Address dest) {
+            super(send_conn_id, createSendWindow(dest));
         }
 
         long[]      watermark()                 {return watermark;}
@@ -1274,6 +1492,106 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
             return success;
         }
 
+        synchronized long rto() {return rto;}
+
+        /**
+         * Called when a message is sent: starts an RTT measurement if none is in progress. Returns true if the message
+         * is used as RTT sample
+         */
+        protected synchronized boolean sent(long seqno, long now) {
+            boolean sample=rtt_seqno == 0;
+            if(sample) {
+                rtt_seqno=seqno;
+                rtt_start=now;
+            }
+            if(seqno - 1 <= last_ack || last_progress == 0) // all previous messages were acked: start the timer
+                last_progress=now;
+            return sample;
+        }
+
+        /**
+         * Called when an ACK (ranges == null) or SACK is received. Updates the RTT and returns the seqnos to be
+         * retransmitted if the SACK is the dup_ack_threshold-th duplicate, or null
+         */
+        protected synchronized SeqnoList acked(long seqno, long[] ranges, long now) {
+            if(rtt_seqno > 0 && (seqno >= rtt_seqno || contains(ranges, rtt_seqno))) {
+                rtt(TimeUnit.NANOSECONDS.toMicros(now - rtt_start) / 1000.0);
+                rtt_seqno=0;
+            }
+            sacked=ranges;
+            if(seqno > last_ack) {
+                last_ack=seqno;
+                dup_acks=0;
+                last_progress=now;
+                return null;
+            }
+            if(ranges == null || ++dup_acks < dup_ack_threshold)
+                return null;
+            SeqnoList missing=missing(Math.max(seqno, recovered) + 1, ranges[ranges.length-1], 0);
+            if(missing != null) {
+                recovered=missing.getLast();
+                rtt_seqno=0; // Karn: no RTT samples from retransmitted messages
+            }
+            return missing;
+        }
+
+        /**
+         * Called periodically if messages are unacked: returns the seqnos to be retransmitted if the retransmission
+         * timeout expired (and doubles it), or null
+         */
+        protected synchronized SeqnoList timedOut(long highest_acked, long highest_sent, long now) {
+            if(last_progress == 0 || now - last_progress < TimeUnit.MILLISECONDS.toNanos(rto))
+                return null;
+            long[] ranges=sacked;
+            long highest_sacked=ranges != null? ranges[ranges.length-1] : highest_acked;
+            // the missing messages below the highest SACKed seqno (or the first unacked), and the highest sent
+            SeqnoList missing=missing(highest_acked+1, Math.max(highest_sacked, highest_acked+1), highest_sent);
+            if(missing == null)
+                return null;
+            rto=Math.min(max_rto, rto * 2); // exponential backoff until the next RTT sample
+            last_progress=now;
+            rtt_seqno=0;
+            recovered=0;
+            return missing;
+        }
+
+        /** Updates the smoothed RTT, its variation and the retransmission timeout (RFC 6298) */
+        protected void rtt(double sample) {
+            if(srtt == 0) {
+                srtt=sample;
+                rttvar=sample / 2;
+            }
+            else {
+                rttvar=0.75 * rttvar + 0.25 * Math.abs(srtt - sample);
+                srtt=0.875 * srtt + 0.125 * sample;
+            }
+            rto=Math.max(min_rto, Math.min(max_rto, (long)Math.ceil(srtt + Math.max(1, 4 * rttvar))));
+        }
+
+        /**
+         * Returns the seqnos in [from .. to] (at most max_xmit_req_size) plus extra (if > 0 and not too far from
+         * from), which are not in the ranges of the last SACK, or null
+         */
+        protected SeqnoList missing(long from, long to, long extra) {
+            long last=Math.min(to, from + max_xmit_req_size - 1);
+            boolean add_extra=extra >= from && extra - from < max_xmit_req_size;
+            long end=add_extra? Math.max(last, extra) : last;
+            if(from > end)
+                return null;
+            long[] ranges=sacked;
+            SeqnoList list=new SeqnoList((int)(end - from + 1), from);
+            for(long seqno=from; seqno <= last; seqno++)
+                if(!contains(ranges, seqno))
+                    list.add(seqno);
+            if(add_extra && !contains(ranges, extra))
+                list.add(extra);
+            return list.isEmpty()? null : list;
+        }
+
+        protected String printRtt() {
+            return String.format("srtt=%.2f ms, rttvar=%.2f ms, rto=%d ms", srtt, rttvar, rto);
+        }
+
         public String toString() {
             StringBuilder sb=new StringBuilder();
             if(msgs != null)
@@ -1281,6 +1599,8 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
             sb.append("send_conn_id=" + conn_id).append(" (" + age()/1000 + " secs old) - " + state);
             if(last_timestamp != 0)
                 sb.append(", last-ts: ").append(last_timestamp);
+            if(sack)
+                sb.append(", ").append(printRtt()).append(", dup-acks=").append(dup_acks);
             return sb.toString();
         }
     }
@@ -1321,7 +1641,13 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
     protected class RetransmitTask implements Runnable {
 
         public void run() {
-            triggerXmit();
+            long now=System.nanoTime();
+            if(!sack || now - last_xmit >= TimeUnit.MILLISECONDS.toNanos(xmit_interval)) {
+                last_xmit=now;
+                triggerXmit();
+            }
+            else
+                checkRetransmissionTimeouts(now);
         }
 
         public String toString() {
@@ -1340,7 +1666,7 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
 
             // receiver: send ack for received messages if needed
             if(win != null && val.sendAck()) // sendAck() resets send_ack to false
-                sendAck(target, win.getHighestDeliverable(), val.connId());
+                sendAck(target, win, val.connId());
 
             // receiver: retransmit missing messages (getNumMissing() is fast)
             if(win != null && win.getNumMissing() > 0 && (missing=win.getMissing(max_xmit_req_size)) != null) {
@@ -1360,8 +1686,11 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
                 xmit_task_map.remove(target); // no current gaps for target
         }
 
+        // sender (sack=true): retransmit missing messages of connections whose retransmission timeout expired
+        if(sack)
+            checkRetransmissionTimeouts(System.nanoTime());
         // sender: only send the *highest sent* message if HA < HS and HA/HS didn't change from the prev run
-        for(SenderEntry val: send_table.values()) {
+        else for(SenderEntry val: send_table.values()) {
             Table<Message> win=val != null? val.msgs : null;
             if(win != null) {
                 long highest_acked=win.getHighestDelivered(); // highest delivered == highest ack (sender win)
@@ -1388,6 +1717,26 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
     }
 
 
+    /**
+     * Retransmits the messages of connections for which no ack has made progress for their retransmission timeout:
+     * the messages missing in the SACK ranges of the last ack, or the first unacked message, plus the highest sent
+     * message (so that the receiver acks again)
+     */
+    protected void checkRetransmissionTimeouts(long now) {
+        for(Map.Entry<Address,SenderEntry> e: send_table.entrySet()) {
+            SenderEntry val=e.getValue();
+            Table<Message> win=val.msgs;
+            if(win == null || e.getKey().equals(local_addr))
+                continue;
+            long highest_acked=win.getHighestDelivered(), highest_sent=win.getHighestReceived();
+            if(highest_acked >= highest_sent)
+                continue;
+            SeqnoList missing=val.timedOut(highest_acked, highest_sent, now);
+            if(missing != null)
+                retransmit(win, missing, rto_xmits);
+        }
+    }
+
     @ManagedOperation(description="Sends ACKs immediately for entries which are marked as pending (ACK hasn't been sent yet)")
     public void sendPendingAcks() {
         for(Map.Entry<Address,ReceiverEntry> entry: recv_table.entrySet()) {
@@ -1397,7 +1746,7 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
 
             // receiver: send ack for received messages if needed
             if(win != null && val.sendAck())// sendAck() resets send_ack to false
-                sendAck(target, win.getHighestDeliverable(), val.connId());
+                sendAck(target, win, val.connId());
         }
     }
 
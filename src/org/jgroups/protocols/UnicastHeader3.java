@@ -20,12 +20,15 @@ public class UnicastHeader3 extends Header {
     public static final byte SEND_FIRST_SEQNO = 2;
     public static final byte XMIT_REQ         = 3; // SeqnoList of missing message is in the message's payload
     public static final byte CLOSE            = 4;
+    public static final byte SACK             = 5; // ACK plus the ranges of messages received above seqno
 
     byte    type;
-    long    seqno;     // DATA and ACK
-    short   conn_id;   // DATA and CLOSE
+    long    seqno;     // DATA, ACK and SACK
+    short   conn_id;   // DATA, ACK, SACK and CLOSE
     boolean first;     // DATA
-    int     timestamp; // SEND_FIRST_SEQNO and ACK
+    boolean ack;       // DATA: ack immediately, the message is an RTT sample (sack=true)
+    int     timestamp; // SEND_FIRST_SEQNO, ACK and SACK
+    long[]  ranges;    // SACK: [from,to] pairs of received seqnos > seqno, in ascending order
 
 
     public UnicastHeader3() {} // used for externalization
@@ -56,6 +59,12 @@ public class UnicastHeader3 extends Header {
         return new UnicastHeader3(ACK, seqno, conn_id, false).timestamp(timestamp);
     }
 
+    public static UnicastHeader3 createSackHeader(long seqno, short conn_id, int timestamp, long[] ranges) {
+        UnicastHeader3 hdr=new UnicastHeader3(SACK, seqno, conn_id, false).timestamp(timestamp);
+        hdr.ranges=ranges;
+        return hdr;
+    }
+
     public static UnicastHeader3 createSendFirstSeqnoHeader(int timestamp) {
         return new UnicastHeader3(SEND_FIRST_SEQNO).timestamp(timestamp);
     }
@@ -72,16 +81,25 @@ public class UnicastHeader3 extends Header {
     public long           seqno()            {return seqno;}
     public short          connId()           {return conn_id;}
     public boolean        first()            {return first;}
+    public boolean        ack()              {return ack;}
+    public UnicastHeader3 ack(boolean flag)  {ack=flag; return this;}
     public int            timestamp()        {return timestamp;}
     public UnicastHeader3 timestamp(int ts) {timestamp=ts; return this;}
+    public long[]         ranges()           {return ranges;}
 
     public String toString() {
         StringBuilder sb=new StringBuilder();
         sb.append(type2Str(type)).append(", seqno=").append(seqno);
         if(conn_id != 0) sb.append(", conn_id=").append(conn_id);
         if(first) sb.append(", first");
+        if(ack) sb.append(", ack");
         if(timestamp != 0)
             sb.append(", ts=").append(timestamp);
+        if(ranges != null) {
+            sb.append(", sack=");
+            for(int i=0; i < ranges.length; i+=2)
+                sb.append(ranges[i]).append('-').append(ranges[i+1]).append(i + 2 < ranges.length? "," : "");
+        }
         return sb.toString();
     }
 
@@ -92,6 +110,7 @@ public class UnicastHeader3 extends Header {
             case SEND_FIRST_SEQNO: return "SEND_FIRST_SEQNO";
             case XMIT_REQ:         return "XMIT_REQ";
             case CLOSE:            return "CLOSE";
+            case SACK:             return "SACK";
             default:               return "<unknown>";
         }
     }
@@ -102,7 +121,7 @@ public class UnicastHeader3 extends Header {
             case DATA:
                 retval+=Bits.size(seqno) // seqno
                   + Global.SHORT_SIZE    // conn_id
-                  + Global.BYTE_SIZE;    // first
+                  + Global.BYTE_SIZE;    // first and ack
                 break;
             case ACK:
                 retval+=Bits.size(seqno)
@@ -117,21 +136,28 @@ public class UnicastHeader3 extends Header {
             case CLOSE:
                 retval+=Global.SHORT_SIZE; // conn-id
                 break;
+            case SACK:
+                retval+=Bits.size(seqno)
+                  + Global.SHORT_SIZE    // conn_id
+                  + Bits.size(timestamp)
+                  + rangesSize();
+                break;
         }
         return retval;
     }
 
     public UnicastHeader3 copy() {
-        return new UnicastHeader3(type, seqno, conn_id, first);
+        return new UnicastHeader3(type, seqno, conn_id, first).ack(ack);
     }
 
     /**
      * The following types and fields are serialized:
      * <pre>
-     * | DATA | seqno | conn_id | first |
+     * | DATA | seqno | conn_id | first (bit 0) and ack (bit 1) |
      * | ACK  | seqno | timestamp |
      * | SEND_FIRST_SEQNO | timestamp |
      * | CLOSE | conn_id |
+     * | SACK  | seqno | conn_id | timestamp | num ranges | (from - previous to, to - from)* |
      * </pre>
      */
     @Override
@@ -141,7 +167,7 @@ public class UnicastHeader3 extends Header {
             case DATA:
                 Bits.writeLong(seqno, out);
                 out.writeShort(conn_id);
-                out.writeBoolean(first);
+                out.writeByte((first? 1 : 0) | (ack? 2 : 0));
                 break;
             case ACK:
                 Bits.writeLong(seqno, out);
@@ -156,6 +182,18 @@ public class UnicastHeader3 extends Header {
             case CLOSE:
                 out.writeShort(conn_id);
                 break;
+            case SACK:
+                Bits.writeLong(seqno, out);
+                out.writeShort(conn_id);
+                Bits.writeInt(timestamp, out);
+                int num=ranges != null? ranges.length / 2 : 0;
+                Bits.writeInt(num, out);
+                for(int i=0; i < num; i++) {
+                    long from=ranges[i*2], to=ranges[i*2+1];
+                    Bits.writeLong(from - (i == 0? seqno : ranges[i*2-1]), out);
+                    Bits.writeLong(to - from, out);
+                }
+                break;
         }
     }
 
@@ -166,7 +204,9 @@ public class UnicastHeader3 extends Header {
             case DATA:
                 seqno=Bits.readLong(in);
                 conn_id=in.readShort();
-                first=in.readBoolean();
+                byte flags=in.readByte();
+                first=(flags & 1) != 0;
+                ack=(flags & 2) != 0;
                 break;
             case ACK:
                 seqno=Bits.readLong(in);
@@ -181,6 +221,24 @@ public class UnicastHeader3 extends Header {
             case CLOSE:
                 conn_id=in.readShort();
                 break;
+            case SACK:
+                seqno=Bits.readLong(in);
+                conn_id=in.readShort();
+                timestamp=Bits.readInt(in);
+                int num=Bits.readInt(in);
+                ranges=num > 0? new long[num * 2] : null;
+                for(int i=0; i < num; i++) {
+                    ranges[i*2]=Bits.readLong(in) + (i == 0? seqno : ranges[i*2-1]);
+                    ranges[i*2+1]=ranges[i*2] + Bits.readLong(in);
+                }
+                break;
         }
     }
+
+    protected int rangesSize() {
+        int num=ranges != null? ranges.length / 2 : 0, retval=Bits.size(num);
+        for(int i=0; i < num; i++)
+            retval+=Bits.size(ranges[i*2] - (i == 0? seqno : ranges[i*2-1])) + Bits.size(ranges[i*2+1] - ranges[i*2]);
+        return retval;
+    }
 }
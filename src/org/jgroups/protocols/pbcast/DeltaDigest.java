@@ -0,0 +1,155 @@
+package org.jgroups.protocols.pbcast;
+
+import org.jgroups.Address;
+import org.jgroups.util.Bits;
+import org.jgroups.util.Buffer;
+import org.jgroups.util.ByteArrayDataInputStream;
+import org.jgroups.util.ByteArrayDataOutputStream;
+import org.jgroups.util.Digest;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Delta encoding of the digests gossiped by {@link STABLE}. Only the entries which differ from a base digest (the last
+ * STABILITY digest received by the sender, or none) are sent, as index into the view plus the differences of the
+ * seqnos to those of the base (zigzag-encoded varints). The addresses of the members are not sent, as sender and
+ * receiver are in the same view.<p/>
+ * The coordinator merges the gossips into a {@link Round} incrementally: a gossip costs time proportional to the
+ * number of its entries, and the entries which were not sent by some members are taken from the base when the
+ * round is complete.
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+public class DeltaDigest {
+
+    /**
+     * Writes the entries of digest which differ from base (all entries if base is null). The members of digest and
+     * base need to be in the same order (that of the view)
+     */
+    public static Buffer write(Digest digest, Digest base) throws IOException {
+        Address[] members=digest.getMembersRaw();
+        long[] hd_hr=seqnos(digest);
+        int num=0, size=Bits.size(members.length);
+        long[] base_seqnos=base != null? seqnos(base) : null;
+        for(int i=0; i < members.length; i++) {
+            if(base_seqnos != null && hd_hr[i*2] == base_seqnos[i*2] && hd_hr[i*2+1] == base_seqnos[i*2+1])
+                continue;
+            num++;
+            size+=Bits.size(i) + Bits.size(zigzag(diff(hd_hr, base_seqnos, i*2))) + Bits.size(zigzag(diff(hd_hr, base_seqnos, i*2+1)));
+        }
+        ByteArrayDataOutputStream out=new ByteArrayDataOutputStream(size + Bits.size(num));
+        Bits.writeInt(members.length, out);
+        Bits.writeInt(num, out);
+        for(int i=0; i < members.length; i++) {
+            if(base_seqnos != null && hd_hr[i*2] == base_seqnos[i*2] && hd_hr[i*2+1] == base_seqnos[i*2+1])
+                continue;
+            Bits.writeInt(i, out);
+            Bits.writeLong(zigzag(diff(hd_hr, base_seqnos, i*2)), out);
+            Bits.writeLong(zigzag(diff(hd_hr, base_seqnos, i*2+1)), out);
+        }
+        return out.getBuffer();
+    }
+
+    /**
+     * Reads a delta digest written relative to base (null if written without base) and adds it to round. If base is
+     * not the base of the round, the entries which were not sent are added from base
+     */
+    public static void read(byte[] buf, int offset, int length, Digest base, Round round) throws IOException {
+        DataInput in=new ByteArrayDataInputStream(buf, offset, length);
+        int num_members=Bits.readInt(in), num=Bits.readInt(in);
+        if(num_members != round.size())
+            throw new IllegalStateException(String.format("digest has %d members, but the view has %d", num_members, round.size()));
+        long[] base_seqnos=base != null? seqnos(base) : null;
+        boolean fill=base != round.base;
+        int next_index=0;
+        for(int i=0; i < num; i++) {
+            int index=Bits.readInt(in);
+            long hd=unzigzag(Bits.readLong(in)) + (base_seqnos != null? base_seqnos[index*2] : 0);
+            long hr=unzigzag(Bits.readLong(in)) + (base_seqnos != null? base_seqnos[index*2+1] : 0);
+            if(fill)
+                for(; next_index < index; next_index++)
+                    round.add(next_index, base_seqnos[next_index*2], base_seqnos[next_index*2+1]);
+            round.add(index, hd, hr);
+            next_index=index+1;
+        }
+        if(fill)
+            for(; next_index < num_members; next_index++)
+                round.add(next_index, base_seqnos[next_index*2], base_seqnos[next_index*2+1]);
+    }
+
+    /** Returns the hd-hr pairs of digest, in the order of its members */
+    protected static long[] seqnos(Digest digest) {
+        long[] retval=new long[digest.capacity() * 2];
+        int i=0;
+        for(Digest.Entry entry: digest) {
+            retval[i++]=entry.getHighestDeliveredSeqno();
+            retval[i++]=entry.getHighestReceivedSeqno();
+        }
+        return retval;
+    }
+
+    protected static long diff(long[] seqnos, long[] base_seqnos, int index) {
+        return seqnos[index] - (base_seqnos != null? base_seqnos[index] : 0);
+    }
+
+    protected static long zigzag(long n)   {return (n << 1) ^ (n >> 63);}
+    protected static long unzigzag(long n) {return (n >>> 1) ^ -(n & 1);}
+
+
+    /**
+     * The state of a stability round on the coordinator: the minimum of the highest delivered seqnos and the maximum
+     * of the highest received seqnos of all gossips. Not synchronized
+     */
+    public static class Round {
+        protected final Address[] members;
+        protected final Digest    base;     // the digest of the previous round, may be null
+        protected final long[]    seqnos;   // hd-hr pairs, -1 if not set
+        protected final int[]     reported; // number of gossips which contained an entry for a member
+
+        public Round(Address[] members, Digest base) {
+            this.members=members;
+            this.base=base != null && base.capacity() == members.length? base : null;
+            this.seqnos=new long[members.length * 2];
+            this.reported=new int[members.length];
+            Arrays.fill(seqnos, -1);
+        }
+
+        public int    size() {return members.length;}
+        public Digest base() {return base;}
+
+        public Round add(int index, long hd, long hr) {
+            int i=index * 2;
+            seqnos[i]=seqnos[i] == -1? hd : Math.min(seqnos[i], hd);
+            seqnos[i+1]=Math.max(seqnos[i+1], hr);
+            reported[index]++;
+            return this;
+        }
+
+        /** Adds a full digest (with the members in the same order as the round) */
+        public Round add(Digest digest) {
+            long[] tmp=seqnos(digest);
+            for(int i=0; i < members.length; i++)
+                add(i, tmp[i*2], tmp[i*2+1]);
+            return this;
+        }
+
+        /**
+         * Returns the stability digest after gossips from num_gossips members have been added: entries which were
+         * not sent by all members (as they didn't change) are merged with the base
+         */
+        public Digest digest(int num_gossips) {
+            long[] retval=Arrays.copyOf(seqnos, seqnos.length);
+            long[] base_seqnos=base != null? seqnos(base) : null;
+            for(int i=0; i < members.length; i++) {
+                if(reported[i] >= num_gossips || base_seqnos == null)
+                    continue;
+                int j=i * 2;
+                retval[j]=retval[j] == -1? base_seqnos[j] : Math.min(retval[j], base_seqnos[j]);
+                retval[j+1]=Math.max(retval[j+1], base_seqnos[j+1]);
+            }
+            return new Digest(members, retval);
+        }
+    }
+}
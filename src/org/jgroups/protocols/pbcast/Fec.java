@@ -0,0 +1,323 @@
+package org.jgroups.protocols.pbcast;
+
+import org.jgroups.Address;
+import org.jgroups.Global;
+import org.jgroups.Message;
+import org.jgroups.util.Bits;
+import org.jgroups.util.ByteArrayDataInputStream;
+import org.jgroups.util.ByteArrayDataOutputStream;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Forward error correction for the multicasts of {@link NAKACK2}. A sender splits its messages into groups of N
+ * consecutive seqnos and multicasts a parity message (the XOR of the serialized forms of the messages of a group)
+ * after the last message of a group. A receiver which misses a single message of a group can thus rebuild it locally,
+ * without having to wait for the retransmission task to ask the sender for it.<p/>
+ * Group sizes are powers of 2 between {@link #MIN_GROUP_SIZE} and 64, and groups are aligned to their size, so the
+ * group size can change (e.g. with the loss rate) without the receivers having to know it in advance: a receiver
+ * accumulates the XORs of the messages it received in sub-groups of {@link #MIN_GROUP_SIZE} seqnos, and combines
+ * those covered by a parity message when the latter is received. The group size of a sender only changes at the
+ * boundaries of blocks of the max group size.<p/>
+ * A parity message also contains the CRC32 of each message of its group. A rebuilt message is only accepted if its
+ * CRC matches and its seqno is the one missing from the group, so that a message serialized differently by the
+ * sender and the receiver (e.g. because of a header which is not part of the parities) is never delivered corrupted,
+ * but retransmitted instead.
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+public class Fec {
+    public static final int MIN_GROUP_SIZE=4, MAX_GROUP_SIZE=64;
+
+    /** Returns the first seqno of the group of the given size (a power of 2) to which seqno belongs (seqnos start at 1) */
+    public static long first(long seqno, int group_size) {
+        return ((seqno - 1) & ~(group_size - 1L)) + 1;
+    }
+
+    /** Returns the last seqno of the block of the given size to which seqno belongs */
+    protected static long blockEnd(long seqno, int block_size) {
+        return first(seqno, block_size) + block_size - 1;
+    }
+
+
+    /** The XOR of the serialized forms of a number of messages */
+    protected static class Parity {
+        protected byte[] data=new byte[0];
+        protected int    length; // length of the longest message
+
+        protected void xor(byte[] buf, int offset, int len) {
+            if(len > data.length)
+                data=Arrays.copyOf(data, len);
+            for(int i=0; i < len; i++)
+                data[i]^=buf[offset+i];
+            length=Math.max(length, len);
+        }
+    }
+
+
+    /** Computes the parity messages of the messages sent by the local member */
+    public static class Encoder {
+        protected final short                    nak_id;
+        protected final short[]                  excluded_hdrs;
+        protected final TreeMap<Long,Group>      groups=new TreeMap<>(); // open groups, keyed by first seqno
+        protected final TreeMap<Long,Integer>    block_sizes=new TreeMap<>(); // group size per block
+        protected final ByteArrayDataOutputStream out=new ByteArrayDataOutputStream(1024);
+        protected volatile int                   group_size=MAX_GROUP_SIZE;
+
+        public Encoder(short nak_id, short[] excluded_hdrs) {
+            this.nak_id=nak_id;
+            this.excluded_hdrs=excluded_hdrs;
+        }
+
+        public int     groupSize()      {return group_size;}
+        /** Sets the size of the groups of the next block */
+        public Encoder groupSize(int n) {group_size=n; return this;}
+
+        /**
+         * Adds a message sent by the local member to its group and returns the parity message to be multicast if
+         * the group is complete, or null
+         */
+        public synchronized Message add(long seqno, Message msg, Address local_addr) throws Exception {
+            int size=groupSize(seqno);
+            long first=first(seqno, size);
+            Group group=groups.computeIfAbsent(first, f -> new Group(size));
+            out.position(0);
+            msg.writeToNoAddrs(local_addr, out, excluded_hdrs);
+            group.xor(out.buffer(), 0, out.position());
+            group.lengths[(int)(seqno - first)]=out.position();
+            group.crcs[(int)(seqno - first)]=crc(out.buffer(), 0, out.position());
+            if(++group.count < size) {
+                if(groups.size() > MAX_GROUP_SIZE) // a message never made it to the encoder (e.g. when stopping)
+                    groups.pollFirstEntry();
+                return null;
+            }
+            groups.remove(first);
+            return group.toMessage(first, nak_id);
+        }
+
+        public synchronized void reset() {
+            groups.clear();
+            block_sizes.clear();
+        }
+
+        /** The group size of a block is determined when the first message of the block is sent */
+        protected int groupSize(long seqno) {
+            long block=first(seqno, MAX_GROUP_SIZE);
+            Integer size=block_sizes.get(block);
+            if(size == null) {
+                block_sizes.put(block, size=group_size);
+                if(block_sizes.size() > 4)
+                    block_sizes.pollFirstEntry();
+            }
+            return size;
+        }
+    }
+
+
+    protected static int crc(byte[] buf, int offset, int length) {
+        CRC32 crc=new CRC32();
+        crc.update(buf, offset, length);
+        return (int)crc.getValue();
+    }
+
+
+    /** A group of messages of the encoder */
+    protected static class Group extends Parity {
+        protected final int[] lengths, crcs;
+        protected int         count;
+
+        protected Group(int size) {
+            lengths=new int[size];
+            crcs=new int[size];
+        }
+
+        /** Creates a parity message: [num] [length of each message] [CRC of each message] [parity length] [parity] */
+        protected Message toMessage(long first, short nak_id) {
+            int size=Bits.size(lengths.length) + crcs.length * Global.INT_SIZE + Bits.size(length) + length;
+            for(int len: lengths)
+                size+=Bits.size(len);
+            ByteArrayDataOutputStream out=new ByteArrayDataOutputStream(size);
+            try {
+                Bits.writeInt(lengths.length, out);
+                for(int len: lengths)
+                    Bits.writeInt(len, out);
+                for(int crc: crcs)
+                    out.writeInt(crc);
+                Bits.writeInt(length, out);
+                out.write(data, 0, length);
+            }
+            catch(Exception ex) { // cannot happen with a byte array
+                throw new IllegalStateException(ex);
+            }
+            return new Message(null, out.buffer(), 0, out.position()).setFlag(Message.Flag.OOB)
+              .putHeader(nak_id, NakAckHeader2.createFecHeader(first));
+        }
+    }
+
+
+    /** Accumulates the messages received from a given sender and rebuilds missing messages from parity messages */
+    public static class Decoder {
+        protected static final int                   MAX_SUB_GROUPS=1024, MAX_PENDING=64;
+        protected final short                        nak_id;
+        protected final Address                      sender;
+        protected final short[]                      excluded_hdrs;
+        // the XORs of the received messages, in sub-groups of MIN_GROUP_SIZE seqnos, keyed by first seqno
+        protected final TreeMap<Long,SubGroup>       sub_groups=new TreeMap<>();
+        // parity messages which couldn't be used yet as more than 1 message of their group was missing
+        protected final TreeMap<Long,ParityMessage>  pending=new TreeMap<>();
+        protected final ByteArrayDataOutputStream    out=new ByteArrayDataOutputStream(1024);
+        protected long                               received, lost; // since the last loss report
+
+        public Decoder(short nak_id, Address sender, short[] excluded_hdrs) {
+            this.nak_id=nak_id;
+            this.sender=sender;
+            this.excluded_hdrs=excluded_hdrs;
+        }
+
+        /**
+         * Adds a message received from the sender and returns a message rebuilt from a pending parity message (if
+         * the added message was the last but one missing message of its group), or null
+         */
+        public synchronized Message add(long seqno, Message msg) throws Exception {
+            received++;
+            long first=first(seqno, MIN_GROUP_SIZE);
+            SubGroup sub_group=sub_groups.get(first);
+            if(sub_group == null) {
+                sub_groups.put(first, sub_group=new SubGroup());
+                if(sub_groups.size() > MAX_SUB_GROUPS)
+                    sub_groups.pollFirstEntry();
+            }
+            int bit=1 << (int)(seqno - first);
+            if((sub_group.mask & bit) != 0)
+                return null; // already added
+            out.position(0);
+            msg.writeToNoAddrs(sender, out, excluded_hdrs);
+            sub_group.xor(out.buffer(), 0, out.position());
+            sub_group.mask|=bit;
+
+            Map.Entry<Long,ParityMessage> entry=pending.floorEntry(seqno);
+            if(entry == null || seqno >= entry.getKey() + entry.getValue().lengths.length)
+                return null;
+            return decode(entry.getKey(), entry.getValue());
+        }
+
+        /**
+         * Handles a parity message of the group starting at first and returns the rebuilt message if exactly 1
+         * message of the group is missing, or null
+         * @throws IllegalStateException If the rebuilt message fails the CRC check or doesn't have the missing seqno
+         */
+        public synchronized Message parity(long first, Message msg, long hd) throws Exception {
+            purge(hd);
+            ParityMessage parity=new ParityMessage(msg);
+            if(first + parity.lengths.length - 1 <= hd)
+                return null;
+            Message rebuilt=decode(first, parity);
+            if(rebuilt == null && pending.containsKey(first) && pending.size() > MAX_PENDING)
+                pending.pollFirstEntry();
+            return rebuilt;
+        }
+
+        /** Records the given number of messages as lost (e.g. received via retransmission) */
+        public synchronized void lost(int num) {
+            lost+=num;
+        }
+
+        /** Returns the loss rate (in per mille) since the last call and resets it, or -1 if nothing was received */
+        public synchronized int lossRate() {
+            if(received == 0)
+                return -1;
+            int retval=(int)Math.min(1000, lost * 1000 / received);
+            received=lost=0;
+            return retval;
+        }
+
+        public synchronized String toString() {
+            return String.format("%d sub-groups, %d pending parities", sub_groups.size(), pending.size());
+        }
+
+        /** Removes the sub-groups and parities of blocks whose messages have all been delivered */
+        protected void purge(long hd) {
+            for(Iterator<Long> it=sub_groups.keySet().iterator(); it.hasNext();) {
+                if(blockEnd(it.next(), MAX_GROUP_SIZE) > hd)
+                    break;
+                it.remove();
+            }
+            for(Iterator<Long> it=pending.keySet().iterator(); it.hasNext();) {
+                if(blockEnd(it.next(), MAX_GROUP_SIZE) > hd)
+                    break;
+                it.remove();
+            }
+        }
+
+        protected Message decode(long first, ParityMessage parity) throws Exception {
+            int size=parity.lengths.length;
+            long mask=0;
+            for(int i=0; i < size; i+=MIN_GROUP_SIZE) {
+                SubGroup sub_group=sub_groups.get(first + i);
+                if(sub_group != null)
+                    mask|=((long)sub_group.mask) << i;
+            }
+            int num_missing=size - Long.bitCount(mask);
+            if(num_missing != 1) {
+                if(num_missing == 0)
+                    pending.remove(first);
+                else
+                    pending.put(first, parity);
+                return null;
+            }
+            pending.remove(first);
+            int index=Long.numberOfTrailingZeros(~mask), length=parity.lengths[index];
+            byte[] buf=Arrays.copyOf(parity.data, length);
+            for(int i=0; i < size; i+=MIN_GROUP_SIZE) {
+                SubGroup sub_group=sub_groups.get(first + i);
+                if(sub_group != null)
+                    for(int j=0; j < Math.min(length, sub_group.length); j++)
+                        buf[j]^=sub_group.data[j];
+            }
+            long seqno=first + index;
+            if(crc(buf, 0, length) != parity.crcs[index])
+                throw new IllegalStateException(String.format("message %s#%d rebuilt from parity failed the CRC check",
+                                                              sender, seqno));
+            Message rebuilt=new Message(false);
+            rebuilt.readFrom(new ByteArrayDataInputStream(buf, 0, length));
+            NakAckHeader2 hdr=rebuilt.getHeader(nak_id);
+            if(hdr == null || hdr.getType() != NakAckHeader2.MSG || hdr.getSeqno() != seqno)
+                throw new IllegalStateException(String.format("message rebuilt from parity of %s#%d has header %s " +
+                                                                "instead of the missing seqno %d", sender, first, hdr, seqno));
+            if(rebuilt.getSrc() == null)
+                rebuilt.setSrc(sender);
+            return rebuilt;
+        }
+    }
+
+
+    protected static class SubGroup extends Parity {
+        protected int mask; // bit i is set if message first+i has been added
+    }
+
+
+    /** A received parity message */
+    protected static class ParityMessage {
+        protected final int[]  lengths, crcs;
+        protected final byte[] data;
+
+        protected ParityMessage(Message msg) throws Exception {
+            ByteArrayDataInputStream in=new ByteArrayDataInputStream(msg.getRawBuffer(), msg.getOffset(), msg.getLength());
+            int num=Bits.readInt(in);
+            if(num < MIN_GROUP_SIZE || num > MAX_GROUP_SIZE || Integer.bitCount(num) != 1)
+                throw new IllegalArgumentException("invalid group size " + num);
+            lengths=new int[num];
+            for(int i=0; i < num; i++)
+                lengths[i]=Bits.readInt(in);
+            crcs=new int[num];
+            for(int i=0; i < num; i++)
+                crcs[i]=in.readInt();
+            data=new byte[Bits.readInt(in)];
+            in.readFully(data);
+        }
+    }
+}
@@ -105,6 +105,28 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
       "is compacted (only for experts)",writable=false)
     protected long    xmit_table_max_compaction_time=10000;
 
+    @Property(description="If true, a ConcurrentTable (adding messages doesn't acquire a lock) is used as receive " +
+      "window for each member, else a Table",writable=false)
+    protected boolean xmit_table_concurrent;
+
+    @Property(description="Max number of bytes of off-heap memory used to store the messages sent by this member " +
+      "until they are purged by STABLE. Messages are rebuilt from their serialized form only when retransmitted. " +
+      "0 disables this and keeps sent messages on the heap",writable=false)
+    protected long    xmit_arena_size;
+
+    @Property(description="Size of a chunk of the off-heap memory (xmit_arena_size); messages larger than this are " +
+      "kept on the heap",writable=false)
+    protected int     xmit_arena_chunk_size=1 << 20;
+
+    @Property(description="If set, a memory-mapped file (e.g. under /dev/shm) is used as off-heap memory instead of " +
+      "direct memory",writable=false)
+    protected String  xmit_arena_file;
+
+    @Property(description="What to do with sent messages when the off-heap memory is full: keep them on the heap " +
+      "(\"heap\") or drop the oldest stored messages (\"discard\"), which can then not be retransmitted anymore",
+              writable=false)
+    protected String  xmit_arena_full_policy="heap";
+
     @Property(description="Size of the queue to hold messages received after creating the channel, but before being " +
       "connected (is_server=false). After becoming the server, the messages in the queue are fed into up() and the " +
       "queue is cleared. The motivation is to avoid retransmissions (see https://issues.jboss.org/browse/JGRP-1509 " +
@@ -119,6 +141,27 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
       "the max bundle size in the transport")
     protected int     max_xmit_req_size;
 
+    @Property(description="If true, the messages asked for by a retransmit request are sent in a few large " +
+      "XMIT_RSP_BATCH messages (of up to max_xmit_rsp_batch_size bytes) rather than one message per missing seqno")
+    protected boolean xmit_rsp_batching=true;
+
+    @Property(description="Max number of bytes of the messages in an XMIT_RSP_BATCH. 0 uses the max bundle size " +
+      "in the transport (minus overhead)")
+    protected int     max_xmit_rsp_batch_size;
+
+    @Property(description="If true, a parity message (XOR of the messages) is multicast after every group of " +
+      "N messages, so that receivers which missed 1 message of a group can rebuild it without retransmission. " +
+      "N adapts to the max loss rate reported by the receivers",writable=false)
+    protected boolean use_fec;
+
+    @Property(description="Min number of messages in a FEC group (used at high loss rates). Power of 2 in [4..64]",
+      writable=false)
+    protected int     fec_min_group_size=Fec.MIN_GROUP_SIZE;
+
+    @Property(description="Max number of messages in a FEC group (used without loss). Power of 2 in [4..64]",
+      writable=false)
+    protected int     fec_max_group_size=Fec.MAX_GROUP_SIZE;
+
     @Property(description="If enabled, multicasts the highest sent seqno every xmit_interval ms. This is skipped if " +
       "a regular message has been multicast, and the task aquiesces if the highest sent seqno hasn't changed for " +
       "resend_last_seqno_max_times times. Used to speed up retransmission of dropped last messages (JGRP-1904)")
@@ -130,6 +173,12 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
     @ManagedAttribute(description="True if sending a message can block at the transport level")
     protected boolean sends_can_block=true;
 
+    protected OffHeapArena xmit_arena; // stores sent messages off-heap if xmit_arena_size > 0
+
+    protected Fec.Encoder                           fec_encoder;  // computes the parities of sent messages (use_fec)
+    protected final Map<Address,Fec.Decoder>        fec_decoders=Util.createConcurrentMap();
+    protected final Map<Address,Integer>            fec_loss_rates=Util.createConcurrentMap(); // reported by receivers
+
     /* -------------------------------------------------- JMX ---------------------------------------------------------- */
 
 
@@ -164,6 +213,27 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
     @ManagedAttribute(description="Number of retransmit responses sent")
     protected final LongAdder xmit_rsps_sent=new LongAdder();
 
+    @ManagedAttribute(description="Number of XMIT_RSP_BATCH messages (containing multiple retransmitted messages) sent")
+    protected final LongAdder xmit_rsp_batches_sent=new LongAdder();
+
+    @ManagedAttribute(description="Number of XMIT_RSP_BATCH messages (containing multiple retransmitted messages) received")
+    protected final LongAdder xmit_rsp_batches_received=new LongAdder();
+
+    @ManagedAttribute(description="Number of FEC parity messages sent")
+    protected final LongAdder fec_parities_sent=new LongAdder();
+
+    @ManagedAttribute(description="Number of FEC parity messages received")
+    protected final LongAdder fec_parities_received=new LongAdder();
+
+    @ManagedAttribute(description="Number of missing messages rebuilt from FEC parity messages")
+    protected final LongAdder fec_recovered=new LongAdder();
+
+    @ManagedAttribute(description="Current number of messages per FEC group (0 if FEC is disabled)")
+    public int getFecGroupSize() {return fec_encoder != null? fec_encoder.groupSize() : 0;}
+
+    @ManagedOperation(description="Prints the loss rates (per mille) reported by the receivers of my messages")
+    public String printFecLossRates() {return fec_loss_rates.toString();}
+
     @ManagedAttribute(description="Is the retransmit task running")
     public boolean isXmitTaskRunning() {return xmit_task != null && !xmit_task.isDone();}
 
@@ -242,6 +312,15 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
     public long    getXmitRequestsSent()                   {return xmit_reqs_sent.sum();}
     public long    getXmitResponsesReceived()              {return xmit_rsps_received.sum();}
     public long    getXmitResponsesSent()                  {return xmit_rsps_sent.sum();}
+    public long    getXmitResponseBatchesSent()            {return xmit_rsp_batches_sent.sum();}
+    public long    getXmitResponseBatchesReceived()        {return xmit_rsp_batches_received.sum();}
+    public long    getFecParitiesSent()                    {return fec_parities_sent.sum();}
+    public long    getFecParitiesReceived()                {return fec_parities_received.sum();}
+    public long    getFecRecovered()                       {return fec_recovered.sum();}
+    public boolean useFec()                                {return use_fec;}
+    public NAKACK2 useFec(boolean b)                       {this.use_fec=b; return this;}
+    public boolean isXmitRspBatching()                     {return xmit_rsp_batching;}
+    public NAKACK2 setXmitRspBatching(boolean b)           {this.xmit_rsp_batching=b; return this;}
     public boolean isUseMcastXmit()                        {return use_mcast_xmit;}
     public boolean isXmitFromRandomMember()                {return xmit_from_random_member;}
     public boolean isDiscardDeliveredMsgs()                {return discard_delivered_msgs;}
@@ -288,6 +367,16 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
         return num;
     }
 
+    @ManagedAttribute(description="Number of bytes of off-heap memory used to store sent messages")
+    public long getXmitArenaBytesInUse() {return xmit_arena != null? xmit_arena.bytesInUse() : 0;}
+
+    @ManagedAttribute(description="Number of sent messages kept on the heap because the off-heap memory was full")
+    public long getXmitArenaOverflows() {return xmit_arena != null? xmit_arena.overflows() : 0;}
+
+    @ManagedAttribute(description="Number of sent messages stored off-heap which were dropped because " +
+      "the off-heap memory was full")
+    public long getXmitArenaDiscards() {return xmit_arena != null? xmit_arena.discards() : 0;}
+
     @ManagedAttribute(description="Total number of missing (= not received) messages in all retransmit buffers")
     public int getXmitTableMissingMessages() {
         int num=0;
@@ -400,11 +489,18 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
         xmit_reqs_sent.reset();
         xmit_rsps_received.reset();
         xmit_rsps_sent.reset();
+        xmit_rsp_batches_sent.reset();
+        xmit_rsp_batches_received.reset();
+        fec_parities_sent.reset();
+        fec_parities_received.reset();
+        fec_recovered.reset();
         stability_msgs.clear();
         digest_history.clear();
         Table<Message> table=local_addr != null? xmit_table.get(local_addr) : null;
         if(table != null)
             table.resetStats();
+        if(xmit_arena != null)
+            xmit_arena.resetStats();
     }
 
     public void init() throws Exception {
@@ -443,8 +539,31 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
         if(old_max_xmit_size != max_xmit_req_size)
             log.trace("%s: set max_xmit_req_size from %d to %d", local_addr, old_max_xmit_size, max_xmit_req_size);
 
+        // leave room for the headers of the XMIT_RSP_BATCH and the transport
+        int max_batch_size=transport.getMaxBundleSize() - 200;
+        if(max_xmit_rsp_batch_size <= 0 || max_xmit_rsp_batch_size > max_batch_size)
+            max_xmit_rsp_batch_size=max_batch_size;
+
         if(resend_last_seqno)
             setResendLastSeqno(resend_last_seqno);
+
+        if(use_fec) {
+            for(int size: new int[]{fec_min_group_size, fec_max_group_size})
+                if(size < Fec.MIN_GROUP_SIZE || size > Fec.MAX_GROUP_SIZE || Integer.bitCount(size) != 1)
+                    throw new IllegalArgumentException(String.format("FEC group sizes need to be powers of 2 in " +
+                                                                       "[%d..%d]: %d", Fec.MIN_GROUP_SIZE, Fec.MAX_GROUP_SIZE, size));
+            if(fec_min_group_size > fec_max_group_size)
+                throw new IllegalArgumentException("fec_min_group_size must be <= fec_max_group_size");
+            fec_encoder=new Fec.Encoder(id, fecExcludedHeaders()).groupSize(fec_max_group_size);
+        }
+    }
+
+    public void destroy() {
+        super.destroy();
+        if(xmit_arena != null) {
+            xmit_arena.destroy();
+            xmit_arena=null;
+        }
     }
 
 
@@ -458,6 +577,10 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
         timer=getTransport().getTimer();
         if(timer == null)
             throw new Exception("timer is null");
+        if(xmit_arena_size > 0 && xmit_arena == null) {
+            OffHeapArena.FullPolicy.valueOf(xmit_arena_full_policy); // fails if the policy is invalid
+            xmit_arena=new OffHeapArena(xmit_arena_chunk_size, xmit_arena_size, xmit_arena_file);
+        }
         running=true;
         leaving=false;
         startRetransmitTask();
@@ -515,6 +638,8 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
                 if(suppress_log_non_member != null)
                     suppress_log_non_member.removeExpired(suppress_time_non_member_warnings);
                 xmit_task_map.keySet().retainAll(mbrs);
+                fec_decoders.keySet().retainAll(mbrs);
+                fec_loss_rates.keySet().retainAll(mbrs);
                 break;
 
             case Event.BECOME_SERVER:
@@ -615,6 +740,18 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
                 handleXmitRsp(msg, hdr);
                 return null;
 
+            case NakAckHeader2.XMIT_RSP_BATCH:
+                handleXmitRspBatch(msg, hdr);
+                return null;
+
+            case NakAckHeader2.FEC:
+                handleFecParity(msg, hdr);
+                return null;
+
+            case NakAckHeader2.FEC_LOSS:
+                handleFecLossRate(msg.src(), (int)hdr.seqno);
+                return null;
+
             case NakAckHeader2.HIGHEST_SEQNO:
                 handleHighestSeqno(msg.src(), hdr.seqno);
                 return null;
@@ -667,6 +804,15 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
                         got_retransmitted_msg=true;
                     }
                     break;
+                case NakAckHeader2.XMIT_RSP_BATCH: // the original sender may be different from the batch's sender
+                    handleXmitRspBatch(msg, hdr);
+                    break;
+                case NakAckHeader2.FEC:
+                    handleFecParity(msg, hdr);
+                    break;
+                case NakAckHeader2.FEC_LOSS:
+                    handleFecLossRate(batch.sender(), (int)hdr.seqno);
+                    break;
                 case NakAckHeader2.HIGHEST_SEQNO:
                     handleHighestSeqno(batch.sender(), hdr.seqno);
                     break;
@@ -773,11 +919,25 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
         }
         while(running);
 
+        Message parity=null;
+        if(fec_encoder != null) { // computed before sending, as the protocols below add headers
+            try {
+                parity=fec_encoder.add(msg_id, msg, local_addr);
+            }
+            catch(Exception ex) {
+                log.error("%s: failed computing the FEC parity of #%d: %s", local_addr, msg_id, ex);
+            }
+        }
+
         // moved down_prot.down() out of synchronized clause (bela Sept 7 2006) http://jira.jboss.com/jira/browse/JGRP-300
         if(is_trace)
             log.trace("%s --> [all]: #%d", local_addr, msg_id);
         down_prot.down(msg); // if this fails, since msg is in sent_msgs, it can be retransmitted
         num_messages_sent++;
+        if(parity != null) {
+            fec_parities_sent.increment();
+            down_prot.down(parity);
+        }
 
         if(resend_last_seqno && last_seqno_resender != null)
             last_seqno_resender.skipNext();
@@ -804,6 +964,8 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
         // and the message is OOB, insert a dummy message (same msg, saving space), deliver it and drop it later on
         // removal. Else insert the real message
         boolean added=loopback || buf.add(hdr.seqno, msg.isFlagSet(Message.Flag.OOB)? DUMMY_OOB_MSG : msg);
+        if(added && !loopback && use_fec)
+            fecReceived(sender, hdr.seqno, msg);
 
         //if(added && is_trace)
           //  log.trace("%s <-- %s: #%d", local_addr, sender, hdr.seqno);
@@ -831,7 +993,11 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
         }
         num_messages_received+= msgs.size();
         boolean loopback=local_addr.equals(sender);
-        boolean added=loopback || buf.add(msgs, oob, oob? DUMMY_OOB_MSG : null);
+        // with FEC, messages which were not added are removed from msgs, so that they are not added to the parities
+        boolean added=loopback || buf.add(msgs, oob || use_fec, oob? DUMMY_OOB_MSG : null);
+        if(added && !loopback && use_fec)
+            for(LongTuple<Message> tuple: msgs)
+                fecReceived(sender, tuple.getVal1(), tuple.getVal2());
 
         //if(added && is_trace)
           //  log.trace("%s <-- %s: #%d-%d (%d messages)",
@@ -909,6 +1075,8 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
             return;
         }
 
+        List<Message> xmit_batch=xmit_rsp_batching? new ArrayList<>() : null;
+        long batch_size=0;
         for(long i: missing_msgs) {
             Message msg=buf.get(i);
             if(msg == null) {
@@ -918,8 +1086,21 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
             }
             if(is_trace)
                 log.trace("%s --> [all]: resending %s#%d", local_addr, original_sender, i);
-            sendXmitRsp(xmit_requester, msg);
+            if(xmit_batch == null) {
+                sendXmitRsp(xmit_requester, msg);
+                continue;
+            }
+            long size=msg.size();
+            if(batch_size + size > max_xmit_rsp_batch_size) {
+                sendXmitRsps(xmit_requester, original_sender, xmit_batch);
+                xmit_batch.clear();
+                batch_size=0;
+            }
+            xmit_batch.add(msg);
+            batch_size+=size;
         }
+        if(xmit_batch != null)
+            sendXmitRsps(xmit_requester, original_sender, xmit_batch);
     }
 
     protected void deliver(Message msg, Address sender, long seqno, String error_msg) {
@@ -1022,6 +1203,166 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
     }
 
 
+    /**
+     * Sends the given messages (from original_sender) as a single XMIT_RSP_BATCH message to dest, or to all members
+     * if use_mcast_xmit is true. A single message is sent as regular XMIT_RSP
+     */
+    protected void sendXmitRsps(Address dest, Address original_sender, List<Message> msgs) {
+        if(msgs.isEmpty())
+            return;
+        if(msgs.size() == 1) {
+            sendXmitRsp(dest, msgs.get(0));
+            return;
+        }
+        short tp_id=getTransport().getId();
+        int size=Global.INT_SIZE;
+        for(Message msg: msgs)
+            size+=msg.size();
+        try {
+            ByteArrayDataOutputStream out=new ByteArrayDataOutputStream(size);
+            out.writeInt(msgs.size());
+            for(Message msg: msgs) // the src of the messages is only written if it's different from original_sender
+                msg.writeToNoAddrs(original_sender, out, tp_id);
+            Message xmit_msg=new Message(use_mcast_xmit? null : dest, out.buffer(), 0, out.position())
+              .setFlag(Message.Flag.OOB)
+              .putHeader(id, NakAckHeader2.createXmitResponseBatchHeader(original_sender));
+            if(stats) {
+                xmit_rsps_sent.add(msgs.size());
+                xmit_rsp_batches_sent.increment();
+            }
+            down_prot.down(xmit_msg);
+        }
+        catch(Exception ex) {
+            log.error("%s: failed sending %d retransmitted messages of %s to %s: %s",
+                      local_addr, msgs.size(), original_sender, dest, ex);
+        }
+    }
+
+    /** Reads the messages of an XMIT_RSP_BATCH and adds them to the table of the original sender */
+    protected void handleXmitRspBatch(Message msg, NakAckHeader2 hdr) {
+        Address original_sender=hdr.sender;
+        List<LongTuple<Message>> msgs;
+        try {
+            ByteArrayDataInputStream in=new ByteArrayDataInputStream(msg.getRawBuffer(), msg.getOffset(), msg.getLength());
+            int num=in.readInt();
+            msgs=new ArrayList<>(num);
+            for(int i=0; i < num; i++) {
+                Message m=new Message(false);
+                m.readFrom(in);
+                if(m.getSrc() == null)
+                    m.setSrc(original_sender);
+                NakAckHeader2 h=m.getHeader(id);
+                if(h != null)
+                    msgs.add(new LongTuple<>(h.seqno, m));
+            }
+        }
+        catch(Exception ex) {
+            log.error("%s: failed reading retransmitted messages of %s from %s: %s", local_addr, original_sender, msg.src(), ex);
+            return;
+        }
+        if(msgs.isEmpty())
+            return;
+        if(stats) {
+            xmit_rsps_received.add(msgs.size());
+            xmit_rsp_batches_received.increment();
+        }
+        fecLost(original_sender, msgs.size());
+        handleMessages(null, original_sender, msgs, false, null);
+        if(rebroadcasting)
+            checkForRebroadcasts();
+    }
+
+    /** Adds a message received from sender to the FEC parities and handles a message rebuilt as a result */
+    protected void fecReceived(Address sender, long seqno, Message msg) {
+        Fec.Decoder decoder=fec_decoders.computeIfAbsent(sender, s -> new Fec.Decoder(id, s, fecExcludedHeaders()));
+        try {
+            Message rebuilt=decoder.add(seqno, msg);
+            if(rebuilt != null)
+                fecRebuilt(decoder, rebuilt);
+        }
+        catch(Exception ex) {
+            log.error("%s: failed adding %s#%d to the FEC parities: %s", local_addr, sender, seqno, ex);
+        }
+    }
+
+    /** Rebuilds the missing message of a group from the parity message, if exactly 1 message is missing */
+    protected void handleFecParity(Message msg, NakAckHeader2 hdr) {
+        Address sender=msg.getSrc();
+        Table<Message> buf;
+        if(!use_fec || sender == null || sender.equals(local_addr) || (buf=xmit_table.get(sender)) == null)
+            return;
+        if(stats)
+            fec_parities_received.increment();
+        Fec.Decoder decoder=fec_decoders.computeIfAbsent(sender, s -> new Fec.Decoder(id, s, fecExcludedHeaders()));
+        try {
+            Message rebuilt=decoder.parity(hdr.seqno, msg, buf.getHighestDelivered());
+            if(rebuilt != null)
+                fecRebuilt(decoder, rebuilt);
+        }
+        catch(Exception ex) {
+            log.error("%s: failed handling FEC parity of %s#%d: %s", local_addr, sender, hdr.seqno, ex);
+        }
+    }
+
+    protected void fecRebuilt(Fec.Decoder decoder, Message msg) {
+        NakAckHeader2 hdr=msg.getHeader(id);
+        if(hdr == null || hdr.type != NakAckHeader2.MSG)
+            return;
+        if(is_trace)
+            log.trace("%s: rebuilt %s#%d from FEC parity", local_addr, msg.getSrc(), hdr.seqno);
+        fec_recovered.increment();
+        decoder.lost(1);
+        handleMessage(msg, hdr);
+    }
+
+    /** Records messages from sender which had to be retransmitted, to compute the loss rate reported to sender */
+    protected void fecLost(Address sender, int num) {
+        Fec.Decoder decoder;
+        if(use_fec && sender != null && (decoder=fec_decoders.get(sender)) != null)
+            decoder.lost(num);
+    }
+
+    /** Sends the loss rates observed since the last call to the senders of the messages */
+    protected void sendFecLossRates() {
+        for(Map.Entry<Address,Fec.Decoder> entry: fec_decoders.entrySet()) {
+            int loss_rate=entry.getValue().lossRate();
+            if(loss_rate >= 0)
+                down_prot.down(new Message(entry.getKey()).setFlag(Message.Flag.OOB, Message.Flag.INTERNAL)
+                                 .putHeader(id, NakAckHeader2.createFecLossHeader(loss_rate)));
+        }
+    }
+
+    /**
+     * Adjusts the FEC group size to the highest loss rate reported by the receivers: the probability that more than 1
+     * message of a group is lost (which cannot be corrected) is kept low by halving the group size until
+     * group size * loss rate <= 10%
+     */
+    protected void handleFecLossRate(Address receiver, int loss_rate) {
+        if(fec_encoder == null || receiver == null)
+            return;
+        fec_loss_rates.put(receiver, loss_rate);
+        int max_loss_rate=fec_loss_rates.values().stream().max(Integer::compare).orElse(0);
+        int size=fec_max_group_size;
+        while(size > fec_min_group_size && size * max_loss_rate > 100)
+            size/=2;
+        if(size != fec_encoder.groupSize()) {
+            log.debug("%s: changing FEC group size from %d to %d (max loss rate: %d per mille)",
+                      local_addr, fec_encoder.groupSize(), size, max_loss_rate);
+            fec_encoder.groupSize(size);
+        }
+    }
+
+    /** The headers of the protocols below NAKACK2 are not part of the parities */
+    protected short[] fecExcludedHeaders() {
+        List<Short> ids=new ArrayList<>();
+        for(Protocol prot=down_prot; prot != null; prot=prot.getDownProtocol())
+            ids.add(prot.getId());
+        short[] retval=new short[ids.size()];
+        for(int i=0; i < retval.length; i++)
+            retval[i]=ids.get(i);
+        return retval;
+    }
+
     protected void handleXmitRsp(Message msg, NakAckHeader2 hdr) {
         if(msg == null)
             return;
@@ -1034,6 +1375,7 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
             NakAckHeader2 newhdr=hdr.copy();
             newhdr.type=NakAckHeader2.MSG; // change the type back from XMIT_RSP --> MSG
             msg.putHeader(id, newhdr);
+            fecLost(msg.getSrc(), 1);
             handleMessage(msg, newhdr);
             if(rebroadcasting)
                 checkForRebroadcasts();
@@ -1074,6 +1416,7 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
         NakAckHeader2 newhdr=hdr.copy();
         newhdr.type=NakAckHeader2.MSG; // change the type back from XMIT_RSP --> MSG
         msg.putHeader(id,newhdr);
+        fecLost(msg.getSrc(), 1);
         return msg;
     }
 
@@ -1201,7 +1544,7 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
                     log.debug("%s: removed %s from xmit_table (not member anymore)", local_addr, member);
             }
         }
-        members.stream().filter(mbr -> !keys.contains(mbr)).forEach(mbr -> xmit_table.putIfAbsent(mbr, createTable(0)));
+        members.stream().filter(mbr -> !keys.contains(mbr)).forEach(mbr -> xmit_table.putIfAbsent(mbr, createTable(mbr, 0)));
     }
 
 
@@ -1277,7 +1620,7 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
                 }
                 xmit_table.remove(member);
             }
-            buf=createTable(highest_delivered_seqno);
+            buf=createTable(member, highest_delivered_seqno);
             xmit_table.put(member, buf);
         }
         sb.append("\n").append("resulting digest: " + getDigest().toString(digest));
@@ -1318,14 +1661,14 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
                         || buf.getHighestDelivered() >= highest_delivered_seqno) // my seqno is >= digest's seqno for sender
                     continue;
 
-                xmit_table.remove(member);
+                OffHeapTable.release(xmit_table.remove(member));
                 // to get here, merge must be false !
                 if(member.equals(local_addr)) { // Adjust the seqno: https://jira.jboss.org/browse/JGRP-1251
                     seqno.set(highest_delivered_seqno);
                     set_own_seqno=true;
                 }
             }
-            buf=createTable(highest_delivered_seqno);
+            buf=createTable(member, highest_delivered_seqno);
             xmit_table.put(member, buf);
         }
         if(sb != null) {
@@ -1338,7 +1681,19 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
     }
 
 
+    /** Creates the retransmission table for member; messages sent by this member are stored off-heap if enabled */
+    protected Table<Message> createTable(Address member, long initial_seqno) {
+        if(xmit_arena != null && Objects.equals(member, local_addr))
+            return new OffHeapTable(xmit_table_num_rows, xmit_table_msgs_per_row, initial_seqno, xmit_table_resize_factor,
+                                    xmit_table_max_compaction_time, xmit_arena,
+                                    OffHeapArena.FullPolicy.valueOf(xmit_arena_full_policy), false);
+        return createTable(initial_seqno);
+    }
+
     protected Table<Message> createTable(long initial_seqno) {
+        if(xmit_table_concurrent)
+            return new ConcurrentTable<>(xmit_table_num_rows, xmit_table_msgs_per_row,
+                                         initial_seqno, xmit_table_resize_factor, xmit_table_max_compaction_time);
         return new Table<>(xmit_table_num_rows, xmit_table_msgs_per_row,
                                   initial_seqno, xmit_table_resize_factor, xmit_table_max_compaction_time);
     }
@@ -1420,6 +1775,11 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
 
     protected void reset() {
         seqno.set(0);
+        fec_decoders.clear();
+        fec_loss_rates.clear();
+        if(fec_encoder != null)
+            fec_encoder.reset();
+        xmit_table.values().forEach(OffHeapTable::release);
         xmit_table.clear();
     }
 
@@ -1490,6 +1850,9 @@ public class NAKACK2 extends Protocol implements DiagnosticsHandler.ProbeHandler
 
         if(resend_last_seqno && last_seqno_resender != null)
             last_seqno_resender.execute(seqno.get());
+
+        if(use_fec)
+            sendFecLossRates();
     }
 
 
@@ -22,10 +22,13 @@ public class NakAckHeader2 extends Header {
     public static final byte XMIT_REQ      = 2;  // retransmit request
     public static final byte XMIT_RSP      = 3;  // retransmit response (contains one or more messages)
     public static final byte HIGHEST_SEQNO = 4;  // the highest sent seqno
+    public static final byte XMIT_RSP_BATCH= 5;  // retransmit response, the payload contains a number of messages
+    public static final byte FEC           = 6;  // parity of a group of messages (seqno is the first seqno of the group)
+    public static final byte FEC_LOSS      = 7;  // loss rate (in per mille, in seqno) observed by a receiver
 
     byte      type;
     long      seqno=-1;        // seqno of regular message (MSG, HIGHEST_SEQNO)
-    Address   sender;          // the original sender of the message (for XMIT_REQ)
+    Address   sender;          // the original sender of the message (for XMIT_REQ and XMIT_RSP_BATCH)
 
 
     public NakAckHeader2() {
@@ -47,6 +50,14 @@ public class NakAckHeader2 extends Header {
         return new NakAckHeader2(XMIT_RSP, -1);
     }
 
+    public static NakAckHeader2 createXmitResponseBatchHeader(Address original_sender) {
+        return new NakAckHeader2(XMIT_RSP_BATCH, original_sender);
+    }
+
+    public static NakAckHeader2 createFecHeader(long first_seqno) {return new NakAckHeader2(FEC, first_seqno);}
+
+    public static NakAckHeader2 createFecLossHeader(int loss_rate) {return new NakAckHeader2(FEC_LOSS, loss_rate);}
+
     public static NakAckHeader2 createHighestSeqnoHeader(long seqno) {return new NakAckHeader2(HIGHEST_SEQNO, seqno);}
 
 
@@ -78,9 +89,12 @@ public class NakAckHeader2 extends Header {
             case MSG:
             case XMIT_RSP:
             case HIGHEST_SEQNO:
+            case FEC:
+            case FEC_LOSS:
                 Bits.writeLong(seqno, out);
                 break;
             case XMIT_REQ:
+            case XMIT_RSP_BATCH:
                 Util.writeAddress(sender, out);
                 break;
         }
@@ -93,9 +107,12 @@ public class NakAckHeader2 extends Header {
             case MSG:
             case XMIT_RSP:
             case HIGHEST_SEQNO:
+            case FEC:
+            case FEC_LOSS:
                 seqno=Bits.readLong(in);
                 break;
             case XMIT_REQ:
+            case XMIT_RSP_BATCH:
                 sender=Util.readAddress(in);
                 break;
         }
@@ -108,9 +125,12 @@ public class NakAckHeader2 extends Header {
             case MSG:
             case XMIT_RSP:
             case HIGHEST_SEQNO:
+            case FEC:
+            case FEC_LOSS:
                 return retval + Bits.size(seqno);
 
             case XMIT_REQ:
+            case XMIT_RSP_BATCH:
                 retval+=Util.size(sender);
                 return retval;
         }
@@ -133,6 +153,9 @@ public class NakAckHeader2 extends Header {
             case XMIT_REQ:      return "XMIT_REQ";
             case XMIT_RSP:      return "XMIT_RSP";
             case HIGHEST_SEQNO: return "HIGHEST_SEQNO";
+            case XMIT_RSP_BATCH:return "XMIT_RSP_BATCH";
+            case FEC:           return "FEC";
+            case FEC_LOSS:      return "FEC_LOSS";
             default:            return "<undefined>";
         }
     }
@@ -145,9 +168,12 @@ public class NakAckHeader2 extends Header {
             case MSG:
             case XMIT_RSP: // seqno and sender
             case HIGHEST_SEQNO:
+            case FEC:
+            case FEC_LOSS:
                 ret.append(", seqno=").append(seqno);
                 break;
             case XMIT_REQ:  // range and sender
+            case XMIT_RSP_BATCH:
                 break;
         }
 
@@ -11,7 +11,9 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -34,6 +36,16 @@ import java.util.function.Supplier;
  * <p>
  * When send_stable_msgs_to_coord_only is true, far fewer messages are exchanged, as members don't multicast
  * STABLE messages, but instead send them only to the coordinator.
+ * <p>
+ * With delta_digests (and send_stable_msgs_to_coord_only), a member only sends the entries of its digest which changed
+ * since the last STABILITY message it received ({@link DeltaDigest}), and the coordinator merges them incrementally.
+ * The time between STABLE messages is shortened when many messages in the retransmission tables are not yet stable
+ * (max_unstable_msgs).
+ * <p>
+ * With fan_in &gt; 0, the members of a view are arranged into a tree (in view order, the coordinator being the root,
+ * each member having up to fan_in children). A member merges its own digest with the digests of its children and
+ * sends the result to its parent when all of them have been received, so every member (including the coordinator)
+ * handles at most fan_in STABLE messages per round. The root sends the STABILITY message, as above.
  * @author Bela Ban
  */
 @MBean(description="Computes the broadcast messages that are stable")
@@ -71,6 +83,22 @@ public class STABLE extends Protocol {
       "on the coordinator")
     protected boolean send_stable_msgs_to_coord_only=true;
 
+    @Property(description="If true (and send_stable_msgs_to_coord_only is true), a STABLE message only contains the " +
+      "entries which changed since the last STABILITY message, and the coordinator merges them incrementally")
+    protected boolean delta_digests=true;
+
+    @Property(description="When more messages than this are in the retransmission tables, but not yet stable, the " +
+      "time between STABLE messages is reduced accordingly (but not below min_gossip_interval). 0 disables this")
+    protected long    max_unstable_msgs=100_000;
+
+    @Property(description="Min time (ms) between STABLE messages when the interval is reduced (max_unstable_msgs)")
+    protected long    min_gossip_interval=500;
+
+    @Property(description="Number of children of a member in the tree along which STABLE messages are merged and " +
+      "forwarded to the coordinator. 0 disables the tree: members send their STABLE messages directly (to the " +
+      "coordinator or to all members)")
+    protected int     fan_in;
+
     
     /* --------------------------------------------- JMX  ---------------------------------------------- */
 
@@ -79,6 +107,18 @@ public class STABLE extends Protocol {
     protected int    num_stability_msgs_sent;
     protected int    num_stability_msgs_received;
 
+    @ManagedAttribute(description="Number of STABLE messages sent as deltas of the last STABILITY message")
+    protected int    num_delta_msgs_sent;
+
+    @ManagedAttribute(description="Number of bytes of the digests of all STABLE messages sent")
+    protected long   num_stable_bytes_sent;
+
+    @ManagedAttribute(description="Number of merged digests sent to the parent in the tree (fan_in > 0)")
+    protected int    num_tree_msgs_sent;
+
+    @ManagedAttribute(description="Time (ms) until the next STABLE message, as computed by the stable task")
+    protected volatile long gossip_interval;
+
     
     /* --------------------------------------------- Fields ------------------------------------------------------ */
 
@@ -128,6 +168,39 @@ public class STABLE extends Protocol {
 
     protected volatile Address    coordinator;
 
+    /** Id of the last STABILITY message sent by this member (the coordinator) */
+    @GuardedBy("lock")
+    protected long                round;
+
+    /** The last digests sent in STABILITY messages by this member (the coordinator), keyed by round. Used as bases */
+    @GuardedBy("lock")
+    protected final Map<Long,Digest> stability_digests=new LinkedHashMap<Long,Digest>() {
+        protected boolean removeEldestEntry(Map.Entry<Long,Digest> eldest) {return size() > 4;}
+    };
+
+    /** Merges the delta digests received by the coordinator */
+    @GuardedBy("lock")
+    protected DeltaDigest.Round   delta_round;
+
+    /**
+     * The latest digests of this member (index 0) and of its children (index i: the i-th child) in the tree (fan_in > 0).
+     * A newer digest replaces the previous one; the digests are merged when the subtree is forwarded
+     */
+    @GuardedBy("lock")
+    protected Digest[]            tree_digests;
+
+    /** Bit 0: the digest of this member has been received, bit i: that of the i-th child */
+    @GuardedBy("lock")
+    protected FixedSizeBitSet     tree_votes;
+
+    /** Rank of this member in the view, -1 if not a member */
+    @GuardedBy("lock")
+    protected int                 tree_rank=-1;
+
+    // the last STABILITY message received, and whether it was received after the last STABLE message was sent
+    protected volatile Stability  last_stability;
+    protected volatile boolean    stability_acked;
+
     
     
     public STABLE() {             
@@ -159,6 +232,14 @@ public class STABLE extends Protocol {
     public int getStabilitySent() {return num_stability_msgs_sent;}
     @ManagedAttribute
     public int getStabilityReceived() {return num_stability_msgs_received;}
+    public int     getDeltaSent()              {return num_delta_msgs_sent;}
+    public long    getStableBytesSent()        {return num_stable_bytes_sent;}
+    public long    getGossipInterval()         {return gossip_interval;}
+    public int     getTreeSent()               {return num_tree_msgs_sent;}
+    public boolean deltaDigests()              {return delta_digests;}
+    public STABLE  deltaDigests(boolean flag)  {this.delta_digests=flag; return this;}
+    public int     fanIn()                     {return fan_in;}
+    public STABLE  fanIn(int f)                {this.fan_in=f; return this;}
 
     @ManagedAttribute
     public boolean getStableTaskRunning() {
@@ -174,9 +255,25 @@ public class STABLE extends Protocol {
     public void resetStats() {
         super.resetStats();
         num_stability_msgs_received=num_stability_msgs_sent=num_stable_msgs_sent=num_stable_msgs_received=0;
+        num_delta_msgs_sent=num_tree_msgs_sent=0;
+        num_stable_bytes_sent=0;
     }
 
 
+    @ManagedAttribute(description="Number of messages in the retransmission tables which are not yet stable")
+    public long getUnstableMessages() {
+        Digest d=getDigest();
+        Stability stable=last_stability;
+        long retval=0;
+        if(d == null)
+            return 0;
+        for(Digest.Entry entry: d) {
+            long[] seqnos=stable != null? stable.digest.get(entry.getMember()) : null;
+            retval+=Math.max(0, entry.getHighestReceivedSeqno() - (seqnos != null? seqnos[0] : 0));
+        }
+        return retval;
+    }
+
     public List<Integer> requiredDownServices() {
         return Collections.singletonList(Event.GET_DIGEST);
     }
@@ -241,17 +338,24 @@ public class STABLE extends Protocol {
             return up_prot.up(msg);
         }
 
-        handleUpEvent(hdr, msg.getSrc(), readDigest(msg.getRawBuffer(), msg.getOffset(), msg.getLength()));
+        handleUpEvent(hdr, msg.getSrc(), msg);
         return null;  // don't pass STABLE or STABILITY messages up the stack
     }
 
-    protected void handleUpEvent(StableHeader hdr, Address sender, Digest digest) {
+    protected void handleUpEvent(StableHeader hdr, Address sender, Message msg) {
         switch(hdr.type) {
             case StableHeader.STABLE_GOSSIP:
-                handleStableMessage(digest, sender, hdr.view_id);
+                handleStableMessage(readDigest(msg.getRawBuffer(), msg.getOffset(), msg.getLength()), sender, hdr.view_id);
+                break;
+            case StableHeader.DELTA_GOSSIP:
+                handleDeltaMessage(msg, sender, hdr.view_id, hdr.round);
+                break;
+            case StableHeader.TREE_GOSSIP:
+                handleTreeMessage(msg, sender, hdr.view_id);
                 break;
             case StableHeader.STABILITY:
-                handleStabilityMessage(digest, sender, hdr.view_id);
+                handleStabilityMessage(readDigest(msg.getRawBuffer(), msg.getOffset(), msg.getLength()), sender,
+                                       hdr.view_id, hdr.round);
                 break;
             default:
                 log.error("%s: StableHeader type %s not known", local_addr, hdr.type);
@@ -265,7 +369,7 @@ public class STABLE extends Protocol {
         for(Message msg: batch) { // remove and handle messages with flow control headers (STABLE_GOSSIP, STABILITY)
             if((hdr=msg.getHeader(id)) != null) {
                 batch.remove(msg);
-                handleUpEvent(hdr, batch.sender(), readDigest(msg.getRawBuffer(), msg.getOffset(), msg.getLength()));
+                handleUpEvent(hdr, batch.sender(), msg);
             }
         }
 
@@ -363,7 +467,9 @@ public class STABLE extends Protocol {
         try {
             this.view=v;
             coordinator=v.getCoord();
+            stability_digests.clear();
             resetDigest();
+            resetTree();
             if(!initialized)
                 initialized=true;
         }
@@ -413,6 +519,36 @@ public class STABLE extends Protocol {
             return;
         digest=new MutableDigest(view.getMembersRaw()); // .set(getDigest());
         votes=new FixedSizeBitSet(view.size()); // all 0's initially
+        delta_round=new DeltaDigest.Round(view.getMembersRaw(), stability_digests.get(round));
+    }
+
+    /** Resets the digests collected from this member and its children in the tree, e.g. after the view changed */
+    @GuardedBy("lock")
+    protected void resetTree() {
+        if(view == null)
+            return;
+        tree_rank=getRank(local_addr, view);
+        int size=1 + numChildren(tree_rank, view.size(), Math.max(1, fan_in));
+        tree_digests=new Digest[size];
+        tree_votes=new FixedSizeBitSet(size);
+    }
+
+    /** Returns the rank of the parent of the member with the given rank in the tree, or -1 for the root */
+    protected static int parent(int rank, int fan_in) {
+        return rank <= 0? -1 : (rank - 1) / fan_in;
+    }
+
+    /** Returns the rank of the first child of the member with the given rank in the tree */
+    protected static int firstChild(int rank, int fan_in) {
+        return rank * fan_in + 1;
+    }
+
+    /** Returns the number of children of the member with the given rank in a tree of size members */
+    protected static int numChildren(int rank, int size, int fan_in) {
+        if(rank < 0)
+            return 0;
+        int first=firstChild(rank, fan_in);
+        return Math.max(0, Math.min(size, first + fan_in) - first);
     }
 
     /**
@@ -500,11 +636,11 @@ public class STABLE extends Protocol {
     }
 
 
-    protected void startStabilityTask(Digest d, ViewId view_id, long delay) {
+    protected void startStabilityTask(Digest d, ViewId view_id, long stable_round, long delay) {
         stability_lock.lock();
         try {
             if(stability_task_future == null || stability_task_future.isDone()) {
-                StabilitySendTask stability_task=new StabilitySendTask(d, view_id); // runs only once
+                StabilitySendTask stability_task=new StabilitySendTask(d, view_id, stable_round); // runs only once
                 stability_task_future=timer.schedule(stability_task, delay, TimeUnit.MILLISECONDS,
                                                      getTransport() instanceof TCP);
             }
@@ -557,6 +693,7 @@ public class STABLE extends Protocol {
 
         Digest stable_digest=null;
         ViewId stable_view_id=null;
+        long stable_round=0;
         lock.lock();
         try {
             int rank=getRank(sender, view);
@@ -564,9 +701,12 @@ public class STABLE extends Protocol {
                 return;
             num_stable_msgs_received++;
             updateLocalDigest(d, sender);
+            delta_round.add(d);       // full and delta gossips count towards the same votes
             if(addVote(rank)) {       // votes from all members have been received
-                stable_digest=digest; // no need to copy, as digest (although mutable) is reassigned below
+                stable_digest=delta_round.digest(view.size());
                 stable_view_id=view.getViewId();
+                stable_round=++round;
+                stability_digests.put(stable_round, stable_digest);
                 resetDigest();        // sets digest
             }
         }
@@ -579,12 +719,169 @@ public class STABLE extends Protocol {
 
         // we don't yet reset digest: new STABLE messages will be discarded anyway as we have already
         // received votes from their senders
-        if(stable_digest != null) {
-            resetNumBytes();
-            sendStabilityMessage(stable_digest, stable_view_id);
-            // we discard our own STABILITY message: pass it down now, so NAKACK can purge old messages
-            down_prot.down(new Event(Event.STABLE, stable_digest));
+        if(stable_digest != null)
+            stable(stable_digest, stable_view_id, stable_round);
+    }
+
+    /**
+     * Handles a STABLE message containing a delta digest (relative to the STABILITY digest of the given round,
+     * or to nothing if round is 0), received by the coordinator
+     */
+    protected void handleDeltaMessage(final Message msg, final Address sender, final ViewId view_id, long base_round) {
+        if(!initialized || suspended) {
+            log.trace("%s: STABLE message is ignored: initialized=%b, suspended=%b", local_addr, initialized, suspended);
+            return;
+        }
+        if(!view_id.equals(view.getViewId())) {
+            log.trace("%s: discarded STABLE message with different view-id %s (my view-id=%s)",
+                      local_addr, view_id, view.getViewId());
+            return;
+        }
+
+        Digest stable_digest=null;
+        ViewId stable_view_id=null;
+        long stable_round=0;
+        lock.lock();
+        try {
+            int rank=getRank(sender, view);
+            if(rank < 0 || votes.get(rank))  // already received gossip from sender; discard it
+                return;
+            Digest base=base_round > 0? stability_digests.get(base_round) : null;
+            if(base_round > 0 && base == null) { // the sender will send a full digest next time
+                log.trace("%s: discarded delta digest from %s: base (round %d) not found", local_addr, sender, base_round);
+                return;
+            }
+            DeltaDigest.read(msg.getRawBuffer(), msg.getOffset(), msg.getLength(), base, delta_round);
+            num_stable_msgs_received++;
+            if(addVote(rank)) {
+                stable_digest=delta_round.digest(view.size());
+                stable_view_id=view.getViewId();
+                stable_round=++round;
+                stability_digests.put(stable_round, stable_digest);
+                resetDigest();
+            }
         }
+        catch(Throwable t) {
+            log.error("%s: failed handling delta digest from %s: %s", local_addr, sender, t);
+            return;
+        }
+        finally {
+            lock.unlock();
+        }
+        if(stable_digest != null)
+            stable(stable_digest, stable_view_id, stable_round);
+    }
+
+    /** Handles the merged digest of the subtree of a child (fan_in > 0) */
+    protected void handleTreeMessage(final Message msg, final Address sender, final ViewId view_id) {
+        if(!initialized || suspended) {
+            log.trace("%s: STABLE message is ignored: initialized=%b, suspended=%b", local_addr, initialized, suspended);
+            return;
+        }
+        if(!view_id.equals(view.getViewId())) {
+            log.trace("%s: discarded STABLE message with different view-id %s (my view-id=%s)",
+                      local_addr, view_id, view.getViewId());
+            return;
+        }
+        lock.lock();
+        try {
+            int index=getRank(sender, view) - firstChild(tree_rank, Math.max(1, fan_in)) + 1;
+            if(index < 1 || index >= tree_votes.size()) // not a child
+                return;
+            DeltaDigest.Round child=new DeltaDigest.Round(view.getMembersRaw(), null);
+            DeltaDigest.read(msg.getRawBuffer(), msg.getOffset(), msg.getLength(), null, child);
+            num_stable_msgs_received++;
+            tree_digests[index]=child.digest(0); // replaces an older digest of the same child
+            tree_votes.set(index);
+        }
+        catch(Throwable t) {
+            log.error("%s: failed handling tree digest from %s: %s", local_addr, sender, t);
+            return;
+        }
+        finally {
+            lock.unlock();
+        }
+        forwardTreeDigest();
+    }
+
+    /**
+     * Adds the digest of this member to the tree (replacing an older one): it will be forwarded once the digests of all
+     * children are there
+     */
+    protected void treeVote(Digest d) {
+        lock.lock();
+        try {
+            if(tree_votes == null)
+                return;
+            tree_digests[0]=d; // replaces an older digest of this member
+            tree_votes.set(0);
+        }
+        finally {
+            lock.unlock();
+        }
+        forwardTreeDigest();
+    }
+
+    /**
+     * If the digests of this member and all of its children have been received, sends the merged digest to the parent,
+     * or - if this member is the root - completes the stability round
+     */
+    protected void forwardTreeDigest() {
+        Digest merged;
+        ViewId view_id;
+        Address parent=null;
+        long stable_round=0;
+        lock.lock();
+        try {
+            if(tree_votes == null || !allVotesReceived(tree_votes))
+                return;
+            DeltaDigest.Round tree_round=new DeltaDigest.Round(view.getMembersRaw(), null);
+            for(Digest d: tree_digests)
+                tree_round.add(d);
+            merged=tree_round.digest(0);
+            view_id=view.getViewId();
+            int parent_rank=parent(tree_rank, Math.max(1, fan_in));
+            if(parent_rank >= 0)
+                parent=view.getMembersRaw()[parent_rank];
+            else {
+                stable_round=++round;
+                stability_digests.put(stable_round, merged);
+            }
+            resetTree();
+        }
+        finally {
+            lock.unlock();
+        }
+        if(parent == null) {
+            stable(merged, view_id, stable_round);
+            return;
+        }
+        try {
+            Buffer buf=DeltaDigest.write(merged, null);
+            Message msg=new Message(parent).setFlag(Message.Flag.OOB, Message.Flag.INTERNAL, Message.Flag.NO_RELIABILITY)
+              .putHeader(this.id, new StableHeader(StableHeader.TREE_GOSSIP, view_id)).setBuffer(buf);
+            num_stable_bytes_sent+=buf.getLength();
+            num_tree_msgs_sent++;
+            down_prot.down(msg);
+        }
+        catch(Throwable t) {
+            log.warn("%s: failed sending merged digest to %s: %s", local_addr, parent, t);
+        }
+    }
+
+    /** Called when gossips from all members have been received: sends a STABILITY message and garbage collects */
+    protected void stable(Digest stable_digest, ViewId view_id, long stable_round) {
+        resetNumBytes();
+        stabilityReceived(stable_digest, view_id, stable_round);
+        sendStabilityMessage(stable_digest, view_id, stable_round);
+        // we discard our own STABILITY message: pass it down now, so NAKACK can purge old messages
+        down_prot.down(new Event(Event.STABLE, stable_digest));
+    }
+
+    /** Records a STABILITY digest: the next STABLE message can be sent as delta to it */
+    protected void stabilityReceived(Digest stable_digest, ViewId view_id, long stable_round) {
+        last_stability=new Stability(stable_digest, view_id, stable_round);
+        stability_acked=true;
     }
 
     protected void resetNumBytes() {
@@ -598,7 +895,8 @@ public class STABLE extends Protocol {
     }
 
 
-    protected void handleStabilityMessage(final Digest stable_digest, final Address sender, final ViewId view_id) {
+    protected void handleStabilityMessage(final Digest stable_digest, final Address sender, final ViewId view_id,
+                                          long stable_round) {
         if(stable_digest == null) {
             if(log.isErrorEnabled()) log.error(Util.getMessage("StabilityDigestIsNull"));
             return;
@@ -631,6 +929,7 @@ public class STABLE extends Protocol {
 
             num_stability_msgs_received++;
             resetDigest();
+            stabilityReceived(stable_digest, view_id, stable_round);
         }
         finally {
             lock.unlock();
@@ -660,10 +959,38 @@ public class STABLE extends Protocol {
             return;
         }
 
+        if(fan_in > 0) {
+            treeVote(d);
+            return;
+        }
+
+        StableHeader hdr;
+        Buffer buf;
+        if(delta_digests && send_stable_msgs_to_coord_only) {
+            Stability base=last_stability;
+            boolean delta=stability_acked && base != null && current_view.getViewId().equals(base.view_id);
+            hdr=new StableHeader(StableHeader.DELTA_GOSSIP, current_view.getViewId()).round(delta? base.round : 0);
+            try {
+                buf=DeltaDigest.write(d, delta? base.digest : null);
+            }
+            catch(Exception ex) {
+                log.error("%s: failed writing delta digest: %s", local_addr, ex);
+                return;
+            }
+            stability_acked=false; // the next STABLE message will be a full digest unless a STABILITY is received
+            if(delta)
+                num_delta_msgs_sent++;
+        }
+        else {
+            hdr=new StableHeader(StableHeader.STABLE_GOSSIP, current_view.getViewId());
+            buf=marshal(d);
+        }
+        num_stable_bytes_sent+=buf.getLength();
+
         final Message msg=new Message(dest)
           .setFlag(Message.Flag.OOB,Message.Flag.INTERNAL,Message.Flag.NO_RELIABILITY)
-          .putHeader(this.id, new StableHeader(StableHeader.STABLE_GOSSIP, current_view.getViewId()))
-          .setBuffer(marshal(d));
+          .putHeader(this.id, hdr)
+          .setBuffer(buf);
         try {
             if(!send_in_background) {
                 down_prot.down(msg);
@@ -710,17 +1037,17 @@ public class STABLE extends Protocol {
      waiting for N msecs to send STABILITY message S1, another STABILITY message S2 is to be sent, we just discard S2.
      @param tmp A copy of the stability digest, so we don't need to copy it again
      */
-    protected void sendStabilityMessage(Digest tmp, final ViewId view_id) {
+    protected void sendStabilityMessage(Digest tmp, final ViewId view_id, long stable_round) {
         if(send_stable_msgs_to_coord_only || stability_delay <= 1)
-            _sendStabilityMessage(tmp, view_id);
+            _sendStabilityMessage(tmp, view_id, stable_round);
         else {
             // give other members a chance to mcast STABILITY message. if we receive STABILITY by the end of our random
             // sleep, we will not send the STABILITY msg. this prevents that all mbrs mcast a STABILITY msg at the same time
-            startStabilityTask(tmp, view_id, Util.random(stability_delay));
+            startStabilityTask(tmp, view_id, stable_round, Util.random(stability_delay));
         }
     }
 
-    protected void _sendStabilityMessage(Digest stability_digest, final ViewId view_id) {
+    protected void _sendStabilityMessage(Digest stability_digest, final ViewId view_id, long stable_round) {
         if(suspended) {
             log.debug("STABILITY message will not be sent as suspended=%b", suspended);
             return;
@@ -730,7 +1057,7 @@ public class STABLE extends Protocol {
         // but clear votes *before* sending it
         try {
             Message msg=new Message().setFlag(Message.Flag.OOB, Message.Flag.INTERNAL, Message.Flag.NO_RELIABILITY)
-              .putHeader(id, new StableHeader(StableHeader.STABILITY, view_id))
+              .putHeader(id, new StableHeader(StableHeader.STABILITY, view_id).round(stable_round))
               .setBuffer(marshal(stability_digest));
             log.trace("%s: sending stability msg %s", local_addr, printDigest(stability_digest));
             num_stability_msgs_sent++;
@@ -762,9 +1089,12 @@ public class STABLE extends Protocol {
     public static class StableHeader extends Header {
         public static final byte STABLE_GOSSIP=1;
         public static final byte STABILITY=2;
+        public static final byte DELTA_GOSSIP=3; // STABLE_GOSSIP with a delta digest (DeltaDigest)
+        public static final byte TREE_GOSSIP=4;  // merged digest of a subtree, sent to the parent
 
         protected byte   type;
         protected ViewId view_id;
+        protected long   round; // STABILITY: id of the round, DELTA_GOSSIP: round of the base (0: no base)
 
         public StableHeader() {
         }
@@ -776,36 +1106,46 @@ public class STABLE extends Protocol {
 
         public short getMagicId() {return 56;}
 
+        public long         round()       {return round;}
+        public StableHeader round(long r) {this.round=r; return this;}
+        protected boolean   hasRound()    {return type == STABILITY || type == DELTA_GOSSIP;}
+
         public Supplier<? extends Header> create() {return StableHeader::new;}
 
         static String type2String(byte t) {
             switch(t) {
                 case STABLE_GOSSIP: return "STABLE_GOSSIP";
                 case STABILITY:     return "STABILITY";
+                case DELTA_GOSSIP:  return "DELTA_GOSSIP";
+                case TREE_GOSSIP:   return "TREE_GOSSIP";
                 default:            return "<unknown>";
             }
         }
 
         public String toString() {
-            return String.format("[%s] view-id= %s", type2String(type), view_id);
+            return String.format("[%s] view-id= %s%s", type2String(type), view_id, hasRound()? ", round=" + round : "");
         }
 
         @Override
         public int serializedSize() {
             return Global.BYTE_SIZE // type
-              + Util.size(view_id);
+              + Util.size(view_id) + (hasRound()? Bits.size(round) : 0);
         }
 
         @Override
         public void writeTo(DataOutput out) throws IOException {
             out.writeByte(type);
             Util.writeViewId(view_id, out);
+            if(hasRound())
+                Bits.writeLong(round, out);
         }
 
         @Override
         public void readFrom(DataInput in) throws IOException, ClassNotFoundException {
             type=in.readByte();
             view_id=Util.readViewId(in);
+            if(hasRound())
+                round=Bits.readLong(in);
         }
     }
 
@@ -819,7 +1159,19 @@ public class STABLE extends Protocol {
 
         public long nextInterval() {
             long interval=computeSleepTime();
-            return interval <= 0? desired_avg_gossip / 2 : interval;
+            if(interval <= 0)
+                interval=desired_avg_gossip / 2;
+            if(max_unstable_msgs > 0 && interval > min_gossip_interval) {
+                try {
+                    long unstable=getUnstableMessages();
+                    if(unstable > max_unstable_msgs) // the more unstable messages, the sooner the next STABLE message
+                        interval=Math.max(min_gossip_interval, (long)(interval * (max_unstable_msgs / (double)unstable)));
+                }
+                catch(Throwable t) {
+                    log.trace("%s: failed computing the number of unstable messages: %s", local_addr, t);
+                }
+            }
+            return gossip_interval=interval;
         }
 
         public void run() {
@@ -841,19 +1193,35 @@ public class STABLE extends Protocol {
 
 
 
+    /** A STABILITY message received (or sent by the coordinator) */
+    protected static class Stability {
+        protected final Digest digest;
+        protected final ViewId view_id;
+        protected final long   round;
+
+        protected Stability(Digest digest, ViewId view_id, long round) {
+            this.digest=digest;
+            this.view_id=view_id;
+            this.round=round;
+        }
+    }
+
+
     /** Multicasts a STABILITY message */
     protected class StabilitySendTask implements Runnable {
         protected final Digest stability_digest;
         protected final ViewId view_id; // ViewId at the time the STABILITY message was created
+        protected final long   stable_round;
 
 
-        protected StabilitySendTask(Digest d, ViewId view_id) {
+        protected StabilitySendTask(Digest d, ViewId view_id, long stable_round) {
             this.stability_digest=d;
             this.view_id=view_id;
+            this.stable_round=stable_round;
         }
 
         public void run() {
-            _sendStabilityMessage(stability_digest, view_id);
+            _sendStabilityMessage(stability_digest, view_id, stable_round);
         }
 
         public String toString() {return STABLE.class.getSimpleName() + ": StabilityTask";}
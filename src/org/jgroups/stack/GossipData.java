@@ -6,22 +6,33 @@ import org.jgroups.Address;
 import org.jgroups.Global;
 import org.jgroups.PhysicalAddress;
 import org.jgroups.protocols.PingData;
-import org.jgroups.util.Bits;
-import org.jgroups.util.SizeStreamable;
-import org.jgroups.util.Util;
+import org.jgroups.util.*;
 
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 
 /**
- * Encapsulates data sent between GossipRouter and RouterStub (TCPGOSSIP and TUNNEL)
+ * Encapsulates data sent between GossipRouter and RouterStub (TCPGOSSIP and TUNNEL).<p/>
+ * The flags are only serialized for REGISTER, REGISTER_RSP and MESSAGE_BATCH, so that the other types keep the
+ * format understood by older clients and routers. REGISTER_RSP and MESSAGE_BATCH are only sent to peers which
+ * requested options in their REGISTER, and have a flags byte after the sender. A REGISTER carries the flags as the
+ * last byte of its buffer, which older routers read and ignore.
  * @author Bela Ban Oct 4 2001
  */
 public class GossipData implements SizeStreamable {
+    /** REGISTER, REGISTER_RSP: the client sends (or the GossipRouter accepts) MESSAGE_BATCH messages */
+    public static final byte BATCH=1;
+    /** REGISTER, REGISTER_RSP: the client sends (or the GossipRouter accepts) compressed MESSAGE_BATCH messages */
+    public static final byte COMPRESS=1 << 1;
+    /** MESSAGE_BATCH: the buffer is compressed */
+    public static final byte COMPRESSED=1 << 2;
+
     GossipType      type;
     String          group;         // REGISTER, GET_MBRS and GET_MBRS_RSP
     Address         addr;          // REGISTER
@@ -32,6 +43,7 @@ public class GossipData implements SizeStreamable {
     byte[]          buffer;        // MESSAGE
     int             offset;        // MESSAGE
     int             length;        // MESSAGE
+    byte            flags;         // REGISTER, REGISTER_RSP, MESSAGE_BATCH
 
     public GossipData() { // for streamable
     }
@@ -85,10 +97,68 @@ public class GossipData implements SizeStreamable {
     public int              getOffset()          {return offset;}
     public int              getLength()          {return length;}
     public PhysicalAddress  getPhysicalAddress() {return physical_addr;}
+    public byte             flags()              {return flags;}
+    public GossipData       flags(byte f)        {flags=f; return this;}
+    public boolean          isFlagSet(byte f)    {return (flags & f) == f;}
     public void setPingData(List<PingData> mbrs) {
         this.ping_data=mbrs;
     }
 
+    /**
+     * Returns the messages of a MESSAGE_BATCH (uncompressing the buffer if needed) as MESSAGE instances. The buffer
+     * of a batch is a sequence of messages, each preceded by its length (int); if compressed, it is preceded by the
+     * uncompressed length (int), followed by the deflated sequence.
+     */
+    public List<GossipData> readMessages() throws IOException {
+        return readMessages(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Same as {@link #readMessages()}, but fails if the uncompressed length of a compressed batch is greater than
+     * max_size, e.g. when reading batches from untrusted clients
+     */
+    public List<GossipData> readMessages(int max_size) throws IOException {
+        byte[] buf=buffer;
+        int off=offset, len=buffer != null? length : 0;
+        if(len > 0 && isFlagSet(COMPRESSED)) {
+            int size=len >= Global.INT_SIZE? Bits.readInt(buffer, offset) : -1;
+            if(size < 0 || size > max_size)
+                throw new IOException(String.format("invalid uncompressed length %d (max: %d)", size, max_size));
+            buf=new byte[size];
+            Inflater inflater=new Inflater();
+            try {
+                inflater.setInput(buffer, offset + Global.INT_SIZE, length - Global.INT_SIZE);
+                int num=0;
+                while(num < buf.length && !inflater.finished()) {
+                    int n=inflater.inflate(buf, num, buf.length - num);
+                    if(n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                        break;
+                    num+=n;
+                }
+                if(num != buf.length)
+                    throw new IOException(String.format("uncompressed %d bytes, but expected %d", num, buf.length));
+            }
+            catch(DataFormatException ex) {
+                throw new IOException("failed uncompressing batch", ex);
+            }
+            finally {
+                inflater.end();
+            }
+            off=0;
+            len=buf.length;
+        }
+        List<GossipData> list=new ArrayList<>();
+        for(int pos=off, end=off+len; pos < end;) {
+            int msg_len=pos + Global.INT_SIZE <= end? Bits.readInt(buf, pos) : -1;
+            pos+=Global.INT_SIZE;
+            if(msg_len < 0 || msg_len > end - pos)
+                throw new IOException(String.format("invalid message length %d in batch of %d bytes", msg_len, len));
+            list.add(new GossipData(GossipType.MESSAGE, group, addr, buf, pos, msg_len).setSender(sender));
+            pos+=msg_len;
+        }
+        return list;
+    }
+
     public void addPingData(PingData data) {
         if(ping_data == null)
             ping_data=new ArrayList<>();
@@ -106,6 +176,8 @@ public class GossipData implements SizeStreamable {
             sb.append(", ping_data=").append(ping_data);
         if(physical_addr != null)
             sb.append(", physical_addr=").append(physical_addr);
+        if(flags != 0)
+            sb.append(", flags=").append(flags);
         if(buffer != null)
             sb.append(", buffer: " + length + " bytes");
         sb.append(")");
@@ -119,8 +191,10 @@ public class GossipData implements SizeStreamable {
         retval+=Global.BYTE_SIZE;      // presence for group
         retval+=Util.size(addr);       // addr
         retval+=Util.size(sender);
+        if(hasFlagsByte())
+            retval+=Global.BYTE_SIZE;  // flags
 
-        if(type != GossipType.MESSAGE) {
+        if(!isMessage()) {
             retval+=Global.BYTE_SIZE;     // presence byte for logical_name
             if(logical_name != null)
                 retval+=logical_name.length() +2;
@@ -136,6 +210,8 @@ public class GossipData implements SizeStreamable {
         retval+=Global.INT_SIZE; // length of buffer
         if(buffer != null)
             retval+=length;
+        if(hasFlagsInBuffer())
+            retval+=Global.BYTE_SIZE;
         return retval;
     }
 
@@ -145,8 +221,10 @@ public class GossipData implements SizeStreamable {
         Bits.writeString(group, out);
         Util.writeAddress(addr, out);
         Util.writeAddress(sender, out);
+        if(hasFlagsByte())
+            out.writeByte(flags);
 
-        if(type != GossipType.MESSAGE) {
+        if(!isMessage()) {
             Bits.writeString(logical_name, out);
             out.writeShort(ping_data != null? ping_data.size() : 0);
             if(ping_data != null)
@@ -156,7 +234,15 @@ public class GossipData implements SizeStreamable {
             Util.writeAddress(physical_addr, out);
         }
 
-        out.writeInt(buffer != null? length : 0);
+        int len=buffer != null? length : 0;
+        if(hasFlagsInBuffer()) {
+            out.writeInt(len + Global.BYTE_SIZE);
+            if(buffer != null)
+                out.write(buffer, offset, length);
+            out.writeByte(flags);
+            return;
+        }
+        out.writeInt(len);
         if(buffer != null)
             out.write(buffer, offset, length);
     }
@@ -173,8 +259,10 @@ public class GossipData implements SizeStreamable {
         group=Bits.readString(in);
         addr=Util.readAddress(in);
         sender=Util.readAddress(in);
+        if(hasFlagsByte())
+            flags=in.readByte();
 
-        if(type != GossipType.MESSAGE) {
+        if(!isMessage()) {
             logical_name=Bits.readString(in);
             short len=in.readShort();
             if(len > 0) {
@@ -192,9 +280,27 @@ public class GossipData implements SizeStreamable {
         if(length > 0) {
             buffer=new byte[length];
             in.readFully(buffer, offset=0, length);
+            if(type == GossipType.REGISTER) // the last byte of the buffer is the flags
+                flags=buffer[--length];
+            if(length == 0)
+                buffer=null;
         }
     }
 
+    protected boolean isMessage() {
+        return type == GossipType.MESSAGE || type == GossipType.MESSAGE_BATCH;
+    }
+
+    /** Types which are only sent to peers which requested options, and therefore have a flags byte */
+    protected boolean hasFlagsByte() {
+        return type == GossipType.REGISTER_RSP || type == GossipType.MESSAGE_BATCH;
+    }
+
+    /** A REGISTER with flags (or a buffer) has the flags appended to the buffer, where older routers ignore them */
+    protected boolean hasFlagsInBuffer() {
+        return type == GossipType.REGISTER && (flags != 0 || buffer != null);
+    }
+
 
 
 }
@@ -4,6 +4,7 @@ import org.jgroups.Address;
 import org.jgroups.Global;
 import org.jgroups.Message;
 import org.jgroups.PhysicalAddress;
+import org.jgroups.annotations.GuardedBy;
 import org.jgroups.annotations.LocalAddress;
 import org.jgroups.annotations.ManagedAttribute;
 import org.jgroups.annotations.ManagedOperation;
@@ -15,13 +16,20 @@ import org.jgroups.logging.LogFactory;
 import org.jgroups.protocols.PingData;
 import org.jgroups.util.*;
 
+import java.io.Closeable;
 import java.io.DataInput;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BiConsumer;
 
 /**
@@ -83,12 +91,60 @@ public class GossipRouter extends ReceiverAdapter implements ConnectionListener
     @Property(description="Use non-blocking IO (true) or blocking IO (false). Cannot be changed at runtime",writable=false)
     protected boolean              use_nio;
 
+    @Property(description="Number of selector threads handling client connections (use_nio only). 0 means that " +
+      "the acceptor thread handles all connections",writable=false)
+    protected int                  num_selectors;
+
+    @Property(description="Reads and routes messages on the selector thread instead of a reader thread per " +
+      "connection (use_nio only)",writable=false)
+    protected boolean              read_in_selector;
+
     @Property(description="Handles client disconnects: sends SUSPECT message to all other members of that group")
     protected boolean              emit_suspect_events=true;
 
     @Property(description="Dumps messages (dest/src/length/headers to stdout if enabled")
     protected boolean              dump_msgs;
 
+    @Property(description="Max number of bytes queued for a client. If > 0, routed messages are added to a queue " +
+      "per client, which is drained by a sender thread, so that a slow client doesn't block the thread which read " +
+      "the message. 0 sends messages on the reading thread",writable=false)
+    protected int                  max_queued_bytes;
+
+    @Property(description="What to do when a client's queue is full: drop (the message) or block (the reading thread " +
+      "until there is space, or max_block_time ms have elapsed)",writable=false)
+    protected String               queue_full_policy="drop";
+
+    @Property(description="Max time (ms) to block when a client's queue is full (queue_full_policy=block). When " +
+      "elapsed, the message is dropped")
+    protected long                 max_block_time=1000;
+
+    @Property(description="Max number of queued messages written to a client at once (single flush or gathering write)")
+    protected int                  max_batch_size=64;
+
+    @Property(description="Max number of threads draining the client queues",writable=false)
+    protected int                  max_sender_threads=Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    @Property(description="Accepts MESSAGE_BATCH messages from clients which request it (in REGISTER). A multicast " +
+      "batch is forwarded unchanged to all members which accept batches, and split into messages for the others")
+    protected boolean              allow_batching=true;
+
+    @Property(description="Accepts compressed batches from clients which request it (requires allow_batching)")
+    protected boolean              allow_compression=true;
+
+    @Property(description="Max uncompressed size of a compressed batch which is split into messages. Batches " +
+      "claiming a larger size are discarded")
+    protected int                  max_uncompressed_size=10_000_000;
+
+    /** What to do with a message to a client whose queue is full */
+    public enum QueueFullPolicy {
+        /** Drop the message; it will be retransmitted by the sender (if reliable) */
+        drop,
+        /** Block the reading thread until the queue has space (at most max_block_time ms), pushing back on senders */
+        block
+    }
+
+    protected QueueFullPolicy      full_policy=QueueFullPolicy.drop;
+
     protected BaseServer                                        server;
     protected final AtomicBoolean  running=new AtomicBoolean(false);
     protected Timer                timer;
@@ -97,6 +153,16 @@ public class GossipRouter extends ReceiverAdapter implements ConnectionListener
     // mapping between groups and <member address> - <physical addr / logical name> pairs
     protected final ConcurrentMap<String,ConcurrentMap<Address,Entry>> address_mappings=new ConcurrentHashMap<>();
 
+    // the members of each group, updated when address_mappings changes; used to send multicasts to a group
+    protected final ConcurrentMap<String,Entry[]>   routes=new ConcurrentHashMap<>();
+
+    // number of batches forwarded unchanged and number of batches split into messages (clients not accepting batches)
+    protected final LongAdder      batches_forwarded=new LongAdder(), batches_split=new LongAdder();
+
+    // queues of messages to clients (keyed by client address), only used if max_queued_bytes > 0
+    protected final ConcurrentMap<Address,Outbound> queues=new ConcurrentHashMap<>();
+    protected ExecutorService      sender_pool;
+
     protected static final BiConsumer<Short,Message> MSG_CONSUMER=(version,msg) -> {
         System.out.printf("dst=%s src=%s (%d bytes): hdrs= %s\n", msg.dest(), msg.src(), msg.getLength(), msg.printHeaders());
     };
@@ -138,10 +204,47 @@ public class GossipRouter extends ReceiverAdapter implements ConnectionListener
     public GossipRouter  jmx(boolean flag)                  {jmx=flag; return this;}
     public boolean       useNio()                           {return use_nio;}
     public GossipRouter  useNio(boolean flag)               {use_nio=flag; return this;}
+    public int           numSelectors()                     {return num_selectors;}
+    public GossipRouter  numSelectors(int num)              {num_selectors=num; return this;}
+    public boolean       readInSelector()                   {return read_in_selector;}
+    public GossipRouter  readInSelector(boolean flag)       {read_in_selector=flag; return this;}
     public boolean       emitSuspectEvents()                {return emit_suspect_events;}
     public GossipRouter  emitSuspectEvents(boolean flag)    {emit_suspect_events=flag; return this;}
     public boolean       dumpMessages()                     {return dump_msgs;}
     public GossipRouter  dumpMessages(boolean flag)         {dump_msgs=flag; return this;}
+    public int           maxQueuedBytes()                   {return max_queued_bytes;}
+    public GossipRouter  maxQueuedBytes(int max)            {max_queued_bytes=max; return this;}
+    public String        queueFullPolicy()                  {return queue_full_policy;}
+    public GossipRouter  queueFullPolicy(String p)          {full_policy=QueueFullPolicy.valueOf(p); queue_full_policy=p; return this;}
+    public long          maxBlockTime()                     {return max_block_time;}
+    public GossipRouter  maxBlockTime(long t)               {max_block_time=t; return this;}
+    public int           maxBatchSize()                     {return max_batch_size;}
+    public GossipRouter  maxBatchSize(int size)             {max_batch_size=Math.max(1, size); return this;}
+    public int           maxSenderThreads()                 {return max_sender_threads;}
+    public GossipRouter  maxSenderThreads(int num)          {max_sender_threads=num; return this;}
+
+    public boolean       allowBatching()                    {return allow_batching;}
+    public GossipRouter  allowBatching(boolean b)           {allow_batching=b; return this;}
+    public boolean       allowCompression()                 {return allow_compression;}
+    public GossipRouter  allowCompression(boolean c)        {allow_compression=c; return this;}
+    public int           maxUncompressedSize()              {return max_uncompressed_size;}
+    public GossipRouter  maxUncompressedSize(int s)         {max_uncompressed_size=s; return this;}
+
+    @ManagedAttribute(description="Number of batches forwarded unchanged to clients")
+    public long numBatchesForwarded() {return batches_forwarded.sum();}
+
+    @ManagedAttribute(description="Number of batches split into messages for clients which don't accept batches")
+    public long numBatchesSplit() {return batches_split.sum();}
+
+    @ManagedAttribute(description="Number of messages to clients dropped because their queue was full")
+    public long numDroppedMessages() {
+        return queues.values().stream().mapToLong(Outbound::dropped).sum();
+    }
+
+    @ManagedAttribute(description="Number of bytes currently queued for all clients")
+    public long numQueuedBytes() {
+        return queues.values().stream().mapToLong(Outbound::queuedBytes).sum();
+    }
     @ManagedAttribute(description="operational status", name="running")
     public boolean       running()                          {return running.get();}
 
@@ -161,9 +264,18 @@ public class GossipRouter extends ReceiverAdapter implements ConnectionListener
             return;
         if(jmx)
             JmxConfigurator.register(this, Util.getMBeanServer(), "jgroups:name=GossipRouter");
+        full_policy=QueueFullPolicy.valueOf(queue_full_policy);
+        if(max_queued_bytes > 0) {
+            ThreadPoolExecutor pool=new ThreadPoolExecutor(max_sender_threads, max_sender_threads, 30000,
+                                                           TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), thread_factory);
+            pool.allowCoreThreadTimeOut(true);
+            sender_pool=pool;
+        }
 
         server=use_nio? new NioServer(thread_factory, socket_factory, bind_addr, port, port, null, 0)
           : new TcpServer(thread_factory, socket_factory, bind_addr, port, port, null, 0);
+        if(use_nio)
+            ((NioServer)server).numSelectors(num_selectors).readInSelector(read_in_selector);
         server.receiver(this);
         server.start();
         server.addConnectionListener(this);
@@ -186,6 +298,10 @@ public class GossipRouter extends ReceiverAdapter implements ConnectionListener
             log.error(Util.getMessage("MBeanDeRegistrationFailed"), ex);
         }
         Util.close(server);
+        queues.values().forEach(Outbound::close);
+        queues.clear();
+        if(sender_pool != null)
+            sender_pool.shutdownNow();
         log.debug("router stopped");
     }
 
@@ -196,6 +312,12 @@ public class GossipRouter extends ReceiverAdapter implements ConnectionListener
     }
 
 
+    @ManagedOperation(description="Prints the queues of messages to clients")
+    public String printQueues() {
+        return queues.values().stream().map(Outbound::toString).collect(java.util.stream.Collectors.joining("\n"));
+    }
+
+
     @ManagedOperation(description="Dumps the address mappings")
     public String dumpAddresssMappings() {
         StringBuilder sb=new StringBuilder();
@@ -222,7 +344,6 @@ public class GossipRouter extends ReceiverAdapter implements ConnectionListener
         GossipType type;
         try {
             type=GossipType.values()[in.readByte()];
-            in.position(Global.BYTE_SIZE);
         }
         catch(Exception ex) {
             log.error("failed reading data from %s: %s", sender, ex);
@@ -255,6 +376,22 @@ public class GossipRouter extends ReceiverAdapter implements ConnectionListener
                 }
                 break;
 
+            case MESSAGE_BATCH:
+                // the batch is only parsed (not copied) to split it for clients which don't accept batches
+                try {
+                    String group=Bits.readString(in);
+                    Address dest=Util.readAddress(in), src=Util.readAddress(in);
+                    byte flags=in.readByte();
+                    int len=in.readInt();
+                    GossipData batch=new GossipData(type, group, dest, buf, in.position(), len).setSender(src).flags(flags);
+                    routeBatch(batch, buf, offset, length);
+                }
+                catch(Throwable t) {
+                    log.error(Util.getMessage("FailedReadingRequest"), t);
+                    return;
+                }
+                break;
+
             case GET_MBRS:
                 handleGetMembersRequest(sender, in);
                 break;
@@ -292,6 +429,20 @@ public class GossipRouter extends ReceiverAdapter implements ConnectionListener
                 }
                 break;
 
+            case MESSAGE_BATCH:
+                try {
+                    if((request=readRequest(in, type)) != null) {
+                        ByteArrayDataOutputStream out=new ByteArrayDataOutputStream(request.serializedSize());
+                        request.writeTo(out);
+                        routeBatch(request, out.buffer(), 0, out.position());
+                    }
+                }
+                catch(Throwable t) {
+                    log.error(Util.getMessage("FailedReadingRequest"), t);
+                    return;
+                }
+                break;
+
             case GET_MBRS:
                 handleGetMembersRequest(sender, in);
                 break;
@@ -309,10 +460,29 @@ public class GossipRouter extends ReceiverAdapter implements ConnectionListener
             Address         addr=req.getAddress();
             PhysicalAddress phys_addr=req.getPhysicalAddress();
             String          logical_name=req.getLogicalName();
-            addAddressMapping(sender, group, addr, phys_addr, logical_name);
+            byte            accepted=(byte)(req.flags() & supportedFlags());
+            addAddressMapping(sender, group, addr, phys_addr, logical_name, accepted);
+            if(req.flags() != 0) { // clients not requesting any options may not understand a REGISTER_RSP
+                GossipData rsp=new GossipData(GossipType.REGISTER_RSP, group, addr).flags(accepted);
+                ByteArrayDataOutputStream out=new ByteArrayDataOutputStream(rsp.serializedSize());
+                try {
+                    rsp.writeTo(out);
+                    server.send(sender, out.buffer(), 0, out.position());
+                }
+                catch(Exception ex) {
+                    log.error("failed sending %s to %s: %s", GossipType.REGISTER_RSP, sender, ex);
+                }
+            }
         }
     }
 
+    /** The options of a REGISTER accepted by this router */
+    protected byte supportedFlags() {
+        if(!allow_batching)
+            return 0;
+        return allow_compression? GossipData.BATCH | GossipData.COMPRESS : GossipData.BATCH;
+    }
+
     protected void handleUnregister(DataInput in) {
         GossipData req=readRequest(in, GossipType.UNREGISTER);
         if(req != null)
@@ -351,6 +521,9 @@ public class GossipRouter extends ReceiverAdapter implements ConnectionListener
     @Override
     public void connectionClosed(Connection conn, String reason) {
         removeFromAddressMappings(conn.peerAddress());
+        Outbound out=conn.peerAddress() != null? queues.remove(conn.peerAddress()) : null;
+        if(out != null)
+            out.close();
     }
 
     @Override
@@ -384,13 +557,20 @@ public class GossipRouter extends ReceiverAdapter implements ConnectionListener
 
 
     protected void addAddressMapping(Address sender, String group, Address addr, PhysicalAddress phys_addr, String logical_name) {
+        addAddressMapping(sender, group, addr, phys_addr, logical_name, (byte)0);
+    }
+
+    protected void addAddressMapping(Address sender, String group, Address addr, PhysicalAddress phys_addr,
+                                     String logical_name, byte flags) {
         ConcurrentMap<Address,Entry> m=address_mappings.get(group);
         if(m == null) {
             ConcurrentMap<Address,Entry> existing=this.address_mappings.putIfAbsent(group, m=new ConcurrentHashMap<>());
             if(existing != null)
                 m=existing;
         }
-        m.put(addr, new Entry(sender, phys_addr, logical_name));
+        Outbound out=max_queued_bytes > 0? queues.computeIfAbsent(sender, Outbound::new) : null;
+        m.put(addr, new Entry(sender, phys_addr, logical_name, out, flags));
+        updateRoutes(group);
     }
 
     protected void removeAddressMapping(String group, Address addr) {
@@ -399,6 +579,15 @@ public class GossipRouter extends ReceiverAdapter implements ConnectionListener
             return;
         if(m.remove(addr) != null && m.isEmpty())
             address_mappings.remove(group);
+        updateRoutes(group);
+    }
+
+    /** Updates the members of a group (used to route multicasts) from address_mappings */
+    protected void updateRoutes(String group) {
+        routes.compute(group, (g,old) -> {
+            Map<Address,Entry> m=address_mappings.get(g);
+            return m == null || m.isEmpty()? null : m.values().toArray(new Entry[0]);
+        });
     }
 
 
@@ -414,6 +603,7 @@ public class GossipRouter extends ReceiverAdapter implements ConnectionListener
                     log.debug("connection to %s closed", client_addr);
                     if(map.isEmpty())
                         address_mappings.remove(entry.getKey());
+                    updateRoutes(entry.getKey());
                     if(suspects == null) suspects=new HashSet<>();
                     suspects.add(new Tuple<>(entry.getKey(), entry2.getKey()));
                     break;
@@ -435,19 +625,81 @@ public class GossipRouter extends ReceiverAdapter implements ConnectionListener
 
 
     protected void route(String group, Address dest, byte[] msg, int offset, int length) {
-        ConcurrentMap<Address,Entry> map=address_mappings.get(group);
-        if(map == null)
-            return;
         if(dest != null) { // unicast
+            ConcurrentMap<Address,Entry> map=address_mappings.get(group);
+            if(map == null)
+                return;
             Entry entry=map.get(dest);
-            if(entry != null)
-                sendToMember(entry.client_addr, msg, offset, length);
-            else
+            if(entry == null)
                 log.warn("dest %s in cluster %s not found", dest, group);
+            else if(entry.out != null)
+                entry.out.add(Arrays.copyOfRange(msg, offset, offset+length));
+            else
+                sendToMember(entry.client_addr, msg, offset, length);
+            return;
         }
-        else {             // multicast - send to all members in group
-            Set<Map.Entry<Address,Entry>> dests=map.entrySet();
-            sendToAllMembersInGroup(dests, msg, offset, length);
+        // multicast - send to all members in group
+        Entry[] members=routes.get(group);
+        if(members == null)
+            return;
+        byte[] copy=null; // the reading thread reuses msg; the same copy is queued for all clients
+        for(Entry e: members) {
+            if(e.out == null) {
+                sendToMember(e.client_addr, msg, offset, length);
+                continue;
+            }
+            if(copy == null)
+                copy=Arrays.copyOfRange(msg, offset, offset+length);
+            e.out.add(copy);
+        }
+    }
+
+    /**
+     * Routes a MESSAGE_BATCH: the serialized batch (msg) is forwarded unchanged to all clients accepting it; for the
+     * others, the batch is split into MESSAGEs (once).
+     */
+    protected void routeBatch(GossipData batch, byte[] msg, int offset, int length) throws Exception {
+        Entry[] members;
+        if(batch.addr != null) {
+            ConcurrentMap<Address,Entry> map=address_mappings.get(batch.group);
+            Entry entry=map != null? map.get(batch.addr) : null;
+            if(entry == null) {
+                log.warn("dest %s in cluster %s not found", batch.addr, batch.group);
+                return;
+            }
+            members=new Entry[]{entry};
+        }
+        else if((members=routes.get(batch.group)) == null)
+            return;
+
+        byte[] copy=null;     // shared by all queues
+        List<byte[]> msgs=null; // the messages of the batch, for clients not accepting it
+        for(Entry e: members) {
+            if(e.accepts(batch.flags)) {
+                batches_forwarded.increment();
+                if(e.out == null)
+                    sendToMember(e.client_addr, msg, offset, length);
+                else
+                    e.out.add(copy != null? copy : (copy=Arrays.copyOfRange(msg, offset, offset+length)));
+                continue;
+            }
+            if(msgs == null) {
+                batches_split.increment();
+                msgs=new ArrayList<>();
+                for(GossipData data: batch.readMessages(max_uncompressed_size)) {
+                    ByteArrayDataOutputStream out=new ByteArrayDataOutputStream(data.serializedSize());
+                    data.writeTo(out);
+                    msgs.add(Arrays.copyOf(out.buffer(), out.position()));
+                    if(dump_msgs)
+                        dump(data);
+                }
+            }
+            for(byte[] m: msgs) {
+                if(e.out == null)
+                    sendToMember(e.client_addr, m, 0, m.length);
+                else
+                    e.out.add(m);
+            }
         }
     }
 
@@ -519,11 +771,25 @@ public class GossipRouter extends ReceiverAdapter implements ConnectionListener
         protected final PhysicalAddress phys_addr;
         protected final String          logical_name;
         protected final Address         client_addr; // address of the client which registered an item
+        protected final Outbound        out;         // the queue to the client (null if queues are disabled)
+        protected final byte            flags;       // the options of the client accepted by the router
 
         public Entry(Address client_addr, PhysicalAddress phys_addr, String logical_name) {
+            this(client_addr, phys_addr, logical_name, null, (byte)0);
+        }
+
+        public Entry(Address client_addr, PhysicalAddress phys_addr, String logical_name, Outbound out, byte flags) {
             this.phys_addr=phys_addr;
             this.logical_name=logical_name;
             this.client_addr=client_addr;
+            this.out=out;
+            this.flags=flags;
+        }
+
+        /** Whether the client accepts a MESSAGE_BATCH with the given flags */
+        protected boolean accepts(byte batch_flags) {
+            return (flags & GossipData.BATCH) != 0
+              && ((batch_flags & GossipData.COMPRESSED) == 0 || (flags & GossipData.COMPRESS) != 0);
         }
 
         public String toString() {return String.format("client=%s, name=%s, addr=%s", client_addr, logical_name, phys_addr);}
@@ -531,6 +797,120 @@ public class GossipRouter extends ReceiverAdapter implements ConnectionListener
 
 
 
+    /**
+     * A bounded queue of messages to a client. Messages are added by the threads reading from other clients and
+     * written (in batches of up to max_batch_size) by a task run on the sender pool; at most one task per queue is
+     * submitted or running at any time, so messages to a client are sent in order.
+     */
+    protected class Outbound implements Runnable, Closeable {
+        protected final Address       dest;  // the address of the client's connection
+        protected final Deque<byte[]> queue=new ArrayDeque<>();
+        protected byte[][]            batch; // only accessed by the task draining the queue
+        protected long                queued_bytes;
+        protected boolean             draining, closed;
+        protected long                sent, batches, dropped;
+
+        protected Outbound(Address dest) {
+            this.dest=dest;
+        }
+
+        public synchronized long queuedBytes() {return queued_bytes;}
+        public synchronized long dropped()     {return dropped;}
+
+        /** Adds a message; returns false if it was dropped. The message must not be modified after this call */
+        protected boolean add(byte[] msg) {
+            synchronized(this) {
+                if(closed || (!hasSpace(msg.length) && !waitForSpace(msg.length))) {
+                    dropped++;
+                    return false;
+                }
+                queue.add(msg);
+                queued_bytes+=msg.length;
+                if(draining)
+                    return true;
+                draining=true;
+            }
+            try {
+                sender_pool.execute(this);
+            }
+            catch(RejectedExecutionException ex) { // the router was stopped
+                close();
+            }
+            return true;
+        }
+
+        public void run() {
+            if(batch == null || batch.length != max_batch_size)
+                batch=new byte[max_batch_size][];
+            for(;;) {
+                int num=0;
+                synchronized(this) {
+                    while(num < batch.length && !queue.isEmpty()) {
+                        byte[] msg=queue.poll();
+                        queued_bytes-=msg.length;
+                        batch[num++]=msg;
+                    }
+                    if(num == 0) {
+                        draining=false;
+                        return;
+                    }
+                    sent+=num;
+                    batches++;
+                    notifyAll(); // wakes up threads blocked in add()
+                }
+                try {
+                    server.send(dest, batch, num);
+                }
+                catch(Exception ex) {
+                    log.error("failed sending %d messages to %s: %s", num, dest, ex);
+                }
+                finally {
+                    Arrays.fill(batch, 0, num, null);
+                }
+            }
+        }
+
+        public synchronized void close() {
+            closed=true;
+            dropped+=queue.size();
+            queue.clear();
+            queued_bytes=0;
+            notifyAll();
+        }
+
+        public synchronized String toString() {
+            return String.format("%s: %d msgs (%s) queued, sent=%d (in %d batches), dropped=%d",
+                                 dest, queue.size(), Util.printBytes(queued_bytes), sent, batches, dropped);
+        }
+
+        /** An empty queue always accepts a message, even if it is larger than max_queued_bytes */
+        @GuardedBy("this")
+        protected boolean hasSpace(int len) {
+            return queue.isEmpty() || queued_bytes + len <= max_queued_bytes;
+        }
+
+        @GuardedBy("this")
+        protected boolean waitForSpace(int len) {
+            if(full_policy != QueueFullPolicy.block)
+                return false;
+            long deadline=System.nanoTime() + TimeUnit.NANOSECONDS.convert(max_block_time, TimeUnit.MILLISECONDS);
+            while(!closed && !hasSpace(len)) {
+                long wait=TimeUnit.MILLISECONDS.convert(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if(wait <= 0)
+                    return false;
+                try {
+                    wait(wait);
+                }
+                catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return !closed;
+        }
+    }
+
+
     /**
      * Prints startup information.
      */
@@ -557,7 +937,9 @@ public class GossipRouter extends ReceiverAdapter implements ConnectionListener
 
         GossipRouter router=null;
         String bind_addr=null;
-        boolean jmx=true, nio=true, suspects=true, dump_msgs=false;
+        boolean jmx=true, nio=true, suspects=true, dump_msgs=false, read_in_selector=false;
+        int num_selectors=0, max_queued_bytes=0;
+        String queue_full_policy="drop";
 
         for(int i=0; i < args.length; i++) {
             String arg=args[i];
@@ -593,6 +975,22 @@ public class GossipRouter extends ReceiverAdapter implements ConnectionListener
                 nio=Boolean.parseBoolean(args[++i]);
                 continue;
             }
+            if("-selectors".equals(arg)) {
+                num_selectors=Integer.parseInt(args[++i]);
+                continue;
+            }
+            if("-read_in_selector".equals(arg)) {
+                read_in_selector=Boolean.parseBoolean(args[++i]);
+                continue;
+            }
+            if("-max_queued_bytes".equals(arg)) {
+                max_queued_bytes=Integer.parseInt(args[++i]);
+                continue;
+            }
+            if("-queue_full_policy".equals(arg)) {
+                queue_full_policy=args[++i];
+                continue;
+            }
             if("-suspect".equals(arg)) {
                 suspects=Boolean.parseBoolean(args[++i]);
                 continue;
@@ -607,7 +1005,8 @@ public class GossipRouter extends ReceiverAdapter implements ConnectionListener
 
         router=new GossipRouter(bind_addr, port)
           .jmx(jmx).expiryTime(expiry_time)
-          .useNio(nio)
+          .useNio(nio).numSelectors(num_selectors).readInSelector(read_in_selector)
+          .maxQueuedBytes(max_queued_bytes).queueFullPolicy(queue_full_policy)
           .backlog(backlog)
           .socketReadTimeout(soTimeout)
           .lingerTimeout(soLinger)
@@ -646,6 +1045,14 @@ public class GossipRouter extends ReceiverAdapter implements ConnectionListener
         System.out.println();
         System.out.printf("    -nio <true|false>       - Whether or not to use non-blocking connections (NIO)\n");
         System.out.println();
+        System.out.printf("    -selectors <num>        - Number of selector threads handling connections (NIO only)\n");
+        System.out.println();
+        System.out.printf("    -read_in_selector <true|false> - Read and route messages on the selector threads (NIO only)\n");
+        System.out.println();
+        System.out.printf("    -max_queued_bytes <bytes> - Max bytes queued per client; 0 sends on the reading thread\n");
+        System.out.println();
+        System.out.printf("    -queue_full_policy <drop|block> - What to do with a message when a client's queue is full\n");
+        System.out.println();
         System.out.printf("    -suspect <true|false>   - Whether or not to use send SUSPECT events when a conn is closed\n");
         System.out.println();
         System.out.printf("    -dump_msgs <true|false> - Dumps all messages to stdout after routing them\n");
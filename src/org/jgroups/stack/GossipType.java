@@ -11,5 +11,7 @@ public enum GossipType {
     GET_MBRS,
     GET_MBRS_RSP,
     MESSAGE,
-    SUSPECT
+    SUSPECT,
+    MESSAGE_BATCH, // a number of messages from the same sender to the same destination (optionally compressed)
+    REGISTER_RSP   // the options (GossipData.flags) of a REGISTER accepted by the GossipRouter
 }
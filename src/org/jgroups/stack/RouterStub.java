@@ -1,12 +1,14 @@
 package org.jgroups.stack;
 
 import org.jgroups.Address;
+import org.jgroups.Global;
 import org.jgroups.PhysicalAddress;
 import org.jgroups.annotations.GuardedBy;
 import org.jgroups.blocks.cs.*;
 import org.jgroups.logging.Log;
 import org.jgroups.logging.LogFactory;
 import org.jgroups.protocols.PingData;
+import org.jgroups.util.Bits;
 import org.jgroups.util.ByteArrayDataInputStream;
 import org.jgroups.util.ByteArrayDataOutputStream;
 import org.jgroups.util.Util;
@@ -15,6 +17,8 @@ import java.io.DataInput;
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
 
 
 /**
@@ -41,6 +45,27 @@ public class RouterStub extends ReceiverAdapter implements Comparable<RouterStub
     // map to correlate GET_MBRS requests and responses
     protected final Map<String,List<MembersNotification>> get_members_map=new HashMap<>();
 
+    // send messages as MESSAGE_BATCH (if accepted by the GossipRouter)
+    protected boolean                                     batch_messages;
+    // compress batches (if accepted by the GossipRouter); only used when batch_messages is true
+    protected boolean                                     compress;
+    protected int                                         compression_level=Deflater.BEST_SPEED;
+    // batches smaller than this are not compressed
+    protected int                                         min_compress_size=1024;
+    // max number of bytes of messages waiting to be sent; senders block when exceeded
+    protected int                                         max_batch_size=64000;
+
+    // the options accepted by the GossipRouter (REGISTER_RSP); 0 until then
+    protected volatile byte                               flags;
+
+    // messages waiting to be sent, one batch per destination; drained by the first thread to add a message
+    protected final List<Batch>                           pending=new ArrayList<>();
+    @GuardedBy("pending")
+    protected int                                         pending_bytes;
+    protected final AtomicInteger                         adders=new AtomicInteger();
+    protected Deflater                                    deflater; // only used by the thread draining pending
+    protected long                                        num_batches, num_batched_msgs, bytes_compressed, bytes_uncompressed;
+
 
     /**
      * Creates a stub to a remote GossipRouter
@@ -90,6 +115,18 @@ public class RouterStub extends ReceiverAdapter implements Comparable<RouterStub
     public boolean             useNio()                                 {return use_nio;}
     public IpAddress           gossipRouterAddress()                    {return remote;}
     public boolean             isConnected()                            {return client != null && ((Client)client).isConnected();}
+    public boolean             batchMessages()                          {return batch_messages;}
+    public RouterStub          batchMessages(boolean b)                 {batch_messages=b; return this;}
+    public boolean             compress()                               {return compress;}
+    public RouterStub          compress(boolean c)                      {compress=c; return this;}
+    public int                 compressionLevel()                       {return compression_level;}
+    public RouterStub          compressionLevel(int l)                  {compression_level=l; return this;}
+    public int                 minCompressSize()                        {return min_compress_size;}
+    public RouterStub          minCompressSize(int s)                   {min_compress_size=s; return this;}
+    public int                 maxBatchSize()                           {return max_batch_size;}
+    public RouterStub          maxBatchSize(int s)                      {max_batch_size=s; return this;}
+    /** The options (e.g. {@link GossipData#BATCH}) accepted by the GossipRouter */
+    public byte                flags()                                  {return flags;}
 
 
     public RouterStub set(String attr, Object val) {
@@ -119,8 +156,10 @@ public class RouterStub extends ReceiverAdapter implements Comparable<RouterStub
         synchronized(this) {
             _doConnect();
         }
+        flags=0; // messages are sent individually until the router accepts our options
+        byte requested=batch_messages? (compress? GossipData.BATCH | GossipData.COMPRESS : GossipData.BATCH) : 0;
         try {
-            writeRequest(new GossipData(GossipType.REGISTER, group, addr, logical_name, phys_addr));
+            writeRequest(new GossipData(GossipType.REGISTER, group, addr, logical_name, phys_addr).flags(requested));
         }
         catch(Exception ex) {
             throw new Exception(String.format("connection to %s failed: %s", group, ex));
@@ -143,6 +182,10 @@ public class RouterStub extends ReceiverAdapter implements Comparable<RouterStub
 
     public void destroy() {
         Util.close(client);
+        Deflater d=deflater;
+        deflater=null;
+        if(d != null)
+            d.end();
     }
 
     /**
@@ -178,6 +221,10 @@ public class RouterStub extends ReceiverAdapter implements Comparable<RouterStub
     }
 
     public void sendToMember(String group, Address dest, Address sender, byte[] data, int offset, int length) throws Exception {
+        if((flags & GossipData.BATCH) != 0) {
+            sendBatched(group, dest, sender, data, offset, length);
+            return;
+        }
         try {
             writeRequest(new GossipData(GossipType.MESSAGE, group, dest, data, offset, length).setSender(sender));
         }
@@ -194,16 +241,7 @@ public class RouterStub extends ReceiverAdapter implements Comparable<RouterStub
         GossipData data=new GossipData();
         try {
             data.readFrom(in);
-            switch(data.getType()) {
-                case MESSAGE:
-                case SUSPECT:
-                    if(receiver != null)
-                        receiver.receive(data);
-                    break;
-                case GET_MBRS_RSP:
-                    notifyResponse(data.getGroup(), data.getPingData());
-                    break;
-            }
+            handle(data);
         }
         catch(Exception ex) {
             log.error(Util.getMessage("FailedReadingData"), ex);
@@ -218,20 +256,34 @@ public class RouterStub extends ReceiverAdapter implements Comparable<RouterStub
     public void receive(Address sender, DataInput in) throws Exception {
         GossipData data=new GossipData();
         data.readFrom(in);
+        handle(data);
+    }
+
+    protected void handle(GossipData data) throws Exception {
         switch(data.getType()) {
             case MESSAGE:
             case SUSPECT:
                 if(receiver != null)
                     receiver.receive(data);
                 break;
+            case MESSAGE_BATCH:
+                if(receiver != null)
+                    for(GossipData msg: data.readMessages())
+                        receiver.receive(msg);
+                break;
             case GET_MBRS_RSP:
                 notifyResponse(data.getGroup(), data.getPingData());
                 break;
+            case REGISTER_RSP:
+                flags=data.flags();
+                log.debug("%s accepted options %d", remote, flags);
+                break;
         }
     }
 
     @Override
     public void connectionClosed(Connection conn, String reason) {
+        flags=0;
         if(close_listener != null)
             close_listener.closed(this);
     }
@@ -252,7 +304,58 @@ public class RouterStub extends ReceiverAdapter implements Comparable<RouterStub
     }
 
     public String toString() {
-        return String.format("RouterStub[localsocket=%s, router_host=%s]", client.localAddress(), remote);
+        if(flags == 0)
+            return String.format("RouterStub[localsocket=%s, router_host=%s]", client.localAddress(), remote);
+        return String.format("RouterStub[localsocket=%s, router_host=%s, batches=%d (%d msgs), compressed=%s/%s]",
+                             client.localAddress(), remote, num_batches, num_batched_msgs,
+                             Util.printBytes(bytes_compressed), Util.printBytes(bytes_uncompressed));
+    }
+
+    /**
+     * Adds a message to the batch for its destination. If no other thread is sending batches, the caller sends all
+     * pending batches (including the ones added by other threads in the meantime), otherwise it returns and the
+     * message will be sent by that thread. Blocks (up to sock_conn_timeout ms) while max_batch_size bytes are pending.
+     */
+    protected void sendBatched(String group, Address dest, Address sender, byte[] data, int offset, int length)
+      throws InterruptedException {
+        synchronized(pending) {
+            long deadline=System.currentTimeMillis() + sock_conn_timeout;
+            for(long wait; pending_bytes > 0 && pending_bytes + length > max_batch_size && adders.get() > 0
+              && (wait=deadline - System.currentTimeMillis()) > 0;)
+                pending.wait(wait);
+            Batch batch=null;
+            for(Batch b: pending) {
+                if(Objects.equals(b.dest, dest) && Objects.equals(b.group, group) && Objects.equals(b.sender, sender)) {
+                    batch=b;
+                    break;
+                }
+            }
+            if(batch == null)
+                pending.add(batch=new Batch(group, dest, sender));
+            batch.add(data, offset, length);
+            pending_bytes+=length;
+        }
+        if(adders.getAndIncrement() != 0)
+            return;
+        do {
+            List<Batch> batches;
+            synchronized(pending) {
+                batches=new ArrayList<>(pending);
+                pending.clear();
+                pending_bytes=0;
+                pending.notifyAll();
+            }
+            for(Batch batch: batches) {
+                try {
+                    writeRequest(batch.toGossipData());
+                }
+                catch(Exception ex) {
+                    log.warn("failed sending batch of %d messages to %s (router %s): %s",
+                             batch.num, batch.dest == null? "all" : batch.dest, remote, ex);
+                }
+            }
+        }
+        while(adders.decrementAndGet() != 0);
     }
 
 
@@ -263,6 +366,27 @@ public class RouterStub extends ReceiverAdapter implements Comparable<RouterStub
         client.send(remote, out.buffer(), 0, out.position());
     }
 
+    /** Compresses buf[0 .. len-1] if it is larger than min_compress_size and compression was accepted */
+    protected byte[] compress(byte[] buf, int len) {
+        if(len < min_compress_size || (flags & GossipData.COMPRESS) == 0)
+            return null;
+        if(deflater == null)
+            deflater=new Deflater(compression_level);
+        deflater.reset();
+        deflater.setInput(buf, 0, len);
+        deflater.finish();
+        byte[] out=new byte[Global.INT_SIZE + len]; // not compressed if the output is not smaller than the input
+        Bits.writeInt(len, out, 0);
+        int pos=Global.INT_SIZE;
+        while(!deflater.finished() && pos < out.length)
+            pos+=deflater.deflate(out, pos, out.length - pos);
+        if(!deflater.finished() || pos >= len)
+            return null;
+        bytes_uncompressed+=len;
+        bytes_compressed+=pos;
+        return Arrays.copyOf(out, pos);
+    }
+
     protected void removeResponse(String group, MembersNotification notif) {
         synchronized(get_members_map) {
             List<MembersNotification> set=get_members_map.get(group);
@@ -296,4 +420,33 @@ public class RouterStub extends ReceiverAdapter implements Comparable<RouterStub
     }
 
 
+    /** Messages from the same sender to the same destination (null: all members of group) */
+    protected class Batch {
+        protected final String                    group;
+        protected final Address                   dest, sender;
+        protected final ByteArrayDataOutputStream out=new ByteArrayDataOutputStream(1024);
+        protected int                             num;
+
+        protected Batch(String group, Address dest, Address sender) {
+            this.group=group;
+            this.dest=dest;
+            this.sender=sender;
+        }
+
+        protected void add(byte[] data, int offset, int length) {
+            out.writeInt(length);
+            out.write(data, offset, length);
+            num++;
+        }
+
+        protected GossipData toGossipData() {
+            num_batches++;
+            num_batched_msgs+=num;
+            byte[] compressed=compress(out.buffer(), out.position());
+            GossipData data=compressed != null?
+              new GossipData(GossipType.MESSAGE_BATCH, group, dest, compressed).flags(GossipData.COMPRESSED)
+              : new GossipData(GossipType.MESSAGE_BATCH, group, dest, out.buffer(), 0, out.position());
+            return data.setSender(sender);
+        }
+    }
 }
@@ -41,6 +41,7 @@ public class RouterStubManager implements Runnable, RouterStub.CloseListener {
     protected final long                                interval;      // reconnect interval (ms)
     protected boolean                                   use_nio=true;  // whether to use RouterStubTcp or RouterStubNio
     protected Future<?>                                 reconnector_task;
+    protected Consumer<RouterStub>                      stub_config; // applied to new stubs (also on reconnect)
     protected final Log                                 log;
 
 
@@ -65,6 +66,9 @@ public class RouterStubManager implements Runnable, RouterStub.CloseListener {
 
     public RouterStubManager useNio(boolean flag) {use_nio=flag; return this;}
 
+    /** Sets a function which configures new stubs, e.g. created when reconnecting to a GossipRouter */
+    public RouterStubManager stubConfig(Consumer<RouterStub> c) {stub_config=c; return this;}
+
 
 
     /**
@@ -92,6 +96,8 @@ public class RouterStubManager implements Runnable, RouterStub.CloseListener {
 
     public RouterStub createAndRegisterStub(IpAddress local, IpAddress router_addr) {
         RouterStub stub=new RouterStub(local, router_addr, use_nio, this);
+        if(stub_config != null)
+            stub_config.accept(stub);
         RouterStub old_stub=unregisterStub(router_addr);
         if(old_stub != null)
             old_stub.destroy();
@@ -162,6 +168,8 @@ public class RouterStubManager implements Runnable, RouterStub.CloseListener {
 
     protected boolean reconnect(Target target) {
         RouterStub stub=new RouterStub(target.bind_addr, target.router_addr, this.use_nio, this).receiver(target.receiver);
+        if(stub_config != null)
+            stub_config.accept(stub);
         if(!add(stub))
             return false;
         try {
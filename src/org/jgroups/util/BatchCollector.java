@@ -0,0 +1,158 @@
+package org.jgroups.util;
+
+import org.jgroups.Address;
+import org.jgroups.Message;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Collects messages received in different datagrams (or frames) into one {@link MessageBatch} per sender, destination
+ * (unicast or multicast) and mode. Like {@link Util#readMessageBatch(java.io.DataInput, boolean)}, 4 batches are kept
+ * per sender:
+ * <ol>
+ *     <li>regular</li>
+ *     <li>OOB</li>
+ *     <li>INTERNAL-OOB (INTERNAL and OOB)</li>
+ *     <li>INTERNAL (INTERNAL)</li>
+ * </ol>
+ * Messages from the same sender are added in the order in which they were received. Batches are handed out by
+ * {@link #forEach(BatchConsumer)} and a new batch is created for every sender after {@link #clear()}, so batches
+ * can be passed to a thread pool without copying.<p/>
+ * This class is not thread-safe; it is meant to be used by a single receiver thread.
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+public class BatchCollector {
+    protected static final int[]                ORDER={1, 0, 2, 3}; // same order as TP.handleMessageBatch()
+    protected final Map<Address,MessageBatch[]> ucasts=new HashMap<>();
+    protected final Map<Address,MessageBatch[]> mcasts=new HashMap<>();
+    protected int                               initial_capacity=16;
+    protected int                               size; // number of messages
+
+    public interface BatchConsumer {
+        void accept(MessageBatch batch, boolean oob, boolean internal);
+    }
+
+    public BatchCollector() {
+    }
+
+    public BatchCollector(int initial_capacity) {
+        this.initial_capacity=initial_capacity;
+    }
+
+    public int     size()    {return size;}
+    public boolean isEmpty() {return size == 0;}
+
+    /**
+     * Adds a single message
+     * @param msg the message; msg.getSrc() must not be null
+     * @param multicast true if the message was received as a multicast
+     * @param cluster_name the name of the cluster as read from the transport header
+     * @param consumer is passed the existing batch for the sender if it has to be replaced (e.g. because the cluster
+     *                 name differs), so that it can be passed up
+     */
+    public BatchCollector add(Message msg, boolean multicast, AsciiString cluster_name, BatchConsumer consumer) {
+        Address sender=msg.getSrc();
+        boolean oob=msg.isFlagSet(Message.Flag.OOB), internal=msg.isFlagSet(Message.Flag.INTERNAL);
+        int index=index(oob, internal);
+        MessageBatch[] batches=(multicast? mcasts : ucasts).computeIfAbsent(sender, k -> new MessageBatch[4]);
+        MessageBatch batch=batches[index];
+        if(batch != null && !Objects.equals(batch.clusterName(), cluster_name)) {
+            size-=batch.size();
+            consumer.accept(batch, oob, internal);
+            batch=null;
+        }
+        if(batch == null)
+            batch=batches[index]=new MessageBatch(multicast? null : msg.getDest(), sender, cluster_name, multicast,
+                                                  mode(index), initial_capacity);
+        batch.add(msg);
+        size++;
+        return this;
+    }
+
+    /**
+     * Adds the 4 batches returned by {@link Util#readMessageBatch(java.io.DataInput, boolean)}. If there's no batch
+     * for a given sender and mode yet, the batch itself is stored (no copying)
+     * @param consumer is passed batches which have to be replaced by the added ones (e.g. because the cluster name
+     *                 differs), so that they can be passed up
+     */
+    public BatchCollector add(MessageBatch[] batches, BatchConsumer consumer) {
+        for(int i=0; i < batches.length; i++) {
+            MessageBatch displaced=add(batches[i], isOOB(i), isInternal(i));
+            if(displaced != null)
+                consumer.accept(displaced, isOOB(i), isInternal(i));
+        }
+        return this;
+    }
+
+    protected MessageBatch add(MessageBatch b, boolean oob, boolean internal) {
+        if(b == null || b.isEmpty())
+            return null;
+        int index=index(oob, internal);
+        MessageBatch[] batches=(b.multicast()? mcasts : ucasts).computeIfAbsent(b.sender(), k -> new MessageBatch[4]);
+        MessageBatch batch=batches[index], displaced=null;
+        size+=b.size();
+        if(batch == null) {
+            batches[index]=b;
+            return null;
+        }
+        if(!Objects.equals(batch.clusterName(), b.clusterName())) {
+            displaced=batch;
+            size-=displaced.size();
+            batches[index]=b;
+            return displaced;
+        }
+        batch.add(b);
+        return null;
+    }
+
+    /** Passes all non-empty batches to the consumer: OOB batches first, then regular, internal-OOB and internal */
+    public BatchCollector forEach(BatchConsumer consumer) {
+        forEach(ucasts, consumer);
+        forEach(mcasts, consumer);
+        return this;
+    }
+
+    /** Removes all batches. The next message added for a given sender will create a new batch */
+    public BatchCollector clear() {
+        ucasts.clear();
+        mcasts.clear();
+        size=0;
+        return this;
+    }
+
+    public String toString() {
+        return String.format("%d msgs (%d unicast senders, %d multicast senders)", size, ucasts.size(), mcasts.size());
+    }
+
+    protected static void forEach(Map<Address,MessageBatch[]> map, BatchConsumer consumer) {
+        if(map.isEmpty())
+            return;
+        for(MessageBatch[] batches: map.values()) {
+            for(int index: ORDER) {
+                MessageBatch batch=batches[index];
+                if(batch != null && !batch.isEmpty())
+                    consumer.accept(batch, isOOB(index), isInternal(index));
+            }
+        }
+    }
+
+    protected static int index(boolean oob, boolean internal) {
+        if(oob)
+            return internal? 2 : 1;
+        return internal? 3 : 0;
+    }
+
+    protected static boolean isOOB(int index)      {return index == 1 || index == 2;}
+    protected static boolean isInternal(int index) {return index >= 2;}
+
+    protected static MessageBatch.Mode mode(int index) {
+        switch(index) {
+            case 0:  return MessageBatch.Mode.REG;
+            case 3:  return MessageBatch.Mode.INTERNAL;
+            default: return MessageBatch.Mode.OOB;
+        }
+    }
+}
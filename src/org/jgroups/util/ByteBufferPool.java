@@ -0,0 +1,85 @@
+package org.jgroups.util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded pool of {@link ByteBuffer}s of the same capacity (direct by default). {@link #acquire()} returns a cleared
+ * buffer from the pool, or allocates a new one if the pool is empty (miss). {@link #release(ByteBuffer)} returns a
+ * buffer to the pool; if the pool is full, the buffer is dropped and will be garbage collected.<p/>
+ * Used by the transport to serialize messages directly into (off-heap) buffers which are then passed to a
+ * {@link java.nio.channels.DatagramChannel} or {@link java.nio.channels.SocketChannel} without copying.<p/>
+ * This class is thread-safe.
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+public class ByteBufferPool {
+    protected final BlockingQueue<ByteBuffer> pool;
+    protected final int                       buffer_size;
+    protected final boolean                   direct;
+    protected final LongAdder                 hits=new LongAdder();
+    protected final LongAdder                 misses=new LongAdder();
+    protected final LongAdder                 drops=new LongAdder();
+
+
+    public ByteBufferPool(int capacity, int buffer_size) {
+        this(capacity, buffer_size, true);
+    }
+
+    public ByteBufferPool(int capacity, int buffer_size, boolean direct) {
+        if(capacity <= 0)
+            throw new IllegalArgumentException("capacity (" + capacity + ") must be > 0");
+        if(buffer_size <= 0)
+            throw new IllegalArgumentException("buffer_size (" + buffer_size + ") must be > 0");
+        this.pool=new ArrayBlockingQueue<>(capacity);
+        this.buffer_size=buffer_size;
+        this.direct=direct;
+    }
+
+    public int     bufferSize()    {return buffer_size;}
+    public boolean direct()        {return direct;}
+    public int     capacity()      {return pool.size() + pool.remainingCapacity();}
+    public int     available()     {return pool.size();}
+    public long    hits()          {return hits.sum();}
+    public long    misses()        {return misses.sum();}
+    public long    drops()         {return drops.sum();}
+
+    /** Returns a cleared buffer from the pool, or a newly allocated one if the pool is empty */
+    public ByteBuffer acquire() {
+        ByteBuffer buf=pool.poll();
+        if(buf != null) {
+            hits.increment();
+            buf.clear();
+            return buf;
+        }
+        misses.increment();
+        return direct? ByteBuffer.allocateDirect(buffer_size) : ByteBuffer.allocate(buffer_size);
+    }
+
+    /** Returns a buffer to the pool. Buffers with a different capacity or type are not accepted */
+    public ByteBufferPool release(ByteBuffer buf) {
+        if(buf == null || buf.capacity() != buffer_size || buf.isDirect() != direct)
+            return this;
+        if(!pool.offer(buf))
+            drops.increment();
+        return this;
+    }
+
+    public ByteBufferPool resetStats() {
+        hits.reset(); misses.reset(); drops.reset();
+        return this;
+    }
+
+    /** Removes all buffers from the pool */
+    public ByteBufferPool clear() {
+        pool.clear();
+        return this;
+    }
+
+    public String toString() {
+        return String.format("%d/%d buffers of %d bytes (%s), hits=%d misses=%d drops=%d",
+                             available(), capacity(), buffer_size, direct? "direct" : "heap", hits(), misses(), drops());
+    }
+}
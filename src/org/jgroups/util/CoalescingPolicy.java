@@ -0,0 +1,151 @@
+package org.jgroups.util;
+
+import org.jgroups.Message;
+import org.jgroups.annotations.ManagedAttribute;
+import org.jgroups.protocols.TP;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntFunction;
+
+/**
+ * {@link org.jgroups.stack.MessageProcessingPolicy} which merges single <em>regular</em> messages from the same sender
+ * into batches before they're passed up, so that protocols such as NAKACK2 or UNICAST3 process them with one lock
+ * acquisition (like {@link org.jgroups.protocols.MAKE_BATCH}, but in the transport and without a fixed delay).<p/>
+ * As in {@link MaxOneThreadPerSender}, messages received while a delivery for the same sender is in progress are
+ * queued and delivered as a batch by the delivering thread. In addition, the inter-arrival time of single messages
+ * is tracked per sender (moving average); if coalesce_batch_size messages are expected to arrive within
+ * max_coalesce_time, the delivery of a message which would otherwise be passed up alone is delayed by the expected
+ * time, and the messages received meanwhile are added to its batch. At low load (or when messages arrive as batches),
+ * no delay is added.<p/>
+ * OOB and internal messages are passed to the thread pools, as in {@link SubmitToThreadPool}.
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+public class CoalescingPolicy extends MaxOneThreadPerSender {
+    protected long            max_coalesce_time; // ns
+    protected int             coalesce_batch_size;
+    protected final LongAdder num_delayed=new LongAdder(), delay_time=new LongAdder(), num_coalesced=new LongAdder();
+
+    @ManagedAttribute(description="Number of deliveries of single messages which were delayed to coalesce messages")
+    public long numDelayed() {return num_delayed.sum();}
+
+    @ManagedAttribute(description="Number of messages which were added to a delayed delivery")
+    public long numCoalesced() {return num_coalesced.sum();}
+
+    @ManagedAttribute(description="Average delay (in microseconds) of delayed deliveries")
+    public double avgDelay() {
+        long num=num_delayed.sum();
+        return num == 0? 0 : TimeUnit.NANOSECONDS.toMicros(delay_time.sum()) / (double)num;
+    }
+
+    public void init(TP transport) {
+        super.init(transport);
+        max_coalesce_time=TimeUnit.MICROSECONDS.toNanos(tp.getMessageProcessingMaxCoalesceTime());
+        coalesce_batch_size=Math.max(2, tp.getMessageProcessingCoalesceBatchSize());
+    }
+
+    public void reset() {
+        super.reset();
+        num_delayed.reset();
+        delay_time.reset();
+        num_coalesced.reset();
+    }
+
+    @Override protected Entry createEntry(IntFunction<MessageBatch> creator) {
+        return new CoalescingEntry(creator);
+    }
+
+
+    protected class CoalescingEntry extends Entry {
+        protected long   last_arrival; // time (ns) at which the last single message was received
+        protected double avg_gap;      // moving average of the inter-arrival times (ns) of single messages
+
+        protected CoalescingEntry(IntFunction<MessageBatch> creator) {
+            super(creator);
+            avg_gap=max_coalesce_time;
+        }
+
+        @Override protected void process(Message msg, boolean loopback) {
+            long delay;
+            lock.lock();
+            try {
+                delay=loopback? 0 : arrived(System.nanoTime());
+                if(running) {
+                    queued();
+                    batch.add(msg, resize);
+                    queued_msgs.increment();
+                    return;
+                }
+                running=true;
+            }
+            finally {
+                lock.unlock();
+            }
+            if(delay <= 0) {
+                submit(msg, loopback);
+                return;
+            }
+            try {
+                submitted_msgs.increment();
+                if(!tp.submitToThreadPool(new DelayedBatchHandler(batch_creator.apply(16).add(msg), this, delay), false))
+                    setRunning(false);
+            }
+            catch(Throwable t) {
+                setRunning(false);
+            }
+        }
+
+        /**
+         * Updates the average inter-arrival time and returns the time (ns) by which the delivery of a message should
+         * be delayed, or 0. Gaps longer than max_coalesce_time count as max_coalesce_time, so the average quickly
+         * reacts to an increasing rate after an idle period. Needs to be called with the lock held
+         */
+        protected long arrived(long now) {
+            long gap=Math.min(now - last_arrival, max_coalesce_time);
+            last_arrival=now;
+            avg_gap+=(gap - avg_gap) * 0.25;
+            long expected=(long)(avg_gap * (coalesce_batch_size - 1));
+            return expected <= max_coalesce_time? expected : 0;
+        }
+
+        /** Adds the queued messages to the given batch and returns their number */
+        protected int transferTo(MessageBatch mb) {
+            lock.lock();
+            try {
+                int num=mb.add(this.batch, true);
+                this.batch.clear();
+                return num;
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        public String toString() {
+            return String.format("%s avg gap=%,d ns", super.toString(), (long)avg_gap);
+        }
+    }
+
+
+    /** Waits for the given time before passing up the batch, plus all messages received in the meantime */
+    protected class DelayedBatchHandler extends BatchHandlerLoop {
+        protected final long delay; // ns
+
+        public DelayedBatchHandler(MessageBatch batch, CoalescingEntry entry, long delay) {
+            super(batch, entry, false);
+            this.delay=delay;
+        }
+
+        public void run() {
+            long start=System.nanoTime(), deadline=start + delay, left;
+            while((left=deadline - System.nanoTime()) > 0)
+                LockSupport.parkNanos(left);
+            num_delayed.increment();
+            delay_time.add(System.nanoTime() - start);
+            num_coalesced.add(((CoalescingEntry)entry).transferTo(batch));
+            super.run();
+        }
+    }
+}
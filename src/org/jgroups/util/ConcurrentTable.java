@@ -0,0 +1,519 @@
+package org.jgroups.util;
+
+import org.jgroups.annotations.GuardedBy;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * A {@link Table} in which adding elements doesn't acquire a lock. Used as receive window (e.g. in NAKACK2), where
+ * many threads add messages from the same sender, but only a single thread removes them (see {@link #getAdders()}).
+ * <p/>
+ * As in Table, elements are stored in rows of elements_per_row elements. A row is an {@link AtomicReferenceArray}, and
+ * an element is added by a CAS on its slot. The rows are kept in a ring (an array of rows whose length is a power of
+ * 2), indexed by row number modulo the length of the ring. When a new row is needed, or the ring needs to be grown or
+ * shrunk, a lock is acquired; this happens once every elements_per_row elements. Growing or shrinking the ring only
+ * copies references to rows, so adders which are concurrently setting an element in a row never lose it.
+ * <p/>
+ * The highest received seqno is updated by CAS and the size is kept in a {@link LongAdder}. Removers (and
+ * {@link #purge(long)}) acquire a separate lock, which is usually uncontended, as only one thread removes
+ * messages at a time. Removed and purged elements are replaced with a tombstone rather than null, so a slot can be
+ * set only once and a duplicate added after the original was removed is rejected by the CAS. Slots which are skipped
+ * by moving the highest delivered seqno (e.g. {@link #setHighestDelivered(long)}) are tombstoned as well, and no rows
+ * are created for seqnos which have already been delivered.
+ * <p/>
+ * Like RingBufferSeqnoLockless, getters such as {@link #size()} or {@link #getNumMissing()} return approximate values
+ * when adders are active.
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+public class ConcurrentTable<T> extends Table<T> {
+    protected final int                               shift; // log2(elements_per_row): row number = seqno >>> shift
+    protected volatile AtomicReferenceArray<Row<T>>   rows;  // the ring of rows, length is a power of 2
+    protected final Lock                              rows_lock=new ReentrantLock(); // new rows, resizing, compaction
+    protected final Lock                              remove_lock=new ReentrantLock();
+    protected final AtomicLong                        high;            // highest received seqno
+    protected volatile long                           delivered;       // highest delivered (= removed) seqno
+    protected volatile long                           purged;          // highest purged seqno
+    protected final LongAdder                         count=new LongAdder();
+    protected static final Object                     TOMBSTONE=new Object(); // marks removed and skipped slots
+
+    public ConcurrentTable() {
+        this(5, 8192, 0, DEFAULT_RESIZE_FACTOR);
+    }
+
+    public ConcurrentTable(long offset) {
+        this(5, 8192, offset, DEFAULT_RESIZE_FACTOR);
+    }
+
+    public ConcurrentTable(int num_rows, int elements_per_row, long offset) {
+        this(num_rows, elements_per_row, offset, DEFAULT_RESIZE_FACTOR);
+    }
+
+    public ConcurrentTable(int num_rows, int elements_per_row, long offset, double resize_factor) {
+        this(num_rows, elements_per_row, offset, resize_factor, DEFAULT_MAX_COMPACTION_TIME);
+    }
+
+    public ConcurrentTable(int num_rows, int elements_per_row, long offset, double resize_factor, long max_compaction_time) {
+        super(num_rows, elements_per_row, offset, resize_factor, max_compaction_time);
+        this.shift=Integer.numberOfTrailingZeros(this.elements_per_row);
+        this.rows=new AtomicReferenceArray<>(Util.getNextHigherPowerOfTwo(Math.max(num_rows, 1)));
+        this.high=new AtomicLong(offset);
+        this.delivered=this.purged=offset;
+    }
+
+    public long    getOffset()           {return purged;}
+    public int     capacity()            {return rows.length() * elements_per_row;}
+    public int     getNumRows()          {return rows.length();}
+    public int     size()                {return (int)Math.max(count.sum(), 0);}
+    public boolean isEmpty()             {return size() <= 0;}
+    public long    getLow()              {return purged;}
+    public long    getHighestDelivered() {return delivered;}
+    public long    getHighestReceived()  {return high.get();}
+
+    public long getHighestDeliverable() {
+        long hd=delivered, hr=high.get(), seqno=hd+1;
+        while(seqno - hr <= 0 && get(seqno, false) != null)
+            seqno++;
+        return seqno-1;
+    }
+
+    public int getNumDeliverable() {
+        return (int)(getHighestDeliverable() - delivered);
+    }
+
+    public void setHighestDelivered(long seqno) {
+        remove_lock.lock();
+        try {
+            rows_lock.lock();
+            try {
+                skip(delivered, seqno);
+                delivered=seqno;
+            }
+            finally {
+                rows_lock.unlock();
+            }
+        }
+        finally {
+            remove_lock.unlock();
+        }
+    }
+
+    public boolean add(long seqno, T element) {
+        return _add(seqno, element, true, null);
+    }
+
+    public boolean add(long seqno, T element, Predicate<T> remove_filter) {
+        return _add(seqno, element, true, remove_filter);
+    }
+
+    public boolean add(final List<LongTuple<T>> list, boolean remove_added_elements, T const_value) {
+        if(list == null || list.isEmpty())
+            return false;
+        boolean added=false;
+        for(Iterator<LongTuple<T>> it=list.iterator(); it.hasNext();) {
+            LongTuple<T> tuple=it.next();
+            T element=const_value != null? const_value : tuple.getVal2();
+            if(_add(tuple.getVal1(), element, true, null))
+                added=true;
+            else if(remove_added_elements)
+                it.remove();
+        }
+        return added;
+    }
+
+    public T get(long seqno) {
+        if(seqno - purged <= 0 || seqno - high.get() > 0)
+            return null;
+        return get(seqno, false);
+    }
+
+    public T _get(long seqno) {
+        return get(seqno, false);
+    }
+
+    public T remove(boolean nullify) {
+        remove_lock.lock();
+        try {
+            long seqno=delivered+1;
+            Row<T> row=getRow(seqno);
+            int index=index(seqno);
+            T element=row != null? element(row, index) : null;
+            if(element != null)
+                removed(row, seqno, index, nullify);
+            return element;
+        }
+        finally {
+            remove_lock.unlock();
+        }
+    }
+
+    public <R> R removeMany(boolean nullify, int max_results, Predicate<T> filter,
+                            Supplier<R> result_creator, BiConsumer<R,T> accumulator) {
+        remove_lock.lock();
+        try {
+            R result=null;
+            int num_results=0;
+            long hr=high.get();
+            for(long seqno=delivered+1; seqno - hr <= 0; seqno++) {
+                Row<T> row=getRow(seqno);
+                int index=index(seqno);
+                T element=row != null? element(row, index) : null;
+                if(element == null)
+                    break;
+                if(filter == null || filter.test(element)) {
+                    if(result == null)
+                        result=result_creator.get();
+                    accumulator.accept(result, element);
+                    num_results++;
+                }
+                removed(row, seqno, index, nullify);
+                if(max_results > 0 && num_results >= max_results)
+                    break;
+            }
+            return result;
+        }
+        finally {
+            remove_lock.unlock();
+        }
+    }
+
+    public void purge(long seqno, boolean force) {
+        remove_lock.lock();
+        try {
+            if(seqno - purged <= 0)
+                return;
+            long hr=high.get();
+            if(force) {
+                if(seqno - hr > 0)
+                    seqno=hr;
+            }
+            else if(seqno - delivered > 0) // we cannot be higher than the highest removed seqno
+                seqno=delivered;
+
+            rows_lock.lock();
+            try {
+                if(force && seqno - delivered > 0) {
+                    skip(delivered, seqno);
+                    delivered=seqno;
+                }
+                if(seqno - purged > 0)
+                    purged=seqno;
+                AtomicReferenceArray<Row<T>> tmp=rows;
+                long last_row=seqno >>> shift;
+                for(int i=0; i < tmp.length(); i++) { // null all rows which can be fully removed
+                    Row<T> row=tmp.get(i);
+                    if(row != null && row.num < last_row)
+                        tmp.set(i, null);
+                }
+                Row<T> row=getRow(seqno);
+                if(row != null) {
+                    int index=index(seqno);
+                    for(int i=0; i <= index; i++) // remove all elements up to and including seqno in the given row
+                        row.set(i, tombstone());
+                }
+                if(force) {
+                    count.reset();
+                    count.add(computeSize());
+                }
+                num_purges++;
+                if(max_compaction_time <= 0)
+                    return;
+                long current_time=System.nanoTime();
+                if(last_compaction_timestamp > 0) {
+                    if(current_time - last_compaction_timestamp >= max_compaction_time) {
+                        _compact();
+                        last_compaction_timestamp=current_time;
+                    }
+                }
+                else // the first time we don't do a compaction
+                    last_compaction_timestamp=current_time;
+            }
+            finally {
+                rows_lock.unlock();
+            }
+        }
+        finally {
+            remove_lock.unlock();
+        }
+    }
+
+    public void compact() {
+        rows_lock.lock();
+        try {
+            _compact();
+        }
+        finally {
+            rows_lock.unlock();
+        }
+    }
+
+    /** Iterates over [from .. to]; row is the index of the row in the ring (-1 if the row doesn't exist) */
+    public void forEach(long from, long to, Visitor<T> visitor) {
+        for(long seqno=from; seqno - to <= 0; seqno++) {
+            AtomicReferenceArray<Row<T>> tmp=rows;
+            long num=seqno >>> shift;
+            int row_index=(int)(num & (tmp.length()-1)), index=index(seqno);
+            Row<T> row=tmp.get(row_index);
+            boolean exists=row != null && row.num == num;
+            if(!visitor.visit(seqno, exists? element(row, index) : null, exists? row_index : -1, index))
+                break;
+        }
+    }
+
+    public Iterator<T> iterator() {
+        return new ConcurrentTableIterator(delivered+1, high.get());
+    }
+
+    public Iterator<T> iterator(long from, long to) {
+        return new ConcurrentTableIterator(from, to);
+    }
+
+    public int getNumMissing() {
+        return (int)Math.max(high.get() - delivered - size(), 0);
+    }
+
+    public SeqnoList getMissing(int max_msgs) {
+        if(isEmpty())
+            return null;
+        long start_seqno=getHighestDeliverable() +1, hr=high.get();
+        int capacity=(int)(hr - start_seqno);
+        int max_size=max_msgs > 0? Math.min(max_msgs, capacity) : capacity;
+        if(max_size <= 0)
+            return null;
+        SeqnoList missing=new SeqnoList(max_size, start_seqno);
+        long to=Math.min(start_seqno + max_size-1, hr-1);
+        for(long seqno=start_seqno; seqno - to <= 0; seqno++) {
+            if(get(seqno, false) == null)
+                missing.add(seqno);
+        }
+        return missing.isEmpty()? null : missing;
+    }
+
+    public long[] getDigest() {
+        long hd=delivered;
+        return new long[]{hd, high.get()};
+    }
+
+    public String toString() {
+        return String.format("[%d | %d | %d] (%d elements, %d missing)", purged, delivered, high.get(), size(), getNumMissing());
+    }
+
+    /** Dumps the seqnos in the table as a list */
+    public String dump() {
+        return stream(purged, high.get()).filter(Objects::nonNull).map(Object::toString).collect(Collectors.joining(", "));
+    }
+
+    /**
+     * Adds an element without acquiring a lock (unless a new row needs to be created). The check_if_resize_needed
+     * parameter is ignored, as rows are always created on demand.
+     */
+    protected boolean _add(long seqno, T element, boolean check_if_resize_needed, Predicate<T> remove_filter) {
+        if(seqno - delivered <= 0)
+            return false;
+        Row<T> row=getOrCreateRow(seqno);
+        if(row == null) // seqno was delivered concurrently
+            return false;
+        int index=index(seqno);
+        // count the element before it can be removed, so that the size never drops below the number of elements
+        count.increment();
+        if(!row.compareAndSet(index, null, element)) { // element already present, or removed (tombstone)
+            count.decrement();
+            return false;
+        }
+        for(;;) {
+            long hr=high.get();
+            if(seqno - hr <= 0 || high.compareAndSet(hr, seqno))
+                break;
+        }
+        if(remove_filter != null && delivered+1 == seqno && remove_lock.tryLock()) {
+            try {
+                // same as in Table: skip consecutive elements passing the filter, without nulling them
+                long hr=high.get();
+                for(long s=delivered+1; s - hr <= 0; s++) {
+                    T el=get(s, false);
+                    if(el == null || !remove_filter.test(el))
+                        break;
+                    delivered=s;
+                    count.decrement();
+                }
+            }
+            finally {
+                remove_lock.unlock();
+            }
+        }
+        return true;
+    }
+
+    @GuardedBy("remove_lock")
+    protected void removed(Row<T> row, long seqno, int index, boolean nullify) {
+        delivered=seqno; // needs to be set before the row is removed (see getOrCreateRow())
+        count.decrement();
+        if(nullify) {
+            row.set(index, tombstone());
+            if(index == elements_per_row-1) { // removing the last element of a row: remove the row as well
+                AtomicReferenceArray<Row<T>> tmp=rows;
+                tmp.compareAndSet((int)(row.num & (tmp.length()-1)), row, null);
+            }
+            if(seqno - purged > 0)
+                purged=seqno;
+        }
+    }
+
+    /**
+     * Tombstones the empty slots of the existing rows in [from+1 .. to], so that elements cannot be added to them once
+     * the highest delivered seqno has been moved to to
+     */
+    @GuardedBy("rows_lock")
+    protected void skip(long from, long to) {
+        for(long seqno=from+1; seqno - to <= 0;) {
+            Row<T> row=getRow(seqno);
+            if(row == null) { // no elements can be added to a missing row (see getOrCreateRow()): skip to the next row
+                seqno=((seqno >>> shift) + 1) << shift;
+                continue;
+            }
+            row.compareAndSet(index(seqno), null, tombstone());
+            seqno++;
+        }
+    }
+
+    protected T get(long seqno, boolean create) {
+        Row<T> row=create? getOrCreateRow(seqno) : getRow(seqno);
+        return row != null? element(row, index(seqno)) : null;
+    }
+
+    /** Returns the element at index, or null if the slot is empty or its element was removed */
+    protected T element(Row<T> row, int index) {
+        T element=row.get(index);
+        return element == TOMBSTONE? null : element;
+    }
+
+    @SuppressWarnings("unchecked")
+    protected T tombstone() {
+        return (T)TOMBSTONE;
+    }
+
+    protected int index(long seqno) {
+        return (int)(seqno & (elements_per_row-1));
+    }
+
+    /** Returns the row for seqno, or null if it doesn't exist */
+    protected Row<T> getRow(long seqno) {
+        long num=seqno >>> shift;
+        AtomicReferenceArray<Row<T>> tmp=rows;
+        Row<T> row=tmp.get((int)(num & (tmp.length()-1)));
+        return row != null && row.num == num? row : null;
+    }
+
+    /**
+     * Returns the row for seqno, creating it if needed, or null if seqno has already been delivered: the row may have
+     * been removed after its last element was delivered, and a new row would accept duplicates
+     */
+    protected Row<T> getOrCreateRow(long seqno) {
+        Row<T> row=getRow(seqno);
+        if(row != null)
+            return row;
+        long num=seqno >>> shift;
+        rows_lock.lock();
+        try {
+            AtomicReferenceArray<Row<T>> tmp=rows;
+            int row_index=(int)(num & (tmp.length()-1));
+            row=tmp.get(row_index);
+            if(row != null && row.num == num)
+                return row;
+            if(seqno - delivered <= 0)
+                return null;
+            if(row != null && row.num >= (purged >>> shift)) { // the slot is used by a different row: grow the ring
+                tmp=resize(num, tmp.length()+1);
+                row_index=(int)(num & (tmp.length()-1));
+            }
+            row=new Row<>(elements_per_row, num);
+            tmp.set(row_index, row);
+            return row;
+        }
+        finally {
+            rows_lock.unlock();
+        }
+    }
+
+    /**
+     * Copies all rows which have not been purged into a new ring, which can accommodate them, the row for seqno
+     * (if seqno >= 0) and has at least min_length slots.
+     */
+    @GuardedBy("rows_lock")
+    protected AtomicReferenceArray<Row<T>> resize(long row_num, int min_length) {
+        AtomicReferenceArray<Row<T>> tmp=rows;
+        long low_row=purged >>> shift, min=row_num >= 0? row_num : Long.MAX_VALUE, max=row_num;
+        for(int i=0; i < tmp.length(); i++) {
+            Row<T> row=tmp.get(i);
+            if(row != null && row.num >= low_row) {
+                min=Math.min(min, row.num);
+                max=Math.max(max, row.num);
+            }
+        }
+        int length=Math.max(min_length, max >= min? (int)(max - min + 1) : 1);
+        AtomicReferenceArray<Row<T>> new_rows=new AtomicReferenceArray<>(Util.getNextHigherPowerOfTwo(length));
+        for(int i=0; i < tmp.length(); i++) {
+            Row<T> row=tmp.get(i);
+            if(row != null && row.num >= low_row)
+                new_rows.set((int)(row.num & (new_rows.length()-1)), row);
+        }
+        if(new_rows.length() > tmp.length())
+            num_resizes++;
+        return rows=new_rows;
+    }
+
+    /** Shrinks the ring to (highest row - lowest row) * resize_factor slots, but not below num_rows */
+    @GuardedBy("rows_lock")
+    protected void _compact() {
+        long range=(high.get() >>> shift) - (purged >>> shift) + 1;
+        int new_size=(int)Math.max((double)range * resize_factor, (double)range + 1);
+        new_size=Util.getNextHigherPowerOfTwo(Math.max(new_size, num_rows));
+        if(new_size < rows.length()) {
+            resize(-1, new_size);
+            num_compactions++;
+        }
+    }
+
+
+    protected static class Row<T> extends AtomicReferenceArray<T> {
+        private static final long serialVersionUID=-2950311584296720316L;
+        protected final long      num; // seqno >>> shift
+
+        protected Row(int length, long num) {
+            super(length);
+            this.num=num;
+        }
+    }
+
+    protected class ConcurrentTableIterator implements Iterator<T> {
+        protected long       from;
+        protected final long to;
+
+        protected ConcurrentTableIterator(long from, long to) {
+            this.from=from;
+            this.to=to;
+        }
+
+        public boolean hasNext() {
+            return to - from >= 0;
+        }
+
+        public T next() {
+            if(!hasNext())
+                throw new NoSuchElementException(String.format("seqno %d is > %d", from, to));
+            return get(from++, false);
+        }
+    }
+}
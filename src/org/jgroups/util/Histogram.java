@@ -0,0 +1,85 @@
+package org.jgroups.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe histogram of non-negative values (e.g. latencies in microseconds) with buckets of exponentially
+ * increasing size: bucket 0 counts the value 0, bucket i counts the values in [2^(i-1) .. 2^i-1]. Adding a value
+ * is lock-free and doesn't allocate memory, so a histogram can be updated on every send or receive. Percentiles
+ * are approximated by the upper bound of the bucket they fall into.
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+public class Histogram {
+    protected static final int    NUM_BUCKETS=Long.SIZE;
+    protected final AtomicLongArray buckets=new AtomicLongArray(NUM_BUCKETS);
+    protected final LongAdder       count=new LongAdder(), sum=new LongAdder();
+    protected final AtomicLong      max=new AtomicLong();
+
+
+    public Histogram add(long value) {
+        if(value < 0)
+            value=0;
+        buckets.incrementAndGet(bucket(value));
+        count.increment();
+        sum.add(value);
+        long tmp;
+        while(value > (tmp=max.get()) && !max.compareAndSet(tmp, value))
+            ;
+        return this;
+    }
+
+    public long   count()   {return count.sum();}
+    public long   max()     {return max.get();}
+    public double average() {long cnt=count.sum(); return cnt == 0? 0 : sum.sum() / (double)cnt;}
+
+    /** Returns the upper bound of the bucket into which the given percentile (e.g. 99.9) falls */
+    public long percentile(double percentile) {
+        long cnt=count.sum();
+        if(cnt == 0)
+            return 0;
+        long rank=(long)Math.ceil(cnt * percentile / 100.0), total=0;
+        for(int i=0; i < NUM_BUCKETS; i++) {
+            total+=buckets.get(i);
+            if(total >= rank)
+                return Math.min(upperBound(i), max());
+        }
+        return max();
+    }
+
+    public Histogram clear() {
+        for(int i=0; i < NUM_BUCKETS; i++)
+            buckets.set(i, 0);
+        count.reset();
+        sum.reset();
+        max.set(0);
+        return this;
+    }
+
+    /** Prints count, average, max and percentiles */
+    public String toString() {
+        return String.format("count=%d avg=%.2f p50=%d p90=%d p99=%d p99.9=%d max=%d",
+                             count(), average(), percentile(50), percentile(90), percentile(99), percentile(99.9), max());
+    }
+
+    /** Prints the non-empty buckets, e.g. "[8-15]: 233" */
+    public String printBuckets() {
+        StringBuilder sb=new StringBuilder();
+        for(int i=0; i < NUM_BUCKETS; i++) {
+            long num=buckets.get(i);
+            if(num > 0)
+                sb.append(String.format("[%d-%d]: %d\n", i == 0? 0 : upperBound(i-1)+1, upperBound(i), num));
+        }
+        return sb.toString();
+    }
+
+    protected static int bucket(long value) {
+        return NUM_BUCKETS - Long.numberOfLeadingZeros(value);
+    }
+
+    protected static long upperBound(int bucket) {
+        return bucket == 0? 0 : bucket >= NUM_BUCKETS-1? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+}
@@ -76,6 +76,10 @@ public class MaxOneThreadPerSender extends SubmitToThreadPool {
         table.process(batch);
     }
 
+    protected Entry createEntry(IntFunction<MessageBatch> creator) {
+        return new Entry(creator);
+    }
+
     public void viewChange(List<Address> members) {
         mcasts.viewChange(members);
         ucasts.viewChange(members);
@@ -93,7 +97,7 @@ public class MaxOneThreadPerSender extends SubmitToThreadPool {
             if(entry == null) {
                 IntFunction<MessageBatch> creator_func=cap -> new MessageBatch(cap).dest(dest)
                   .clusterName(tp.getClusterNameAscii()). sender(sender).multicast(dest == null);
-                Entry tmp=map.putIfAbsent(sender, entry=new Entry(creator_func));
+                Entry tmp=map.putIfAbsent(sender, entry=createEntry(creator_func));
                 if(tmp != null)
                     entry=tmp;
             }
@@ -126,6 +130,7 @@ public class MaxOneThreadPerSender extends SubmitToThreadPool {
         protected final Lock                lock=new ReentrantLock();
         protected boolean                   running;       // if true, a thread is delivering a message batch to the application
         protected MessageBatch              batch;         // used to queue messages
+        protected long                      first_queued;  // time (ns) at which the first message of batch was queued
         protected IntFunction<MessageBatch> batch_creator; // creates a batch
 
         protected final LongAdder           submitted_msgs=new LongAdder();
@@ -197,6 +202,7 @@ public class MaxOneThreadPerSender extends SubmitToThreadPool {
             try {
                 if(!running)
                     return running=true; // the caller can submit a new BatchHandlerLoop task to the thread pool
+                queued();
                 this.batch.add(msg, resize);
                 queued_msgs.increment();
                 return false;
@@ -211,6 +217,7 @@ public class MaxOneThreadPerSender extends SubmitToThreadPool {
             try {
                 if(!running)
                     return running=true; // the caller can submit a new BatchHandlerLoop task to the thread pool
+                queued();
                 this.batch.add(msg_batch, resize);
                 queued_batches.increment();
                 return false;
@@ -220,15 +227,22 @@ public class MaxOneThreadPerSender extends SubmitToThreadPool {
             }
         }
 
-        /** Called by {@link BatchHandlerLoop}. Atomically transfer messages from the entry's batch to this batch and
-         * returns true if messages were transferred. If not, sets running to false and returns false. In the latter
-         * case, the handler must terminate (or else, we could have multiple handler running).
-         * @param msg_batch the batch to which messages from this.batch should be transferred to.
+        /** Records the time at which the first message was added to an empty batch. Needs to be called with the lock held */
+        protected void queued() {
+            if(batch.isEmpty())
+                first_queued=timestamp();
+        }
+
+        /** Called by {@link BatchHandlerLoop}. Atomically transfer messages from the entry's batch to the handler's
+         * batch and returns true if messages were transferred. If not, sets running to false and returns false. In the
+         * latter case, the handler must terminate (or else, we could have multiple handler running).
+         * @param handler the handler to whose batch messages from this.batch should be transferred to.
          */
-        protected boolean workAvailable(final MessageBatch msg_batch) {
+        protected boolean workAvailable(final BatchHandlerLoop handler) {
             lock.lock();
             try {
-                int num_msgs=msg_batch.transferFrom(this.batch, true);
+                int num_msgs=handler.batch.transferFrom(this.batch, true);
+                handler.received=handler.loopback? 0 : first_queued;
                 return num_msgs > 0 || (running=false);
             }
             catch(Throwable t) {
@@ -265,6 +279,8 @@ public class MaxOneThreadPerSender extends SubmitToThreadPool {
             super(batch);
             this.entry=entry;
             this.loopback=loopback;
+            if(loopback)
+                received=0;
         }
 
         public void run() {
@@ -276,7 +292,7 @@ public class MaxOneThreadPerSender extends SubmitToThreadPool {
                     log.error("failed processing batch", t);
                 }
             }
-            while(entry.workAvailable(this.batch)); // transfers msgs from entry.batch --> this.batch
+            while(entry.workAvailable(this)); // transfers msgs from entry.batch --> this.batch
             // worker termination: workAvailable() already set running=false
         }
 
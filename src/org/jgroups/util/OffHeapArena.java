@@ -0,0 +1,164 @@
+package org.jgroups.util;
+
+import org.jgroups.annotations.GuardedBy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A capped amount of off-heap memory, handed out in chunks of the same size. The chunks are either direct
+ * {@link ByteBuffer}s or, if a file is given, regions of a memory-mapped file (e.g. under /dev/shm). Chunks are
+ * allocated lazily and returned to the arena when no longer used; at most max_bytes / chunk_size chunks are in use at
+ * any time: {@link #acquire()} returns null when the arena is full.<p/>
+ * Used by {@link OffHeapTable} to store the serialized form of sent messages until they're purged by STABLE or ACKed.
+ * Many tables can share the same arena.<p/>
+ * This class is thread-safe.
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+public class OffHeapArena {
+    protected final int         chunk_size;
+    protected final int         max_chunks;
+    protected final String      file_name;
+    protected FileChannel       file_channel;
+    protected final Deque<Chunk> free_chunks=new ArrayDeque<>();
+    protected int               num_allocated; // number of chunks allocated (in use and free)
+
+    // number of messages which could not be stored because the arena was full and were kept on the heap
+    protected final LongAdder   overflows=new LongAdder();
+    // number of stored messages which were dropped to make room for new messages (FullPolicy.discard)
+    protected final LongAdder   discards=new LongAdder();
+
+    /** What to do with a new message when the arena is full */
+    public enum FullPolicy {
+        /** Keep the message on the heap (until it is purged) */
+        heap,
+        /** Drop the oldest stored messages of the same table; retransmission requests for them cannot be served */
+        discard
+    }
+
+    public OffHeapArena(int chunk_size, long max_bytes) {
+        this(chunk_size, max_bytes, null);
+    }
+
+    /**
+     * Creates an arena
+     * @param chunk_size the size of a chunk; messages larger than this are never stored off-heap
+     * @param max_bytes the max number of bytes in use (rounded down to a multiple of chunk_size)
+     * @param file_name the file to be mapped into memory. If null, direct memory is used
+     */
+    public OffHeapArena(int chunk_size, long max_bytes, String file_name) {
+        if(chunk_size <= 0)
+            throw new IllegalArgumentException("chunk_size (" + chunk_size + ") must be > 0");
+        if(max_bytes < chunk_size)
+            throw new IllegalArgumentException("max_bytes (" + max_bytes + ") must be >= chunk_size (" + chunk_size + ")");
+        this.chunk_size=chunk_size;
+        this.max_chunks=(int)Math.min(Integer.MAX_VALUE, max_bytes / chunk_size);
+        this.file_name=file_name;
+    }
+
+    public int    chunkSize()       {return chunk_size;}
+    public int    maxChunks()       {return max_chunks;}
+    public long   maxBytes()        {return (long)max_chunks * chunk_size;}
+    public long   overflows()       {return overflows.sum();}
+    public long   discards()        {return discards.sum();}
+    public String fileName()        {return file_name;}
+
+    public synchronized int  numAllocated() {return num_allocated;}
+    public synchronized int  numInUse()     {return num_allocated - free_chunks.size();}
+    public synchronized long bytesInUse()   {return (long)numInUse() * chunk_size;}
+
+    public OffHeapArena resetStats() {
+        overflows.reset();
+        discards.reset();
+        return this;
+    }
+
+    /** Returns a free chunk, or null if all max_chunks chunks are in use */
+    public synchronized Chunk acquire() {
+        Chunk chunk=free_chunks.poll();
+        if(chunk != null)
+            return chunk;
+        if(num_allocated >= max_chunks)
+            return null;
+        try {
+            ByteBuffer buf=file_name != null? map(num_allocated) : ByteBuffer.allocateDirect(chunk_size);
+            num_allocated++;
+            return new Chunk(buf);
+        }
+        catch(IOException ex) {
+            throw new IllegalStateException("failed mapping chunk " + num_allocated + " of " + file_name, ex);
+        }
+    }
+
+    /** Returns a chunk to the arena. All messages stored in it become invalid */
+    public synchronized void release(Chunk chunk) {
+        if(chunk != null) {
+            chunk.reset();
+            free_chunks.add(chunk);
+        }
+    }
+
+    /** Releases all memory. Chunks which are still in use must not be accessed after this call */
+    public synchronized void destroy() {
+        free_chunks.clear();
+        num_allocated=0;
+        Util.close(file_channel);
+        file_channel=null;
+        if(file_name != null)
+            new File(file_name).delete();
+    }
+
+    public String toString() {
+        return String.format("%d/%d chunks of %s in use (%s), overflows=%d, discards=%d",
+                             numInUse(), max_chunks, Util.printBytes(chunk_size),
+                             file_name != null? "mapped: " + file_name : "direct", overflows(), discards());
+    }
+
+    @GuardedBy("this")
+    protected ByteBuffer map(int index) throws IOException {
+        if(file_channel == null)
+            file_channel=FileChannel.open(new File(file_name).toPath(), StandardOpenOption.CREATE,
+                                          StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return file_channel.map(FileChannel.MapMode.READ_WRITE, (long)index * chunk_size, chunk_size);
+    }
+
+
+    /**
+     * A region of off-heap memory which is filled sequentially. The generation is incremented whenever the chunk is
+     * reset, so references to data written before can be detected as stale.
+     */
+    public static class Chunk {
+        protected final ByteBuffer buf;
+        protected int              generation;
+        protected long             last_seqno; // the highest seqno stored in this chunk
+
+        protected Chunk(ByteBuffer buf) {
+            this.buf=buf;
+        }
+
+        public ByteBuffer buffer()           {return buf;}
+        public int        generation()       {return generation;}
+        public long       lastSeqno()        {return last_seqno;}
+        public Chunk      lastSeqno(long s)  {last_seqno=s; return this;}
+        public int        position()         {return buf.position();}
+        public int        remaining()        {return buf.remaining();}
+
+        public Chunk reset() {
+            buf.clear();
+            generation++;
+            last_seqno=0;
+            return this;
+        }
+
+        public String toString() {
+            return String.format("%d bytes used, last seqno=%d (gen=%d)", buf.position(), last_seqno, generation);
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package org.jgroups.util;
+
+import org.jgroups.Message;
+import org.jgroups.annotations.GuardedBy;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * A {@link Table} used as send window (retransmission buffer), which stores the serialized form of messages in an
+ * {@link OffHeapArena} rather than keeping them on the heap until they are purged (by STABLE in NAKACK2, or when
+ * ACKed in UNICAST3). A stored message is replaced in the table by a small placeholder holding the location of the
+ * serialized message; {@link #get(long)} (called when a retransmission is requested) rebuilds the message from it.
+ * <p/>
+ * If store_undelivered is false, messages are only stored after they have been delivered (removed), e.g. the
+ * messages sent by a member in NAKACK2, which are delivered locally from the table. Otherwise, messages are stored
+ * as soon as they're added. Messages are always stored in order of seqnos, so a chunk of the arena can be returned
+ * when its highest seqno has been purged.
+ * <p/>
+ * When the arena is full, the {@link OffHeapArena.FullPolicy} decides whether the message is kept on the heap, or the
+ * oldest chunk of this table is reused (dropping the messages stored in it).
+ * <p/>
+ * {@link #destroy()} must be called when the table is not used anymore, to return its memory to the arena.
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+public class OffHeapTable extends Table<Message> {
+    protected final OffHeapArena                    arena;
+    protected final OffHeapArena.FullPolicy         full_policy;
+    protected final boolean                         store_undelivered;
+    protected final Deque<OffHeapArena.Chunk>       chunks=new ArrayDeque<>(); // the last chunk is written to
+    protected long                                  stored; // all messages <= stored have been stored (or skipped)
+
+
+    public OffHeapTable(int num_rows, int elements_per_row, long offset, double resize_factor, long max_compaction_time,
+                        OffHeapArena arena, OffHeapArena.FullPolicy full_policy, boolean store_undelivered) {
+        super(num_rows, elements_per_row, offset, resize_factor, max_compaction_time);
+        this.arena=arena;
+        this.full_policy=full_policy;
+        this.store_undelivered=store_undelivered;
+        this.stored=offset;
+    }
+
+    /** Destroys the table if it is an OffHeapTable, no-op otherwise */
+    public static void release(Table<?> table) {
+        if(table instanceof OffHeapTable)
+            ((OffHeapTable)table).destroy();
+    }
+
+    public OffHeapArena arena()     {return arena;}
+
+    /** Returns the number of chunks of the arena used by this table */
+    public int numChunks() {
+        lock.lock();
+        try {
+            return chunks.size();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public Message get(long seqno) {
+        lock.lock();
+        try {
+            return restore(super.get(seqno));
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public Message _get(long seqno) {
+        lock.lock();
+        try {
+            return restore(super._get(seqno));
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public Message remove(boolean nullify) {
+        lock.lock();
+        try {
+            Message msg=restore(super.remove(nullify));
+            store();
+            return msg;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public <R> R removeMany(boolean nullify, int max_results, Predicate<Message> filter,
+                            Supplier<R> result_creator, BiConsumer<R,Message> accumulator) {
+        lock.lock();
+        try {
+            R result=super.removeMany(nullify, max_results, filter == null? null : msg -> filter.test(restore(msg)),
+                                      result_creator, (r, msg) -> accumulator.accept(r, restore(msg)));
+            store();
+            return result;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /** Purges the table and returns the chunks whose messages have all been purged to the arena */
+    public void purge(long seqno, boolean force) {
+        lock.lock();
+        try {
+            super.purge(seqno, force);
+            while(!chunks.isEmpty() && chunks.peekFirst().lastSeqno() - low <= 0)
+                arena.release(chunks.pollFirst());
+            if(stored - low < 0)
+                stored=low;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns all chunks to the arena. Stored messages cannot be retrieved anymore */
+    public void destroy() {
+        lock.lock();
+        try {
+            chunks.forEach(arena::release);
+            chunks.clear();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public Iterator<Message> iterator() {
+        return new RestoringIterator(super.iterator());
+    }
+
+    public Iterator<Message> iterator(long from, long to) {
+        return new RestoringIterator(super.iterator(from, to));
+    }
+
+    /** Counts the non-null elements in range [hd+1 .. hr] without rebuilding stored messages */
+    @GuardedBy("lock")
+    public int computeSize() {
+        int[] num={0};
+        forEach(hd+1, hr, (seqno, el, row, col) -> {
+            if(el != null)
+                num[0]++;
+            return true;
+        });
+        return num[0];
+    }
+
+    public String toString() {
+        return String.format("%s, %d chunks off-heap", super.toString(), numChunks());
+    }
+
+    @GuardedBy("lock")
+    protected boolean _add(long seqno, Message element, boolean check_if_resize_needed, Predicate<Message> remove_filter) {
+        boolean added=super._add(seqno, element, check_if_resize_needed, remove_filter);
+        if(added)
+            store();
+        return added;
+    }
+
+    /**
+     * Stores all messages from stored+1 up to hd (or hr if store_undelivered is true) in the arena and replaces them
+     * with placeholders. Stops at the first missing message, so messages are stored in order of seqnos.
+     */
+    @GuardedBy("lock")
+    protected void store() {
+        long limit=store_undelivered? hr : hd;
+        if(stored - low < 0)
+            stored=low;
+        Object[][] rows=matrix; // the matrix is an Object[][], so it must not be accessed as Message[][]
+        for(long seqno=stored+1; seqno - limit <= 0; seqno++) {
+            int row_index=computeRow(seqno);
+            Object[] row=row_index >= 0 && row_index < rows.length? rows[row_index] : null;
+            int index=computeIndex(seqno);
+            Message msg=row != null? (Message)row[index] : null;
+            if(msg == null)
+                break;
+            if(!(msg instanceof Stored)) {
+                Stored placeholder=write(seqno, msg);
+                if(placeholder != null)
+                    row[index]=placeholder;
+            }
+            stored=seqno;
+        }
+    }
+
+    /** Writes a message to the current chunk (acquiring a new one if needed). Returns null if it wasn't stored */
+    @GuardedBy("lock")
+    protected Stored write(long seqno, Message msg) {
+        long size=msg.size();
+        OffHeapArena.Chunk chunk=chunks.peekLast();
+        if(size > arena.chunkSize() || ((chunk == null || chunk.remaining() < size) && (chunk=nextChunk()) == null)) {
+            arena.overflows.increment();
+            return null;
+        }
+        ByteBuffer buf=chunk.buffer();
+        int pos=buf.position();
+        try {
+            msg.writeTo(new ByteBufferOutputStream(buf));
+        }
+        catch(Exception ex) { // e.g. BufferOverflowException if size() was too small: keep the message on the heap
+            buf.position(pos);
+            arena.overflows.increment();
+            return null;
+        }
+        chunk.lastSeqno(seqno);
+        // transient flags are not marshalled, but e.g. OOB_DELIVERED needs to be seen by callers of get()
+        return (Stored)new Stored(chunk, pos, buf.position() - pos).setTransientFlag(msg.getTransientFlags());
+    }
+
+    /** Acquires a new chunk from the arena or - if full and the policy is discard - reuses the oldest chunk */
+    @GuardedBy("lock")
+    protected OffHeapArena.Chunk nextChunk() {
+        OffHeapArena.Chunk chunk=arena.acquire();
+        if(chunk == null && full_policy == OffHeapArena.FullPolicy.discard && !chunks.isEmpty()) {
+            chunk=chunks.pollFirst();
+            // approximation: the oldest chunk holds the stored messages in range [low+1 .. last seqno of the chunk]
+            arena.discards.add(Math.max(chunk.lastSeqno() - low, 0));
+            chunk.reset();
+        }
+        if(chunk != null)
+            chunks.add(chunk);
+        return chunk;
+    }
+
+    /** Rebuilds a message from its placeholder. Returns null if its chunk was reused or released */
+    protected Message restore(Message msg) {
+        if(!(msg instanceof Stored))
+            return msg;
+        Stored stored_msg=(Stored)msg;
+        lock.lock();
+        try {
+            if(stored_msg.chunk.generation() != stored_msg.generation)
+                return null;
+            ByteBuffer buf=stored_msg.chunk.buffer().duplicate();
+            buf.limit(stored_msg.pos + stored_msg.len).position(stored_msg.pos);
+            Message retval=new Message(false);
+            retval.readFrom(new ByteBufferInputStream(buf));
+            return retval.setTransientFlag(stored_msg.getTransientFlags());
+        }
+        catch(Exception ex) {
+            throw new IllegalStateException("failed reading stored message", ex);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+
+    /** Placeholder for a message stored in a chunk of the arena */
+    protected static class Stored extends Message {
+        protected final OffHeapArena.Chunk chunk;
+        protected final int                generation, pos, len;
+
+        protected Stored(OffHeapArena.Chunk chunk, int pos, int len) {
+            super(false);
+            this.chunk=chunk;
+            this.generation=chunk.generation();
+            this.pos=pos;
+            this.len=len;
+        }
+
+        public long size() {return len;}
+
+        public String toString() {
+            return String.format("stored message (%d bytes at %d, gen=%d)", len, pos, generation);
+        }
+    }
+
+    protected class RestoringIterator implements Iterator<Message> {
+        protected final Iterator<Message> it;
+
+        protected RestoringIterator(Iterator<Message> it) {
+            this.it=it;
+        }
+
+        public boolean hasNext() {return it.hasNext();}
+        public Message next()    {return restore(it.next());}
+    }
+}
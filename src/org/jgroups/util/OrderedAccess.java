@@ -0,0 +1,143 @@
+package org.jgroups.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Acquire loads and release stores of longs and ints in a direct (e.g. memory-mapped) {@link ByteBuffer}, in native
+ * byte order. Used to order memory accesses between processes sharing a mapped file, which plain {@link ByteBuffer}
+ * accesses don't do. The index has to be aligned to the size of the value.
+ * <p/>
+ * On Java 9 and higher, the accesses are done with a byte buffer view VarHandle. On Java 8, the equivalent
+ * sun.misc.Unsafe methods are used. Both are looked up reflectively, so that this class compiles with a Java 8
+ * source level and without references to internal APIs.
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+public final class OrderedAccess {
+    // signatures: (ByteBuffer,int)long, (ByteBuffer,int,long)void, (ByteBuffer,int)int and (ByteBuffer,int,int)void
+    private static final MethodHandle GET_LONG, SET_LONG, GET_INT, SET_INT;
+
+    static {
+        MethodHandle[] handles;
+        try {
+            handles=varHandles();
+        }
+        catch(ClassNotFoundException java8) {
+            try {
+                handles=unsafeHandles();
+            }
+            catch(Exception ex) {
+                throw new ExceptionInInitializerError(ex);
+            }
+        }
+        catch(Exception ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+        GET_LONG=handles[0];
+        SET_LONG=handles[1];
+        GET_INT=handles[2];
+        SET_INT=handles[3];
+    }
+
+    private OrderedAccess() {
+        throw new InstantiationError("Must not instantiate this class");
+    }
+
+    public static long getLongAcquire(ByteBuffer buf, int index) {
+        try {
+            return (long)GET_LONG.invokeExact(buf, index);
+        }
+        catch(Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    public static void setLongRelease(ByteBuffer buf, int index, long val) {
+        try {
+            SET_LONG.invokeExact(buf, index, val);
+        }
+        catch(Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    public static int getIntAcquire(ByteBuffer buf, int index) {
+        try {
+            return (int)GET_INT.invokeExact(buf, index);
+        }
+        catch(Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    public static void setIntRelease(ByteBuffer buf, int index, int val) {
+        try {
+            SET_INT.invokeExact(buf, index, val);
+        }
+        catch(Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if(t instanceof RuntimeException)
+            throw (RuntimeException)t;
+        if(t instanceof Error)
+            throw (Error)t;
+        throw new IllegalStateException(t);
+    }
+
+    /** MethodHandles.byteBufferViewVarHandle(...).toMethodHandle(mode) for the 4 accesses (Java 9+) */
+    private static MethodHandle[] varHandles() throws Exception {
+        Class<?> vh_class=Class.forName("java.lang.invoke.VarHandle");
+        Class<?> mode_class=Class.forName("java.lang.invoke.VarHandle$AccessMode");
+        Method view=MethodHandles.class.getMethod("byteBufferViewVarHandle", Class.class, ByteOrder.class);
+        Method to_mh=vh_class.getMethod("toMethodHandle", mode_class);
+        Object longs=view.invoke(null, long[].class, ByteOrder.nativeOrder());
+        Object ints=view.invoke(null, int[].class, ByteOrder.nativeOrder());
+        Object get_acquire=mode_class.getField("GET_ACQUIRE").get(null), set_release=mode_class.getField("SET_RELEASE").get(null);
+        return new MethodHandle[]{
+          (MethodHandle)to_mh.invoke(longs, get_acquire), (MethodHandle)to_mh.invoke(longs, set_release),
+          (MethodHandle)to_mh.invoke(ints, get_acquire),  (MethodHandle)to_mh.invoke(ints, set_release)
+        };
+    }
+
+    /**
+     * Unsafe.getLongVolatile(null, address(buf) + index) etc. (Java 8), adapted to the signatures of the VarHandle
+     * accesses. The absolute address is computed as Buffer.address + index, so the byte order is the native one
+     */
+    private static MethodHandle[] unsafeHandles() throws Exception {
+        MethodHandles.Lookup lookup=MethodHandles.lookup();
+        Class<?> unsafe_class=Class.forName("sun.misc.Unsafe");
+        Field f=unsafe_class.getDeclaredField("theUnsafe");
+        f.setAccessible(true);
+        Object unsafe=f.get(null);
+        Field address=Buffer.class.getDeclaredField("address");
+        address.setAccessible(true);
+
+        // (ByteBuffer,int)long: address(buf) + index
+        MethodHandle add=lookup.findStatic(OrderedAccess.class, "add", MethodType.methodType(long.class, long.class, int.class));
+        MethodHandle addr=MethodHandles.filterArguments(add, 0, lookup.unreflectGetter(address)
+          .asType(MethodType.methodType(long.class, ByteBuffer.class)));
+
+        MethodHandle get_long=lookup.findVirtual(unsafe_class, "getLongVolatile", MethodType.methodType(long.class, Object.class, long.class));
+        MethodHandle set_long=lookup.findVirtual(unsafe_class, "putOrderedLong", MethodType.methodType(void.class, Object.class, long.class, long.class));
+        MethodHandle get_int=lookup.findVirtual(unsafe_class, "getIntVolatile", MethodType.methodType(int.class, Object.class, long.class));
+        MethodHandle set_int=lookup.findVirtual(unsafe_class, "putOrderedInt", MethodType.methodType(void.class, Object.class, long.class, int.class));
+        MethodHandle[] handles={get_long, set_long, get_int, set_int};
+        for(int i=0; i < handles.length; i++) {
+            MethodHandle mh=MethodHandles.insertArguments(handles[i], 0, unsafe, null); // (long[,val])
+            handles[i]=MethodHandles.collectArguments(mh, 0, addr);                     // (ByteBuffer,int[,val])
+        }
+        return handles;
+    }
+
+    private static long add(long address, int index) {return address + index;}
+}
@@ -0,0 +1,240 @@
+package org.jgroups.util;
+
+import org.jgroups.Address;
+import org.jgroups.Message;
+import org.jgroups.annotations.ManagedAttribute;
+import org.jgroups.annotations.ManagedOperation;
+import org.jgroups.protocols.TP;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link org.jgroups.stack.MessageProcessingPolicy} which hashes the senders of <em>regular</em> messages and batches
+ * onto a fixed number of worker threads (by default one per core). Each worker has its own lock-free queue (multiple
+ * producers, a single consumer) and processes the messages in the order in which they were added, so messages from
+ * the same sender are delivered in order. Contrary to {@link MaxOneThreadPerSender}, no threads are taken from the
+ * thread pool for regular messages, and no per-sender lock is acquired; the same sender is always handled by the same
+ * thread, which improves cache locality.<p/>
+ * OOB and internal messages are passed to the thread pools, as in {@link SubmitToThreadPool}.<p/>
+ * A worker queues at most max_buffer_size messages (0: unbounded). When full, a message (or batch) is dropped
+ * (retransmission will deliver it later) or the receiver thread blocks until there is space, depending on
+ * queue_full_policy.<p/>
+ * Note that a receiver blocking in the application delays all senders assigned to the same worker.
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+public class SenderAffinePolicy extends SubmitToThreadPool {
+    protected volatile Worker[] workers;
+    protected int               num_workers;
+    protected int               max_buffer_size; // max number of messages queued per worker, 0: unbounded
+    protected boolean           block;           // block when a worker's queue is full, or drop the message
+    protected final LongAdder   num_dropped=new LongAdder();
+
+    @ManagedAttribute(description="Number of worker threads processing regular messages")
+    public int numWorkers() {return num_workers;}
+
+    @ManagedAttribute(description="Number of regular messages dropped because the queue of their worker was full")
+    public long numDropped() {return num_dropped.sum();}
+
+    @ManagedOperation(description="Dumps the queue sizes and number of processed messages of all workers")
+    public String dumpWorkers() {
+        Worker[] tmp=workers;
+        if(tmp == null)
+            return "n/a";
+        StringBuilder sb=new StringBuilder();
+        for(Worker w: tmp)
+            sb.append(w).append("\n");
+        return sb.toString();
+    }
+
+    public void init(TP transport) {
+        super.init(transport);
+        num_workers=tp.getMessageProcessingNumWorkers();
+        if(num_workers <= 0)
+            num_workers=Runtime.getRuntime().availableProcessors();
+        max_buffer_size=tp.getMessageProcessingMaxBufferSize();
+        String policy=tp.getMessageProcessingQueueFullPolicy();
+        if(!"drop".equals(policy) && !"block".equals(policy))
+            throw new IllegalArgumentException("queue_full_policy has to be \"drop\" or \"block\": " + policy);
+        block="block".equals(policy);
+    }
+
+    public void reset() {
+        num_dropped.reset();
+        Worker[] tmp=workers;
+        if(tmp != null)
+            for(Worker w: tmp)
+                w.reset();
+    }
+
+    /** Stops all workers. They are restarted when the next message is received (e.g. after a reconnect) */
+    public synchronized void destroy() {
+        Worker[] tmp=workers;
+        workers=null;
+        if(tmp != null)
+            for(Worker w: tmp)
+                w.stop();
+    }
+
+    public void loopback(Message msg, boolean oob, boolean internal) {
+        if(oob || internal) {
+            super.loopback(msg, oob, internal);
+            return;
+        }
+        getWorker(msg.src()).add(new Loopback(msg), 1);
+    }
+
+    public void process(Message msg, boolean oob, boolean internal) {
+        if(oob || internal) {
+            super.process(msg, oob, internal);
+            return;
+        }
+        getWorker(msg.src()).add(new SingleMessageHandler(msg), 1);
+    }
+
+    public void process(MessageBatch batch, boolean oob, boolean internal) {
+        if(oob || internal) {
+            super.process(batch, oob, internal);
+            return;
+        }
+        getWorker(batch.sender()).add(new QueuedBatchHandler(batch), batch.size());
+    }
+
+    protected Worker getWorker(Address sender) {
+        Worker[] tmp=workers;
+        if(tmp == null)
+            tmp=startWorkers();
+        int index=sender == null? 0 : (sender.hashCode() & Integer.MAX_VALUE) % tmp.length;
+        return tmp[index];
+    }
+
+    protected synchronized Worker[] startWorkers() {
+        if(workers != null)
+            return workers;
+        Worker[] tmp=new Worker[num_workers];
+        for(int i=0; i < tmp.length; i++)
+            tmp[i]=new Worker().start("MsgWorker-" + i);
+        return workers=tmp;
+    }
+
+
+    protected class Loopback implements Runnable {
+        protected final Message msg;
+
+        protected Loopback(Message msg) {
+            this.msg=msg;
+        }
+
+        public void run() {
+            tp.passMessageUp(msg, null, false, msg.dest() == null, false);
+        }
+    }
+
+    /** Remembers the number of messages of the batch it was created with, as passing the batch up changes its size */
+    protected class QueuedBatchHandler extends BatchHandler {
+        protected final int num_msgs;
+
+        protected QueuedBatchHandler(MessageBatch batch) {
+            super(batch);
+            this.num_msgs=batch.size();
+        }
+    }
+
+    /** A thread processing tasks from a queue; many threads can add tasks, but only the worker removes them */
+    protected class Worker implements Runnable {
+        protected final Queue<Runnable> queue=new ConcurrentLinkedQueue<>();
+        protected final Semaphore       permits; // one per queued message, null if the queue is unbounded
+        protected volatile Thread       thread;
+        protected volatile boolean      sleeping;
+        protected final LongAdder       processed=new LongAdder();
+
+        protected Worker() {
+            permits=max_buffer_size > 0? new Semaphore(max_buffer_size) : null;
+        }
+
+        protected Worker start(String name) {
+            thread=tp.getThreadFactory().newThread(this, name);
+            thread.setDaemon(true);
+            thread.start();
+            return this;
+        }
+
+        protected void stop() {
+            Thread tmp=thread;
+            thread=null;
+            if(tmp != null)
+                LockSupport.unpark(tmp);
+            if(permits != null) // unblocks receiver threads blocked in add()
+                permits.release(max_buffer_size);
+        }
+
+        protected void add(Runnable task, int num_msgs) {
+            if(permits != null && !acquire(Math.min(num_msgs, max_buffer_size))) {
+                num_dropped.add(num_msgs);
+                return;
+            }
+            queue.offer(task);
+            if(sleeping) {
+                Thread tmp=thread;
+                if(tmp != null)
+                    LockSupport.unpark(tmp);
+            }
+        }
+
+        protected void reset() {processed.reset();}
+
+        protected boolean acquire(int num) {
+            if(!block)
+                return permits.tryAcquire(num);
+            try {
+                permits.acquire(num);
+                return true;
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        protected void release(Runnable task) {
+            if(permits != null)
+                permits.release(Math.min(task instanceof QueuedBatchHandler? ((QueuedBatchHandler)task).num_msgs : 1,
+                                         max_buffer_size));
+        }
+
+        public void run() {
+            Thread current=Thread.currentThread();
+            while(thread == current) {
+                Runnable task=queue.poll();
+                if(task == null) {
+                    // park only if the queue is still empty after announcing that we're about to sleep; add() unparks
+                    // us if it sees sleeping == true
+                    sleeping=true;
+                    if(queue.isEmpty() && thread == current)
+                        LockSupport.park(this);
+                    sleeping=false;
+                    continue;
+                }
+                try {
+                    task.run();
+                }
+                catch(Throwable t) {
+                    log.error("%s: failed processing message: %s", tp.localAddress(), t);
+                }
+                finally {
+                    release(task);
+                }
+                processed.increment();
+            }
+        }
+
+        public String toString() {
+            Thread tmp=thread;
+            return String.format("%s: queue=%d processed=%d", tmp != null? tmp.getName() : "n/a", queue.size(), processed.sum());
+        }
+    }
+}
@@ -12,10 +12,12 @@ import java.util.function.Supplier;
 
 /**
  * A bitset of missing messages with a fixed size. The index (in the bit set) of a seqno is computed as seqno - offset.
+ * It is serialized either as bitmap or as a list of ranges, whichever is more compact.
  * @author Bela Ban
  * @since  3.1
  */
 public class SeqnoList extends FixedSizeBitSet implements SizeStreamable, Iterable<Long>, Constructable<SeqnoList> {
+    protected static final byte BITMAP=1, RANGES=2; // wire formats
     protected long offset; // first seqno
 
     /** Only to be used by serialization */
@@ -80,28 +82,82 @@ public class SeqnoList extends FixedSizeBitSet implements SizeStreamable, Iterab
 
     @Override
     public int serializedSize() {
-        return Global.INT_SIZE // number of words
-          + (words.length+1) * Global.LONG_SIZE; // words + offset
+        int ranges_size=rangesSize();
+        return Global.BYTE_SIZE + Bits.size(size) + Bits.size(offset)
+          + (ranges_size >= 0? ranges_size : (words.length * Global.LONG_SIZE));
     }
 
+    /**
+     * Writes the list either as bitmap or as a list of ranges (runs of consecutive seqnos), whichever is smaller. A
+     * burst of lost messages (e.g. during a GC pause) is thus encoded as a few bytes instead of 1 bit per message
+     */
     @Override
     public void writeTo(DataOutput out) throws IOException {
-        out.writeInt(size);
-        out.writeLong(offset);
-        for(long word: words)
-            out.writeLong(word);
+        boolean ranges=rangesSize() >= 0;
+        out.writeByte(ranges? RANGES : BITMAP);
+        Bits.writeInt(size, out);
+        Bits.writeLong(offset, out);
+        if(!ranges) {
+            for(long word: words)
+                out.writeLong(word);
+            return;
+        }
+        Bits.writeInt(numRanges(), out);
+        // each range is written as the distance to the end of the previous range, followed by its length - 1
+        for(int i=nextSetBit(0), end=0; i >= 0; i=nextSetBit(end)) {
+            int prev_end=end;
+            end=endOfRun(i);
+            Bits.writeInt(i - prev_end, out);
+            Bits.writeInt(end - i - 1, out);
+        }
     }
 
     @Override
     public void readFrom(DataInput in) throws IOException {
-        size=in.readInt();
-        offset=in.readLong();
+        byte type=in.readByte();
+        size=Bits.readInt(in);
+        offset=Bits.readLong(in);
         words=new long[wordIndex(size - 1) + 1];
-        for(int i=0; i < words.length; i++)
-            words[i]=in.readLong();
+        if(type == BITMAP) {
+            for(int i=0; i < words.length; i++)
+                words[i]=in.readLong();
+            return;
+        }
+        int num_ranges=Bits.readInt(in), end=0;
+        for(int i=0; i < num_ranges; i++) {
+            int from=end + Bits.readInt(in), to=from + Bits.readInt(in);
+            set(from, to);
+            end=to + 1;
+        }
     }
 
+    /** Returns the number of bytes needed to write the set bits as ranges, or -1 if this is larger than the bitmap */
+    protected int rangesSize() {
+        int max=words.length * Global.LONG_SIZE, retval=0, num=0;
+        for(int i=nextSetBit(0), end=0; i >= 0; i=nextSetBit(end)) {
+            int prev_end=end;
+            end=endOfRun(i);
+            retval+=Bits.size(i - prev_end) + Bits.size(end - i - 1);
+            num++;
+            if(retval >= max)
+                return -1;
+        }
+        retval+=Bits.size(num);
+        return retval >= max? -1 : retval;
+    }
 
+    protected int numRanges() {
+        int num=0;
+        for(int i=nextSetBit(0); i >= 0; i=nextSetBit(endOfRun(i)))
+            num++;
+        return num;
+    }
+
+    /** Returns the index of the first clear bit after the set bit at index, or size */
+    protected int endOfRun(int index) {
+        int next_clear=nextClearBit(index);
+        return next_clear < 0? size : Math.min(next_clear, size);
+    }
 
     public int size() {
         return super.cardinality();
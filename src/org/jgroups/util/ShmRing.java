@@ -0,0 +1,188 @@
+package org.jgroups.util;
+
+import org.jgroups.Global;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A single-producer / single-consumer ring buffer in a memory-mapped file (e.g. under /dev/shm), used to pass
+ * messages between processes on the same host. The producer creates the file ({@link #create(File,int)}) and the
+ * consumer maps it ({@link #open(File)}); neither blocks: {@link #write(byte[],int,int)} returns false when the ring
+ * is full and {@link #read(byte[])} returns -1 when it is empty.
+ * <p/>
+ * The file starts with a header holding the write position (written only by the producer), the read position
+ * (written only by the consumer, on a separate cache line), a heartbeat (timestamp updated by the consumer) and a
+ * closed flag. Positions increase monotonically; a message is written as its length (int), followed by its bytes.
+ * If a message doesn't fit before the end of the ring, a length of -1 is written (if there's room) and the message is
+ * written at the start.
+ * <p/>
+ * The header fields are accessed with {@link OrderedAccess}: the producer publishes the write position with a release
+ * store after writing the data, and the consumer loads it with an acquire load before reading the data (and vice
+ * versa for the read position and the reuse of the space). Plain {@link ByteBuffer} accesses and JVM-local volatiles
+ * don't order memory accesses seen by another process on weakly ordered CPUs (e.g. ARM).
+ * <p/>
+ * Writes are synchronized, so many threads of the producer process can write to the same ring; reads must be done
+ * by a single thread.
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+public class ShmRing implements Closeable {
+    protected static final int WRITE_POS=0, READ_POS=64, HEARTBEAT=128, CLOSED=136, MAGIC=140, DATA=192;
+    protected static final int MAGIC_NUMBER=0x4a475348; // "JGSH"
+    protected static final int WRAP=-1;
+
+    protected final File             file;
+    protected final MappedByteBuffer buf;
+    protected final int              capacity;
+    protected long                   write_pos; // only used by the producer
+    protected long                   read_pos;  // only used by the consumer
+
+    protected ShmRing(File file, MappedByteBuffer buf) {
+        this.file=file;
+        this.buf=buf;
+        this.capacity=buf.capacity() - DATA;
+        this.write_pos=writePos();
+        this.read_pos=readPos();
+    }
+
+    /**
+     * Creates a ring of the given capacity in a new file. The file is created under a temporary name and then renamed,
+     * so a consumer never sees a partially initialized ring. An existing file is replaced.
+     */
+    public static ShmRing create(File file, int capacity) throws IOException {
+        File tmp=new File(file.getPath() + ".tmp");
+        tmp.delete();
+        MappedByteBuffer buf;
+        try(FileChannel ch=FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                                            StandardOpenOption.WRITE)) {
+            buf=ch.map(FileChannel.MapMode.READ_WRITE, 0, DATA + capacity);
+        }
+        buf.putInt(MAGIC, MAGIC_NUMBER);
+        ShmRing ring=new ShmRing(file, buf).heartbeat(System.currentTimeMillis());
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return ring;
+    }
+
+    /** Maps an existing ring (created by {@link #create(File,int)}) */
+    public static ShmRing open(File file) throws IOException {
+        MappedByteBuffer buf;
+        try(FileChannel ch=FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size=ch.size();
+            if(size <= DATA || size > Integer.MAX_VALUE)
+                throw new IOException(String.format("%s is not a ring: size is %d", file, size));
+            buf=ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        if(buf.getInt(MAGIC) != MAGIC_NUMBER)
+            throw new IOException(String.format("%s is not a ring: bad magic number", file));
+        return new ShmRing(file, buf);
+    }
+
+    public File    file()              {return file;}
+    public int     capacity()          {return capacity;}
+    /** The max size of a message: larger messages can never be written */
+    public int     maxMessageSize()    {return capacity - Global.INT_SIZE;}
+    public long    heartbeat()         {return OrderedAccess.getLongAcquire(buf, HEARTBEAT);}
+    public ShmRing heartbeat(long t)   {OrderedAccess.setLongRelease(buf, HEARTBEAT, t); return this;}
+    public boolean isClosed()          {return OrderedAccess.getIntAcquire(buf, CLOSED) != 0;}
+
+    /** Whether the ring contains messages which haven't been read yet */
+    public boolean isEmpty() {
+        return writePos() == readPos();
+    }
+
+    /** Writes a message. Returns false if the ring is full or closed, or the message is too large */
+    public boolean write(byte[] data, int offset, int length) {
+        return write(null, data, offset, length);
+    }
+
+    /** Writes the contents of a ByteBuffer (between position and limit), without changing position and limit */
+    public boolean write(ByteBuffer data) {
+        return write(data, null, 0, data.remaining());
+    }
+
+    /**
+     * Reads the next message into dst, which needs to be at least {@link #maxMessageSize()} bytes.
+     * Returns the length of the message, or -1 if the ring is empty
+     * @throws IllegalStateException If the length of the message is invalid, e.g. because the ring is corrupt
+     */
+    public int read(byte[] dst) {
+        long wpos=writePos(); // acquire: the data is read after the write position
+        if(wpos == read_pos)
+            return -1;
+        int index=index(read_pos), tail=capacity - index;
+        if(tail < Global.INT_SIZE || buf.getInt(DATA + index) == WRAP) {
+            read_pos+=tail;
+            index=0;
+        }
+        int len=buf.getInt(DATA + index);
+        if(len < 0 || len > capacity - index - Global.INT_SIZE || read_pos + Global.INT_SIZE + len > wpos)
+            throw new IllegalStateException(String.format("%s: invalid message length %d at %d", file, len, read_pos));
+        if(len > dst.length)
+            throw new IllegalArgumentException(String.format("%s: message of %d bytes doesn't fit into buffer of %d bytes",
+                                                             file, len, dst.length));
+        ByteBuffer tmp=buf.duplicate();
+        tmp.position(DATA + index + Global.INT_SIZE);
+        tmp.get(dst, 0, len);
+        read_pos+=Global.INT_SIZE + len;
+        OrderedAccess.setLongRelease(buf, READ_POS, read_pos); // release: the data is read before the space is reused
+        return len;
+    }
+
+    /** Marks the ring as closed (called by the consumer): the producer won't write to it anymore */
+    public void close() {
+        OrderedAccess.setIntRelease(buf, CLOSED, 1);
+    }
+
+    /** Closes the ring and deletes its file */
+    public void destroy() {
+        close();
+        file.delete();
+    }
+
+    public String toString() {
+        long wpos=writePos(), rpos=readPos();
+        return String.format("%s: %s/%s used (written: %s)%s", file.getName(), Util.printBytes(wpos - rpos),
+                             Util.printBytes(capacity), Util.printBytes(wpos), isClosed()? " (closed)" : "");
+    }
+
+    protected synchronized boolean write(ByteBuffer src, byte[] data, int offset, int length) {
+        int size=Global.INT_SIZE + length;
+        if(size > capacity || isClosed())
+            return false;
+        int index=index(write_pos), tail=capacity - index;
+        int skip=tail < size? tail : 0; // the message has to be written at the start of the ring
+        if(write_pos + skip + size - readPos() > capacity) // acquire: the space is written after it was read
+            return false; // full
+        if(skip > 0) {
+            if(tail >= Global.INT_SIZE)
+                buf.putInt(DATA + index, WRAP);
+            write_pos+=skip;
+            index=0;
+        }
+        buf.putInt(DATA + index, length);
+        ByteBuffer tmp=buf.duplicate();
+        tmp.position(DATA + index + Global.INT_SIZE);
+        if(src != null)
+            tmp.put(src.duplicate());
+        else
+            tmp.put(data, offset, length);
+        write_pos+=size;
+        OrderedAccess.setLongRelease(buf, WRITE_POS, write_pos); // release: the data is written before
+        return true;
+    }
+
+    protected long writePos() {return OrderedAccess.getLongAcquire(buf, WRITE_POS);}
+    protected long readPos()  {return OrderedAccess.getLongAcquire(buf, READ_POS);}
+
+    protected int index(long pos) {
+        return (int)(pos % capacity);
+    }
+}
@@ -2,6 +2,7 @@ package org.jgroups.util;
 
 import java.io.IOException;
 import java.net.*;
+import java.nio.channels.DatagramChannel;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.Map;
@@ -61,6 +62,11 @@ public interface SocketFactory {
     MulticastSocket createMulticastSocket(String service_name, int port) throws IOException;
     MulticastSocket createMulticastSocket(String service_name, SocketAddress bindaddr) throws IOException;
 
+    /** Creates an unbound DatagramChannel of the given protocol family (e.g. INET for IPv4 multicast groups) */
+    default DatagramChannel createDatagramChannel(String service_name, ProtocolFamily family) throws IOException {
+        return DatagramChannel.open(family);
+    }
+
     void close(Socket sock) throws IOException;
     void close(ServerSocket sock) throws IOException;
     void close(DatagramSocket sock);
@@ -70,6 +76,9 @@ public interface SocketFactory {
     default void close(ServerSocketChannel channel) {
         Util.close(channel);
     }
+    default void close(DatagramChannel channel) {
+        Util.close(channel);
+    }
 
     /**
      * Returns all open sockets. This method can be used to list or close all open sockets.
@@ -62,8 +62,15 @@ public class SubmitToThreadPool implements MessageProcessingPolicy {
     }
 
 
+    /** Returns the current time (ns) if stats are enabled, else 0 */
+    protected long timestamp() {
+        return tp.statsEnabled()? System.nanoTime() : 0;
+    }
+
+
     protected class SingleMessageHandler implements Runnable {
         protected final Message msg;
+        protected final long    received=timestamp(); // time (ns) at which msg was received, 0 if stats are disabled
 
         protected SingleMessageHandler(final Message msg) {
             this.msg=msg;
@@ -82,6 +89,8 @@ public class SubmitToThreadPool implements MessageProcessingPolicy {
                     else
                         msg_stats.incrNumMsgsReceived(1);
                     msg_stats.incrNumBytesReceived(msg.getLength());
+                    if(received > 0)
+                        tp.addPassUpDelay(System.nanoTime() - received);
                 }
                 byte[] cname=getClusterName();
                 tp.passMessageUp(msg, cname, true, multicast, true);
@@ -112,6 +121,7 @@ public class SubmitToThreadPool implements MessageProcessingPolicy {
 
     protected class BatchHandler implements Runnable {
         protected MessageBatch batch;
+        protected long         received=timestamp(); // time (ns) at which batch was received, 0 if stats are disabled
 
         public BatchHandler(final MessageBatch batch) {
             this.batch=batch;
@@ -132,6 +142,8 @@ public class SubmitToThreadPool implements MessageProcessingPolicy {
                 msg_stats.incrNumBatchesReceived(1);
                 msg_stats.incrNumBytesReceived(batch.length());
                 tp.avgBatchSize().add(batch_size);
+                if(received > 0)
+                    tp.addPassUpDelay(System.nanoTime() - received);
             }
             passBatchUp();
         }
@@ -684,6 +684,26 @@ public class Table<T> implements Iterable<T> {
         }
     }
 
+    /**
+     * Returns the ranges of received elements above the highest deliverable seqno, e.g. to be sent as selective acks
+     * @param max_ranges The max number of ranges to be returned (lowest first)
+     * @return An array of [from,to] pairs, or null if no element is missing
+     */
+    public long[] getReceivedRanges(int max_ranges) {
+        lock.lock();
+        try {
+            long start_seqno=getHighestDeliverable() +1, hr=getHighestReceived();
+            if(start_seqno >= hr || max_ranges <= 0)
+                return null;
+            ReceivedRanges ranges=new ReceivedRanges(max_ranges);
+            forEach(start_seqno, hr, ranges);
+            return ranges.getResult();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
     public long[] getDigest() {
         lock.lock();
         try {
@@ -871,6 +891,38 @@ public class Table<T> implements Iterable<T> {
     }
 
 
+    protected class ReceivedRanges implements Visitor<T> {
+        protected final long[] ranges;
+        protected int          num;    // number of seqnos in ranges (2 per range)
+        protected boolean      in_range;
+
+        protected ReceivedRanges(int max_ranges) {
+            ranges=new long[max_ranges * 2];
+        }
+
+        protected long[] getResult() {
+            return num == 0? null : num == ranges.length? ranges : Arrays.copyOf(ranges, num);
+        }
+
+        public boolean visit(long seqno, T element, int row, int column) {
+            if(element == null) {
+                in_range=false;
+                return num < ranges.length; // stop at the first gap after the last range
+            }
+            if(in_range)
+                ranges[num-1]=seqno;
+            else {
+                if(num >= ranges.length)
+                    return false;
+                ranges[num++]=seqno;
+                ranges[num++]=seqno;
+                in_range=true;
+            }
+            return true;
+        }
+    }
+
+
     protected class HighestDeliverable implements Visitor<T> {
         protected long highest_deliverable=-1;
 
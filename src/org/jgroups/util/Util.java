@@ -3125,6 +3125,46 @@ public class Util {
     }
 
 
+    /** Returns true if the JDK supports virtual threads (JDK 21, or JDK 19/20 with preview features enabled) */
+    public static boolean virtualThreadsAvailable() {
+        return createVirtualThreadFactory("probe") != null;
+    }
+
+    /**
+     * Creates a factory for virtual threads named prefix-0, prefix-1 etc. Uses reflection as the code base needs to
+     * compile and run on JDKs without virtual threads
+     * @return the thread factory, or null if virtual threads are not supported by the JDK
+     */
+    public static java.util.concurrent.ThreadFactory createVirtualThreadFactory(String prefix) {
+        try {
+            Class<?> builder_class=Class.forName("java.lang.Thread$Builder");
+            Object builder=Thread.class.getMethod("ofVirtual").invoke(null);
+            builder=builder_class.getMethod("name", String.class, long.class).invoke(builder, prefix + "-", 0L);
+            return (java.util.concurrent.ThreadFactory)builder_class.getMethod("factory").invoke(builder);
+        }
+        catch(Throwable t) {
+            return null;
+        }
+    }
+
+    /**
+     * Creates an executor which starts a new virtual thread for every task
+     * @return the executor, or null if virtual threads are not supported by the JDK
+     */
+    public static ExecutorService createVirtualThreadExecutor(String prefix) {
+        java.util.concurrent.ThreadFactory factory=createVirtualThreadFactory(prefix);
+        if(factory == null)
+            return null;
+        try {
+            return (ExecutorService)Executors.class.getMethod("newThreadPerTaskExecutor", java.util.concurrent.ThreadFactory.class)
+              .invoke(null, factory);
+        }
+        catch(Throwable t) {
+            return null;
+        }
+    }
+
+
     /**
      * Parses comma-delimited longs; e.g., 2000,4000,8000.
      * Returns array of long, or null.
@@ -0,0 +1,141 @@
+package org.jgroups.protocols;
+
+import org.jgroups.Address;
+import org.jgroups.Global;
+import org.jgroups.JChannel;
+import org.jgroups.Message;
+import org.jgroups.protocols.pbcast.DeltaDigest;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.util.Bits;
+import org.jgroups.util.Buffer;
+import org.jgroups.util.Digest;
+import org.jgroups.util.Util;
+import org.testng.annotations.Test;
+
+import java.util.stream.Stream;
+
+/**
+ * Tests {@link DeltaDigest} and delta digests in {@link STABLE}
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class DeltaDigestTest {
+    protected static final Address   A=Util.createRandomAddress("A"), B=Util.createRandomAddress("B"),
+                                     C=Util.createRandomAddress("C");
+    protected static final Address[] MEMBERS={A, B, C};
+
+    public void testWriteAndReadWithoutBase() throws Exception {
+        Digest d=new Digest(MEMBERS, new long[]{10, 12, 0, 0, 1000000, 1000005});
+        Buffer buf=DeltaDigest.write(d, null);
+        DeltaDigest.Round round=new DeltaDigest.Round(MEMBERS, null);
+        DeltaDigest.read(buf.getBuf(), buf.getOffset(), buf.getLength(), null, round);
+        assert round.digest(1).equals(d);
+    }
+
+    public void testWriteAndReadWithBase() throws Exception {
+        Digest base=new Digest(MEMBERS, new long[]{10, 12, 5, 5, 1000000, 1000005});
+        Digest d=new Digest(MEMBERS, new long[]{10, 12, 7, 9, 1000000, 1000005}); // only B changed
+        Buffer full=DeltaDigest.write(d, null), delta=DeltaDigest.write(d, base);
+        assert delta.getLength() < full.getLength();
+
+        DeltaDigest.Round round=new DeltaDigest.Round(MEMBERS, base);
+        DeltaDigest.read(delta.getBuf(), delta.getOffset(), delta.getLength(), base, round);
+        assert round.digest(1).equals(d);
+
+        // same digest as base: no entries are sent
+        Buffer empty=DeltaDigest.write(base, base);
+        assert empty.getLength() == Bits.size(MEMBERS.length) + Bits.size(0);
+    }
+
+    /** Gossips relative to the base of the round, relative to an older base and without base are merged */
+    public void testMerge() throws Exception {
+        Digest old_base=new Digest(MEMBERS, new long[]{5, 5, 5, 5, 5, 5});
+        Digest base=new Digest(MEMBERS, new long[]{10, 10, 10, 10, 10, 10});
+        DeltaDigest.Round round=new DeltaDigest.Round(MEMBERS, base);
+
+        add(round, new Digest(MEMBERS, new long[]{20, 20, 10, 10, 10, 10}), base);      // A's entry changed
+        add(round, new Digest(MEMBERS, new long[]{15, 20, 10, 12, 10, 10}), old_base);  // all changed to old_base
+        add(round, new Digest(MEMBERS, new long[]{18, 20, 10, 10, 10, 10}), null);      // full digest
+        Digest expected=new Digest(MEMBERS, new long[]{15, 20, 10, 12, 10, 10});
+        Digest d=round.digest(MEMBERS.length);
+        assert d.equals(expected) : String.format("expected %s, but got %s", expected, d);
+
+        // C's entry is not sent by anyone: taken from the base
+        round=new DeltaDigest.Round(MEMBERS, base);
+        add(round, new Digest(MEMBERS, new long[]{20, 20, 10, 10, 10, 10}), base);
+        add(round, new Digest(MEMBERS, new long[]{20, 22, 10, 10, 10, 10}), base);
+        d=round.digest(2);
+        expected=new Digest(MEMBERS, new long[]{20, 22, 10, 10, 10, 10});
+        assert d.equals(expected) : String.format("expected %s, but got %s", expected, d);
+    }
+
+    /** After the first round, members send delta digests, and messages still become stable */
+    public void testStable() throws Exception {
+        JChannel[] channels=new JChannel[3];
+        try {
+            for(int i=0; i < channels.length; i++) {
+                channels[i]=create(String.valueOf((char)('A' + i)));
+                channels[i].connect("DeltaDigestTest");
+            }
+            Util.waitUntilAllChannelsHaveSameView(10000, 500, channels);
+
+            for(int round=1; round <= 5; round++) {
+                for(JChannel ch: channels)
+                    for(int i=0; i < 10; i++)
+                        ch.send(new Message(null, new byte[100]));
+                long expected=round * 10;
+                Util.waitUntil(5000, 100, () -> Stream.of(channels).allMatch(ch -> delivered(ch, expected)));
+                for(JChannel ch: channels)
+                    stable(ch).gc();
+                Util.waitUntil(5000, 100, () -> Stream.of(channels).allMatch(ch -> stable(ch, expected)));
+            }
+            for(JChannel ch: channels) {
+                STABLE s=stable(ch);
+                assert s.getDeltaSent() > 0
+                  : String.format("%s: delta STABLE msgs sent=%d, bytes=%d", ch.getAddress(), s.getDeltaSent(), s.getStableBytesSent());
+            }
+        }
+        finally {
+            Util.close(channels);
+        }
+    }
+
+
+    protected static void add(DeltaDigest.Round round, Digest d, Digest base) throws Exception {
+        Buffer buf=DeltaDigest.write(d, base);
+        DeltaDigest.read(buf.getBuf(), buf.getOffset(), buf.getLength(), base, round);
+    }
+
+    protected static JChannel create(String name) throws Exception {
+        JChannel ch=new JChannel(Util.getTestStack()).name(name);
+        // no stability rounds triggered by the stable task or by the number of bytes received
+        stable(ch).setValue("desired_avg_gossip", 0L).setValue("max_bytes", 10_000_000L);
+        return ch;
+    }
+
+    protected static STABLE stable(JChannel ch) {
+        return ch.getProtocolStack().findProtocol(STABLE.class);
+    }
+
+    protected static Digest digest(JChannel ch) {
+        return ((NAKACK2)ch.getProtocolStack().findProtocol(NAKACK2.class)).getDigest();
+    }
+
+    protected static boolean delivered(JChannel ch, long seqno) {
+        for(Digest.Entry entry: digest(ch))
+            if(entry.getHighestDeliveredSeqno() < seqno)
+                return false;
+        return true;
+    }
+
+    /** Returns true if the messages up to seqno of all members have been purged from the retransmission tables */
+    protected static boolean stable(JChannel ch, long seqno) {
+        NAKACK2 nak=ch.getProtocolStack().findProtocol(NAKACK2.class);
+        for(Address mbr: ch.getView().getMembersRaw())
+            if(nak.getWindow(mbr).getLow() < seqno)
+                return false;
+        return true;
+    }
+}
@@ -0,0 +1,226 @@
+package org.jgroups.protocols;
+
+import org.jgroups.*;
+import org.jgroups.conf.ClassConfigurator;
+import org.jgroups.protocols.pbcast.Fec;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.NakAckHeader2;
+import org.jgroups.stack.Protocol;
+import org.jgroups.stack.ProtocolStack;
+import org.jgroups.util.Bits;
+import org.jgroups.util.MessageBatch;
+import org.jgroups.util.MyReceiver;
+import org.jgroups.util.Util;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+
+/**
+ * Tests forward error correction ({@link Fec}) in {@link NAKACK2}
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class NAKACK2_FecTest {
+    protected static final short   ID=ClassConfigurator.getProtocolId(NAKACK2.class);
+    protected static final Address A=Util.createRandomAddress("A");
+    protected static final short[] EXCLUDED={};
+
+    public void testRebuildMissingMessage() throws Exception {
+        Message[] msgs=create(1, 8);
+        Message parity=encode(8, msgs);
+        Fec.Decoder decoder=new Fec.Decoder(ID, A, EXCLUDED);
+        for(Message msg: msgs)
+            if(seqno(msg) != 4)
+                assert decoder.add(seqno(msg), msg) == null;
+        Message rebuilt=decoder.parity(1, parity, 0);
+        assertSame(msgs[3], rebuilt);
+        decoder.add(4, rebuilt);
+        assert decoder.parity(1, parity, 0) == null; // all messages are now present
+    }
+
+    /** 2 messages are missing: the parity is kept until one of them is received, then the other one is rebuilt */
+    public void testPendingParity() throws Exception {
+        Message[] msgs=create(17, 16);
+        Message parity=encode(16, msgs);
+        Fec.Decoder decoder=new Fec.Decoder(ID, A, EXCLUDED);
+        for(Message msg: msgs)
+            if(seqno(msg) != 20 && seqno(msg) != 30)
+                decoder.add(seqno(msg), msg);
+        assert decoder.parity(17, parity, 16) == null;
+        Message rebuilt=decoder.add(20, msgs[3]);
+        assertSame(msgs[13], rebuilt);
+    }
+
+    /** A message rebuilt from a corrupt parity fails the CRC check and is not delivered */
+    public void testCorruptParity() throws Exception {
+        Message[] msgs=create(1, 8);
+        Message parity=encode(8, msgs);
+        byte[] buf=parity.getBuffer();
+        buf[buf.length-1]^=1; // last byte of the parity, part of the longest message (#8)
+        parity.setBuffer(buf);
+        Fec.Decoder decoder=new Fec.Decoder(ID, A, EXCLUDED);
+        for(int i=0; i < 7; i++)
+            decoder.add(seqno(msgs[i]), msgs[i]);
+        try {
+            Message rebuilt=decoder.parity(1, parity, 0);
+            assert false : "rebuilt message should have failed the CRC check: " + rebuilt;
+        }
+        catch(IllegalStateException expected) {
+            assert expected.getMessage().contains("CRC") : expected.getMessage();
+        }
+    }
+
+    /** A rebuilt message whose seqno is not the one missing from the group is not delivered */
+    public void testRebuiltMessageWithWrongSeqno() throws Exception {
+        Message[] msgs=create(1, 8);
+        Message parity=encode(8, msgs);
+        Fec.Decoder decoder=new Fec.Decoder(ID, A, EXCLUDED);
+        for(Message msg: msgs) // the messages are added as group 9-16, missing #12
+            if(seqno(msg) != 4)
+                decoder.add(seqno(msg) + 8, msg);
+        try {
+            Message rebuilt=decoder.parity(9, parity, 0);
+            assert false : "rebuilt message should have been rejected: " + rebuilt;
+        }
+        catch(IllegalStateException expected) {
+            assert expected.getMessage().contains("missing seqno 12") : expected.getMessage();
+        }
+    }
+
+    /** The group size changes between blocks, the decoder doesn't need to know it in advance */
+    public void testChangingGroupSize() throws Exception {
+        Fec.Encoder encoder=new Fec.Encoder(ID, EXCLUDED).groupSize(64);
+        Fec.Decoder decoder=new Fec.Decoder(ID, A, EXCLUDED);
+        Message[] msgs=create(1, 128);
+        int num_parities=0, num_rebuilt=0;
+        for(Message msg: msgs) {
+            long seqno=seqno(msg);
+            if(seqno == 60)
+                encoder.groupSize(4); // takes effect in the next block (65-128)
+            Message parity=encoder.add(seqno, msg, A);
+            if(seqno % 8 != 3) // drops 1 message per 8
+                decoder.add(seqno, msg);
+            if(parity != null) {
+                num_parities++;
+                Message rebuilt=decoder.parity(((NakAckHeader2)parity.getHeader(ID)).getSeqno(), parity, 0);
+                if(rebuilt != null) {
+                    assertSame(msgs[(int)seqno(rebuilt)-1], rebuilt);
+                    decoder.add(seqno(rebuilt), rebuilt);
+                    num_rebuilt++;
+                }
+            }
+        }
+        // 1 parity for 1-64 (8 messages missing: cannot be rebuilt), 16 for 65-128 (8 of which have a missing message)
+        assert num_parities == 17 : "parities: " + num_parities;
+        assert num_rebuilt == 8 : "rebuilt: " + num_rebuilt;
+    }
+
+    /** B drops 1 multicast of each group sent by A: all of them are rebuilt without retransmission */
+    public void testFec() throws Exception {
+        JChannel a=null, b=null;
+        try {
+            a=create("A");
+            b=create("B");
+            a.connect("NAKACK2_FecTest");
+            b.connect("NAKACK2_FecTest");
+            Util.waitUntilAllChannelsHaveSameView(10000, 500, a, b);
+            DropMessages drop=new DropMessages();
+            b.getProtocolStack().insertProtocol(drop, ProtocolStack.Position.ABOVE, SHARED_LOOPBACK.class);
+            MyReceiver<Message> r=new MyReceiver<Message>().rawMsgs(true);
+            b.setReceiver(r);
+
+            final int NUM=640;
+            for(int i=1; i <= NUM; i++) {
+                byte[] buf=new byte[100 + i % 50];
+                Bits.writeInt(i, buf, 0);
+                a.send(new Message(null, buf));
+            }
+            Util.waitUntil(5000, 100, () -> r.size() == NUM);
+            int expected=1;
+            for(Message msg: r.list())
+                assert Bits.readInt(msg.getRawBuffer(), 0) == expected++;
+
+            NAKACK2 nak_a=a.getProtocolStack().findProtocol(NAKACK2.class), nak_b=b.getProtocolStack().findProtocol(NAKACK2.class);
+            String stats=String.format("A: parities sent=%d, B: parities received=%d, dropped=%d, rebuilt=%d, " +
+                                         "xmit reqs sent=%d", nak_a.getFecParitiesSent(), nak_b.getFecParitiesReceived(),
+                                       drop.dropped, nak_b.getFecRecovered(), nak_b.getXmitRequestsSent());
+            assert nak_a.getFecParitiesSent() == NUM / 64 : stats;
+            assert drop.dropped == NUM / 64 && nak_b.getFecRecovered() == drop.dropped : stats;
+            assert nak_b.getXmitRequestsSent() == 0 : stats;
+
+            // B reports a loss rate of 1/64 (~15 per mille) to A, which reduces the group size to 4
+            Util.waitUntil(5000, 100, () -> nak_a.getFecGroupSize() == 4);
+        }
+        finally {
+            Util.close(b, a);
+        }
+    }
+
+
+    protected static JChannel create(String name) throws Exception {
+        Protocol[] prots=Util.getTestStack();
+        for(Protocol prot: prots)
+            if(prot instanceof NAKACK2) {
+                ((NAKACK2)prot).useFec(true).setValue("xmit_interval", 1000L);
+                ((NAKACK2)prot).setResendLastSeqno(false);
+            }
+        return new JChannel(prots).name(name);
+    }
+
+    protected static Message[] create(long first, int num) {
+        Message[] msgs=new Message[num];
+        for(int i=0; i < num; i++) {
+            byte[] buf=new byte[10 + i * 7]; // different lengths
+            Arrays.fill(buf, (byte)i);
+            msgs[i]=new Message(null, buf).src(A).putHeader(ID, NakAckHeader2.createMessageHeader(first + i));
+            if(i % 3 == 0)
+                msgs[i].setFlag(Message.Flag.OOB);
+        }
+        return msgs;
+    }
+
+    protected static Message encode(int group_size, Message[] msgs) throws Exception {
+        Fec.Encoder encoder=new Fec.Encoder(ID, EXCLUDED).groupSize(group_size);
+        Message parity=null;
+        for(Message msg: msgs)
+            parity=encoder.add(seqno(msg), msg, A);
+        assert parity != null;
+        return parity;
+    }
+
+    protected static long seqno(Message msg) {
+        return ((NakAckHeader2)msg.getHeader(ID)).getSeqno();
+    }
+
+    protected static void assertSame(Message expected, Message actual) {
+        assert actual != null;
+        assert seqno(actual) == seqno(expected);
+        assert A.equals(actual.getSrc());
+        assert actual.getFlags() == expected.getFlags();
+        assert Arrays.equals(actual.getBuffer(), expected.getBuffer());
+    }
+
+    /** Drops the 10th multicast of each group of 64 messages sent by NAKACK2 */
+    protected static class DropMessages extends Protocol {
+        protected int dropped;
+
+        public Object up(Message msg) {
+            return drop(msg)? null : up_prot.up(msg);
+        }
+
+        public void up(MessageBatch batch) {
+            batch.remove(this::drop);
+            if(!batch.isEmpty())
+                up_prot.up(batch);
+        }
+
+        protected synchronized boolean drop(Message msg) {
+            NakAckHeader2 hdr=msg.getHeader(ID);
+            boolean drop=hdr != null && hdr.getType() == NakAckHeader2.MSG && hdr.getSeqno() % 64 == 10;
+            if(drop)
+                dropped++;
+            return drop;
+        }
+    }
+}
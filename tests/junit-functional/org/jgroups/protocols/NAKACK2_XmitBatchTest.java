@@ -0,0 +1,112 @@
+package org.jgroups.protocols;
+
+import org.jgroups.Global;
+import org.jgroups.JChannel;
+import org.jgroups.Message;
+import org.jgroups.conf.ClassConfigurator;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.NakAckHeader2;
+import org.jgroups.stack.Protocol;
+import org.jgroups.stack.ProtocolStack;
+import org.jgroups.util.Bits;
+import org.jgroups.util.MessageBatch;
+import org.jgroups.util.MyReceiver;
+import org.jgroups.util.Util;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests that a burst of multicasts lost by a member is retransmitted in a few XMIT_RSP_BATCH messages
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class NAKACK2_XmitBatchTest {
+    protected static final int NUM=2000, SIZE=1000;
+    protected JChannel            a, b;
+    protected MyReceiver<Message> r;
+    protected DropMessages        drop;
+
+    @BeforeMethod protected void setup() throws Exception {
+        a=create("A");
+        b=create("B");
+        a.connect("NAKACK2_XmitBatchTest");
+        b.connect("NAKACK2_XmitBatchTest");
+        Util.waitUntilAllChannelsHaveSameView(10000, 500, a, b);
+        drop=new DropMessages();
+        b.getProtocolStack().insertProtocol(drop, ProtocolStack.Position.ABOVE, SHARED_LOOPBACK.class);
+        b.setReceiver(r=new MyReceiver<Message>().rawMsgs(true));
+    }
+
+    @AfterMethod protected void destroy() {Util.close(b, a);}
+
+    public void testXmitBatches() throws Exception {
+        sendAndRecover();
+        NAKACK2 nak_a=a.getProtocolStack().findProtocol(NAKACK2.class), nak_b=b.getProtocolStack().findProtocol(NAKACK2.class);
+        assert nak_a.getXmitResponseBatchesSent() > 0 && nak_b.getXmitResponseBatchesReceived() > 0
+          : String.format("A: xmit_rsps_sent=%d (%d batches), B: xmit_rsps_received=%d (%d batches)",
+                          nak_a.getXmitResponsesSent(), nak_a.getXmitResponseBatchesSent(),
+                          nak_b.getXmitResponsesReceived(), nak_b.getXmitResponseBatchesReceived());
+        // ~60 messages of 1000 bytes fit into a batch
+        assert nak_a.getXmitResponseBatchesSent() * 10 < nak_a.getXmitResponsesSent();
+    }
+
+    public void testXmitWithoutBatching() throws Exception {
+        for(JChannel ch: new JChannel[]{a, b})
+            ((NAKACK2)ch.getProtocolStack().findProtocol(NAKACK2.class)).setXmitRspBatching(false);
+        sendAndRecover();
+        NAKACK2 nak_a=a.getProtocolStack().findProtocol(NAKACK2.class);
+        assert nak_a.getXmitResponseBatchesSent() == 0 && nak_a.getXmitResponsesSent() >= NUM
+          : String.format("A: xmit_rsps_sent=%d (%d batches)", nak_a.getXmitResponsesSent(),
+                          nak_a.getXmitResponseBatchesSent());
+    }
+
+    /** Sends NUM messages which are dropped by B, then 1 more which is received and triggers retransmission */
+    protected void sendAndRecover() throws Exception {
+        drop.num_to_drop.set(NUM);
+        for(int i=1; i <= NUM+1; i++)
+            a.send(createMessage(i));
+        Util.waitUntil(10000, 100, () -> r.size() == NUM+1);
+        int expected=1;
+        for(Object obj: r.list()) { // FIFO order
+            int num=Bits.readInt(((Message)obj).getRawBuffer(), 0);
+            assert num == expected : String.format("expected %d, but got %d", expected, num);
+            expected++;
+        }
+    }
+
+    protected static Message createMessage(int num) {
+        byte[] buf=new byte[SIZE];
+        Bits.writeInt(num, buf, 0);
+        return new Message(null, buf);
+    }
+
+    protected static JChannel create(String name) throws Exception {
+        return new JChannel(Util.getTestStack()).name(name);
+    }
+
+    /** Drops the next num_to_drop multicasts sent by NAKACK2 */
+    protected static class DropMessages extends Protocol {
+        protected static final short NAKACK2_ID=ClassConfigurator.getProtocolId(NAKACK2.class);
+        protected final AtomicInteger num_to_drop=new AtomicInteger();
+
+        public Object up(Message msg) {
+            return drop(msg)? null : up_prot.up(msg);
+        }
+
+        public void up(MessageBatch batch) {
+            if(num_to_drop.get() > 0)
+                batch.remove(this::drop);
+            if(!batch.isEmpty())
+                up_prot.up(batch);
+        }
+
+        protected boolean drop(Message msg) {
+            NakAckHeader2 hdr=msg.getHeader(NAKACK2_ID);
+            return hdr != null && hdr.getType() == NakAckHeader2.MSG && num_to_drop.getAndUpdate(n -> n > 0? n-1 : 0) > 0;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package org.jgroups.protocols;
 
+import org.jgroups.Address;
 import org.jgroups.Global;
 import org.jgroups.Message;
 import org.jgroups.stack.Protocol;
@@ -14,6 +15,8 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 
 /**
@@ -64,6 +67,138 @@ public class RATE_LIMITER_Test {
     }
 
 
+    /** Messages to a destination are limited by max_bytes_per_dest, messages to other destinations are not */
+    public void testPerDestinationLimit() throws Exception {
+        RATE_LIMITER limiter=create(10, 1_000_000, l -> l.setMaxBytesPerDest(10_000)); // 1MB/s per destination
+        Collector collector=new Collector();
+        limiter.setDownProtocol(collector);
+        Address a=Util.createRandomAddress("A"), b=Util.createRandomAddress("B");
+
+        long time=send(limiter, a, 500);
+        assert time >= 400 : String.format("sending 500KB at 1MB/s should have taken ~490 ms, but took %d ms", time);
+
+        time=send(limiter, b, 10); // fits into B's bucket
+        assert time < 400 : String.format("sending to B should not have been limited (took %d ms)", time);
+        assert collector.size() == 510;
+        assert limiter.printBuckets().contains("A");
+        limiter.stop();
+    }
+
+    public void testOOBExempt() throws Exception {
+        RATE_LIMITER limiter=create(10, 1000); // 100KB/s
+        Collector collector=new Collector();
+        limiter.setDownProtocol(collector);
+        long start=System.currentTimeMillis();
+        for(int i=0; i < 1000; i++)
+            limiter.down(new Message(null, buffer).setFlag(Message.Flag.OOB));
+        long time=System.currentTimeMillis() - start;
+        assert time < 1000 : String.format("OOB messages should not have been limited (took %d ms)", time);
+        assert collector.size() == 1000;
+        assert limiter.getNumExempt() == 1000 && limiter.getNumBlockings() == 0;
+        limiter.stop();
+    }
+
+    /** Messages with a limited flag are charged to the flag's bucket instead of the global one */
+    public void testFlagLimit() throws Exception {
+        RATE_LIMITER limiter=create(10, 1_000_000, l -> l.setFlagLimits("DONT_BUNDLE:10000")); // 1MB/s
+        Collector collector=new Collector();
+        limiter.setDownProtocol(collector);
+        long start=System.currentTimeMillis();
+        for(int i=0; i < 300; i++)
+            limiter.down(new Message(null, buffer).setFlag(Message.Flag.DONT_BUNDLE));
+        long time=System.currentTimeMillis() - start;
+        assert time >= 200 : String.format("sending 300KB at 1MB/s should have taken ~290 ms, but took %d ms", time);
+
+        time=send(limiter, null, 500); // 500KB at 100MB/s
+        assert time < 200 : String.format("sending regular messages should not have been limited (took %d ms)", time);
+        assert collector.size() == 800;
+        limiter.stop();
+    }
+
+    /** In non-blocking mode, the sender is not blocked, but the messages are still sent at the given rate (in order) */
+    public void testNonBlocking() throws Exception {
+        RATE_LIMITER limiter=create(10, 10_000, l -> l.setNonBlocking(true)); // 1MB/s
+        Collector collector=new Collector();
+        limiter.setDownProtocol(collector);
+        List<Message> sent=new ArrayList<>(500);
+        long start=System.currentTimeMillis();
+        for(int i=0; i < 500; i++) {
+            Message msg=new Message(null, buffer);
+            sent.add(msg);
+            limiter.down(msg);
+        }
+        long time=System.currentTimeMillis() - start;
+        assert limiter.getNumBlockings() == 0 : String.format("sending 500 messages took %d ms", time);
+        assert limiter.getNumQueued() > 0;
+
+        Util.waitUntil(5000, 50, () -> collector.size() == 500);
+        time=System.currentTimeMillis() - start;
+        List<Message> msgs=collector.list();
+        for(int i=0; i < msgs.size(); i++)
+            assert msgs.get(i) == sent.get(i) : "messages were not sent in order";
+        long expected=(500 * buffer.length - 10_000) / 1000; // ms at 1MB/s, minus the initial burst
+        assert time >= expected * 0.8 : String.format("expected %d ms, but took %d ms", expected, time);
+        assert limiter.getQueuedBytes() == 0;
+        limiter.stop();
+    }
+
+    /**
+     * In non-blocking mode, messages to the same destination which are charged to different buckets are sent in
+     * order: unlimited messages don't overtake queued flagged messages
+     */
+    public void testNonBlockingOrderAcrossBuckets() throws Exception {
+        RATE_LIMITER limiter=create(10, 1_000_000, l -> l.setFlagLimits("DONT_BUNDLE:10000").setNonBlocking(true));
+        Collector collector=new Collector();
+        limiter.setDownProtocol(collector);
+        Address a=Util.createRandomAddress("A"), b=Util.createRandomAddress("B");
+        List<Message> to_a=new ArrayList<>(), to_b=new ArrayList<>();
+        for(int i=0; i < 100; i++) {
+            Message msg=new Message(a, buffer);
+            if(i % 2 == 0)
+                msg.setFlag(Message.Flag.DONT_BUNDLE); // 1MB/s
+            to_a.add(msg);
+            limiter.down(msg);
+        }
+        for(int i=0; i < 10; i++) {
+            Message msg=new Message(b, buffer);
+            to_b.add(msg);
+            limiter.down(msg);
+        }
+        Util.waitUntil(5000, 50, () -> collector.size() == 110);
+        List<Message> msgs=collector.list();
+        assert msgs.stream().filter(m -> m.getDest() == a).collect(Collectors.toList()).equals(to_a)
+          : "messages to A were not sent in order";
+        assert msgs.stream().filter(m -> m.getDest() == b).collect(Collectors.toList()).equals(to_b)
+          : "messages to B were not sent in order";
+        assert msgs.indexOf(to_b.get(to_b.size()-1)) < msgs.indexOf(to_a.get(to_a.size()-1))
+          : "messages to B should not have waited for the (limited) messages to A";
+        limiter.stop();
+    }
+
+    /** Senders blocked on a full queue are unblocked by stop(), and the queued messages are dropped */
+    public void testNonBlockingStop() throws Exception {
+        RATE_LIMITER limiter=create(10, 1000, l -> l.setNonBlocking(true).setMaxQueueSize(10_000)); // 100KB/s
+        Collector collector=new Collector();
+        limiter.setDownProtocol(collector);
+        Thread t=new Thread(() -> send(limiter, null, 100));
+        t.start();
+        Util.waitUntil(5000, 10, () -> limiter.getNumBlockings() > 0);
+        limiter.stop();
+        t.join(5000);
+        assert !t.isAlive() : "sender should have been unblocked by stop()";
+        assert limiter.getNumDropped() > 0 && limiter.getQueuedBytes() == 0
+          : String.format("dropped: %d, queued: %d bytes", limiter.getNumDropped(), limiter.getQueuedBytes());
+        assert collector.size() < 100 : "all messages were sent: " + collector.size();
+    }
+
+
+    protected long send(RATE_LIMITER limiter, Address dest, int num) {
+        long start=System.currentTimeMillis();
+        for(int i=0; i < num; i++)
+            limiter.down(new Message(dest, buffer));
+        return System.currentTimeMillis() - start;
+    }
+
     protected void sendMessages(RATE_LIMITER limiter, long duration, int num_threads) {
         System.out.println("Measuring throughput for 10 seconds (" + num_threads + " threads):");
         long target_time=TimeUnit.NANOSECONDS.convert(duration, TimeUnit.MILLISECONDS) + System.nanoTime();
@@ -83,9 +218,15 @@ public class RATE_LIMITER_Test {
 
 
     protected RATE_LIMITER create(long time_period, long max_bytes) throws Exception {
+        return create(time_period, max_bytes, null);
+    }
+
+    protected RATE_LIMITER create(long time_period, long max_bytes, Consumer<RATE_LIMITER> config) throws Exception {
         RATE_LIMITER prot=new RATE_LIMITER();
         prot.setTimePeriod(time_period);
         prot.setMaxBytes(max_bytes);
+        if(config != null)
+            config.accept(prot);
         prot.init();
         prot.start();
         return prot;
@@ -113,6 +254,29 @@ public class RATE_LIMITER_Test {
     }
 
 
+    protected static class Collector extends Protocol {
+        protected final List<Message> msgs=new ArrayList<>();
+
+        public Object down(Message msg) {
+            synchronized(msgs) {
+                msgs.add(msg);
+            }
+            return null;
+        }
+
+        public int size() {
+            synchronized(msgs) {
+                return msgs.size();
+            }
+        }
+
+        public List<Message> list() {
+            synchronized(msgs) {
+                return new ArrayList<>(msgs);
+            }
+        }
+    }
+
     protected static class Throughput extends Protocol implements Runnable {
         protected final AtomicInteger    bytes_in_period=new AtomicInteger(0);
         protected final Collection<Long> measurements=new ConcurrentLinkedQueue<>(); // measurement taken every second
@@ -0,0 +1,116 @@
+package org.jgroups.protocols;
+
+import org.jgroups.Address;
+import org.jgroups.Global;
+import org.jgroups.JChannel;
+import org.jgroups.Message;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.util.Digest;
+import org.jgroups.util.Util;
+import org.testng.annotations.Test;
+
+import java.util.stream.Stream;
+
+/**
+ * Tests the merging of STABLE messages along a tree of members ({@link STABLE} with fan_in &gt; 0)
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class STABLE_TreeTest {
+    protected static final int NUM=10, FAN_IN=3, ROUNDS=3;
+
+    public void testStabilityWithTree() throws Exception {
+        JChannel[] channels=new JChannel[NUM];
+        try {
+            connect(channels);
+
+            for(int round=1; round <= ROUNDS; round++) {
+                long expected=round * 5;
+                send(channels, 5, expected);
+                for(JChannel ch: channels)
+                    stable(ch).gc();
+                Util.waitUntil(10000, 100, () -> Stream.of(channels).allMatch(ch -> stable(ch, expected)));
+            }
+
+            // A (root) has children B, C and D: it receives 3 merged digests per round
+            STABLE coord=stable(channels[0]);
+            String stats=String.format("coord: STABLE msgs received=%d, STABILITY msgs sent=%d",
+                                       coord.getStableReceived(), coord.getStabilitySent());
+            assert coord.getStableReceived() == ROUNDS * FAN_IN : stats;
+            assert coord.getTreeSent() == 0 && coord.getStabilitySent() == ROUNDS : stats;
+            for(int i=1; i < channels.length; i++) {
+                STABLE s=stable(channels[i]);
+                assert s.getTreeSent() == ROUNDS : String.format("%s: tree msgs sent=%d", channels[i].getAddress(), s.getTreeSent());
+                assert s.getStableReceived() <= ROUNDS * FAN_IN;
+            }
+        }
+        finally {
+            Util.close(channels);
+        }
+    }
+
+    /** B gossips twice before its children do: the newer digest replaces the older one when the subtree is merged */
+    public void testNewerDigestReplacesOlder() throws Exception {
+        JChannel[] channels=new JChannel[NUM];
+        try {
+            connect(channels);
+            send(channels, 5, 5);
+            stable(channels[1]).gc(); // B's subtree (E, F, G) is incomplete
+            send(channels, 5, 10);
+            for(JChannel ch: channels)
+                stable(ch).gc();
+            Util.waitUntil(10000, 100, () -> Stream.of(channels).allMatch(ch -> stable(ch, 10)));
+            STABLE coord=stable(channels[0]);
+            assert coord.getStabilitySent() == 1 : "coord: STABILITY msgs sent=" + coord.getStabilitySent();
+        }
+        finally {
+            Util.close(channels);
+        }
+    }
+
+
+    protected static void connect(JChannel[] channels) throws Exception {
+        for(int i=0; i < channels.length; i++) {
+            channels[i]=create(String.valueOf((char)('A' + i)));
+            channels[i].connect("STABLE_TreeTest");
+        }
+        Util.waitUntilAllChannelsHaveSameView(10000, 500, channels);
+    }
+
+    /** Sends num multicasts from each channel and waits until the messages up to expected have been delivered */
+    protected static void send(JChannel[] channels, int num, long expected) throws Exception {
+        for(JChannel ch: channels)
+            for(int i=0; i < num; i++)
+                ch.send(new Message(null, new byte[100]));
+        Util.waitUntil(10000, 100, () -> Stream.of(channels).allMatch(ch -> delivered(ch, expected)));
+    }
+
+    protected static JChannel create(String name) throws Exception {
+        JChannel ch=new JChannel(Util.getTestStack()).name(name);
+        // no stability rounds triggered by the stable task or by the number of bytes received
+        stable(ch).fanIn(FAN_IN).setValue("desired_avg_gossip", 0L).setValue("max_bytes", 10_000_000L);
+        return ch;
+    }
+
+    protected static STABLE stable(JChannel ch) {
+        return ch.getProtocolStack().findProtocol(STABLE.class);
+    }
+
+    protected static boolean delivered(JChannel ch, long seqno) {
+        Digest digest=((NAKACK2)ch.getProtocolStack().findProtocol(NAKACK2.class)).getDigest();
+        for(Digest.Entry entry: digest)
+            if(entry.getHighestDeliveredSeqno() < seqno)
+                return false;
+        return true;
+    }
+
+    protected static boolean stable(JChannel ch, long seqno) {
+        NAKACK2 nak=ch.getProtocolStack().findProtocol(NAKACK2.class);
+        for(Address mbr: ch.getView().getMembersRaw())
+            if(nak.getWindow(mbr).getLow() < seqno)
+                return false;
+        return true;
+    }
+}
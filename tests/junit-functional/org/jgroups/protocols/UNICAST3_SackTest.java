@@ -0,0 +1,152 @@
+package org.jgroups.protocols;
+
+import org.jgroups.Address;
+import org.jgroups.Global;
+import org.jgroups.JChannel;
+import org.jgroups.Message;
+import org.jgroups.conf.ClassConfigurator;
+import org.jgroups.stack.Protocol;
+import org.jgroups.stack.ProtocolStack;
+import org.jgroups.util.Bits;
+import org.jgroups.util.MessageBatch;
+import org.jgroups.util.MyReceiver;
+import org.jgroups.util.Util;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tests selective acks, fast retransmission and retransmission timeouts in {@link UNICAST3} (sack=true)
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class UNICAST3_SackTest {
+    protected static final long XMIT_INTERVAL=10_000; // receivers never ask for retransmission during a test
+    protected JChannel            a, b;
+    protected UNICAST3            ua, ub;
+    protected MyReceiver<Message> r;
+    protected DropMessages        drop;
+
+    @BeforeMethod protected void setup() throws Exception {
+        a=create("A");
+        b=create("B");
+        a.connect("UNICAST3_SackTest");
+        b.connect("UNICAST3_SackTest");
+        Util.waitUntilAllChannelsHaveSameView(10000, 500, a, b);
+        ua=a.getProtocolStack().findProtocol(UNICAST3.class);
+        ub=b.getProtocolStack().findProtocol(UNICAST3.class);
+        drop=new DropMessages();
+        b.getProtocolStack().insertProtocol(drop, ProtocolStack.Position.ABOVE, SHARED_LOOPBACK.class);
+        b.setReceiver(r=new MyReceiver<Message>().rawMsgs(true));
+    }
+
+    @AfterMethod protected void destroy() {Util.close(b, a);}
+
+    /** Messages lost in the middle of a stream are retransmitted after duplicate SACKs from B */
+    public void testFastRetransmit() throws Exception {
+        drop.drop(10, 20, 21, 50);
+        Address dest=b.getAddress();
+        for(int i=1; i <= 100; i++) {
+            a.send(createMessage(dest, i));
+            Util.sleep(1); // spaces the messages, so that B acks them separately
+        }
+        Util.waitUntil(5000, 100, () -> r.size() == 100);
+        checkOrder(100);
+        String stats=String.format("B: SACKs sent=%d, A: SACKs received=%d, fast xmits=%d, RTO xmits=%d, %s",
+                                   ub.getSacksSent(), ua.getSacksReceived(), ua.getFastXmits(), ua.getRtoXmits(), ua.printRtt());
+        assert drop.dropped() == 4 : stats;
+        assert ub.getSacksSent() > 0 && ua.getSacksReceived() > 0 : stats;
+        assert ua.getFastXmits() > 0 : stats;
+        assert ub.getXmitRequestsSent() == 0 : stats;
+    }
+
+    /** The last message is lost: no SACKs are sent by B, so A retransmits it when its RTO expires */
+    public void testRetransmissionTimeout() throws Exception {
+        Address dest=b.getAddress();
+        for(int i=1; i <= 20; i++)
+            a.send(createMessage(dest, i));
+        Util.waitUntil(5000, 100, () -> r.size() == 20);
+        Util.waitUntil(5000, 100, () -> ua.getRto(dest) < XMIT_INTERVAL); // RTT samples have been taken
+
+        drop.drop(21);
+        a.send(createMessage(dest, 21));
+        Util.waitUntil(5000, 100, () -> r.size() == 21);
+        checkOrder(21);
+        assert drop.dropped() == 1;
+        assert ua.getRtoXmits() > 0 : String.format("A: RTO xmits=%d, %s", ua.getRtoXmits(), ua.printRtt());
+    }
+
+    /** B delays its acks (until the next xmit_interval), but acks the messages used as RTT samples immediately */
+    public void testRttWithDelayedAcks() throws Exception {
+        ub.setAckThreshold(5).setXmitInterval(1000);
+        Address dest=b.getAddress();
+        for(int i=1; i <= 20; i++) {
+            a.send(createMessage(dest, i));
+            Util.sleep(10);
+        }
+        Util.waitUntil(5000, 100, () -> r.size() == 20);
+        Util.sleep(1500); // the delayed acks have been sent
+        assert ua.getRto(dest) < 500 : "A: " + ua.printRtt();
+    }
+
+    protected void checkOrder(int expected_size) {
+        int expected=1;
+        for(Message msg: r.list()) {
+            int num=Bits.readInt(msg.getRawBuffer(), msg.getOffset());
+            assert num == expected : String.format("expected %d, but got %d", expected, num);
+            expected++;
+        }
+        assert expected - 1 == expected_size;
+    }
+
+    protected static Message createMessage(Address dest, int num) {
+        byte[] buf=new byte[Global.INT_SIZE];
+        Bits.writeInt(num, buf, 0);
+        return new Message(dest, buf);
+    }
+
+    protected static JChannel create(String name) throws Exception {
+        JChannel ch=new JChannel(Util.getTestStack()).name(name);
+        UNICAST3 unicast=ch.getProtocolStack().findProtocol(UNICAST3.class);
+        unicast.sack(true).setAckThreshold(1).setXmitInterval(XMIT_INTERVAL);
+        return ch;
+    }
+
+    /** Drops the unicast messages (sent by the test) with the given numbers once */
+    protected static class DropMessages extends Protocol {
+        protected static final short UNICAST3_ID=ClassConfigurator.getProtocolId(UNICAST3.class);
+        protected final Set<Integer> nums=ConcurrentHashMap.newKeySet();
+        protected volatile int       dropped;
+
+        protected DropMessages drop(int ... list) {
+            for(int num: list)
+                nums.add(num);
+            return this;
+        }
+
+        protected int dropped() {return dropped;}
+
+        public Object up(Message msg) {
+            return drop(msg)? null : up_prot.up(msg);
+        }
+
+        public void up(MessageBatch batch) {
+            batch.remove(this::drop);
+            if(!batch.isEmpty())
+                up_prot.up(batch);
+        }
+
+        protected boolean drop(Message msg) {
+            UnicastHeader3 hdr=msg.getHeader(UNICAST3_ID);
+            boolean drop=hdr != null && hdr.type() == UnicastHeader3.DATA && msg.getLength() == Global.INT_SIZE
+              && nums.remove(Bits.readInt(msg.getRawBuffer(), msg.getOffset()));
+            if(drop)
+                dropped++;
+            return drop;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package org.jgroups.tests;
+
+import org.jgroups.Global;
+import org.jgroups.JChannel;
+import org.jgroups.protocols.AdaptiveBundler;
+import org.jgroups.util.MyReceiver;
+import org.jgroups.util.Util;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests {@link AdaptiveBundler}
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class AdaptiveBundlerTest {
+    protected static final int NUM=5000;
+    protected JChannel            a, b;
+    protected MyReceiver<Integer> rb;
+    protected AdaptiveBundler     bundler;
+
+    @BeforeMethod protected void setup() throws Exception {
+        a=create("A");
+        b=create("B");
+        b.setReceiver(rb=new MyReceiver<Integer>().name("B"));
+        a.connect("AdaptiveBundlerTest");
+        b.connect("AdaptiveBundlerTest");
+        Util.waitUntilAllChannelsHaveSameView(10000, 100, a, b);
+        bundler=(AdaptiveBundler)a.getProtocolStack().getTransport().getBundler();
+    }
+
+    @AfterMethod protected void destroy() {Util.close(b, a);}
+
+    public void testDirectSendsAtLowRate() throws Exception {
+        assert bundler.direct();
+        bundler.resetStats();
+        for(int i=1; i <= 10; i++)
+            a.send(b.getAddress(), i);
+        checkReceived(10);
+        assert bundler.numDirectSends() > 0 : bundler.getStats();
+    }
+
+    public void testSwitchToBundlingAndBack() throws Exception {
+        bundler.lowRate(0).highRate(1);
+        for(int i=1; i <= NUM; i++) {
+            a.send(b.getAddress(), i);
+            if(i == NUM/2) // make sure the timer had time to switch to bundling
+                Util.sleep(500);
+        }
+        checkReceived(NUM);
+        Map<String,Object> stats=bundler.getStats();
+        assert !bundler.direct() && bundler.numSwitchesToBundling() > 0 && bundler.numBundledMsgs() > 0 : stats;
+
+        bundler.lowRate(Integer.MAX_VALUE).highRate(Integer.MAX_VALUE);
+        for(int i=0; i < 20 && !bundler.direct(); i++)
+            Util.sleep(100);
+        stats=bundler.getStats();
+        assert bundler.direct() && bundler.numSwitchesToDirect() > 0 : stats;
+    }
+
+    protected void checkReceived(int expected) {
+        for(int i=0; i < 100 && rb.size() != expected; i++)
+            Util.sleep(100);
+        List<Integer> list=rb.list();
+        assert list.size() == expected : String.format("expected %d msgs but got %d", expected, list.size());
+        for(int i=0; i < list.size(); i++)
+            assert list.get(i) == i+1 : String.format("expected %d but got %d", i+1, list.get(i));
+    }
+
+    protected static JChannel create(String name) throws Exception {
+        JChannel ch=new JChannel(Util.getTestStack()).name(name);
+        ch.getProtocolStack().getTransport().setValue("bundler_type", "adaptive");
+        return ch;
+    }
+}
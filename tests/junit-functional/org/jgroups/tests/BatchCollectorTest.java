@@ -0,0 +1,104 @@
+package org.jgroups.tests;
+
+import org.jgroups.Address;
+import org.jgroups.Global;
+import org.jgroups.Message;
+import org.jgroups.util.AsciiString;
+import org.jgroups.util.BatchCollector;
+import org.jgroups.util.MessageBatch;
+import org.jgroups.util.Util;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests {@link BatchCollector}
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class BatchCollectorTest {
+    protected final Address           a=Util.createRandomAddress("A"), b=Util.createRandomAddress("B"),
+                                      c=Util.createRandomAddress("C");
+    protected static final AsciiString CLUSTER=new AsciiString("cluster");
+
+
+    public void testSingleMessagesFromSameSender() {
+        BatchCollector coll=new BatchCollector();
+        List<MessageBatch> batches=new ArrayList<>();
+        for(int i=1; i <= 5; i++)
+            coll.add(new Message(null, i).src(b), true, CLUSTER, (batch, oob, internal) -> batches.add(batch));
+        assert batches.isEmpty();
+        assert coll.size() == 5;
+        coll.forEach((batch, oob, internal) -> {
+            assert !oob && !internal;
+            batches.add(batch);
+        });
+        assert batches.size() == 1;
+        MessageBatch batch=batches.get(0);
+        assert batch.size() == 5 && batch.sender().equals(b) && batch.multicast() && batch.clusterName().equals(CLUSTER);
+        int expected=1;
+        for(Message msg: batch)
+            assert (Integer)msg.getObject() == expected++; // order must be preserved
+    }
+
+    public void testSendersAndModes() {
+        BatchCollector coll=new BatchCollector();
+        coll.add(new Message(null, 1).src(b), true, CLUSTER, null)
+          .add(new Message(a, 2).src(b), false, CLUSTER, null)
+          .add(new Message(null, 3).src(c).setFlag(Message.Flag.OOB), true, CLUSTER, null)
+          .add(new Message(null, 4).src(c).setFlag(Message.Flag.OOB, Message.Flag.INTERNAL), true, CLUSTER, null)
+          .add(new Message(null, 5).src(c).setFlag(Message.Flag.INTERNAL), true, CLUSTER, null)
+          .add(new Message(null, 6).src(c), true, CLUSTER, null);
+        assert coll.size() == 6;
+        List<MessageBatch> batches=new ArrayList<>();
+        coll.forEach((batch, oob, internal) -> {
+            assert batch.size() == 1;
+            Message msg=batch.first();
+            assert msg.isFlagSet(Message.Flag.OOB) == oob && msg.isFlagSet(Message.Flag.INTERNAL) == internal;
+            assert batch.multicast() == (msg.getDest() == null);
+            batches.add(batch);
+        });
+        assert batches.size() == 6;
+        coll.clear();
+        assert coll.isEmpty();
+        coll.forEach((batch, oob, internal) -> {assert false : "collector should be empty";});
+    }
+
+    public void testAddBatches() {
+        BatchCollector coll=new BatchCollector();
+        coll.add(new Message(null, 1).src(b), true, CLUSTER, null);
+        MessageBatch[] batches=new MessageBatch[4];
+        batches[0]=new MessageBatch(null, b, CLUSTER, true, MessageBatch.Mode.REG, 2)
+          .add(new Message(null, 2).src(b)).add(new Message(null, 3).src(b));
+        batches[1]=new MessageBatch(null, b, CLUSTER, true, MessageBatch.Mode.OOB, 1)
+          .add(new Message(null, 4).src(b).setFlag(Message.Flag.OOB));
+        coll.add(batches, (batch, oob, internal) -> {assert false : "no batch should be displaced";});
+        assert coll.size() == 4;
+
+        List<MessageBatch> list=new ArrayList<>();
+        coll.forEach((batch, oob, internal) -> list.add(batch));
+        assert list.size() == 2;
+        MessageBatch oob_batch=list.get(0), reg=list.get(1); // OOB batches are passed first
+        assert oob_batch.size() == 1 && oob_batch.mode() == MessageBatch.Mode.OOB;
+        assert reg.size() == 3;
+        int expected=1;
+        for(Message msg: reg)
+            assert (Integer)msg.getObject() == expected++;
+    }
+
+    public void testDifferentClusterName() {
+        BatchCollector coll=new BatchCollector();
+        List<MessageBatch> displaced=new ArrayList<>();
+        BatchCollector.BatchConsumer consumer=(batch, oob, internal) -> displaced.add(batch);
+        coll.add(new Message(null, 1).src(b), true, CLUSTER, consumer)
+          .add(new Message(null, 2).src(b), true, new AsciiString("other"), consumer);
+        assert displaced.size() == 1 && (Integer)displaced.get(0).first().getObject() == 1;
+        assert coll.size() == 1;
+        coll.forEach((batch, oob, internal) -> {
+            assert batch.clusterName().equals(new AsciiString("other"));
+            assert (Integer)batch.first().getObject() == 2;
+        });
+    }
+}
@@ -0,0 +1,65 @@
+package org.jgroups.tests;
+
+import org.jgroups.Global;
+import org.jgroups.util.ByteBufferPool;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Tests {@link ByteBufferPool}
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+@Test(groups=Global.FUNCTIONAL)
+public class ByteBufferPoolTest {
+
+    public void testAcquireAndRelease() {
+        ByteBufferPool pool=new ByteBufferPool(2, 1024);
+        ByteBuffer a=pool.acquire(), b=pool.acquire();
+        assert a.isDirect() && a.capacity() == 1024 && a != b;
+        assert pool.misses() == 2 && pool.hits() == 0 && pool.available() == 0;
+        pool.release(a).release(b);
+        assert pool.available() == 2;
+        ByteBuffer c=pool.acquire();
+        assert c == a || c == b;
+        assert pool.hits() == 1 && pool.available() == 1;
+    }
+
+    public void testAcquiredBufferIsCleared() {
+        ByteBufferPool pool=new ByteBufferPool(1, 16);
+        ByteBuffer buf=pool.acquire();
+        buf.putInt(322649).flip();
+        pool.release(buf);
+        buf=pool.acquire();
+        assert buf.position() == 0 && buf.limit() == buf.capacity();
+    }
+
+    public void testReleaseToFullPool() {
+        ByteBufferPool pool=new ByteBufferPool(1, 16);
+        ByteBuffer a=pool.acquire(), b=pool.acquire();
+        pool.release(a).release(b);
+        assert pool.available() == 1 && pool.drops() == 1;
+    }
+
+    public void testReleaseOfForeignBuffers() {
+        ByteBufferPool pool=new ByteBufferPool(4, 16);
+        pool.release(ByteBuffer.allocate(16)).release(ByteBuffer.allocateDirect(32)).release(null);
+        assert pool.available() == 0 && pool.drops() == 0;
+    }
+
+    public void testHeapBuffers() {
+        ByteBufferPool pool=new ByteBufferPool(4, 16, false);
+        ByteBuffer buf=pool.acquire();
+        assert !buf.isDirect();
+        pool.release(buf);
+        assert pool.available() == 1;
+        pool.resetStats();
+        assert pool.misses() == 0;
+    }
+
+    @Test(expectedExceptions=IllegalArgumentException.class)
+    public void testInvalidCapacity() {
+        new ByteBufferPool(0, 16);
+    }
+}
@@ -0,0 +1,122 @@
+package org.jgroups.tests;
+
+import org.jgroups.Global;
+import org.jgroups.JChannel;
+import org.jgroups.Message;
+import org.jgroups.ReceiverAdapter;
+import org.jgroups.protocols.TP;
+import org.jgroups.util.CoalescingPolicy;
+import org.jgroups.util.Util;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tests {@link CoalescingPolicy}
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class CoalescingPolicyTest {
+    protected static final int NUM=5000;
+    protected JChannel         a, b;
+    protected MyReceiver       ra, rb;
+
+    @BeforeMethod protected void setup() throws Exception {
+        a=create("A");
+        b=create("B");
+        a.setReceiver(ra=new MyReceiver());
+        b.setReceiver(rb=new MyReceiver());
+        a.connect("CoalescingPolicyTest");
+        b.connect("CoalescingPolicyTest");
+        Util.waitUntilAllChannelsHaveSameView(10000, 100, a, b);
+    }
+
+    @AfterMethod protected void destroy() {Util.close(b, a);}
+
+    /** At low load, no delivery is delayed */
+    public void testNoDelayAtLowLoad() throws Exception {
+        for(int i=1; i <= 20; i++) {
+            a.send(null, i);
+            a.send(b.getAddress(), i);
+            Util.sleep(5);
+        }
+        check(20);
+        CoalescingPolicy policy=policy(b);
+        assert policy.numDelayed() == 0 : String.format("%d deliveries were delayed", policy.numDelayed());
+    }
+
+    /** Sends a message every 10 us: messages received while no delivery is in progress are coalesced by delaying it */
+    public void testCoalescing() throws Exception {
+        for(int i=1; i <= NUM; i++) {
+            long next=System.nanoTime() + 10_000;
+            a.send(null, i);
+            a.send(b.getAddress(), i);
+            while(System.nanoTime() < next)
+                ;
+        }
+        check(NUM);
+        CoalescingPolicy policy=policy(b);
+        // messages are delivered in batches, either by delaying delivery or when queued while a delivery is in progress
+        double avg_batch_size=b.getProtocolStack().getTransport().avgBatchSize().average();
+        assert avg_batch_size > 1
+          : String.format("B: avg batch size: %.2f, delayed deliveries: %d, coalesced messages: %d, avg delay: %.2f us\n%s",
+                          avg_batch_size, policy.numDelayed(), policy.numCoalesced(), policy.avgDelay(), policy.dump());
+    }
+
+    protected void check(int num) {
+        // A receives num multicasts from itself; B receives num multicasts and num unicasts from A
+        for(int i=0; i < 100 && (ra.size() != num || rb.size() != num*2); i++)
+            Util.sleep(100);
+        assert ra.size() == num && rb.size() == num*2 : String.format("A: %d, B: %d", ra.size(), rb.size());
+        for(MyReceiver r: new MyReceiver[]{ra, rb})
+            r.checkOrder();
+    }
+
+    protected static CoalescingPolicy policy(JChannel ch) {
+        return (CoalescingPolicy)ch.getProtocolStack().getTransport().getMessageProcessingPolicy();
+    }
+
+    protected static JChannel create(String name) throws Exception {
+        JChannel ch=new JChannel(Util.getTestStack()).name(name);
+        TP tp=ch.getProtocolStack().getTransport();
+        tp.setValue("bundler_type", "no-bundler"); // messages are received as single messages, not as batches
+        tp.setMessageProcessingPolicy("coalesce");
+        return ch;
+    }
+
+    /** Records the messages per sender and destination (multicast or unicast) */
+    protected static class MyReceiver extends ReceiverAdapter {
+        protected final Map<String,List<Integer>> msgs=new ConcurrentHashMap<>();
+
+        public void receive(Message msg) {
+            String key=msg.src() + (msg.dest() == null? "-mcast" : "-ucast");
+            List<Integer> list=msgs.computeIfAbsent(key, k -> new ArrayList<>());
+            synchronized(list) {
+                list.add(msg.getObject());
+            }
+        }
+
+        protected int size() {
+            int size=0;
+            for(List<Integer> list: msgs.values())
+                synchronized(list) {
+                    size+=list.size();
+                }
+            return size;
+        }
+
+        protected void checkOrder() {
+            for(Map.Entry<String,List<Integer>> e: msgs.entrySet()) {
+                List<Integer> list=e.getValue();
+                for(int i=0; i < list.size(); i++)
+                    assert list.get(i) == i+1 : String.format("%s: expected %d but got %d", e.getKey(), i+1, list.get(i));
+            }
+        }
+    }
+}
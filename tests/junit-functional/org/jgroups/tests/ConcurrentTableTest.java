@@ -0,0 +1,218 @@
+package org.jgroups.tests;
+
+import org.jgroups.Global;
+import org.jgroups.JChannel;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.util.*;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests {@link ConcurrentTable}
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+@Test(groups=Global.FUNCTIONAL)
+public class ConcurrentTableTest {
+
+    public void testAddAndRemove() {
+        Table<Integer> table=new ConcurrentTable<>(3, 8, 0);
+        for(int i=1; i <= 10; i++)
+            assert table.add(i, i);
+        assert !table.add(5, 5);
+        assert table.size() == 10;
+        assert table.getHighestReceived() == 10;
+        List<Integer> list=table.removeMany(true, 4);
+        assert list.size() == 4 && list.get(0) == 1 && list.get(3) == 4;
+        assertIndices(table, 4, 4, 10);
+        assert !table.add(3, 3) : "seqnos <= hd must not be added";
+        list=table.removeMany(false, 0);
+        assert list.size() == 6;
+        assertIndices(table, 4, 10, 10);
+        assert table.isEmpty();
+    }
+
+    public void testAddList() {
+        Table<Integer> table=new ConcurrentTable<>(3, 8, 0);
+        List<LongTuple<Integer>> list=new ArrayList<>();
+        for(int i: new int[]{1, 2, 3, 5})
+            list.add(new LongTuple<>(i, i));
+        assert table.add(list);
+        list.clear();
+        for(int i: new int[]{2, 4, 5})
+            list.add(new LongTuple<>(i, i));
+        assert table.add(list, true);
+        assert list.size() == 1 && list.get(0).getVal1() == 4 : list;
+        assert table.size() == 5;
+    }
+
+    public void testGetMissing() {
+        Table<Integer> table=new ConcurrentTable<>(3, 8, 0);
+        for(int i: new int[]{1, 2, 4, 7, 30})
+            table.add(i, i);
+        assert table.getNumMissing() == 25;
+        SeqnoList missing=table.getMissing();
+        assert missing.size() == 25 : missing;
+        List<Long> seqnos=new ArrayList<>();
+        missing.forEach(seqnos::add);
+        for(long seqno: new long[]{3, 5, 6, 8, 29})
+            assert seqnos.contains(seqno);
+        assert !seqnos.contains(4L) && !seqnos.contains(7L);
+        missing=table.getMissing(3); // range [3 .. 5]
+        assert missing.size() == 2 && missing.getLast() == 5 : missing;
+    }
+
+    public void testPurgeAndResize() {
+        Table<Integer> table=new ConcurrentTable<>(2, 8, 0);
+        for(int i=1; i <= 100; i++) // 13 rows, ring has to be grown
+            table.add(i, i);
+        assert table.getNumRows() >= 13 : table.getNumRows();
+        for(int i=1; i <= 100; i++)
+            assert table.get(i) == i;
+        table.removeMany(false, 50);
+        table.purge(60);
+        assertIndices(table, 50, 50, 100);
+        assert table.get(50) == null && table._get(10) == null;
+        assert table.get(51) == 51;
+        table.purge(100, true);
+        assertIndices(table, 100, 100, 100);
+        assert table.isEmpty();
+        table.compact();
+        assert table.getNumRows() == 2 : table.getNumRows();
+        table.add(101, 101);
+        assert table.removeMany(true, 0).get(0) == 101;
+    }
+
+    public void testDigest() {
+        Table<Integer> table=new ConcurrentTable<>(3, 8, 10);
+        assertIndices(table, 10, 10, 10);
+        table.add(11, 11);
+        table.add(15, 15);
+        table.removeMany(true, 0);
+        long[] digest=table.getDigest();
+        assert digest[0] == 11 && digest[1] == 15;
+        assert table.getHighestDeliverable() == 11;
+        table.setHighestDelivered(15);
+        assert table.getHighestDelivered() == 15;
+    }
+
+    public void testDump() {
+        Table<Integer> table=new ConcurrentTable<>(3, 8, 10);
+        for(int i: new int[]{11, 12, 14, 20})
+            table.add(i, i);
+        assert table.dump().equals("11, 12, 14, 20") : table.dump();
+        table.removeMany(true, 0);
+        assert table.dump().equals("14, 20") : table.dump();
+    }
+
+    /** Many threads add the same seqnos concurrently while a single thread removes them (as in NAKACK2) */
+    public void testConcurrentAddAndRemove() throws Exception {
+        final int NUM=100_000;
+        final Table<Integer> table=new ConcurrentTable<>(2, 64, 0);
+        addAndRemove(table, 1, NUM, 8);
+        assert table.isEmpty() && table.getHighestDelivered() == NUM;
+    }
+
+    /**
+     * Duplicates which are added while their originals are removed must not change the size: a size which is too
+     * small would hide missing messages, so no retransmissions would be requested
+     */
+    public void testSizeAfterConcurrentAddAndRemove() throws Exception {
+        final int NUM=10_000;
+        final Table<Integer> table=new ConcurrentTable<>(2, 8, 0); // small rows: many rows are created and removed
+        for(int i=0; i < 10; i++) {
+            int from=i * (NUM+2) + 1, to=from + NUM-1; // 2 more seqnos per round: to+1 and to+2
+            addAndRemove(table, from, to, 4);
+            assert table.size() == 0 && table.getNumMissing() == 0 && table.getMissing() == null : table;
+            assert table.add(to+2, to+2); // to+1 is missing
+            assert table.size() == 1 : String.format("size=%d, table: %s", table.size(), table);
+            SeqnoList missing=table.getMissing();
+            assert missing != null && missing.size() == 1 && missing.getLast() == to+1 : missing;
+            assert table.add(to+1, to+1);
+            assert table.removeMany(true, 0).size() == 2;
+        }
+    }
+
+    /** Adds [from .. to] from num_adders threads concurrently; one of them at a time removes the added elements */
+    protected static void addAndRemove(Table<Integer> table, int from, int to, int num_adders) throws Exception {
+        final AtomicInteger added=new AtomicInteger(), removed=new AtomicInteger(), last=new AtomicInteger(from-1);
+        final CountDownLatch latch=new CountDownLatch(1);
+        Thread[] adders=new Thread[num_adders];
+        for(int i=0; i < adders.length; i++) {
+            adders[i]=new Thread(() -> {
+                try {
+                    latch.await();
+                }
+                catch(InterruptedException e) {
+                    return;
+                }
+                for(int seqno=from; seqno <= to; seqno++) {
+                    if(table.add(seqno, seqno))
+                        added.incrementAndGet();
+                    if(table.getAdders().getAndIncrement() != 0)
+                        continue;
+                    do {
+                        List<Integer> list=table.removeMany(true, 0);
+                        if(list != null) {
+                            for(int num: list)
+                                assert num == last.incrementAndGet() : String.format("expected %d, got %d", last.get(), num);
+                            removed.addAndGet(list.size());
+                        }
+                    }
+                    while(table.getAdders().decrementAndGet() != 0);
+                }
+            });
+            adders[i].start();
+        }
+        latch.countDown();
+        for(Thread t: adders)
+            t.join(30000);
+        int num=to - from + 1;
+        assert added.get() == num : "every seqno must be added exactly once, but added=" + added.get();
+        assert removed.get() == num && last.get() == to
+          : String.format("removed=%d last=%d, table: %s", removed.get(), last.get(), table);
+    }
+
+    public void testNakack2() throws Exception {
+        JChannel a=null, b=null;
+        try {
+            a=create("A");
+            b=create("B");
+            MyReceiver<Integer> r=new MyReceiver<>();
+            b.setReceiver(r);
+            a.connect("ConcurrentTableTest");
+            b.connect("ConcurrentTableTest");
+            Util.waitUntilAllChannelsHaveSameView(10000, 100, a, b);
+            for(int i=1; i <= 1000; i++)
+                a.send(null, i);
+            for(int i=0; i < 100 && r.size() < 1000; i++)
+                Util.sleep(100);
+            List<Integer> list=r.list();
+            assert list.size() == 1000;
+            for(int i=0; i < list.size(); i++)
+                assert list.get(i) == i+1;
+            NAKACK2 nak=b.getProtocolStack().findProtocol(NAKACK2.class);
+            Table<?> win=nak.getWindow(a.getAddress());
+            assert win instanceof ConcurrentTable : win.getClass();
+        }
+        finally {
+            Util.close(b, a);
+        }
+    }
+
+    protected static JChannel create(String name) throws Exception {
+        JChannel ch=new JChannel(Util.getTestStack()).name(name);
+        ch.getProtocolStack().findProtocol(NAKACK2.class).setValue("xmit_table_concurrent", true);
+        return ch;
+    }
+
+    protected static void assertIndices(Table<Integer> table, long low, long hd, long hr) {
+        assert table.getLow() == low : "expected low=" + low + " but was " + table.getLow();
+        assert table.getHighestDelivered() == hd : "expected hd=" + hd + " but was " + table.getHighestDelivered();
+        assert table.getHighestReceived() == hr : "expected hr=" + hr + " but was " + table.getHighestReceived();
+    }
+}
@@ -0,0 +1,99 @@
+package org.jgroups.tests;
+
+import org.jgroups.Global;
+import org.jgroups.JChannel;
+import org.jgroups.Message;
+import org.jgroups.protocols.*;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.util.MyReceiver;
+import org.jgroups.util.Util;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+/**
+ * Tests {@link BasicTCP} with multiple connections to each member (conns_per_peer > 1)
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true,dataProvider="createTransport")
+public class ConnsPerPeerTest {
+    protected static final int    NUM=500;
+    protected static final byte[] LARGE=new byte[20_000]; // > lane_msg_size: sent as OOB message over lane 1 (flag)
+
+    @DataProvider
+    static Object[][] createTransport() {
+        return new Object[][] {
+          {TCP.class, "flag"},
+          {TCP.class, "thread"},
+          {TCP.class, "round_robin"},
+          {TCP_NIO2.class, "flag"},
+          {TCP_NIO2.class, "thread"},
+          {TCP_NIO2.class, "round_robin"}
+        };
+    }
+
+    public void testUnicastsAndMulticasts(Class<? extends BasicTCP> cl, String policy) throws Exception {
+        JChannel a=null, b=null;
+        try {
+            a=create(cl, policy, "A");
+            b=create(cl, policy, "B");
+            MyReceiver<Object> r=new MyReceiver<>();
+            b.setReceiver(r);
+            a.connect("ConnsPerPeerTest");
+            b.connect("ConnsPerPeerTest");
+            Util.waitUntilAllChannelsHaveSameView(10000, 500, a, b);
+
+            for(int i=1; i <= NUM; i++) {
+                a.send(null, i);
+                Message msg=new Message(b.getAddress(), i);
+                if(i % 2 == 0)
+                    msg.setFlag(Message.Flag.OOB);
+                a.send(msg);
+            }
+            for(int i=0; i < 60 && r.size() < NUM*2; i++)
+                Util.sleep(500);
+
+            // sent one by one, so that the bundler doesn't add them to a message list (which would use a regular lane)
+            for(int i=0; i < NUM/100; i++) {
+                a.send(new Message(b.getAddress(), LARGE).setFlag(Message.Flag.OOB));
+                Util.sleep(50);
+            }
+            int expected=NUM*2 + NUM/100;
+            for(int i=0; i < 60 && r.size() < expected; i++)
+                Util.sleep(500);
+            List<Object> list=r.list();
+            assert list.size() == expected : String.format("expected %d messages, but got %d", expected, list.size());
+
+            BasicTCP transport=(BasicTCP)a.getProtocolStack().getTransport();
+            String conns=transport.printConnections();
+            switch(policy) {
+                case "flag":        // the large OOB messages use lane 1, regular messages lane 2
+                case "round_robin": // every message uses the next lane
+                    assert conns.contains("(lane 1)") && conns.contains("(lane 2)")
+                      : String.format("%s: lanes 1 and 2 should have been created: %s", cl.getSimpleName(), conns);
+                    break;
+                // with thread, all messages may be sent by the same (bundler) thread
+            }
+        }
+        finally {
+            Util.close(b, a);
+        }
+    }
+
+    protected static JChannel create(Class<? extends BasicTCP> cl, String policy, String name) throws Exception {
+        BasicTCP transport=cl.getDeclaredConstructor().newInstance();
+        transport.setBindAddress(Util.getLoopback());
+        transport.setConnsPerPeer(3).setLanePolicy(policy);
+        return new JChannel(transport,
+                            new MPING(),
+                            new NAKACK2().setValue("use_mcast_xmit", false),
+                            new UNICAST3(),
+                            new STABLE(),
+                            new GMS().joinTimeout(1000),
+                            new FRAG2()).name(name);
+    }
+}
@@ -0,0 +1,91 @@
+package org.jgroups.tests;
+
+import org.jgroups.Global;
+import org.jgroups.JChannel;
+import org.jgroups.protocols.*;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.stack.GossipRouter;
+import org.jgroups.util.MyReceiver;
+import org.jgroups.util.ResourceManager;
+import org.jgroups.util.Util;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.net.InetAddress;
+
+/**
+ * Tests {@link GossipRouter} with per-client queues (max_queued_bytes > 0)
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true,dataProvider="createPolicy")
+public class GossipRouterQueueTest {
+    protected static final int NUM=1000;
+
+    @DataProvider
+    static Object[][] createPolicy() {
+        return new Object[][] {
+          {false, "drop"},
+          {false, "block"},
+          {true,  "drop"},
+          {true,  "block"}
+        };
+    }
+
+    public void testUnicastsAndMulticasts(boolean nio, String policy) throws Exception {
+        InetAddress bind_addr=Util.getLoopback();
+        int port=ResourceManager.getNextTcpPort(bind_addr);
+        GossipRouter router=new GossipRouter(bind_addr, port).useNio(nio)
+          .maxQueuedBytes(64 * 1024).queueFullPolicy(policy).maxBatchSize(16);
+        JChannel a=null, b=null, c=null;
+        try {
+            router.start();
+            String hosts=bind_addr.getHostAddress() + "[" + port + "]";
+            a=create("A", bind_addr, hosts);
+            b=create("B", bind_addr, hosts);
+            c=create("C", bind_addr, hosts);
+            MyReceiver<Integer> rb=new MyReceiver<>(), rc=new MyReceiver<>();
+            b.setReceiver(rb);
+            c.setReceiver(rc);
+            a.connect("GossipRouterQueueTest");
+            b.connect("GossipRouterQueueTest");
+            c.connect("GossipRouterQueueTest");
+            Util.waitUntilAllChannelsHaveSameView(10000, 500, a, b, c);
+
+            for(int i=1; i <= NUM; i++) {
+                a.send(null, i);
+                a.send(b.getAddress(), i);
+            }
+            for(int i=0; i < 60 && (rb.size() < NUM*2 || rc.size() < NUM); i++)
+                Util.sleep(500);
+            assert rb.size() == NUM*2 : String.format("B: expected %d messages, but got %d", NUM*2, rb.size());
+            assert rc.size() == NUM : String.format("C: expected %d messages, but got %d", NUM, rc.size());
+            for(int i=0; i < NUM; i++)
+                assert rc.list().get(i) == i+1 : "messages must be delivered in order";
+
+            String queues=router.printQueues();
+            assert queues.contains("batches") : "queues should have been created: " + queues;
+            if(policy.equals("block"))
+                assert router.numDroppedMessages() == 0
+                  : String.format("nio=%b: %d messages dropped:\n%s", nio, router.numDroppedMessages(), queues);
+        }
+        finally {
+            Util.close(c, b, a);
+            router.stop();
+        }
+    }
+
+    protected static JChannel create(String name, InetAddress bind_addr, String hosts) throws Exception {
+        TUNNEL tunnel=new TUNNEL().setBindAddress(bind_addr);
+        tunnel.setGossipRouterHosts(hosts);
+        return new JChannel(tunnel,
+                            new PING(),
+                            new NAKACK2().setValue("use_mcast_xmit", false),
+                            new UNICAST3(),
+                            new STABLE(),
+                            new GMS().joinTimeout(1000),
+                            new FRAG2()).name(name);
+    }
+}
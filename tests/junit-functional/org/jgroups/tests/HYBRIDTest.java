@@ -0,0 +1,76 @@
+package org.jgroups.tests;
+
+import org.jgroups.Global;
+import org.jgroups.JChannel;
+import org.jgroups.Message;
+import org.jgroups.protocols.*;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.util.MyReceiver;
+import org.jgroups.util.Util;
+import org.testng.annotations.Test;
+
+/**
+ * Tests {@link HYBRID}
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class HYBRIDTest {
+    protected static final int NUM=100, THRESHOLD=10_000;
+
+    public void testRouting() throws Exception {
+        JChannel a=null, b=null;
+        try {
+            a=create("A");
+            b=create("B");
+            MyReceiver<byte[]> rb=new MyReceiver<>();
+            b.setReceiver(rb);
+            a.connect("HYBRIDTest");
+            b.connect("HYBRIDTest");
+            Util.waitUntilAllChannelsHaveSameView(10000, 500, a, b);
+            HYBRID ha=(HYBRID)a.getProtocolStack().getTransport();
+            ha.resetStats();
+
+            // small unicasts: UDP. Messages are bundled, so all of them together must be smaller than the threshold
+            for(int i=0; i < NUM/2; i++)
+                a.send(new Message(b.getAddress(), new byte[100]));
+            waitFor(rb, NUM/2);
+            assert ha.getNumTcpSent() == 0 : "small unicasts must not be sent via TCP: " + ha.getNumTcpSent();
+
+            for(int i=0; i < NUM; i++) { // large unicasts: TCP, large multicasts: UDP
+                a.send(new Message(b.getAddress(), new byte[THRESHOLD * 2]).setFlag(Message.Flag.DONT_BUNDLE));
+                a.send(new Message(null, new byte[THRESHOLD * 2]).setFlag(Message.Flag.DONT_BUNDLE));
+            }
+            waitFor(rb, NUM/2 + NUM*2);
+            // large unicasts may be bundled, large multicasts must not be sent via TCP
+            assert ha.getNumTcpSent() > 0 && ha.getNumTcpSent() <= NUM
+              : String.format("A: %d unicasts (%s) sent via TCP, connections: %s", ha.getNumTcpSent(),
+                              Util.printBytes(ha.getNumTcpBytesSent()), ha.printConnections());
+            assert ha.getNumTcpBytesSent() >= NUM * THRESHOLD * 2 && ha.getNumTcpBytesSent() < NUM * THRESHOLD * 3;
+            assert ha.getNumTcpConnections() > 0;
+        }
+        finally {
+            Util.close(b, a);
+        }
+    }
+
+    protected static void waitFor(MyReceiver<byte[]> r, int expected) {
+        for(int i=0; i < 60 && r.size() < expected; i++)
+            Util.sleep(500);
+        assert r.size() == expected : String.format("expected %d messages, but got %d", expected, r.size());
+    }
+
+    protected static JChannel create(String name) throws Exception {
+        HYBRID transport=new HYBRID().setTcpThreshold(THRESHOLD);
+        transport.setBindAddress(Util.getLoopback());
+        return new JChannel(transport,
+                            new PING(),
+                            new NAKACK2(),
+                            new UNICAST3(),
+                            new STABLE(),
+                            new GMS().joinTimeout(1000),
+                            new FRAG2().fragSize(THRESHOLD * 4)).name(name);
+    }
+}
@@ -0,0 +1,144 @@
+package org.jgroups.tests;
+
+import org.jgroups.Global;
+import org.jgroups.JChannel;
+import org.jgroups.Message;
+import org.jgroups.protocols.UNICAST3;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.util.*;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+/**
+ * Tests {@link OffHeapTable} and {@link OffHeapArena}
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class OffHeapTableTest {
+    protected static final int CHUNK_SIZE=1024;
+
+    public void testStoreAfterDelivery() throws Exception {
+        OffHeapArena arena=new OffHeapArena(CHUNK_SIZE, CHUNK_SIZE * 10);
+        OffHeapTable table=create(arena, OffHeapArena.FullPolicy.heap, false);
+        add(table, 1, 10);
+        assert table.numChunks() == 0 : "undelivered messages must not be stored";
+        List<Message> list=table.removeMany(false, 0);
+        assert list.size() == 10;
+        for(int i=0; i < list.size(); i++)
+            assert (Integer)list.get(i).getObject() == i+1;
+        assert table.numChunks() > 0 && arena.numInUse() == table.numChunks();
+        for(int i=1; i <= 10; i++) {
+            Message msg=table.get(i);
+            assert msg != list.get(i-1) : "message should have been rebuilt";
+            assert (Integer)msg.getObject() == i;
+            assert msg.getSrc() != null;
+        }
+        table.purge(10);
+        assert table.numChunks() == 0 && arena.numInUse() == 0;
+        assert table.get(5) == null;
+    }
+
+    public void testStoreUndelivered() throws Exception {
+        OffHeapArena arena=new OffHeapArena(CHUNK_SIZE, CHUNK_SIZE * 10, null);
+        OffHeapTable table=create(arena, OffHeapArena.FullPolicy.heap, true);
+        add(table, 1, 20);
+        assert table.numChunks() > 0;
+        assert (Integer)table.get(20).getObject() == 20;
+        table.purge(15, true); // as in UNICAST3, when an ACK is received
+        assert (Integer)table.get(16).getObject() == 16;
+        table.purge(20, true);
+        assert arena.numInUse() == 0;
+        add(table, 21, 22);
+        assert (Integer)table.get(22).getObject() == 22;
+        table.destroy();
+        assert arena.numInUse() == 0 && table.get(22) == null;
+    }
+
+    public void testFullArenaKeepsMessagesOnHeap() throws Exception {
+        OffHeapArena arena=new OffHeapArena(CHUNK_SIZE, CHUNK_SIZE);
+        OffHeapTable table=create(arena, OffHeapArena.FullPolicy.heap, true);
+        add(table, 1, 100);
+        assert arena.overflows() > 0 && arena.discards() == 0 : "arena: " + arena;
+        for(int i=1; i <= 100; i++)
+            assert (Integer)table.get(i).getObject() == i;
+    }
+
+    public void testFullArenaDiscardsOldestMessages() throws Exception {
+        OffHeapArena arena=new OffHeapArena(CHUNK_SIZE, CHUNK_SIZE * 2);
+        OffHeapTable table=create(arena, OffHeapArena.FullPolicy.discard, true);
+        add(table, 1, 100);
+        assert arena.discards() > 0 && arena.numInUse() == 2 : "arena: " + arena;
+        assert table.get(1) == null : "the first chunk should have been reused";
+        assert (Integer)table.get(100).getObject() == 100;
+    }
+
+    public void testMappedFile() throws Exception {
+        String file=System.getProperty("java.io.tmpdir") + "/OffHeapTableTest-" + System.nanoTime();
+        OffHeapArena arena=new OffHeapArena(CHUNK_SIZE, CHUNK_SIZE * 4, file);
+        try {
+            OffHeapTable table=create(arena, OffHeapArena.FullPolicy.heap, true);
+            add(table, 1, 30);
+            assert arena.numInUse() > 0;
+            for(int i=1; i <= 30; i++)
+                assert (Integer)table.get(i).getObject() == i;
+        }
+        finally {
+            arena.destroy();
+        }
+    }
+
+    public void testNakack2AndUnicast3() throws Exception {
+        JChannel a=null, b=null;
+        try {
+            a=createChannel("A");
+            b=createChannel("B");
+            MyReceiver<Integer> r=new MyReceiver<>();
+            b.setReceiver(r);
+            a.connect("OffHeapTableTest");
+            b.connect("OffHeapTableTest");
+            Util.waitUntilAllChannelsHaveSameView(10000, 100, a, b);
+            for(int i=1; i <= 100; i++) {
+                a.send(null, i);
+                a.send(b.getAddress(), i);
+            }
+            for(int i=0; i < 100 && r.size() < 200; i++)
+                Util.sleep(100);
+            assert r.size() == 200 : "received " + r.size();
+
+            NAKACK2 nak=a.getProtocolStack().findProtocol(NAKACK2.class);
+            Table<Message> win=nak.getWindow(a.getAddress());
+            assert win instanceof OffHeapTable : win;
+            // all messages sent and delivered, but not yet purged by STABLE, can be retransmitted
+            long low=win.getLow();
+            for(long seqno=low+1; seqno <= win.getHighestDelivered(); seqno++)
+                assert win.get(seqno) != null && win.get(seqno).getHeader(nak.getId()) != null
+                  : String.format("seqno %d missing in NAKACK2 window %s (off-heap: %d bytes)",
+                                  seqno, win, nak.getXmitArenaBytesInUse());
+        }
+        finally {
+            Util.close(b, a);
+        }
+    }
+
+    protected static OffHeapTable create(OffHeapArena arena, OffHeapArena.FullPolicy policy, boolean store_undelivered) {
+        return new OffHeapTable(5, 16, 0, 1.2, 10000, arena, policy, store_undelivered);
+    }
+
+    protected static void add(Table<Message> table, int from, int to) throws Exception {
+        for(int i=from; i <= to; i++) {
+            boolean added=table.add(i, new Message(null, i).src(Util.createRandomAddress("A")));
+            assert added;
+        }
+    }
+
+    protected static JChannel createChannel(String name) throws Exception {
+        JChannel ch=new JChannel(Util.getTestStack()).name(name);
+        ch.getProtocolStack().findProtocol(NAKACK2.class).setValue("xmit_arena_size", 1 << 20)
+          .setValue("xmit_arena_chunk_size", 64 * 1024);
+        ch.getProtocolStack().findProtocol(UNICAST3.class).setValue("xmit_arena_size", 1 << 20)
+          .setValue("xmit_arena_chunk_size", 64 * 1024);
+        return ch;
+    }
+}
@@ -0,0 +1,113 @@
+package org.jgroups.tests;
+
+import org.jgroups.*;
+import org.jgroups.protocols.PerDestinationBundler;
+import org.jgroups.protocols.TP;
+import org.jgroups.util.MyReceiver;
+import org.jgroups.util.Util;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests {@link PerDestinationBundler}
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class PerDestinationBundlerTest {
+    protected static final int NUM=1000;
+    protected JChannel            a, b, c;
+    protected MyReceiver<Integer> ra, rb, rc;
+
+    @AfterMethod protected void destroy() {Util.close(c, b, a);}
+
+    public void testQueuePerDestination() throws Exception {
+        setup(0);
+        sendAndCheck();
+        PerDestinationBundler bundler=(PerDestinationBundler)a.getProtocolStack().getTransport().getBundler();
+        Map<String,Object> stats=bundler.getStats();
+        assert stats.containsKey("mcast") && stats.containsKey(b.getAddress().toString())
+          && stats.containsKey(c.getAddress().toString()) : stats;
+    }
+
+    public void testStripes() throws Exception {
+        setup(2);
+        sendAndCheck();
+        PerDestinationBundler bundler=(PerDestinationBundler)a.getProtocolStack().getTransport().getBundler();
+        Map<String,Object> stats=bundler.getStats();
+        assert bundler.numQueues() == 2 : stats;
+        assert stats.size() == 2 && stats.containsKey("stripe-0") && stats.containsKey("stripe-1") : stats;
+    }
+
+    public void testQueueRemovedOnViewChange() throws Exception {
+        setup(0);
+        a.send(c.getAddress(), 1);
+        PerDestinationBundler bundler=(PerDestinationBundler)a.getProtocolStack().getTransport().getBundler();
+        assert bundler.getStats().containsKey(c.getAddress().toString());
+        Address c_addr=c.getAddress();
+        Util.close(c);
+        Util.waitUntilAllChannelsHaveSameView(10000, 100, a, b);
+        assert !bundler.getStats().containsKey(c_addr.toString()) : bundler.getStats();
+
+        // a late message to C must not re-create its queue
+        a.send(c_addr, 2);
+        assert !bundler.getStats().containsKey(c_addr.toString()) : bundler.getStats();
+    }
+
+    public void testNoQueueForPhysicalAddress() throws Exception {
+        setup(0);
+        TP tp=a.getProtocolStack().getTransport();
+        PerDestinationBundler bundler=(PerDestinationBundler)tp.getBundler();
+        PhysicalAddress dest=(PhysicalAddress)tp.down(new Event(Event.GET_PHYSICAL_ADDRESS, b.getAddress()));
+        int num_queues=bundler.numQueues();
+        bundler.send(new Message(dest).setSrc(a.getAddress()));
+        assert bundler.numQueues() == num_queues && !bundler.getStats().containsKey(dest.toString()) : bundler.getStats();
+    }
+
+    protected void sendAndCheck() throws Exception {
+        for(int i=1; i <= NUM; i++) {
+            a.send(null, i);
+            a.send(b.getAddress(), i);
+            a.send(c.getAddress(), i);
+        }
+        // B and C receive each number twice (multicast and unicast), per-sender order is preserved for each
+        for(int i=0; i < 100 && !(ra.size() == NUM && rb.size() == NUM*2 && rc.size() == NUM*2); i++)
+            Util.sleep(100);
+        assert ra.size() == NUM && rb.size() == NUM*2 && rc.size() == NUM*2
+          : String.format("A: %d, B: %d, C: %d", ra.size(), rb.size(), rc.size());
+        for(MyReceiver<Integer> r: new MyReceiver[]{rb, rc}) {
+            List<Integer> list=r.list();
+            int mcast=0, ucast=0;
+            for(int n: list) { // multicasts and unicasts are interleaved, but each is in order
+                if(n == mcast+1)
+                    mcast++;
+                else if(n == ucast+1)
+                    ucast++;
+                else
+                    assert false : String.format("%s: received %d out of order (mcast=%d, ucast=%d)", r.name(), n, mcast, ucast);
+            }
+        }
+    }
+
+    protected void setup(int num_stripes) throws Exception {
+        a=create("A", num_stripes);
+        b=create("B", num_stripes);
+        c=create("C", num_stripes);
+        a.setReceiver(ra=new MyReceiver<Integer>().name("A"));
+        b.setReceiver(rb=new MyReceiver<Integer>().name("B"));
+        c.setReceiver(rc=new MyReceiver<Integer>().name("C"));
+        for(JChannel ch: new JChannel[]{a, b, c})
+            ch.connect("PerDestinationBundlerTest");
+        Util.waitUntilAllChannelsHaveSameView(10000, 100, a, b, c);
+    }
+
+    protected static JChannel create(String name, int num_stripes) throws Exception {
+        JChannel ch=new JChannel(Util.getTestStack()).name(name);
+        TP tp=ch.getProtocolStack().getTransport();
+        tp.setValue("bundler_type", "per-destination").setValue("bundler_num_stripes", num_stripes);
+        return ch;
+    }
+}
@@ -0,0 +1,175 @@
+package org.jgroups.tests;
+
+import org.jgroups.Global;
+import org.jgroups.JChannel;
+import org.jgroups.Message;
+import org.jgroups.protocols.*;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.util.MyReceiver;
+import org.jgroups.util.ShmRing;
+import org.jgroups.util.Util;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Tests {@link SHM} and {@link ShmRing}
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class SHMTest {
+    protected static final int NUM=1000;
+
+    public void testRing() throws Exception {
+        File file=new File(System.getProperty("java.io.tmpdir"), "SHMTest-" + System.nanoTime());
+        ShmRing producer=ShmRing.create(file, 1000), consumer=ShmRing.open(file);
+        try {
+            byte[] buf=new byte[consumer.maxMessageSize()];
+            assert consumer.read(buf) == -1;
+            int written=0, read=0;
+            for(int i=0; i < 100; i++) { // wraps around a number of times
+                for(int j=0; j < 3; j++) {
+                    byte[] msg=String.valueOf(written++).getBytes();
+                    assert producer.write(msg, 0, msg.length);
+                }
+                assert producer.write(ByteBuffer.wrap(String.valueOf(written++).getBytes()));
+                for(int len; (len=consumer.read(buf)) >= 0; read++)
+                    assert Integer.parseInt(new String(buf, 0, len)) == read;
+                assert consumer.isEmpty() && read == written;
+            }
+            byte[] large=new byte[300];
+            int num=0;
+            while(producer.write(large, 0, large.length))
+                num++;
+            assert num > 0 && num < 4 : "ring should be full after " + num + " messages";
+            assert !producer.write(new byte[1000], 0, 1000) : "a message larger than the ring cannot be written";
+            while(consumer.read(buf) >= 0)
+                num--;
+            assert num == 0;
+            consumer.close();
+            assert producer.isClosed() && !producer.write(large, 0, 10);
+        }
+        finally {
+            producer.destroy();
+        }
+    }
+
+    public void testConcurrentProducerAndConsumer() throws Exception {
+        File file=new File(System.getProperty("java.io.tmpdir"), "SHMTest-" + System.nanoTime());
+        ShmRing producer=ShmRing.create(file, 4096), consumer=ShmRing.open(file);
+        final int num=100_000;
+        try {
+            Thread t=new Thread(() -> {
+                byte[] msg=new byte[100];
+                for(int i=1; i <= num; i++) {
+                    msg[0]=(byte)i;
+                    msg[99]=(byte)(i >> 8);
+                    while(!producer.write(msg, 0, 17 + i % 83))
+                        Thread.yield();
+                }
+            });
+            t.start();
+            byte[] buf=new byte[consumer.maxMessageSize()];
+            for(int i=1; i <= num;) {
+                int len=consumer.read(buf);
+                if(len < 0)
+                    continue;
+                assert len == 17 + i % 83 && buf[0] == (byte)i : String.format("msg %d: len=%d, first=%d", i, len, buf[0]);
+                i++;
+            }
+            t.join(10000);
+            assert consumer.isEmpty();
+        }
+        finally {
+            producer.destroy();
+        }
+    }
+
+    /** A corrupt message length is reported as exception and doesn't read beyond the ring */
+    public void testCorruptRing() throws Exception {
+        File file=new File(System.getProperty("java.io.tmpdir"), "SHMTest-" + System.nanoTime());
+        ShmRing producer=ShmRing.create(file, 1000), consumer=ShmRing.open(file);
+        try {
+            byte[] msg="hello".getBytes();
+            assert producer.write(msg, 0, msg.length);
+            try(FileChannel ch=FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                ByteBuffer len=ByteBuffer.allocate(Integer.BYTES).putInt(0, 5000); // at the start of the data
+                ch.write(len, 192);
+            }
+            byte[] buf=new byte[consumer.maxMessageSize()];
+            try {
+                consumer.read(buf);
+                assert false : "reading a corrupt message length should have thrown an exception";
+            }
+            catch(IllegalStateException expected) {
+            }
+        }
+        finally {
+            producer.destroy();
+        }
+    }
+
+    /**
+     * A and B run SHM, C runs UDP: unicasts between A and B are sent via shared memory, all others via UDP. A's rings
+     * are larger than B's, so B has to read messages larger than its own rings
+     */
+    public void testMixedCluster() throws Exception {
+        JChannel a=null, b=null, c=null;
+        try {
+            a=create("A", new SHM());
+            b=create("B", new SHM().setRingSize(16 * 1024));
+            c=create("C", new UDP());
+            MyReceiver<Object> rb=new MyReceiver<>(), rc=new MyReceiver<>();
+            b.setReceiver(rb);
+            c.setReceiver(rc);
+            a.connect("SHMTest");
+            b.connect("SHMTest");
+            c.connect("SHMTest");
+            Util.waitUntilAllChannelsHaveSameView(10000, 500, a, b, c);
+
+            for(int i=1; i <= NUM; i++) {
+                a.send(b.getAddress(), i);
+                a.send(c.getAddress(), i);
+                if(i % 10 == 0)
+                    a.send(new Message(null, i));
+            }
+            a.send(b.getAddress(), new byte[32 * 1024]);
+            for(int i=0; i < 60 && (rb.size() < NUM + NUM/10 + 1 || rc.size() < NUM + NUM/10); i++)
+                Util.sleep(500);
+            assert rb.size() == NUM + NUM/10 + 1
+              : String.format("B: expected %d messages, but got %d", NUM + NUM/10 + 1, rb.size());
+            assert rc.size() == NUM + NUM/10 : String.format("C: expected %d messages, but got %d", NUM + NUM/10, rc.size());
+
+            SHM shm_a=(SHM)a.getProtocolStack().getTransport(), shm_b=(SHM)b.getProtocolStack().getTransport();
+            assert shm_a.getNumShmSent() > 0 && shm_b.getNumShmReceived() > 0
+              : String.format("A: %s, B: %s", shm_a.printRings(), shm_b.printRings());
+            assert shm_a.getNumOutboundRings() == 1 : "A must not have a ring to C: " + shm_a.printRings();
+            File inbox=shm_a.getInbox();
+            assert inbox.isDirectory();
+            Util.close(a);
+            assert !inbox.exists();
+        }
+        finally {
+            Util.close(c, b, a);
+        }
+    }
+
+    protected static JChannel create(String name, TP transport) throws Exception {
+        transport.setBindAddress(Util.getLoopback());
+        if(transport instanceof SHM)
+            ((SHM)transport).setShmDir(System.getProperty("java.io.tmpdir"));
+        return new JChannel(transport,
+                            new PING(),
+                            new NAKACK2(),
+                            new UNICAST3(),
+                            new STABLE(),
+                            new GMS().joinTimeout(1000),
+                            new FRAG2()).name(name);
+    }
+}
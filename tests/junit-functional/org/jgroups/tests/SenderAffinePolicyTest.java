@@ -0,0 +1,158 @@
+package org.jgroups.tests;
+
+import org.jgroups.Global;
+import org.jgroups.JChannel;
+import org.jgroups.Message;
+import org.jgroups.ReceiverAdapter;
+import org.jgroups.protocols.TP;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.util.SenderAffinePolicy;
+import org.jgroups.util.Util;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tests {@link SenderAffinePolicy}
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class SenderAffinePolicyTest {
+    protected static final int NUM=2000;
+    protected JChannel         a, b, c;
+    protected MyReceiver       ra, rb, rc;
+
+    @BeforeMethod protected void setup() throws Exception {
+        a=create("A");
+        b=create("B");
+        c=create("C");
+        a.setReceiver(ra=new MyReceiver());
+        b.setReceiver(rb=new MyReceiver());
+        c.setReceiver(rc=new MyReceiver());
+        connect();
+    }
+
+    @AfterMethod protected void destroy() {Util.close(c, b, a);}
+
+    public void testPerSenderOrder() throws Exception {
+        send(NUM);
+        check(NUM);
+        SenderAffinePolicy policy=(SenderAffinePolicy)a.getProtocolStack().getTransport().getMessageProcessingPolicy();
+        assert policy.numWorkers() == 2 : policy.dumpWorkers();
+    }
+
+    /** A slow receiver fills the bounded worker queues: messages are dropped and retransmitted */
+    public void testQueueFullDrop() throws Exception {
+        SenderAffinePolicy policy=bound(b, "drop");
+        // B may drop all multicasts of a sender, and then also the retransmission of the last one: keep resending it
+        for(JChannel ch: new JChannel[]{a, c})
+            ((NAKACK2)ch.getProtocolStack().findProtocol(NAKACK2.class)).setResendLastSeqnoMaxTimes(100);
+        rb.delay(1);
+        send(NUM/4);
+        check(NUM/4);
+        assert policy.numDropped() > 0 : policy.dumpWorkers();
+    }
+
+    /** A slow receiver fills the bounded worker queues: receiver threads block until there is space */
+    public void testQueueFullBlock() throws Exception {
+        SenderAffinePolicy policy=bound(b, "block");
+        rb.delay(1);
+        send(NUM/4);
+        check(NUM/4);
+        assert policy.numDropped() == 0 : policy.dumpWorkers();
+    }
+
+    /** Workers are stopped when the transport is stopped and restarted on reception of the next message */
+    public void testReconnect() throws Exception {
+        for(JChannel ch: new JChannel[]{c, b, a})
+            ch.disconnect();
+        for(MyReceiver r: new MyReceiver[]{ra, rb, rc})
+            r.clear();
+        connect();
+        send(NUM);
+        check(NUM);
+    }
+
+    protected void connect() throws Exception {
+        for(JChannel ch: new JChannel[]{a, b, c})
+            ch.connect("SenderAffinePolicyTest");
+        Util.waitUntilAllChannelsHaveSameView(10000, 100, a, b, c);
+    }
+
+    protected void send(int num) throws Exception {
+        for(int i=1; i <= num; i++)
+            for(JChannel ch: new JChannel[]{a, b, c}) {
+                ch.send(null, i);
+                ch.send(ch == a? b.getAddress() : a.getAddress(), i);
+            }
+    }
+
+    protected void check(int num) {
+        // every member receives num multicasts from each sender. A receives num unicasts from B and C; B gets num from A
+        int expected_a=num*3 + num*2, expected_b=num*3 + num, expected_c=num*3;
+        for(int i=0; i < 200 && (ra.size() != expected_a || rb.size() != expected_b || rc.size() != expected_c); i++)
+            Util.sleep(100);
+        assert ra.size() == expected_a && rb.size() == expected_b && rc.size() == expected_c
+          : String.format("A: %d, B: %d, C: %d", ra.size(), rb.size(), rc.size());
+        for(MyReceiver r: new MyReceiver[]{ra, rb, rc})
+            r.checkOrder();
+    }
+
+    protected static SenderAffinePolicy bound(JChannel ch, String queue_full_policy) {
+        TP tp=ch.getProtocolStack().getTransport();
+        tp.setValue("msg_processing_max_buffer_size", 10).setValue("msg_processing_queue_full_policy", queue_full_policy);
+        tp.setMessageProcessingPolicy("sender-affine");
+        return (SenderAffinePolicy)tp.getMessageProcessingPolicy();
+    }
+
+    protected static JChannel create(String name) throws Exception {
+        JChannel ch=new JChannel(Util.getTestStack()).name(name);
+        TP tp=ch.getProtocolStack().getTransport();
+        tp.setValue("msg_processing_num_workers", 2);
+        tp.setMessageProcessingPolicy("sender-affine");
+        return ch;
+    }
+
+    /** Records the messages per sender and destination (multicast or unicast) */
+    protected static class MyReceiver extends ReceiverAdapter {
+        protected final Map<String,List<Integer>> msgs=new ConcurrentHashMap<>();
+        protected volatile long                   delay; // ms
+
+        protected MyReceiver delay(long d) {delay=d; return this;}
+
+        public void receive(Message msg) {
+            if(delay > 0)
+                Util.sleep(delay);
+            String key=msg.src() + (msg.dest() == null? "-mcast" : "-ucast");
+            List<Integer> list=msgs.computeIfAbsent(key, k -> new ArrayList<>());
+            synchronized(list) {
+                list.add(msg.getObject());
+            }
+        }
+
+        protected int size() {
+            int size=0;
+            for(List<Integer> list: msgs.values())
+                synchronized(list) {
+                    size+=list.size();
+                }
+            return size;
+        }
+
+        protected void clear() {msgs.clear();}
+
+        protected void checkOrder() {
+            for(Map.Entry<String,List<Integer>> e: msgs.entrySet()) {
+                List<Integer> list=e.getValue();
+                for(int i=0; i < list.size(); i++)
+                    assert list.get(i) == i+1 : String.format("%s: expected %d but got %d", e.getKey(), i+1, list.get(i));
+            }
+        }
+    }
+}
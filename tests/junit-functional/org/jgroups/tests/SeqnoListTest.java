@@ -1,6 +1,7 @@
 package org.jgroups.tests;
 
 import org.jgroups.Global;
+import org.jgroups.util.Bits;
 import org.jgroups.util.SeqnoList;
 import org.jgroups.util.Util;
 import org.testng.annotations.Test;
@@ -153,6 +154,47 @@ public class SeqnoListTest {
 
 
 
+    /** A burst of missing seqnos (plus a few single ones) is written as ranges */
+    public void testSerializationOfRanges() throws Exception {
+        SeqnoList list=new SeqnoList(200_000, 5000).add(5000, 105_000).add(110_000).add(150_000, 204_999);
+        SeqnoList list2=_testSerialization(list);
+        assert list2.size() == 100_001 + 1 + 55_000;
+        int serialized_size=list.serializedSize();
+        assert serialized_size < 30 : String.format("serialized size of %s: %d", list, serialized_size);
+    }
+
+    /** Every other seqno is missing: the bitmap is smaller than the ranges */
+    public void testSerializationOfBitmap() throws Exception {
+        SeqnoList list=new SeqnoList(1000, 1);
+        for(int i=1; i <= 1000; i+=2)
+            list.add(i);
+        _testSerialization(list);
+        assert list.serializedSize() == Global.BYTE_SIZE + Bits.size(1000) + Bits.size(1L) + 16 * Global.LONG_SIZE;
+    }
+
+    public void testSerializationOfEmptyList() throws Exception {
+        SeqnoList list2=_testSerialization(new SeqnoList(100, 10));
+        assert list2.isEmpty();
+    }
+
+    public void testSerializationOfFullList() throws Exception {
+        SeqnoList list2=_testSerialization(new SeqnoList(129, 10).add(10, 138));
+        assert list2.size() == 129 && list2.getLast() == 138;
+    }
+
+    protected static SeqnoList _testSerialization(SeqnoList list) throws Exception {
+        byte[] buf=Util.streamableToByteBuffer(list);
+        assert buf.length == list.serializedSize() : String.format("buf size=%d, expected=%d", buf.length, list.serializedSize());
+        SeqnoList list2=Util.streamableFromByteBuffer(SeqnoList::new, buf);
+        assert list.size() == list2.size() : String.format("list: %s, deserialized list: %s", list, list2);
+        Iterator<Long> it1=list.iterator(), it2=list2.iterator();
+        while(it1.hasNext())
+            assert it1.next().equals(it2.next()) : String.format("list: %s, deserialized list: %s", list, list2);
+        assert !it2.hasNext();
+        return list2;
+    }
+
+
     protected static void _testIteration(SeqnoList list, List<Long> expected) {
         System.out.println("list = " + list);
         assert list.size() == expected.size();
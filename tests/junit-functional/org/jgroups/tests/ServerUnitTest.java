@@ -5,10 +5,12 @@ package org.jgroups.tests;
 import org.jgroups.Address;
 import org.jgroups.Global;
 import org.jgroups.blocks.cs.BaseServer;
+import org.jgroups.blocks.cs.NioBaseServer;
 import org.jgroups.blocks.cs.NioServer;
 import org.jgroups.blocks.cs.ReceiverAdapter;
 import org.jgroups.blocks.cs.TcpServer;
 import org.jgroups.util.Bits;
+import org.jgroups.util.ByteBufferPool;
 import org.jgroups.util.CondVar;
 import org.jgroups.util.Condition;
 import org.jgroups.util.Util;
@@ -19,7 +21,9 @@ import java.io.DataInput;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -257,12 +261,104 @@ public class ServerUnitTest {
         }
     }
 
+    /** Data sent over additional connections (lanes) is received from the same sender as data sent over lane 0 */
+    public void testSendOverMultipleConnections() throws Exception {
+        for(boolean nio : new boolean[]{false, true}) {
+            try(BaseServer a=create(nio, 0).connsPerPeer(3);
+                BaseServer b=create(nio, 0).connsPerPeer(3)) {
+                final int NUM=300;
+                MyReceiver r=new MyReceiver(b, NUM, false);
+                b.receiver(r);
+                Address other=b.localAddress();
+                byte[] data="hello world".getBytes();
+                for(int i=0; i < NUM; i++)
+                    send(data, a, other, i);
+                r.waitForCompletion(20000);
+                assert r.getNumReceived() == NUM : r;
+                assert a.getNumConnections() == 1 && b.getNumConnections() == 1
+                  : String.format("A: %s\nB: %s", a.printConnections(), b.printConnections());
+                assert a.getNumLanes() == 2 : a.printConnections();
+                waitForLanes(2, b);
+
+                a.retainAll(Collections.emptyList());
+                assert a.getNumLanes() == 0 && a.getNumConnections() == 0;
+                waitForLanes(0, b); // closed by A
+            }
+        }
+    }
+
+    /** Connections accepted by a server with multiple selectors are spread over the selectors */
+    public void testMultipleSelectors() throws Exception {
+        for(boolean read_in_selector: new boolean[]{false, true}) {
+            final int NUM=200, NUM_SENDERS=4;
+            NioServer srv=new NioServer(bind_addr, 0);
+            srv.numSelectors(2).readInSelector(read_in_selector).usePeerConnections(true);
+            srv.start();
+            BaseServer[] senders=new BaseServer[NUM_SENDERS];
+            try {
+                MyReceiver r=new MyReceiver(srv, NUM * NUM_SENDERS, false);
+                srv.receiver(r);
+                for(int i=0; i < senders.length; i++)
+                    senders[i]=create(true, 0);
+                byte[] data="hello world".getBytes();
+                for(int i=0; i < NUM; i++)
+                    for(BaseServer sender: senders)
+                        send(data, sender, srv.localAddress());
+                r.waitForCompletion(20000);
+                assert r.getNumReceived() == NUM * NUM_SENDERS : r;
+                String selectors=srv.printSelectors();
+                assert srv.reactors().length == 2 : String.format("read_in_selector=%b:\n%s", read_in_selector, selectors);
+                for(NioBaseServer.Reactor reactor: srv.reactors())
+                    assert reactor.numConnections() == NUM_SENDERS / 2 && reactor.numReads() > 0 : selectors;
+            }
+            finally {
+                Util.close(senders);
+                Util.close(srv);
+            }
+            assert srv.reactors() == null;
+        }
+    }
+
+    /** Frames read into (small) pooled buffers are delivered intact, including frames larger than a pooled buffer */
+    public void testPooledBuffers() throws Exception {
+        for(boolean read_in_selector: new boolean[]{false, true}) {
+            final int NUM=2000;
+            try(NioServer a=createPooled(read_in_selector); NioServer b=createPooled(read_in_selector)) {
+                AtomicInteger good=new AtomicInteger(), bad=new AtomicInteger();
+                b.receiver(new ReceiverAdapter() {
+                    public void receive(Address sender, byte[] buf, int offset, int length) {
+                        boolean ok=true;
+                        for(int i=0; i < length; i++)
+                            ok&=buf[offset+i] == (byte)(length+i);
+                        (ok? good : bad).incrementAndGet();
+                    }
+                });
+                for(int i=0; i < NUM; i++) {
+                    byte[] data=new byte[1 + (i * 37) % 3000]; // frames of up to 3000 bytes; pooled buffers have 1024
+                    for(int j=0; j < data.length; j++)
+                        data[j]=(byte)(data.length+j);
+                    a.send(b.localAddress(), data, 0, data.length);
+                }
+                for(int i=0; i < 40 && good.get() + bad.get() < NUM; i++)
+                    Util.sleep(500);
+                assert bad.get() == 0 && good.get() == NUM
+                  : String.format("read_in_selector=%b: good=%d bad=%d\nA: %s\nB: %s",
+                                  read_in_selector, good.get(), bad.get(), a.printBuffers(), b.printBuffers());
+                assert b.bufferPool().hits() > 0 : "pooled buffers should have been reused: " + b.bufferPool();
+            }
+        }
+    }
+
     protected static void send(byte[] request, BaseServer server, Address dest) {
+        send(request, server, dest, 0);
+    }
+
+    protected static void send(byte[] request, BaseServer server, Address dest, int lane) {
         byte[] data=new byte[request.length + Global.INT_SIZE];
         Bits.writeInt(request.length, data, 0);
         System.arraycopy(request, 0, data, Global.INT_SIZE, request.length);
         try {
-            server.send(dest, data, 0, data.length);
+            server.send(dest, lane, data, 0, data.length);
         }
         catch(Exception e) {
             System.err.println("Failed sending a request to " + dest + ": " + e);
@@ -287,6 +383,15 @@ public class ServerUnitTest {
         }
     }
 
+    protected static NioServer createPooled(boolean read_in_selector) throws Exception {
+        NioServer srv=new NioServer(bind_addr, 0);
+        srv.bufferPool(new ByteBufferPool(64, 1024)).readInSelector(read_in_selector).maxSendBuffers(10_000)
+          .sendBufferSize(4096);
+        srv.usePeerConnections(true);
+        srv.start();
+        return srv;
+    }
+
     protected static void waitForOpenConns(int expected, BaseServer... servers) throws Exception {
         for(int i=0; i < 20; i++) {
             if(!Arrays.stream(servers).allMatch(srv -> srv.getNumOpenConnections() == expected))
@@ -301,6 +406,12 @@ public class ServerUnitTest {
     }
 
 
+    protected static void waitForLanes(int expected, BaseServer server) {
+        for(int i=0; i < 20 && server.getNumLanes() != expected; i++)
+            Util.sleep(500);
+        assert server.getNumLanes() == expected : server.printConnections();
+    }
+
     protected static void connectionEstablished(BaseServer server, Address dest) {
         for(int i=0; i < 10; i++) {
             if(server.connectionEstablishedTo(dest))
@@ -206,6 +206,12 @@ public class SizeTest {
         _testSize(hdr);
         _testMarshalling(hdr);
 
+        for(boolean first: new boolean[]{false, true}) {
+            hdr=UnicastHeader3.createDataHeader(322649, (short)127, first).ack(true);
+            _testSize(hdr);
+            _testMarshalling(hdr);
+        }
+
         //noinspection NumericOverflow
         for(long timestamp: new long[]{0, 100, Long.MAX_VALUE -1, Long.MAX_VALUE, Long.MAX_VALUE +100}) {
             hdr=UnicastHeader3.createSendFirstSeqnoHeader((int)timestamp);
@@ -220,6 +226,14 @@ public class SizeTest {
         hdr=UnicastHeader3.createXmitReqHeader();
         _testSize(hdr);
         _testMarshalling(hdr);
+
+        hdr=UnicastHeader3.createSackHeader(322649, (short)2, 500600, new long[]{322651, 322660, 322700, 322700});
+        _testSize(hdr);
+        _testMarshalling(hdr);
+
+        hdr=UnicastHeader3.createSackHeader(1, (short)2, 5, null);
+        _testSize(hdr);
+        _testMarshalling(hdr);
     }
 
 
@@ -836,7 +850,9 @@ public class SizeTest {
         assert hdr.seqno()      == hdr2.seqno();
         assert hdr.connId()     == hdr2.connId();
         assert hdr.first()      == hdr2.first();
+        assert hdr.ack()        == hdr2.ack();
         assert hdr.timestamp()  == hdr.timestamp();
+        assert Arrays.equals(hdr.ranges(), hdr2.ranges());
     }
 
     private static void _testSize(Digest digest) throws Exception {
@@ -0,0 +1,114 @@
+package org.jgroups.tests;
+
+import org.jgroups.Event;
+import org.jgroups.Global;
+import org.jgroups.JChannel;
+import org.jgroups.protocols.*;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.util.Histogram;
+import org.jgroups.util.MyReceiver;
+import org.jgroups.util.Util;
+import org.testng.annotations.Test;
+
+import java.util.Map;
+
+/**
+ * Tests the socket stats of the transports ({@link SocketStats}) and {@link Histogram}
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class SocketStatsTest {
+    protected static final int NUM=500;
+
+    public void testHistogram() {
+        Histogram h=new Histogram();
+        assert h.count() == 0 && h.percentile(99) == 0;
+        for(int i=1; i <= 100; i++)
+            h.add(i);
+        h.add(0);
+        assert h.count() == 101 && h.max() == 100 : String.format("%s\n%s", h, h.printBuckets());
+        assert h.average() == 5050 / 101.0;
+        assert h.percentile(50) == 63;   // 51 falls into bucket [32-63]
+        assert h.percentile(100) == 100; // capped by max
+        assert h.printBuckets().contains("[0-0]: 1") && h.printBuckets().contains("[64-127]: 37");
+        h.clear();
+        assert h.count() == 0 && h.max() == 0;
+    }
+
+    public void testUDP() throws Exception {
+        JChannel a=null, b=null;
+        try {
+            a=create(new UDP(), "A");
+            b=create(new UDP(), "B");
+            MyReceiver<Integer> r=send(a, b);
+
+            UDP udp=(UDP)b.getProtocolStack().getTransport();
+            SocketStats ucast=udp.socketStats("ucast", 0), mcast=udp.socketStats("mcast", 0);
+            assert r.size() == NUM*2;
+            assert ucast.packetsSent() > 0 && ucast.bytesSent() > 0 : udp.printSocketStats();
+            assert ucast.packetsReceived() > 0 && mcast.packetsReceived() > 0 : udp.printSocketStats();
+            assert mcast.bytesReceived() > 0 && mcast.port() == udp.getMulticastPort() : udp.printSocketStats();
+            assert udp.passUpDelay().count() > 0;
+            assert udp.bundlerDelay().count() > 0;
+
+            Map<String,String> probe=udp.handleProbe("socket-stats");
+            assert probe.get("socket-stats").contains("ucast");
+
+            udp.resetStats();
+            assert ucast.packetsReceived() == 0 && udp.passUpDelay().count() == 0;
+        }
+        finally {
+            Util.close(b, a);
+        }
+    }
+
+    public void testTCP() throws Exception {
+        JChannel a=null, b=null;
+        try {
+            a=create(new TCP(), "A");
+            b=create(new TCP(), "B");
+            MyReceiver<Integer> r=send(a, b);
+
+            TCP tcp=(TCP)b.getProtocolStack().getTransport();
+            assert r.size() == NUM*2;
+            String peer=String.valueOf(a.down(new Event(Event.GET_PHYSICAL_ADDRESS, a.getAddress())));
+            SocketStats stats=tcp.socketStats(peer, 0);
+            assert stats.packetsReceived() > 0 && stats.bytesReceived() > 0 && stats.packetsSent() > 0
+              : tcp.printSocketStats();
+            assert stats.drops() == -1;
+        }
+        finally {
+            Util.close(b, a);
+        }
+    }
+
+    /** Sends NUM multicasts and NUM unicasts from A to B */
+    protected static MyReceiver<Integer> send(JChannel a, JChannel b) throws Exception {
+        MyReceiver<Integer> r=new MyReceiver<>();
+        b.setReceiver(r);
+        a.connect("SocketStatsTest");
+        b.connect("SocketStatsTest");
+        Util.waitUntilAllChannelsHaveSameView(10000, 500, a, b);
+        for(int i=1; i <= NUM; i++) {
+            a.send(null, i);
+            a.send(b.getAddress(), i);
+        }
+        for(int i=0; i < 50 && r.size() < NUM*2; i++)
+            Util.sleep(200);
+        return r;
+    }
+
+    protected static JChannel create(TP transport, String name) throws Exception {
+        transport.setBindAddress(Util.getLoopback());
+        return new JChannel(transport,
+                            transport instanceof UDP? new PING() : new MPING(),
+                            new NAKACK2(),
+                            new UNICAST3(),
+                            new STABLE(),
+                            new GMS().joinTimeout(1000),
+                            new FRAG2()).name(name);
+    }
+}
@@ -0,0 +1,234 @@
+package org.jgroups.tests;
+
+import org.jgroups.*;
+import org.jgroups.blocks.cs.TcpClient;
+import org.jgroups.protocols.*;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.stack.*;
+import org.jgroups.util.*;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.DataInput;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Tests {@link TUNNEL} with batching and compression of messages to the {@link GossipRouter}
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true,dataProvider="createRouter")
+public class TUNNELBatchTest {
+    protected static final int NUM=1000;
+
+    @DataProvider
+    static Object[][] createRouter() {
+        return new Object[][] {
+          {false, 0},
+          {true,  0},
+          {true,  64 * 1024} // with queues
+        };
+    }
+
+    /** A batches and compresses, B only batches and C (an old client) doesn't batch at all */
+    public void testBatchingAndCompression(boolean nio, int max_queued_bytes) throws Exception {
+        InetAddress bind_addr=Util.getLoopback();
+        int port=ResourceManager.getNextTcpPort(bind_addr);
+        GossipRouter router=new GossipRouter(bind_addr, port).useNio(nio).maxQueuedBytes(max_queued_bytes);
+        JChannel a=null, b=null, c=null;
+        try {
+            router.start();
+            String hosts=bind_addr.getHostAddress() + "[" + port + "]";
+            a=create("A", bind_addr, hosts, true, true);
+            b=create("B", bind_addr, hosts, true, false);
+            c=create("C", bind_addr, hosts, false, false);
+            MyReceiver<String> ra=new MyReceiver<>(), rb=new MyReceiver<>(), rc=new MyReceiver<>();
+            a.setReceiver(ra);
+            b.setReceiver(rb);
+            c.setReceiver(rc);
+            a.connect("TUNNELBatchTest");
+            b.connect("TUNNELBatchTest");
+            c.connect("TUNNELBatchTest");
+            Util.waitUntilAllChannelsHaveSameView(10000, 500, a, b, c);
+
+            RouterStub stub=stub(a);
+            assert stub.flags() == (GossipData.BATCH | GossipData.COMPRESS) : "flags: " + stub.flags();
+            assert stub(b).flags() == GossipData.BATCH && stub(c).flags() == 0;
+
+            String payload="hello world hello world hello world hello world hello world hello world ";
+            for(int i=1; i <= NUM; i++) {
+                a.send(null, payload + i);
+                b.send(null, payload + i);
+                a.send(c.getAddress(), payload + i);
+            }
+            for(int i=0; i < 60 && (ra.size() < NUM*2 || rb.size() < NUM*2 || rc.size() < NUM*3); i++)
+                Util.sleep(500);
+            assert ra.size() == NUM*2 : String.format("A: expected %d messages, but got %d", NUM*2, ra.size());
+            assert rb.size() == NUM*2 : String.format("B: expected %d messages, but got %d", NUM*2, rb.size());
+            assert rc.size() == NUM*3 : String.format("C: expected %d messages, but got %d", NUM*3, rc.size());
+
+            assert router.numBatchesForwarded() > 0 && router.numBatchesSplit() > 0
+              : String.format("A: %s, B: %s, router: %d batches forwarded, %d split", stub, stub(b),
+                              router.numBatchesForwarded(), router.numBatchesSplit());
+        }
+        finally {
+            Util.close(c, b, a);
+            router.stop();
+        }
+    }
+
+    /**
+     * A client using the GossipData format of older versions (no flags) registers with the router, receives the
+     * messages of a batching and compressing client, and sends a message to it
+     */
+    public void testOldClient(boolean nio, int max_queued_bytes) throws Exception {
+        InetAddress bind_addr=Util.getLoopback();
+        int port=ResourceManager.getNextTcpPort(bind_addr);
+        GossipRouter router=new GossipRouter(bind_addr, port).useNio(nio).maxQueuedBytes(max_queued_bytes);
+        JChannel a=null;
+        TcpClient old=null;
+        String cluster="TUNNELBatchTest";
+        try {
+            router.start();
+            a=create("A", bind_addr, bind_addr.getHostAddress() + "[" + port + "]", true, true);
+            MyReceiver<String> ra=new MyReceiver<>();
+            a.setReceiver(ra);
+            a.connect(cluster);
+
+            Address old_addr=Util.createRandomAddress("old");
+            List<GossipData> received=new ArrayList<>();
+            List<Exception> errors=new ArrayList<>();
+            old=new TcpClient(bind_addr, 0, bind_addr, port);
+            old.receiver(new org.jgroups.blocks.cs.ReceiverAdapter() {
+                public void receive(Address sender, byte[] buf, int offset, int length) {
+                    try {
+                        GossipData data=readOldFormat(buf, offset, length);
+                        synchronized(received) {
+                            received.add(data);
+                        }
+                    }
+                    catch(Exception ex) {
+                        synchronized(errors) {
+                            errors.add(ex);
+                        }
+                    }
+                }
+
+                public void receive(Address sender, DataInput in, int length) throws Exception {
+                    byte[] buf=new byte[length];
+                    in.readFully(buf);
+                    receive(sender, buf, 0, length);
+                }
+            });
+            old.start();
+            IpAddress router_addr=new IpAddress(bind_addr, port);
+            byte[] buf=writeOldFormat(GossipType.REGISTER, cluster, old_addr, null, "old",
+                                      new IpAddress(bind_addr, 7800), null);
+            old.send(router_addr, buf, 0, buf.length);
+
+            // wait until the old client is registered (A sees it as member of the cluster)
+            for(int i=0; i < 20 && router.dumpAddresssMappings().indexOf(old_addr.toString()) < 0; i++)
+                Util.sleep(500);
+
+            String payload="hello world hello world hello world hello world hello world hello world ";
+            for(int i=1; i <= NUM; i++) {
+                a.send(null, payload + i);
+                a.send(old_addr, payload + i);
+            }
+            for(int i=0; i < 60 && (count(received, old_addr) == 0 || count(received, null) == 0); i++)
+                Util.sleep(500);
+            assert errors.isEmpty() : "old client failed parsing messages: " + errors;
+            assert count(received, old_addr) > 0 && count(received, null) > 0
+              : String.format("old client received %d unicasts and %d multicasts",
+                              count(received, old_addr), count(received, null));
+
+            Message msg=new Message(a.getAddress(), "from old client").src(old_addr)
+              .putHeader(a.getProtocolStack().getTransport().getId(), new TpHeader(cluster));
+            ByteArrayDataOutputStream out=new ByteArrayDataOutputStream(128);
+            Util.writeMessage(msg, out, false);
+            buf=writeOldFormat(GossipType.MESSAGE, cluster, a.getAddress(), old_addr, null, null,
+                               Arrays.copyOf(out.buffer(), out.position()));
+            old.send(router_addr, buf, 0, buf.length);
+            for(int i=0; i < 20 && !ra.list().contains("from old client"); i++)
+                Util.sleep(500);
+            assert ra.list().contains("from old client") : "A didn't receive the message from the old client";
+        }
+        finally {
+            Util.close(old, a);
+            router.stop();
+        }
+    }
+
+    /** Serializes a GossipData the way older versions did */
+    protected static byte[] writeOldFormat(GossipType type, String group, Address addr, Address sender,
+                                           String logical_name, PhysicalAddress physical_addr,
+                                           byte[] buffer) throws Exception {
+        ByteArrayDataOutputStream out=new ByteArrayDataOutputStream(128);
+        out.writeByte(type.ordinal());
+        Bits.writeString(group, out);
+        Util.writeAddress(addr, out);
+        Util.writeAddress(sender, out);
+        if(type != GossipType.MESSAGE) {
+            Bits.writeString(logical_name, out);
+            out.writeShort(0);
+            Util.writeAddress(physical_addr, out);
+        }
+        out.writeInt(buffer != null? buffer.length : 0);
+        if(buffer != null)
+            out.write(buffer);
+        return Arrays.copyOf(out.buffer(), out.position());
+    }
+
+    /** Deserializes a GossipData the way older versions did; fails if the buffer contains more or less bytes */
+    protected static GossipData readOldFormat(byte[] buf, int offset, int length) throws Exception {
+        ByteArrayDataInputStream in=new ByteArrayDataInputStream(buf, offset, length);
+        GossipType type=GossipType.values()[in.readByte()];
+        String group=Bits.readString(in);
+        Address addr=Util.readAddress(in), sender=Util.readAddress(in);
+        if(type != GossipType.MESSAGE) {
+            Bits.readString(in);
+            for(int i=0, num=in.readShort(); i < num; i++)
+                new PingData().readFrom(in);
+            Util.readAddress(in);
+        }
+        byte[] buffer=new byte[in.readInt()];
+        in.readFully(buffer);
+        if(in.position() != in.limit())
+            throw new IllegalStateException(String.format("%s: %d bytes left over", type, in.limit() - in.position()));
+        return new GossipData(type, group, addr, buffer).setSender(sender);
+    }
+
+    protected static int count(List<GossipData> list, Address dest) {
+        synchronized(list) {
+            return (int)list.stream()
+              .filter(d -> d.getType() == GossipType.MESSAGE && Objects.equals(d.getAddress(), dest)).count();
+        }
+    }
+
+    protected static RouterStub stub(JChannel ch) {
+        TUNNEL tunnel=ch.getProtocolStack().findProtocol(TUNNEL.class);
+        RouterStub[] stub={null};
+        tunnel.getStubManager().forEach(s -> stub[0]=s);
+        return stub[0];
+    }
+
+    protected static JChannel create(String name, InetAddress bind_addr, String hosts,
+                                     boolean batch, boolean compress) throws Exception {
+        TUNNEL tunnel=new TUNNEL().setBindAddress(bind_addr);
+        tunnel.setGossipRouterHosts(hosts);
+        tunnel.setValue("batch_messages", batch).setValue("compress", compress).setValue("min_compress_size", 256);
+        return new JChannel(tunnel,
+                            new PING(),
+                            new NAKACK2().setValue("use_mcast_xmit", false),
+                            new UNICAST3(),
+                            new STABLE(),
+                            new GMS().joinTimeout(1000),
+                            new FRAG2()).name(name);
+    }
+}
@@ -859,6 +859,22 @@ public class TableTest {
         assert table.getNumMissing() == 4;
     }
 
+    public static void testGetReceivedRanges() {
+        Table<Integer> table=new Table<>(3, 10, 0);
+        assert table.getReceivedRanges(4) == null;
+        for(int num: Arrays.asList(1,2,4,5,6,8,10,11,12,13,15,20))
+            table.add(num, num);
+        long[] ranges=table.getReceivedRanges(4);
+        assert Arrays.equals(ranges, new long[]{4,6, 8,8, 10,13, 15,15}) : "ranges: " + Arrays.toString(ranges);
+
+        ranges=table.getReceivedRanges(10);
+        assert Arrays.equals(ranges, new long[]{4,6, 8,8, 10,13, 15,15, 20,20});
+
+        for(int num: Arrays.asList(3,7,9,14,16,17,18,19))
+            table.add(num, num);
+        assert table.getReceivedRanges(4) == null; // no gaps
+    }
+
     public static void testGetMissingWithOffset() {
         Table<Integer> table=new Table<>(3, 10, 300000);
 
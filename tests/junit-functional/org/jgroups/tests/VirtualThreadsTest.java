@@ -0,0 +1,76 @@
+package org.jgroups.tests;
+
+import org.jgroups.Global;
+import org.jgroups.JChannel;
+import org.jgroups.protocols.TP;
+import org.jgroups.stack.Protocol;
+import org.jgroups.util.MyReceiver;
+import org.jgroups.util.Util;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Tests thread_pool.use_virtual_threads. Virtual threads are only used if the JDK supports them, otherwise TP has to
+ * fall back to the regular thread pools
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class VirtualThreadsTest {
+    protected JChannel a, b;
+
+    @AfterMethod protected void destroy() {Util.close(b, a);}
+
+    public void testThreadPools() throws Exception {
+        a=create("A");
+        TP tp=a.getProtocolStack().getTransport();
+        if(Util.virtualThreadsAvailable()) {
+            assert tp.useVirtualThreads();
+            assert !(tp.getThreadPool() instanceof ThreadPoolExecutor) && !(tp.getInternalThreadPool() instanceof ThreadPoolExecutor);
+            assert tp.getThreadPool() != tp.getInternalThreadPool();
+        }
+        else {
+            assert !tp.useVirtualThreads();
+            assert tp.getThreadPool() instanceof ThreadPoolExecutor && tp.getInternalThreadPool() instanceof ThreadPoolExecutor;
+        }
+    }
+
+    public void testVirtualThreadExecutor() throws Exception {
+        ExecutorService pool=Util.createVirtualThreadExecutor("test");
+        if(!Util.virtualThreadsAvailable()) {
+            assert pool == null;
+            return;
+        }
+        try {
+            String name=pool.submit(() -> Thread.currentThread().getName()).get();
+            assert name.startsWith("test-") : name;
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    public void testSendAndReceive() throws Exception {
+        a=create("A");
+        b=create("B");
+        MyReceiver<Integer> r=new MyReceiver<Integer>().name("B");
+        b.setReceiver(r);
+        a.connect("VirtualThreadsTest");
+        b.connect("VirtualThreadsTest");
+        Util.waitUntilAllChannelsHaveSameView(10000, 100, a, b);
+        for(int i=1; i <= 100; i++)
+            a.send(null, i);
+        for(int i=0; i < 50 && r.size() != 100; i++)
+            Util.sleep(100);
+        assert r.size() == 100 : String.format("expected 100 msgs but got %d", r.size());
+    }
+
+    protected static JChannel create(String name) throws Exception {
+        Protocol[] prots=Util.getTestStack();
+        prots[0].setValue("use_virtual_threads", true); // needs to be set before TP.init() is called
+        return new JChannel(prots).name(name);
+    }
+}
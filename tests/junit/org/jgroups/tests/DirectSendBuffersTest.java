@@ -0,0 +1,123 @@
+package org.jgroups.tests;
+
+import org.jgroups.Global;
+import org.jgroups.JChannel;
+import org.jgroups.Message;
+import org.jgroups.protocols.*;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.stack.Protocol;
+import org.jgroups.util.MyReceiver;
+import org.jgroups.util.Util;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.net.InetAddress;
+import java.util.List;
+
+/**
+ * Tests the zero-copy send path (direct_send_buffers=true) with {@link UDP} and {@link TCP_NIO2}
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+@Test(groups=Global.STACK_INDEPENDENT,singleThreaded=true,dataProvider="createTransport")
+public class DirectSendBuffersTest {
+    protected static final int    NUM=1000;
+    protected static final int    PORT=7900;
+    protected JChannel            a, b;
+    protected MyReceiver<Integer> ra, rb;
+
+    @DataProvider
+    static Object[][] createTransport() {
+        return new Object[][] {
+          {"udp"},
+          {"tcp_nio2"}
+        };
+    }
+
+    @AfterMethod protected void destroy() {Util.close(b, a);}
+
+
+    public void testMulticasts(String transport) throws Exception {
+        setup(transport);
+        for(int i=1; i <= NUM; i++)
+            a.send(null, i);
+        checkReceived(NUM, ra, rb);
+        TP tp=a.getProtocolStack().getTransport();
+        assert tp.getSendBufferPool() != null;
+        assert tp.getSendBufferPoolHits() > 0 : tp.getSendBufferPool();
+    }
+
+    public void testUnicasts(String transport) throws Exception {
+        setup(transport);
+        for(int i=1; i <= NUM; i++)
+            a.send(b.getAddress(), i);
+        checkReceived(NUM, rb);
+    }
+
+    /** Messages which don't fit into a pooled buffer are sent as byte[] arrays */
+    public void testLargeMessages(String transport) throws Exception {
+        setup(transport);
+        for(int i=1; i <= 50; i++)
+            b.send(new Message(a.getAddress(), new byte[100_000]));
+        for(int i=0; i < 100 && ra.size() != 50; i++)
+            Util.sleep(100);
+        assert ra.size() == 50 : String.format("A: %d", ra.size());
+    }
+
+    protected void setup(String transport) throws Exception {
+        a=create("A", transport);
+        b=create("B", transport);
+        a.setReceiver(ra=new MyReceiver<Integer>().name("A"));
+        b.setReceiver(rb=new MyReceiver<Integer>().name("B"));
+        a.connect("DirectSendBuffersTest");
+        b.connect("DirectSendBuffersTest");
+        Util.waitUntilAllChannelsHaveSameView(10000, 100, a, b);
+    }
+
+    protected static void checkReceived(int expected, MyReceiver<Integer> ... receivers) {
+        for(int i=0; i < 100 && !allReceived(expected, receivers); i++)
+            Util.sleep(100);
+        for(MyReceiver<Integer> r: receivers) {
+            List<Integer> list=r.list();
+            assert list.size() == expected : String.format("%s: expected %d msgs but got %d", r.name(), expected, list.size());
+            for(int i=0; i < list.size(); i++)
+                assert list.get(i) == i+1 : String.format("%s: expected %d but got %d", r.name(), i+1, list.get(i));
+        }
+    }
+
+    protected static boolean allReceived(int expected, MyReceiver<Integer> ... receivers) {
+        for(MyReceiver<Integer> r: receivers)
+            if(r.size() != expected)
+                return false;
+        return true;
+    }
+
+    protected static JChannel create(String name, String transport) throws Exception {
+        InetAddress loopback=InetAddress.getLoopbackAddress();
+        TP tp;
+        Protocol discovery;
+        if(transport.equals("udp")) {
+            tp=new UDP().setBindAddress(loopback);
+            // a large receive buffer: the burst of fragments in testLargeMessages() is not lost and needs no retransmission
+            tp.setValue("batch_receive", true).setValue("ucast_recv_buf_size", 4_000_000);
+            discovery=new PING();
+        }
+        else {
+            tp=new TCP_NIO2().setBindAddress(loopback).setBindPort(PORT).setPortRange(5);
+            discovery=new TCPPING().portRange(5)
+              .setInitialHosts2(Util.parseCommaDelimitedHosts(loopback.getHostAddress() + "[" + PORT + "]", 5));
+        }
+        tp.directSendBuffers(true).sendBufferPoolSize(4);
+        return new JChannel(tp,
+                            discovery,
+                            new NAKACK2(),
+                            new UNICAST3(),
+                            new STABLE(),
+                            new GMS().joinTimeout(1000),
+                            new FRAG2().fragSize(8000))
+          .name(name);
+    }
+}
@@ -0,0 +1,117 @@
+package org.jgroups.tests;
+
+import org.jgroups.Global;
+import org.jgroups.JChannel;
+import org.jgroups.Message;
+import org.jgroups.protocols.FRAG2;
+import org.jgroups.protocols.PING;
+import org.jgroups.protocols.UDP;
+import org.jgroups.protocols.UNICAST3;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.util.MyReceiver;
+import org.jgroups.util.Util;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.net.InetAddress;
+import java.util.List;
+
+/**
+ * Tests {@link UDP} with batch_receive=true, which reads datagrams from non-blocking channels
+ * @author Bela Ban
+ * @since  4.1.2
+ */
+@Test(groups=Global.STACK_INDEPENDENT,singleThreaded=true)
+public class UDP_BatchReceiveTest {
+    protected static final int NUM=2000;
+    protected JChannel            a, b;
+    protected MyReceiver<Integer> ra, rb;
+
+    @BeforeMethod protected void setup() throws Exception {
+        a=create("A");
+        b=create("B");
+        a.setReceiver(ra=new MyReceiver<Integer>().name("A"));
+        b.setReceiver(rb=new MyReceiver<Integer>().name("B"));
+        a.connect("UDP_BatchReceiveTest");
+        b.connect("UDP_BatchReceiveTest");
+        Util.waitUntilAllChannelsHaveSameView(10000, 100, a, b);
+    }
+
+    @AfterMethod protected void destroy() {Util.close(b, a);}
+
+
+    public void testMulticasts() throws Exception {
+        for(int i=1; i <= NUM; i++)
+            a.send(null, i);
+        checkReceived(NUM, ra, rb);
+    }
+
+    public void testUnicasts() throws Exception {
+        for(int i=1; i <= NUM; i++)
+            a.send(b.getAddress(), i);
+        checkReceived(NUM, rb);
+    }
+
+    public void testOOBAndLargeMessages() throws Exception {
+        for(int i=1; i <= 100; i++) {
+            a.send(new Message(null, new byte[20_000]).setFlag(Message.Flag.OOB));
+            b.send(new Message(a.getAddress(), new byte[100_000]));
+        }
+        for(int i=0; i < 100 && (ra.size() != 200 || rb.size() != 100); i++)
+            Util.sleep(100);
+        assert ra.size() == 200 && rb.size() == 100 : String.format("A: %d, B: %d", ra.size(), rb.size());
+    }
+
+    public void testChangeNumberOfReceiverThreads() throws Exception {
+        UDP udp=(UDP)a.getProtocolStack().getTransport();
+        udp.setMcastReceiverThreads(3);
+        udp.setUcastReceiverThreads(2);
+        UDP udp_b=(UDP)b.getProtocolStack().getTransport();
+        udp_b.setMcastReceiverThreads(2);
+        for(int i=1; i <= NUM; i++)
+            b.send(null, i);
+        checkReceived(NUM, ra, rb);
+    }
+
+    protected static void checkReceived(int expected, MyReceiver<Integer> ... receivers) {
+        for(int i=0; i < 100 && !allReceived(expected, receivers); i++)
+            Util.sleep(100);
+        assert allReceived(expected, receivers) : print(receivers);
+        for(MyReceiver<Integer> r: receivers) {
+            List<Integer> list=r.list();
+            for(int i=0; i < list.size(); i++)
+                assert list.get(i) == i+1 : String.format("%s: expected %d but got %d", r.name(), i+1, list.get(i));
+        }
+    }
+
+    protected static boolean allReceived(int expected, MyReceiver<Integer> ... receivers) {
+        for(MyReceiver<Integer> r: receivers)
+            if(r.size() != expected)
+                return false;
+        return true;
+    }
+
+    protected static String print(MyReceiver<Integer> ... receivers) {
+        StringBuilder sb=new StringBuilder();
+        for(MyReceiver<Integer> r: receivers)
+            sb.append(r.name()).append(": ").append(r.size()).append(" msgs\n");
+        return sb.toString();
+    }
+
+    protected static JChannel create(String name) throws Exception {
+        UDP udp=new UDP().setBindAddress(InetAddress.getLoopbackAddress());
+        // large receive buffers: the bursts of large messages are not lost and need no retransmission
+        udp.setValue("ucast_recv_buf_size", 4_000_000).setValue("mcast_recv_buf_size", 4_000_000);
+        return new JChannel(udp.setValue("batch_receive", true).setValue("receive_batch_size", 16),
+                            new PING(),
+                            new NAKACK2(),
+                            new UNICAST3(),
+                            new STABLE(),
+                            new GMS().joinTimeout(1000),
+                            new FRAG2().fragSize(8000))
+          .name(name);
+    }
+}